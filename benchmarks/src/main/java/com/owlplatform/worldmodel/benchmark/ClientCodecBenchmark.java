@@ -0,0 +1,121 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.worldmodel.client.protocol.codec.WorldModelClientProtocolCodecFactory;
+
+/**
+ * Measures encoding and decoding of every message type of the Client-World Model
+ * protocol, using the codecs from {@link WorldModelClientProtocolCodecFactory}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientCodecBenchmark {
+
+  /**
+   * The message type to encode and decode.
+   */
+  @Param({ "handshake", "keepAlive", "snapshotRequest",
+      "rangeRequest", "streamRequest", "cancelRequest", "idSearch",
+      "originPreference", "attributeAlias", "originAlias", "dataResponse",
+      "dataResponseLarge", "idSearchResponse", "requestComplete" })
+  public String messageType;
+
+  /**
+   * Codecs of the sending and receiving sides.
+   */
+  private CodecHarness harness;
+
+  /**
+   * The message to encode.
+   */
+  private Object message;
+
+  /**
+   * The encoded message to decode.
+   */
+  private IoBuffer encoded;
+
+  /**
+   * Creates the message and its encoded form.
+   * 
+   * @throws Exception
+   *           if the message cannot be encoded.
+   */
+  @Setup
+  public void setUp() throws Exception {
+    boolean sent = Messages.isSentByClient(this.messageType);
+    this.harness = new CodecHarness(new WorldModelClientProtocolCodecFactory(sent),
+        new WorldModelClientProtocolCodecFactory(!sent));
+    if ("handshake".equals(this.messageType)) {
+      this.harness.setRepeatHandshake(true);
+    } else {
+      this.harness.connect(Messages.client("handshake"));
+    }
+    this.message = Messages.client(this.messageType);
+    this.encoded = this.harness.encode(this.message);
+  }
+
+  /**
+   * Encodes the message.
+   * 
+   * @return the encoded message.
+   * @throws Exception
+   *           if the message cannot be encoded.
+   */
+  @Benchmark
+  public IoBuffer encode() throws Exception {
+    return this.harness.encode(this.message);
+  }
+
+  /**
+   * Decodes the message.
+   * 
+   * @return the decoded message.
+   * @throws Exception
+   *           if the message cannot be decoded.
+   */
+  @Benchmark
+  public Object decode() throws Exception {
+    return this.harness.decode(this.encoded);
+  }
+}
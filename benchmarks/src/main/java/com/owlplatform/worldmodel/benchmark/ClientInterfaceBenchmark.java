@@ -0,0 +1,128 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.worldmodel.client.ClientWorldModelInterface;
+import com.owlplatform.worldmodel.client.protocol.codec.WorldModelClientProtocolCodecFactory;
+import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+
+/**
+ * Measures how a client resolves the attribute and origin aliases of
+ * received Data Responses in
+ * {@link ClientWorldModelInterface#dataResponseReceived}, with and without
+ * decoding the message first.
+ * 
+ * @author Robert Moore
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientInterfaceBenchmark {
+
+  /**
+   * Number of attribute values in each Data Response.
+   */
+  @Param({ "1", "8", "64" })
+  public int attributeCount;
+
+  /**
+   * The interface receiving the Data Responses, with aliases already bound.
+   */
+  private ClientWorldModelInterface worldModel;
+
+  /**
+   * Codecs of the World Model and the client.
+   */
+  private CodecHarness harness;
+
+  /**
+   * A decoded Data Response.
+   */
+  private DataResponseMessage message;
+
+  /**
+   * The encoded Data Response.
+   */
+  private IoBuffer encoded;
+
+  /**
+   * Binds the aliases and prepares the Data Response.
+   * 
+   * @throws Exception
+   *           if the message cannot be encoded or decoded.
+   */
+  @Setup
+  public void setUp() throws Exception {
+    this.worldModel = new ClientWorldModelInterface();
+    this.worldModel.attributeAliasReceived(null, Messages.attributeAliases());
+    this.worldModel.originAliasReceived(null, Messages.originAliases());
+    this.harness = new CodecHarness(new WorldModelClientProtocolCodecFactory(
+        false), new WorldModelClientProtocolCodecFactory(true));
+    this.harness.connect(Messages.client("handshake"));
+    this.encoded = this.harness.encode(Messages.dataResponse(
+        this.attributeCount, Messages.SMALL_DATA));
+    this.message = (DataResponseMessage) this.harness.decode(this.encoded);
+  }
+
+  /**
+   * Resolves the aliases of a decoded Data Response.
+   * 
+   * @return the message.
+   */
+  @Benchmark
+  public DataResponseMessage resolveAliases() {
+    this.worldModel.dataResponseReceived(null, this.message);
+    return this.message;
+  }
+
+  /**
+   * Decodes a Data Response and resolves its aliases.
+   * 
+   * @return the message.
+   * @throws Exception
+   *           if the message cannot be decoded.
+   */
+  @Benchmark
+  public DataResponseMessage decodeAndResolveAliases() throws Exception {
+    DataResponseMessage decoded = (DataResponseMessage) this.harness
+        .decode(this.encoded);
+    this.worldModel.dataResponseReceived(null, decoded);
+    return decoded;
+  }
+}
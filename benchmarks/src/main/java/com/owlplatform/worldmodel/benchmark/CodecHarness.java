@@ -0,0 +1,139 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.util.Queue;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+
+import com.owlplatform.worldmodel.client.protocol.codec.HandshakeDecoder;
+
+/**
+ * Runs one side of a protocol codec outside of a network session, so that
+ * encoders and decoders can be measured on their own.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class CodecHarness {
+
+  /**
+   * Session holding the encoder and decoder output.
+   */
+  private final ProtocolCodecSession session = new ProtocolCodecSession();
+
+  /**
+   * Encoder of the sending side.
+   */
+  private final ProtocolEncoder encoder;
+
+  /**
+   * Decoder of the receiving side.
+   */
+  private final ProtocolDecoder decoder;
+
+  /**
+   * Whether the handshake state is reset before each message is decoded.
+   */
+  private boolean repeatHandshake = false;
+
+  /**
+   * Creates a harness that encodes with one codec factory and decodes with
+   * another.
+   * 
+   * @param sender
+   *          the codec factory of the sending side.
+   * @param receiver
+   *          the codec factory of the receiving side.
+   * @throws Exception
+   *           if the encoder or decoder cannot be created.
+   */
+  CodecHarness(final ProtocolCodecFactory sender,
+      final ProtocolCodecFactory receiver) throws Exception {
+    this.encoder = sender.getEncoder(this.session);
+    this.decoder = receiver.getDecoder(this.session);
+  }
+
+  /**
+   * Exchanges a handshake, so that later messages are decoded as on an
+   * established connection.
+   * 
+   * @param handshake
+   *          the handshake message of the sending side.
+   * @throws Exception
+   *           if the handshake cannot be encoded or decoded.
+   */
+  void connect(final Object handshake) throws Exception {
+    this.decode(this.encode(handshake));
+  }
+
+  /**
+   * Sets whether the handshake state is reset before each message is decoded.
+   * Client handshakes are only accepted once per session, so this is needed
+   * to decode the same handshake repeatedly.
+   * 
+   * @param repeatHandshake
+   *          {@code true} to reset the handshake state before decoding.
+   */
+  void setRepeatHandshake(final boolean repeatHandshake) {
+    this.repeatHandshake = repeatHandshake;
+  }
+
+  /**
+   * Encodes a message.
+   * 
+   * @param message
+   *          the message.
+   * @return the encoded message.
+   * @throws Exception
+   *           if the message cannot be encoded.
+   */
+  IoBuffer encode(final Object message) throws Exception {
+    this.encoder.encode(this.session, message, this.session.getEncoderOutput());
+    Queue<Object> output = this.session.getEncoderOutputQueue();
+    IoBuffer encoded = (IoBuffer) output.poll();
+    output.clear();
+    return encoded;
+  }
+
+  /**
+   * Decodes a single message.
+   * 
+   * @param encoded
+   *          the encoded message. Its position is not changed.
+   * @return the decoded message.
+   * @throws Exception
+   *           if the message cannot be decoded.
+   */
+  Object decode(final IoBuffer encoded) throws Exception {
+    if (this.repeatHandshake) {
+      this.session.removeAttribute(HandshakeDecoder.CONN_STATE_KEY);
+    }
+    this.decoder.decode(this.session, encoded.duplicate(),
+        this.session.getDecoderOutput());
+    Queue<Object> output = this.session.getDecoderOutputQueue();
+    Object decoded = output.poll();
+    output.clear();
+    return decoded;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.owlplatform.worldmodel.types.DataConverter;
+
+/**
+ * Measures {@link DataConverter} encoding and decoding for attributes of each
+ * commonly-used type.
+ * 
+ * @author Robert Moore
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataConverterBenchmark {
+
+  /**
+   * The attribute to convert. These are mapped to the Double, String,
+   * Boolean, Integer and Long converters.
+   */
+  @Param({ "location.xoffset", "location.uri", "closed", "channel",
+      "creation" })
+  public String attributeName;
+
+  /**
+   * The value to encode.
+   */
+  private Object value;
+
+  /**
+   * The encoded value to decode.
+   */
+  private byte[] encoded;
+
+  /**
+   * Creates a value of the attribute's type.
+   */
+  @Setup
+  public void setUp() {
+    if ("location.xoffset".equals(this.attributeName)) {
+      this.value = Double.valueOf(12.375);
+    } else if ("location.uri".equals(this.attributeName)) {
+      this.value = "winlab/floor1";
+    } else if ("closed".equals(this.attributeName)) {
+      this.value = Boolean.TRUE;
+    } else if ("channel".equals(this.attributeName)) {
+      this.value = Integer.valueOf(11);
+    } else {
+      this.value = Long.valueOf(System.currentTimeMillis());
+    }
+    this.encoded = DataConverter.encode(this.attributeName, this.value);
+  }
+
+  /**
+   * Encodes the value.
+   * 
+   * @return the encoded value.
+   */
+  @Benchmark
+  public byte[] encode() {
+    return DataConverter.encode(this.attributeName, this.value);
+  }
+
+  /**
+   * Decodes the value.
+   * 
+   * @return the decoded value.
+   */
+  @Benchmark
+  public Object decode() {
+    return DataConverter.decode(this.attributeName, this.encoded);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.worldmodel.solver.protocol.codec.EncodedIdentifierCache;
+import com.owlplatform.worldmodel.types.Utf16Codec;
+
+/**
+ * Compares Identifier encoding and decoding before and after
+ * {@link Utf16Codec} and {@link EncodedIdentifierCache}. The "legacy"
+ * benchmarks use {@code String.getBytes("UTF-16BE")} and
+ * {@code new String(byte[], "UTF-16BE")}, as the codecs did before. Each
+ * invocation handles the next Identifier of a fixed set, so the set size
+ * controls how often the cache hits.
+ * 
+ * @author Robert Moore
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifierCodecBenchmark {
+
+  /**
+   * Number of distinct Identifiers. The smaller set fits in the default cache;
+   * the larger one does not.
+   */
+  @Param({ "1024", "65536" })
+  public int identifierCount;
+
+  /**
+   * Number of characters in each Identifier.
+   */
+  @Param({ "16", "64" })
+  public int identifierLength;
+
+  /**
+   * The Identifiers to encode.
+   */
+  private String[] identifiers;
+
+  /**
+   * The encoded Identifiers to decode.
+   */
+  private byte[][] encoded;
+
+  /**
+   * Cache used by the cached encoding benchmark.
+   */
+  private EncodedIdentifierCache cache;
+
+  /**
+   * Buffer that Identifiers are written into.
+   */
+  private IoBuffer buffer;
+
+  /**
+   * Index of the next Identifier.
+   */
+  private int next = 0;
+
+  /**
+   * Creates the Identifiers and their encoded forms.
+   * 
+   * @throws UnsupportedEncodingException
+   *           never, UTF-16BE is always supported.
+   */
+  @Setup
+  public void setUp() throws UnsupportedEncodingException {
+    this.identifiers = new String[this.identifierCount];
+    this.encoded = new byte[this.identifierCount][];
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < this.identifierCount; ++i) {
+      sb.setLength(0);
+      sb.append("winlab.tag.").append(i).append('.');
+      while (sb.length() < this.identifierLength) {
+        sb.append('x');
+      }
+      sb.setLength(this.identifierLength);
+      this.identifiers[i] = sb.toString();
+      this.encoded[i] = this.identifiers[i].getBytes("UTF-16BE");
+    }
+    this.cache = new EncodedIdentifierCache(
+        EncodedIdentifierCache.DEFAULT_CAPACITY);
+    this.buffer = IoBuffer.allocate(this.identifierLength * 2);
+  }
+
+  /**
+   * Returns the index of the next Identifier.
+   * 
+   * @return the index.
+   */
+  private int nextIndex() {
+    int index = this.next;
+    this.next = index + 1 == this.identifierCount ? 0 : index + 1;
+    return index;
+  }
+
+  /**
+   * Encodes an Identifier with the {@code String.getBytes} charset lookup.
+   * 
+   * @return the encoded Identifier.
+   * @throws UnsupportedEncodingException
+   *           never, UTF-16BE is always supported.
+   */
+  @Benchmark
+  public byte[] encodeLegacy() throws UnsupportedEncodingException {
+    return this.identifiers[this.nextIndex()].getBytes("UTF-16BE");
+  }
+
+  /**
+   * Encodes an Identifier with {@link Utf16Codec#encode(String)}.
+   * 
+   * @return the encoded Identifier.
+   */
+  @Benchmark
+  public byte[] encodeCodec() {
+    return Utf16Codec.encode(this.identifiers[this.nextIndex()]);
+  }
+
+  /**
+   * Encodes an Identifier through {@link EncodedIdentifierCache}, as the
+   * Attribute Update encoder does.
+   * 
+   * @return the encoded Identifier.
+   */
+  @Benchmark
+  public byte[] encodeCached() {
+    return this.cache.encode(this.identifiers[this.nextIndex()]);
+  }
+
+  /**
+   * Writes an Identifier into a buffer by encoding it to a temporary array
+   * first.
+   * 
+   * @return the buffer.
+   * @throws UnsupportedEncodingException
+   *           never, UTF-16BE is always supported.
+   */
+  @Benchmark
+  public IoBuffer putLegacy() throws UnsupportedEncodingException {
+    this.buffer.clear();
+    return this.buffer.put(this.identifiers[this.nextIndex()]
+        .getBytes("UTF-16BE"));
+  }
+
+  /**
+   * Writes an Identifier into a buffer with
+   * {@link Utf16Codec#put(String, IoBuffer)}.
+   * 
+   * @return the buffer.
+   */
+  @Benchmark
+  public IoBuffer putCodec() {
+    this.buffer.clear();
+    Utf16Codec.put(this.identifiers[this.nextIndex()], this.buffer);
+    return this.buffer;
+  }
+
+  /**
+   * Decodes an Identifier with the {@code String} charset constructor.
+   * 
+   * @return the decoded Identifier.
+   * @throws UnsupportedEncodingException
+   *           never, UTF-16BE is always supported.
+   */
+  @Benchmark
+  public String decodeLegacy() throws UnsupportedEncodingException {
+    return new String(this.encoded[this.nextIndex()], "UTF-16BE");
+  }
+
+  /**
+   * Decodes an Identifier with {@link Utf16Codec#decode(byte[])}.
+   * 
+   * @return the decoded Identifier.
+   */
+  @Benchmark
+  public String decodeCodec() {
+    return Utf16Codec.decode(this.encoded[this.nextIndex()]);
+  }
+}
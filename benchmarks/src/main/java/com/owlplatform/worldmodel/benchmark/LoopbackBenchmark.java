@@ -0,0 +1,665 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.StepResponse;
+import com.owlplatform.worldmodel.client.WorldState;
+import com.owlplatform.worldmodel.server.MemoryAttributeStore;
+import com.owlplatform.worldmodel.server.WorldModelServer;
+import com.owlplatform.worldmodel.solver.SolverWorldConnection;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+
+/**
+ * End-to-end benchmark of the client and solver connections against a World
+ * Model on the loopback interface. The World Model is an in-process
+ * {@link WorldModelServer} with an in-memory store, so the real handshake,
+ * alias and data messages are exchanged over TCP.
+ * <p>
+ * Solvers send attribute values at a fixed rate. Each value carries the time
+ * it was scheduled to be sent, so stream subscribers can measure the delivery
+ * latency from solver to client without coordinated omission. Clients issue
+ * a weighted mix of snapshot, range and stream requests as fast as they are
+ * answered. Latencies are reported as percentiles, along with throughput and
+ * the allocation rate of the whole JVM, which includes the World Model.
+ * </p>
+ * <p>
+ * Options are given as {@code name=value} arguments; see {@link #DEFAULTS}.
+ * For example:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.owlplatform.worldmodel.benchmark.LoopbackBenchmark \
+ *     solvers=4 rate=5000 clients=8 mix=snapshot:60,range:20,stream:20 duration=60
+ * </pre>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LoopbackBenchmark {
+
+  /**
+   * Option names, default values and descriptions.
+   */
+  static final String[][] DEFAULTS = {
+      { "solvers", "2", "number of solver connections" },
+      { "rate", "1000", "attribute values sent per second by each solver" },
+      { "identifiers", "1000", "number of Identifiers updated by each solver" },
+      { "attributes", "4", "number of attribute names" },
+      { "dataBytes", "16", "data length of each value, at least 8" },
+      { "subscribers", "1", "number of clients streaming every update" },
+      { "clients", "4", "number of clients issuing requests" },
+      { "mix", "snapshot:50,range:30,stream:20",
+          "weights of the request types issued by clients" },
+      { "rangeWindow", "1000", "length of range requests in milliseconds" },
+      { "warmup", "5", "seconds before measurement starts" },
+      { "duration", "30", "seconds of measurement" } };
+
+  /**
+   * Highest latency recorded, in microseconds.
+   */
+  private static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+  /**
+   * Whether latencies are being recorded. Cleared during warm-up.
+   */
+  static volatile boolean recording = false;
+
+  /**
+   * Whether the benchmark is still running.
+   */
+  static volatile boolean running = true;
+
+  /**
+   * Creates a latency histogram.
+   * 
+   * @return a histogram of microsecond values.
+   */
+  static Histogram newHistogram() {
+    return new Histogram(MAX_LATENCY, 3);
+  }
+
+  /**
+   * Records a latency, if recording has started.
+   * 
+   * @param histogram
+   *          the histogram.
+   * @param startNanos
+   *          when the operation started or was scheduled to start.
+   */
+  static void record(final Histogram histogram, final long startNanos) {
+    if (recording) {
+      long micros = (System.nanoTime() - startNanos) / 1000;
+      histogram.recordValue(Math.min(Math.max(micros, 0), MAX_LATENCY));
+    }
+  }
+
+  /**
+   * Returns the attribute names used by the benchmark.
+   * 
+   * @param count
+   *          the number of names.
+   * @return the names.
+   */
+  static String[] attributeNames(final int count) {
+    String[] names = new String[count];
+    for (int i = 0; i < count; ++i) {
+      names[i] = "benchmark.attribute" + i;
+    }
+    return names;
+  }
+
+  /**
+   * Sends attribute values at a fixed rate from one solver connection.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  static final class SolverDriver extends Thread {
+    /**
+     * The connection.
+     */
+    final SolverWorldConnection solver;
+
+    /**
+     * The Identifiers updated.
+     */
+    final String[] identifiers;
+
+    /**
+     * The attribute names updated.
+     */
+    final String[] names;
+
+    /**
+     * Nanoseconds between values.
+     */
+    final long period;
+
+    /**
+     * Data length of each value.
+     */
+    final int dataBytes;
+
+    /**
+     * Time from the scheduled send time until the value was handed to the
+     * connection.
+     */
+    final Histogram sendLatency = newHistogram();
+
+    /**
+     * Creates a solver driver.
+     * 
+     * @param index
+     *          the solver number.
+     * @param port
+     *          the World Model solver port.
+     * @param options
+     *          the benchmark options.
+     */
+    SolverDriver(final int index, final int port,
+        final Map<String, String> options) {
+      super("Solver " + index);
+      this.names = attributeNames(intOption(options, "attributes"));
+      this.identifiers = new String[intOption(options, "identifiers")];
+      for (int i = 0; i < this.identifiers.length; ++i) {
+        this.identifiers[i] = "benchmark.solver" + index + ".id" + i;
+      }
+      this.period = TimeUnit.SECONDS.toNanos(1) / intOption(options, "rate");
+      this.dataBytes = Math.max(8, intOption(options, "dataBytes"));
+
+      this.solver = new SolverWorldConnection();
+      this.solver.setHost("127.0.0.1");
+      this.solver.setPort(port);
+      this.solver.setOriginString("benchmark/solver" + index);
+      for (int i = 0; i < this.names.length; ++i) {
+        AttributeSpecification spec = new AttributeSpecification();
+        spec.setAlias(i + 1);
+        spec.setAttributeName(this.names[i]);
+        this.solver.addAttribute(spec);
+      }
+    }
+
+    @Override
+    public void run() {
+      long next = System.nanoTime();
+      long count = 0;
+      while (running) {
+        long now = System.nanoTime();
+        if (now < next) {
+          long sleep = next - now;
+          try {
+            Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+          } catch (InterruptedException ie) {
+            return;
+          }
+          continue;
+        }
+        Attribute attr = new Attribute();
+        attr.setId(this.identifiers[(int) (count % this.identifiers.length)]);
+        attr.setAttributeName(this.names[(int) (count % this.names.length)]);
+        attr.setCreationDate(System.currentTimeMillis());
+        // The scheduled send time, so queueing delays are measured
+        ByteBuffer data = ByteBuffer.allocate(this.dataBytes);
+        data.putLong(next);
+        attr.setData(data.array());
+        this.solver.updateAttribute(attr);
+        record(this.sendLatency, next);
+        ++count;
+        next += this.period;
+      }
+    }
+  }
+
+  /**
+   * Streams every attribute value and measures its delivery latency.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  static final class StreamSubscriber extends Thread {
+    /**
+     * The connection.
+     */
+    final ClientWorldConnection client;
+
+    /**
+     * The attribute names streamed.
+     */
+    final String[] names;
+
+    /**
+     * Time from the scheduled send time at the solver until the value was
+     * received.
+     */
+    final Histogram deliveryLatency = newHistogram();
+
+    /**
+     * The stream, once requested.
+     */
+    volatile StepResponse stream = null;
+
+    /**
+     * Creates a subscriber.
+     * 
+     * @param index
+     *          the subscriber number.
+     * @param client
+     *          the connected client.
+     * @param options
+     *          the benchmark options.
+     */
+    StreamSubscriber(final int index, final ClientWorldConnection client,
+        final Map<String, String> options) {
+      super("Subscriber " + index);
+      this.client = client;
+      this.names = attributeNames(intOption(options, "attributes"));
+    }
+
+    @Override
+    public void run() {
+      this.stream = this.client.getStreamRequest("benchmark\\..*",
+          System.currentTimeMillis(), 0, this.names);
+      while (running) {
+        WorldState state;
+        try {
+          state = this.stream.next();
+        } catch (Exception e) {
+          // Cancelled at the end of the benchmark
+          return;
+        }
+        for (String id : state.getIdentifiers()) {
+          for (Attribute attr : state.getState(id)) {
+            long scheduled = ByteBuffer.wrap(attr.getData()).getLong();
+            record(this.deliveryLatency, scheduled);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Issues a weighted mix of requests from one client connection.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  static final class ClientDriver extends Thread {
+    /**
+     * The connection.
+     */
+    final ClientWorldConnection client;
+
+    /**
+     * The attribute names requested.
+     */
+    final String[] names;
+
+    /**
+     * The request types and their cumulative weights.
+     */
+    final Map<String, Integer> mix;
+
+    /**
+     * Sum of the request weights.
+     */
+    final int totalWeight;
+
+    /**
+     * Length of range requests in milliseconds.
+     */
+    final long rangeWindow;
+
+    /**
+     * Latency of each request type. For streams this is the time until the
+     * first World State.
+     */
+    final Map<String, Histogram> latencies = new LinkedHashMap<String, Histogram>();
+
+    /**
+     * Chooses request types.
+     */
+    final Random random;
+
+    /**
+     * Creates a client driver.
+     * 
+     * @param index
+     *          the client number.
+     * @param client
+     *          the connected client.
+     * @param options
+     *          the benchmark options.
+     */
+    ClientDriver(final int index, final ClientWorldConnection client,
+        final Map<String, String> options) {
+      super("Client " + index);
+      this.client = client;
+      this.names = attributeNames(intOption(options, "attributes"));
+      this.rangeWindow = intOption(options, "rangeWindow");
+      this.random = new Random(index);
+      this.mix = new LinkedHashMap<String, Integer>();
+      int total = 0;
+      for (String entry : options.get("mix").split(",")) {
+        String[] parts = entry.split(":");
+        total += Integer.parseInt(parts[1].trim());
+        this.mix.put(parts[0].trim(), Integer.valueOf(total));
+        this.latencies.put(parts[0].trim(), newHistogram());
+      }
+      this.totalWeight = total;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          int choice = this.random.nextInt(this.totalWeight);
+          for (Map.Entry<String, Integer> entry : this.mix.entrySet()) {
+            if (choice < entry.getValue().intValue()) {
+              this.request(entry.getKey());
+              break;
+            }
+          }
+        }
+      } catch (Exception e) {
+        if (running) {
+          System.err.println(this.getName() + " failed: " + e);
+        }
+      }
+    }
+
+    /**
+     * Issues a single request and waits for it to complete.
+     * 
+     * @param type
+     *          {@code snapshot}, {@code range} or {@code stream}.
+     * @throws Exception
+     *           if the request fails.
+     */
+    void request(final String type) throws Exception {
+      String idRegex = "benchmark\\.solver0\\.id" + this.random.nextInt(10)
+          + ".*";
+      long start = System.nanoTime();
+      if ("snapshot".equals(type)) {
+        this.client.getCurrentSnapshot(idRegex, this.names).get();
+      } else if ("range".equals(type)) {
+        long now = System.currentTimeMillis();
+        drain(this.client.getRangeRequest(idRegex, now - this.rangeWindow,
+            now, this.names));
+      } else if ("stream".equals(type)) {
+        StepResponse stream = this.client.getStreamRequest(idRegex,
+            System.currentTimeMillis(), 0, this.names);
+        stream.next();
+        record(this.latencies.get(type), start);
+        stream.cancel();
+        drain(stream);
+        return;
+      } else {
+        throw new IllegalArgumentException("Unknown request type " + type
+            + ".");
+      }
+      record(this.latencies.get(type), start);
+    }
+
+    /**
+     * Reads World States until a response completes.
+     * 
+     * @param response
+     *          the response.
+     * @throws Exception
+     *           if the request fails.
+     */
+    static void drain(final StepResponse response) throws Exception {
+      while (true) {
+        try {
+          response.next();
+        } catch (IllegalStateException complete) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an integer option.
+   * 
+   * @param options
+   *          the options.
+   * @param name
+   *          the option name.
+   * @return the value.
+   */
+  static int intOption(final Map<String, String> options, final String name) {
+    return Integer.parseInt(options.get(name));
+  }
+
+  /**
+   * Returns the bytes allocated so far by all live threads, or -1 if the JVM
+   * cannot report it.
+   * 
+   * @return the allocated bytes.
+   */
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory
+        .getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+    if (!allocation.isThreadAllocatedMemorySupported()
+        || !allocation.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long total = 0;
+    for (long bytes : allocation.getThreadAllocatedBytes(threads
+        .getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Prints a latency histogram.
+   * 
+   * @param name
+   *          the measurement name.
+   * @param histogram
+   *          the histogram.
+   * @param seconds
+   *          the measurement time.
+   */
+  static void report(final String name, final Histogram histogram,
+      final double seconds) {
+    if (histogram.getTotalCount() == 0) {
+      System.out.printf("%-20s no samples%n", name);
+      return;
+    }
+    System.out.printf(
+        "%-20s %10.1f/s  p50 %8d  p90 %8d  p99 %8d  p99.9 %8d  max %8d us%n",
+        name, Double.valueOf(histogram.getTotalCount() / seconds),
+        Long.valueOf(histogram.getValueAtPercentile(50)),
+        Long.valueOf(histogram.getValueAtPercentile(90)),
+        Long.valueOf(histogram.getValueAtPercentile(99)),
+        Long.valueOf(histogram.getValueAtPercentile(99.9)),
+        Long.valueOf(histogram.getMaxValue()));
+  }
+
+  /**
+   * Parses the options, starts the World Model and the drivers, and prints the
+   * results.
+   * 
+   * @param args
+   *          {@code name=value} options.
+   * @throws Exception
+   *           if the World Model or a connection cannot be started.
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    for (String[] option : DEFAULTS) {
+      options.put(option[0], option[1]);
+    }
+    for (String arg : args) {
+      int split = arg.indexOf('=');
+      if (split < 0 || !options.containsKey(arg.substring(0, split))) {
+        System.err.println("Usage: LoopbackBenchmark [name=value]...");
+        for (String[] option : DEFAULTS) {
+          System.err.printf("  %-12s %s (default %s)%n", option[0],
+              option[2], option[1]);
+        }
+        System.exit(1);
+      }
+      options.put(arg.substring(0, split), arg.substring(split + 1));
+    }
+
+    WorldModelServer server = new WorldModelServer(new MemoryAttributeStore());
+    server.setHost("127.0.0.1");
+    server.setClientPort(0);
+    server.setSolverPort(0);
+    if (!server.start()) {
+      throw new IllegalStateException("Unable to start the World Model.");
+    }
+
+    List<SolverDriver> solvers = new ArrayList<SolverDriver>();
+    for (int i = 0; i < intOption(options, "solvers"); ++i) {
+      SolverDriver solver = new SolverDriver(i, server.getSolverPort(), options);
+      if (!solver.solver.connect(10000)) {
+        throw new IllegalStateException("Unable to connect " + solver.getName()
+            + ".");
+      }
+      solvers.add(solver);
+    }
+    List<ClientWorldConnection> connections = new ArrayList<ClientWorldConnection>();
+    List<StreamSubscriber> subscribers = new ArrayList<StreamSubscriber>();
+    for (int i = 0; i < intOption(options, "subscribers"); ++i) {
+      StreamSubscriber subscriber = new StreamSubscriber(i, connect(server,
+          connections), options);
+      subscribers.add(subscriber);
+    }
+    List<ClientDriver> clients = new ArrayList<ClientDriver>();
+    for (int i = 0; i < intOption(options, "clients"); ++i) {
+      clients.add(new ClientDriver(i, connect(server, connections), options));
+    }
+
+    List<Thread> threads = new ArrayList<Thread>();
+    threads.addAll(subscribers);
+    threads.addAll(solvers);
+    threads.addAll(clients);
+    for (Thread t : threads) {
+      t.setDaemon(true);
+      t.start();
+    }
+
+    System.out.println("Options: " + options);
+    Thread.sleep(TimeUnit.SECONDS.toMillis(intOption(options, "warmup")));
+    long startBytes = allocatedBytes();
+    long startNanos = System.nanoTime();
+    recording = true;
+    Thread.sleep(TimeUnit.SECONDS.toMillis(intOption(options, "duration")));
+    recording = false;
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    long endBytes = allocatedBytes();
+    running = false;
+
+    for (StreamSubscriber subscriber : subscribers) {
+      if (subscriber.stream != null) {
+        subscriber.stream.cancel();
+      }
+    }
+    // Clients waiting for a stream may not return, so do not wait long
+    long deadline = System.currentTimeMillis() + 5000;
+    for (Thread t : threads) {
+      t.join(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+    Histogram send = newHistogram();
+    for (SolverDriver solver : solvers) {
+      send.add(solver.sendLatency);
+    }
+    report("solver update", send, seconds);
+    Histogram delivery = newHistogram();
+    for (StreamSubscriber subscriber : subscribers) {
+      delivery.add(subscriber.deliveryLatency);
+    }
+    report("stream delivery", delivery, seconds);
+    Map<String, Histogram> requests = new LinkedHashMap<String, Histogram>();
+    for (ClientDriver client : clients) {
+      for (Map.Entry<String, Histogram> entry : client.latencies.entrySet()) {
+        Histogram merged = requests.get(entry.getKey());
+        if (merged == null) {
+          merged = newHistogram();
+          requests.put(entry.getKey(), merged);
+        }
+        merged.add(entry.getValue());
+      }
+    }
+    for (Map.Entry<String, Histogram> entry : requests.entrySet()) {
+      report("client " + entry.getKey(), entry.getValue(), seconds);
+    }
+    if (startBytes >= 0 && endBytes >= 0) {
+      System.out.printf("allocation           %10.1f MB/s (whole JVM)%n",
+          Double.valueOf((endBytes - startBytes) / seconds / (1024 * 1024)));
+    }
+
+    for (SolverDriver solver : solvers) {
+      solver.solver.disconnect();
+    }
+    for (ClientWorldConnection client : connections) {
+      client.disconnect();
+    }
+    server.stop();
+    System.exit(0);
+  }
+
+  /**
+   * Connects a new client to the World Model.
+   * 
+   * @param server
+   *          the World Model.
+   * @param connections
+   *          receives the connection, to disconnect it later.
+   * @return the connected client.
+   */
+  static ClientWorldConnection connect(final WorldModelServer server,
+      final Collection<ClientWorldConnection> connections) {
+    ClientWorldConnection client = new ClientWorldConnection();
+    client.setHost("127.0.0.1");
+    client.setPort(server.getClientPort());
+    if (!client.connect(10000)) {
+      throw new IllegalStateException("Unable to connect client.");
+    }
+    connections.add(client);
+    return client;
+  }
+}
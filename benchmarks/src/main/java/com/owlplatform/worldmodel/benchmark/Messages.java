@@ -0,0 +1,390 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage.AttributeAlias;
+import com.owlplatform.worldmodel.client.protocol.messages.CancelRequestMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.IdSearchMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.IdSearchResponseMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage.OriginAlias;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginPreferenceMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.RangeRequestMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.RequestCompleteMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.SnapshotRequestMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.CreateIdentifierMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.DeleteAttributeMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.DeleteIdentifierMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.ExpireAttributeMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.ExpireIdentifierMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
+import com.owlplatform.worldmodel.solver.protocol.messages.StartOnDemandMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.StopOnDemandMessage;
+
+/**
+ * Builds messages with realistic contents for the benchmarks. Identifiers,
+ * attribute names and data sizes follow a typical indoor localization
+ * deployment: location offsets of 8 bytes, and occasional large values such
+ * as images or fingerprints.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class Messages {
+
+  /**
+   * Number of attributes in a typical Data Response or Attribute Update.
+   */
+  static final int ATTRIBUTE_COUNT = 8;
+
+  /**
+   * Data length of a typical attribute value.
+   */
+  static final int SMALL_DATA = 8;
+
+  /**
+   * Data length of a large attribute value.
+   */
+  static final int LARGE_DATA = 4096;
+
+  /**
+   * Attribute names used in the benchmarks.
+   */
+  static final String[] ATTRIBUTE_NAMES = { "location.xoffset",
+      "location.yoffset", "location.xstddev", "location.ystddev",
+      "location.uri", "closed", "channel", "creation" };
+
+  /**
+   * Origins used in the benchmarks.
+   */
+  static final String[] ORIGINS = { "grail/localization_solver",
+      "grail/switch_solver", "grail/mobility_solver" };
+
+  /**
+   * The Identifier used in single-Identifier messages.
+   */
+  static final String IDENTIFIER = "winlab.anchor.transmitter.1023";
+
+  /**
+   * Not instantiated.
+   */
+  private Messages() {
+    // Static methods only
+  }
+
+  /**
+   * Creates attribute values for the benchmark Identifier. Values carry both
+   * names and aliases so they can be sent by clients, solvers or the World
+   * Model.
+   * 
+   * @param count
+   *          the number of values.
+   * @param dataLength
+   *          the data length of each value.
+   * @return the values.
+   */
+  static Attribute[] attributes(final int count, final int dataLength) {
+    Attribute[] attributes = new Attribute[count];
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < count; ++i) {
+      Attribute attr = new Attribute();
+      attr.setId(IDENTIFIER);
+      attr.setAttributeName(ATTRIBUTE_NAMES[i % ATTRIBUTE_NAMES.length]);
+      attr.setAttributeNameAlias(i % ATTRIBUTE_NAMES.length + 1);
+      attr.setOriginName(ORIGINS[i % ORIGINS.length]);
+      attr.setOriginNameAlias(i % ORIGINS.length + 1);
+      attr.setCreationDate(now - i);
+      byte[] data = new byte[dataLength];
+      for (int j = 0; j < dataLength; ++j) {
+        data[j] = (byte) (i + j);
+      }
+      attr.setData(data);
+      attributes[i] = attr;
+    }
+    return attributes;
+  }
+
+  /**
+   * Creates the Attribute Alias message for {@link #ATTRIBUTE_NAMES}.
+   * 
+   * @return the message.
+   */
+  static AttributeAliasMessage attributeAliases() {
+    AttributeAlias[] aliases = new AttributeAlias[ATTRIBUTE_NAMES.length];
+    for (int i = 0; i < aliases.length; ++i) {
+      aliases[i] = new AttributeAlias(i + 1, ATTRIBUTE_NAMES[i]);
+    }
+    AttributeAliasMessage message = new AttributeAliasMessage();
+    message.setAliases(aliases);
+    return message;
+  }
+
+  /**
+   * Creates the Origin Alias message for {@link #ORIGINS}.
+   * 
+   * @return the message.
+   */
+  static OriginAliasMessage originAliases() {
+    OriginAlias[] aliases = new OriginAlias[ORIGINS.length];
+    for (int i = 0; i < aliases.length; ++i) {
+      aliases[i] = new OriginAlias(i + 1, ORIGINS[i]);
+    }
+    OriginAliasMessage message = new OriginAliasMessage();
+    message.setAliases(aliases);
+    return message;
+  }
+
+  /**
+   * Creates a Data Response.
+   * 
+   * @param count
+   *          the number of attribute values.
+   * @param dataLength
+   *          the data length of each value.
+   * @return the message.
+   */
+  static DataResponseMessage dataResponse(final int count, final int dataLength) {
+    DataResponseMessage message = new DataResponseMessage();
+    message.setTicketNumber(42);
+    message.setId(IDENTIFIER);
+    message.setAttributes(attributes(count, dataLength));
+    return message;
+  }
+
+  /**
+   * Creates an Attribute Update.
+   * 
+   * @param count
+   *          the number of attribute values.
+   * @param dataLength
+   *          the data length of each value.
+   * @return the message.
+   */
+  static AttributeUpdateMessage attributeUpdate(final int count,
+      final int dataLength) {
+    AttributeUpdateMessage message = new AttributeUpdateMessage();
+    message.setCreateId(true);
+    message.setAttributes(attributes(count, dataLength));
+    return message;
+  }
+
+  /**
+   * Creates a message of the Client-World Model protocol.
+   * 
+   * @param type
+   *          the benchmark name of the message type.
+   * @return the message.
+   */
+  static Object client(final String type) {
+    long now = System.currentTimeMillis();
+    if ("handshake".equals(type)) {
+      return com.owlplatform.worldmodel.client.protocol.messages.HandshakeMessage
+          .getDefaultMessage();
+    } else if ("keepAlive".equals(type)) {
+      return com.owlplatform.worldmodel.client.protocol.messages.KeepAliveMessage.MESSAGE;
+    } else if ("snapshotRequest".equals(type)) {
+      SnapshotRequestMessage message = new SnapshotRequestMessage();
+      message.setTicketNumber(42);
+      message.setIdRegex("winlab\\.anchor\\..*");
+      message.setAttributeRegexes(new String[] { "location\\..*", "closed" });
+      message.setBeginTimestamp(now - 60000);
+      message.setEndTimestamp(now);
+      return message;
+    } else if ("rangeRequest".equals(type)) {
+      RangeRequestMessage message = new RangeRequestMessage();
+      message.setTicketNumber(42);
+      message.setIdRegex("winlab\\.anchor\\..*");
+      message.setAttributeRegexes(new String[] { "location\\..*", "closed" });
+      message.setBeginTimestamp(now - 60000);
+      message.setEndTimestamp(now);
+      return message;
+    } else if ("streamRequest".equals(type)) {
+      StreamRequestMessage message = new StreamRequestMessage();
+      message.setTicketNumber(42);
+      message.setIdRegex("winlab\\.anchor\\..*");
+      message.setAttributeRegexes(new String[] { "location\\..*", "closed" });
+      message.setBeginTimestamp(now);
+      message.setUpdateInterval(1000);
+      return message;
+    } else if ("cancelRequest".equals(type)) {
+      CancelRequestMessage message = new CancelRequestMessage();
+      message.setTicketNumber(42);
+      return message;
+    } else if ("idSearch".equals(type)) {
+      IdSearchMessage message = new IdSearchMessage();
+      message.setIdRegex("winlab\\.anchor\\..*");
+      return message;
+    } else if ("originPreference".equals(type)) {
+      Map<String, Integer> weights = new HashMap<String, Integer>();
+      for (int i = 0; i < ORIGINS.length; ++i) {
+        weights.put(ORIGINS[i], Integer.valueOf(i));
+      }
+      OriginPreferenceMessage message = new OriginPreferenceMessage();
+      message.setWeights(weights);
+      return message;
+    } else if ("attributeAlias".equals(type)) {
+      return attributeAliases();
+    } else if ("originAlias".equals(type)) {
+      return originAliases();
+    } else if ("dataResponse".equals(type)) {
+      return dataResponse(ATTRIBUTE_COUNT, SMALL_DATA);
+    } else if ("dataResponseLarge".equals(type)) {
+      return dataResponse(1, LARGE_DATA);
+    } else if ("idSearchResponse".equals(type)) {
+      String[] ids = new String[64];
+      for (int i = 0; i < ids.length; ++i) {
+        ids[i] = "winlab.anchor.transmitter." + (1000 + i);
+      }
+      IdSearchResponseMessage message = new IdSearchResponseMessage();
+      message.setMatchingIds(ids);
+      return message;
+    } else if ("requestComplete".equals(type)) {
+      RequestCompleteMessage message = new RequestCompleteMessage();
+      message.setTicketNumber(42L);
+      return message;
+    }
+    throw new IllegalArgumentException("Unknown client message type " + type
+        + ".");
+  }
+
+  /**
+   * Determines whether a Client-World Model message is sent by the client.
+   * 
+   * @param type
+   *          the benchmark name of the message type.
+   * @return {@code true} if the client sends the message, {@code false} if
+   *         the World Model does.
+   */
+  static boolean isSentByClient(final String type) {
+    return !("attributeAlias".equals(type) || "originAlias".equals(type)
+        || type.startsWith("dataResponse")
+        || "idSearchResponse".equals(type) || "requestComplete".equals(type));
+  }
+
+  /**
+   * Creates a message of the Solver-World Model protocol.
+   * 
+   * @param type
+   *          the benchmark name of the message type.
+   * @return the message.
+   */
+  static Object solver(final String type) {
+    long now = System.currentTimeMillis();
+    if ("handshake".equals(type)) {
+      return com.owlplatform.worldmodel.solver.protocol.messages.HandshakeMessage
+          .getDefaultMessage();
+    } else if ("keepAlive".equals(type)) {
+      return com.owlplatform.worldmodel.solver.protocol.messages.KeepAliveMessage.MESSAGE;
+    } else if ("attributeAnnounce".equals(type)) {
+      AttributeSpecification[] specs = new AttributeSpecification[ATTRIBUTE_NAMES.length];
+      for (int i = 0; i < specs.length; ++i) {
+        specs[i] = new AttributeSpecification();
+        specs[i].setAlias(i + 1);
+        specs[i].setAttributeName(ATTRIBUTE_NAMES[i]);
+        specs[i].setIsOnDemand(i % 4 == 0);
+      }
+      AttributeAnnounceMessage message = new AttributeAnnounceMessage();
+      message.setOrigin(ORIGINS[0]);
+      message.setTypeSpecifications(specs);
+      return message;
+    } else if ("attributeUpdate".equals(type)) {
+      return attributeUpdate(ATTRIBUTE_COUNT, SMALL_DATA);
+    } else if ("attributeUpdateLarge".equals(type)) {
+      return attributeUpdate(1, LARGE_DATA);
+    } else if ("createIdentifier".equals(type)) {
+      CreateIdentifierMessage message = new CreateIdentifierMessage();
+      message.setId(IDENTIFIER);
+      message.setCreationTime(now);
+      message.setOrigin(ORIGINS[0]);
+      return message;
+    } else if ("expireIdentifier".equals(type)) {
+      ExpireIdentifierMessage message = new ExpireIdentifierMessage();
+      message.setId(IDENTIFIER);
+      message.setExpirationTime(now);
+      message.setOrigin(ORIGINS[0]);
+      return message;
+    } else if ("deleteIdentifier".equals(type)) {
+      DeleteIdentifierMessage message = new DeleteIdentifierMessage();
+      message.setId(IDENTIFIER);
+      message.setOrigin(ORIGINS[0]);
+      return message;
+    } else if ("expireAttribute".equals(type)) {
+      ExpireAttributeMessage message = new ExpireAttributeMessage();
+      message.setId(IDENTIFIER);
+      message.setAttributeName(ATTRIBUTE_NAMES[0]);
+      message.setExpirationTime(now);
+      message.setOrigin(ORIGINS[0]);
+      return message;
+    } else if ("deleteAttribute".equals(type)) {
+      DeleteAttributeMessage message = new DeleteAttributeMessage();
+      message.setId(IDENTIFIER);
+      message.setAttributeName(ATTRIBUTE_NAMES[0]);
+      message.setOrigin(ORIGINS[0]);
+      return message;
+    } else if ("startOnDemand".equals(type)) {
+      StartOnDemandMessage message = new StartOnDemandMessage();
+      message.setRequests(onDemandRequests());
+      return message;
+    } else if ("stopOnDemand".equals(type)) {
+      StopOnDemandMessage message = new StopOnDemandMessage();
+      message.setRequests(onDemandRequests());
+      return message;
+    }
+    throw new IllegalArgumentException("Unknown solver message type " + type
+        + ".");
+  }
+
+  /**
+   * Determines whether a Solver-World Model message is sent by the solver.
+   * 
+   * @param type
+   *          the benchmark name of the message type.
+   * @return {@code true} if the solver sends the message, {@code false} if
+   *         the World Model does.
+   */
+  static boolean isSentBySolver(final String type) {
+    return !("startOnDemand".equals(type) || "stopOnDemand".equals(type));
+  }
+
+  /**
+   * Creates the on-demand requests of a Start or Stop On-Demand message.
+   * 
+   * @return the requests.
+   */
+  private static OnDemandRequest[] onDemandRequests() {
+    OnDemandRequest[] requests = new OnDemandRequest[2];
+    for (int i = 0; i < requests.length; ++i) {
+      requests[i] = new OnDemandRequest();
+      requests[i].setAttributeAlias(i + 1);
+      requests[i].setIdPatterns(new String[] { "winlab\\.anchor\\..*",
+          "winlab\\.tag\\." + i + ".*" });
+    }
+    return requests;
+  }
+}
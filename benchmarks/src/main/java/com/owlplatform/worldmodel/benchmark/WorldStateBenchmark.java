@@ -0,0 +1,96 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.benchmark;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.WorldState;
+
+/**
+ * Measures building a {@link WorldState} from the values of a snapshot.
+ * 
+ * @author Robert Moore
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldStateBenchmark {
+
+  /**
+   * Number of Identifiers in the state.
+   */
+  @Param({ "1", "100", "10000" })
+  public int identifierCount;
+
+  /**
+   * The Identifiers.
+   */
+  private String[] identifiers;
+
+  /**
+   * The attribute values of each Identifier.
+   */
+  private Collection<Attribute> values;
+
+  /**
+   * Creates the Identifiers and their values.
+   */
+  @Setup
+  public void setUp() {
+    this.identifiers = new String[this.identifierCount];
+    for (int i = 0; i < this.identifierCount; ++i) {
+      this.identifiers[i] = "winlab.anchor.transmitter." + i;
+    }
+    this.values = Arrays.asList(Messages.attributes(Messages.ATTRIBUTE_COUNT,
+        Messages.SMALL_DATA));
+  }
+
+  /**
+   * Builds the state.
+   * 
+   * @return the state.
+   */
+  @Benchmark
+  public WorldState build() {
+    WorldState state = new WorldState();
+    for (String identifier : this.identifiers) {
+      state.addState(identifier, this.values);
+    }
+    return state;
+  }
+}
@@ -18,12 +18,21 @@
  */
 package com.owlplatform.worldmodel;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Date;
 
+import org.apache.mina.core.buffer.IoBuffer;
+
 import com.owlplatform.common.util.NumericUtils;
+import com.owlplatform.worldmodel.types.BooleanTypeConverter;
 import com.owlplatform.worldmodel.types.DataConverter;
+import com.owlplatform.worldmodel.types.DoubleTypeConverter;
+import com.owlplatform.worldmodel.types.IntegerTypeConverter;
+import com.owlplatform.worldmodel.types.LongTypeConverter;
+import com.owlplatform.worldmodel.types.StringConverter;
+import com.owlplatform.worldmodel.types.TypeConverter;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Represents an Attribute of an Identifier within the World Model. Attributes
@@ -75,11 +84,67 @@ public class Attribute {
    */
   private byte[] data = null;
 
+  /**
+   * This attribute's data when it was provided as a {@code ByteBuffer}, for
+   * example one allocated off-heap by the decoder. The data is copied into
+   * {@link #data} only if {@link #getData()} is called; the typed accessors,
+   * {@link #toString()}, {@link #equals(Attribute)} and {@link #hashCode()}
+   * read the buffer directly.
+   */
+  private ByteBuffer dataBuffer = null;
+
+  /**
+   * Digits for printing data held in a {@code ByteBuffer} as hexadecimal.
+   */
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
   /**
    * Identifier that this attribute is associated with.
    */
   private String identifier;
 
+  /**
+   * The converter for this attribute's data, bound on first use of a typed
+   * accessor. This value is only used internally and not transmitted over
+   * the network.
+   */
+  private TypeConverter<?> converter = null;
+
+  /**
+   * The decoded form of {@link #data}, cached by {@link #getValue()} if
+   * {@link #cacheDecodedValues} is set.
+   */
+  private Object decodedValue = null;
+
+  /**
+   * Whether {@link #getValue()} keeps the decoded value with the Attribute.
+   * Off by default, so that Attributes don't hold on to decoded objects that
+   * are only read once.
+   */
+  private static volatile boolean cacheDecodedValues = false;
+
+  /**
+   * Sets whether {@link #getValue()} and {@link #getString()} keep the decoded
+   * value, so that repeated calls return the same object without decoding the
+   * data again. Applies to all Attributes. Disabled by default.
+   * 
+   * @param cacheDecodedValues
+   *          {@code true} to cache decoded values, {@code false} to decode
+   *          them on every call.
+   */
+  public static void setCacheDecodedValues(final boolean cacheDecodedValues) {
+    Attribute.cacheDecodedValues = cacheDecodedValues;
+  }
+
+  /**
+   * Returns whether {@link #getValue()} caches decoded values.
+   * 
+   * @return {@code true} if decoded values are cached, else {@code false}.
+   */
+  public static boolean isCacheDecodedValues() {
+    return Attribute.cacheDecodedValues;
+  }
+
   /**
    * Returns the length of this attribute, in bytes, as encoded according to the
    * Client-World Model protocol.
@@ -91,9 +156,7 @@ public class Attribute {
     // alias, data length
     int length = 4 + 8 + 8 + 4 + 4;
     // Data
-    if (this.data != null) {
-      length += this.data.length;
-    }
+    length += this.getDataLength();
     return length;
   }
 
@@ -107,21 +170,15 @@ public class Attribute {
     // Attribute name alias, creation date, Id length,
     int length = 4 + 8 + 4;
 
-    // Id,
+    // Id, UTF-16BE uses 2 bytes per Java char
     if (this.identifier != null) {
-      try {
-        length += this.identifier.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        throw new RuntimeException("Unable to encode UTF16 strings.", e);
-      }
+      length += this.identifier.length() * 2;
     }
 
     // Data length
     length += 4;
     // Data
-    if (this.data != null) {
-      length += this.data.length;
-    }
+    length += this.getDataLength();
 
     return length;
   }
@@ -205,12 +262,22 @@ public class Attribute {
   }
 
   /**
-   * Returns the data for this attribute value, if any.
+   * Returns the data for this attribute value, if any. If the data was set as a
+   * {@code ByteBuffer}, it is copied into a new array on the first call, and
+   * the copy is kept. This is the only method that copies buffer data onto the
+   * heap for good; use {@link #dataBuffer()} or the typed accessors to avoid
+   * it.
    * 
    * @return the data for this attribute value, or {@code null} if there is
    *         none.
+   * @see #dataBuffer()
    */
   public byte[] getData() {
+    if (this.data == null && this.dataBuffer != null) {
+      byte[] copy = new byte[this.dataBuffer.remaining()];
+      this.dataBuffer.duplicate().get(copy);
+      this.data = copy;
+    }
     return this.data;
   }
 
@@ -222,6 +289,56 @@ public class Attribute {
    */
   public void setData(byte[] data) {
     this.data = data;
+    this.dataBuffer = null;
+    this.decodedValue = null;
+  }
+
+  /**
+   * Sets the data for this attribute value from a buffer, without copying it.
+   * The data is the content between the buffer's position and limit when this
+   * method is called. The buffer's content must not be modified afterwards.
+   * Direct buffers allow large payloads to be kept off the Java heap.
+   * 
+   * @param data
+   *          the new data for this attribute value, or {@code null} for none.
+   */
+  public void setData(ByteBuffer data) {
+    this.data = null;
+    this.dataBuffer = data == null ? null : data.slice();
+    this.decodedValue = null;
+  }
+
+  /**
+   * Returns a read-only view of the data for this attribute value, positioned
+   * at the start of the data. No data is copied, so this is the preferred way
+   * to parse large binary values.
+   * 
+   * @return a read-only view of the data, or {@code null} if there is none.
+   */
+  public ByteBuffer dataBuffer() {
+    if (this.dataBuffer != null) {
+      return this.dataBuffer.asReadOnlyBuffer();
+    }
+    if (this.data != null) {
+      return ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+    }
+    return null;
+  }
+
+  /**
+   * Returns the length of the data for this attribute value without copying
+   * it.
+   * 
+   * @return the length of the data in bytes, or 0 if there is none.
+   */
+  public int getDataLength() {
+    if (this.data != null) {
+      return this.data.length;
+    }
+    if (this.dataBuffer != null) {
+      return this.dataBuffer.remaining();
+    }
+    return 0;
   }
 
   /**
@@ -241,6 +358,256 @@ public class Attribute {
    */
   public void setAttributeName(String attributeName) {
     this.attributeName = attributeName;
+    this.converter = null;
+    this.decodedValue = null;
+  }
+
+  /**
+   * Binds a converter for this attribute's data, so that the typed accessors
+   * don't need to look it up by attribute name. Connections that already know
+   * the converter for an attribute alias can bind it when the attribute is
+   * decoded.
+   * 
+   * @param converter
+   *          the converter for this attribute's data, or {@code null} to look
+   *          it up by name on next use.
+   */
+  public void bindConverter(final TypeConverter<?> converter) {
+    this.converter = converter;
+    this.decodedValue = null;
+  }
+
+  /**
+   * Returns the converter for this attribute's data, looking it up by
+   * attribute name and binding it if necessary.
+   * 
+   * @return the converter for this attribute's data.
+   * @throws IllegalStateException
+   *           if no converter is mapped for the attribute name.
+   */
+  public TypeConverter<?> getConverter() {
+    TypeConverter<?> conv = this.converter;
+    if (conv == null) {
+      conv = DataConverter.getConverter(this.attributeName);
+      if (conv == null) {
+        throw new IllegalStateException("No converter mapped for attribute \""
+            + this.attributeName + "\".");
+      }
+      this.converter = conv;
+    }
+    return conv;
+  }
+
+  /**
+   * Decodes this attribute's data using the converter for its name. If
+   * {@link #setCacheDecodedValues(boolean)} is enabled, the decoded value is
+   * cached, so repeated calls return the same object until the data or name is
+   * changed.
+   * 
+   * @return the decoded value, or {@code null} if there is no data.
+   * @throws IllegalStateException
+   *           if no converter is mapped for the attribute name.
+   */
+  public Object getValue() {
+    if (this.data == null && this.dataBuffer == null) {
+      return null;
+    }
+    Object value = this.decodedValue;
+    if (value == null) {
+      value = this.decodeData(this.getConverter());
+      if (Attribute.cacheDecodedValues) {
+        this.decodedValue = value;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Decodes this attribute's data as a {@code double}.
+   * 
+   * @return the decoded value.
+   * @throws IllegalStateException
+   *           if there is no data, or the attribute's converter does not
+   *           decode a Double.
+   */
+  public double getDouble() {
+    if (this.data == null && this.dataBuffer == null) {
+      throw new IllegalStateException("no data");
+    }
+    TypeConverter<?> conv = this.getConverter();
+    if (conv instanceof DoubleTypeConverter) {
+      if (this.data == null) {
+        return ((DoubleTypeConverter) conv).decodeDouble(this.dataBuffer, 0);
+      }
+      return ((DoubleTypeConverter) conv).decodeDouble(this.data, 0);
+    }
+    Object value = this.getValue();
+    if (value instanceof Double) {
+      return ((Double) value).doubleValue();
+    }
+    throw this.wrongType("Double");
+  }
+
+  /**
+   * Decodes this attribute's data as a {@code long}.
+   * 
+   * @return the decoded value.
+   * @throws IllegalStateException
+   *           if there is no data, or the attribute's converter does not
+   *           decode a Long.
+   */
+  public long getLong() {
+    if (this.data == null && this.dataBuffer == null) {
+      throw new IllegalStateException("no data");
+    }
+    TypeConverter<?> conv = this.getConverter();
+    if (conv instanceof LongTypeConverter) {
+      if (this.data == null) {
+        return ((LongTypeConverter) conv).decodeLong(this.dataBuffer, 0);
+      }
+      return ((LongTypeConverter) conv).decodeLong(this.data, 0);
+    }
+    Object value = this.getValue();
+    if (value instanceof Long) {
+      return ((Long) value).longValue();
+    }
+    throw this.wrongType("Long");
+  }
+
+  /**
+   * Decodes this attribute's data as an {@code int}.
+   * 
+   * @return the decoded value.
+   * @throws IllegalStateException
+   *           if there is no data, or the attribute's converter does not
+   *           decode an Integer.
+   */
+  public int getInt() {
+    if (this.data == null && this.dataBuffer == null) {
+      throw new IllegalStateException("no data");
+    }
+    TypeConverter<?> conv = this.getConverter();
+    if (conv instanceof IntegerTypeConverter) {
+      if (this.data == null) {
+        return ((IntegerTypeConverter) conv).decodeInt(this.dataBuffer, 0);
+      }
+      return ((IntegerTypeConverter) conv).decodeInt(this.data, 0);
+    }
+    Object value = this.getValue();
+    if (value instanceof Integer) {
+      return ((Integer) value).intValue();
+    }
+    throw this.wrongType("Integer");
+  }
+
+  /**
+   * Decodes this attribute's data as a {@code boolean}.
+   * 
+   * @return the decoded value.
+   * @throws IllegalStateException
+   *           if there is no data, or the attribute's converter does not
+   *           decode a Boolean.
+   */
+  public boolean getBoolean() {
+    if (this.data == null && this.dataBuffer == null) {
+      throw new IllegalStateException("no data");
+    }
+    TypeConverter<?> conv = this.getConverter();
+    if (conv instanceof BooleanTypeConverter) {
+      if (this.data == null) {
+        return ((BooleanTypeConverter) conv).decodeBoolean(this.dataBuffer, 0);
+      }
+      return ((BooleanTypeConverter) conv).decodeBoolean(this.data, 0);
+    }
+    Object value = this.getValue();
+    if (value instanceof Boolean) {
+      return ((Boolean) value).booleanValue();
+    }
+    throw this.wrongType("Boolean");
+  }
+
+  /**
+   * Decodes this attribute's data as a {@code String}. The decoded value is
+   * cached if {@link #getValue()} caches values.
+   * 
+   * @return the decoded value, or {@code null} if there is no data.
+   * @throws IllegalStateException
+   *           if the attribute's converter does not decode a String.
+   */
+  public String getString() {
+    Object value = this.getValue();
+    if (value == null || value instanceof String) {
+      return (String) value;
+    }
+    throw this.wrongType("String");
+  }
+
+  /**
+   * Decodes this attribute's data with a converter. Data held in a
+   * {@code ByteBuffer} is read in place by primitive and UTF-16 String
+   * converters; other converters decode a temporary copy, which is not kept.
+   * 
+   * @param conv
+   *          the converter for the data.
+   * @return the decoded value, or {@code null} if there is no data.
+   */
+  private Object decodeData(final TypeConverter<?> conv) {
+    if (this.data != null) {
+      return conv.decode(this.data);
+    }
+    if (this.dataBuffer == null) {
+      return null;
+    }
+    if (conv instanceof DoubleTypeConverter) {
+      return Double.valueOf(((DoubleTypeConverter) conv).decodeDouble(
+          this.dataBuffer, 0));
+    }
+    if (conv instanceof LongTypeConverter) {
+      return Long.valueOf(((LongTypeConverter) conv).decodeLong(
+          this.dataBuffer, 0));
+    }
+    if (conv instanceof IntegerTypeConverter) {
+      return Integer.valueOf(((IntegerTypeConverter) conv).decodeInt(
+          this.dataBuffer, 0));
+    }
+    if (conv instanceof BooleanTypeConverter) {
+      return Boolean.valueOf(((BooleanTypeConverter) conv).decodeBoolean(
+          this.dataBuffer, 0));
+    }
+    if (conv instanceof StringConverter) {
+      return Utf16Codec.get(IoBuffer.wrap(this.dataBuffer.duplicate()),
+          this.dataBuffer.remaining());
+    }
+    byte[] copy = new byte[this.dataBuffer.remaining()];
+    this.dataBuffer.duplicate().get(copy);
+    return conv.decode(copy);
+  }
+
+  /**
+   * Formats a decoded value with its converter.
+   * 
+   * @param conv
+   *          the converter that decoded the value.
+   * @param value
+   *          the decoded value.
+   * @return the String form of the value.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static String asString(final TypeConverter conv, final Object value) {
+    return conv.asString(value);
+  }
+
+  /**
+   * Creates an exception for a typed accessor that doesn't match the
+   * attribute's converter.
+   * 
+   * @param type
+   *          the type that was requested.
+   * @return the exception to throw.
+   */
+  private IllegalStateException wrongType(final String type) {
+    return new IllegalStateException("Attribute \"" + this.attributeName
+        + "\" is " + this.converter.getTypeName() + ", not " + type + ".");
   }
 
   /**
@@ -297,12 +664,21 @@ public class Attribute {
       sb.append(this.originName);
     }
     sb.append(":");
-    if (this.data != null) {
-      if (this.attributeName != null
-          && DataConverter.hasConverterForAttribute(this.attributeName)) {
-        sb.append(DataConverter.asString(this.attributeName, this.data));
-      } else {
+    if (this.data != null || this.dataBuffer != null) {
+      TypeConverter<?> conv = this.converter;
+      if (conv == null && this.attributeName != null) {
+        conv = DataConverter.getConverter(this.attributeName);
+      }
+      if (conv != null) {
+        sb.append(asString(conv, this.decodeData(conv)));
+      } else if (this.data != null) {
         sb.append(NumericUtils.toHexString(this.data));
+      } else {
+        sb.append("0x");
+        for (int i = 0; i < this.dataBuffer.limit(); ++i) {
+          int b = this.dataBuffer.get(i) & 0xFF;
+          sb.append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0x0F]);
+        }
       }
     } else {
       sb.append("NULL");
@@ -350,14 +726,19 @@ public class Attribute {
     }
     
     // Data
-    if(this.data != null){
-      if(a.data == null){
+    if (this.data != null && a.data != null) {
+      return Arrays.equals(this.data, a.data);
+    }
+    ByteBuffer myData = this.dataBuffer();
+    ByteBuffer otherData = a.dataBuffer();
+    if(myData != null){
+      if(otherData == null){
         return false;
       }
-      if(!Arrays.equals(this.data,a.data)){
+      if(!myData.equals(otherData)){
         return false;
       }
-    }else if(a.data != null){
+    }else if(otherData != null){
       return false;
     }
 
@@ -387,6 +768,13 @@ public class Attribute {
 
     if (this.data != null) {
       hashcode ^= Arrays.hashCode(this.data);
+    } else if (this.dataBuffer != null) {
+      // Same value as Arrays.hashCode() on a copy of the data
+      int dataHash = 1;
+      for (int i = 0; i < this.dataBuffer.limit(); ++i) {
+        dataHash = 31 * dataHash + this.dataBuffer.get(i);
+      }
+      hashcode ^= dataHash;
     }
     return hashcode;
   }
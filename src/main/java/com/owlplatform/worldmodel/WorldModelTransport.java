@@ -0,0 +1,307 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.service.SimpleIoProcessorPool;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.transport.socket.nio.NioProcessor;
+import org.apache.mina.transport.socket.nio.NioSession;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Threads shared by many client and solver connections in the same process.
+ * By default every connection creates its own socket connector, I/O
+ * processors and event executor, so each new connection adds several
+ * threads. Connections attached to a transport with
+ * {@code setTransport(WorldModelTransport)} instead use:
+ * <ul>
+ * <li>a fixed pool of NIO processors, each with its own selector thread, that
+ * perform socket reads and writes for every session;</li>
+ * <li>a fixed, session-ordered executor that runs protocol events and
+ * listener callbacks, so events for each session are still delivered in
+ * order;</li>
+ * <li>an executor for establishing connections, with at most
+ * {@value #CONNECT_THREADS_PER_PROCESSOR} threads per NIO processor that
+ * exit when no connection attempts are in progress;</li>
+ * <li>a scheduler for reconnection attempts, so lost connections do not hold
+ * event threads while they wait to reconnect; and</li>
+ * <li>a bounded executor for long-running background work, such as replaying
+ * buffered solver updates.</li>
+ * </ul>
+ * The number of threads is bounded when the transport is created and does
+ * not grow with the number of connections. Each connection still has its
+ * own lightweight {@code NioSocketConnector}, since the filter chain and handler
+ * differ between connections, but those connectors create no threads of
+ * their own.
+ * <p>
+ * A transport must be attached before connecting, and should be disposed
+ * with {@link #dispose()} after all of its connections have been
+ * disconnected.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class WorldModelTransport {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(WorldModelTransport.class);
+
+  /**
+   * Default number of NIO processors, the same as MINA's default.
+   */
+  public static final int DEFAULT_PROCESSORS = Runtime.getRuntime()
+      .availableProcessors() + 1;
+
+  /**
+   * Default number of threads for protocol events and listener callbacks.
+   */
+  public static final int DEFAULT_EVENT_THREADS = 4;
+
+  /**
+   * Default number of threads for background work.
+   */
+  public static final int DEFAULT_BACKGROUND_THREADS = 2;
+
+  /**
+   * Seconds an idle connection thread is kept before it exits.
+   */
+  private static final long CONNECT_KEEP_ALIVE = 5;
+
+  /**
+   * Maximum number of connection threads for each NIO processor.
+   */
+  public static final int CONNECT_THREADS_PER_PROCESSOR = 2;
+
+  /**
+   * Maximum number of connection attempts waiting for a connection thread.
+   * Attempts beyond this fail immediately and are retried after the
+   * connection retry delay.
+   */
+  private static final int CONNECT_QUEUE_LENGTH = 1024;
+
+  /**
+   * Creates threads with a common name prefix.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class NamedThreadFactory implements ThreadFactory {
+    /**
+     * Prefix for thread names.
+     */
+    private final String prefix;
+
+    /**
+     * Number of the next thread created.
+     */
+    private final AtomicInteger nextThread = new AtomicInteger(1);
+
+    /**
+     * Creates a new thread factory.
+     * 
+     * @param prefix
+     *          prefix for thread names.
+     */
+    NamedThreadFactory(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+      Thread t = new Thread(r, this.prefix + "-"
+          + this.nextThread.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  /**
+   * Runs the selector loops of the NIO processors.
+   */
+  private final ExecutorService ioExecutor;
+
+  /**
+   * NIO processors shared by all connectors.
+   */
+  private final SimpleIoProcessorPool<NioSession> processors;
+
+  /**
+   * Runs the connection loops of the connectors, which only hold a thread
+   * while a connection attempt is in progress. MINA keeps each loop running
+   * for up to a second after its attempt completes. When more connections
+   * than there are threads connect at once, the remaining loops wait in a
+   * bounded queue, and attempts that time out while waiting are retried after
+   * the connection retry delay.
+   */
+  private final ExecutorService connectExecutor;
+
+  /**
+   * Runs protocol events, ordered for each session.
+   */
+  private final OrderedThreadPoolExecutor eventExecutor;
+
+  /**
+   * Schedules reconnection attempts.
+   */
+  private final ScheduledExecutorService reconnectScheduler;
+
+  /**
+   * Runs long-running background tasks.
+   */
+  private final ThreadPoolExecutor backgroundExecutor;
+
+  /**
+   * Creates a transport with the default number of threads.
+   */
+  public WorldModelTransport() {
+    this(DEFAULT_PROCESSORS, DEFAULT_EVENT_THREADS);
+  }
+
+  /**
+   * Creates a transport with the specified number of I/O and event threads.
+   * 
+   * @param processorCount
+   *          the number of NIO processors, each of which uses one thread.
+   * @param eventThreads
+   *          the number of threads for protocol events and listener
+   *          callbacks.
+   */
+  public WorldModelTransport(final int processorCount, final int eventThreads) {
+    super();
+    if (processorCount < 1) {
+      throw new IllegalArgumentException(
+          "At least one processor is required.");
+    }
+    if (eventThreads < 1) {
+      throw new IllegalArgumentException(
+          "At least one event thread is required.");
+    }
+    this.ioExecutor = Executors.newFixedThreadPool(processorCount,
+        new NamedThreadFactory("WorldModelTransport-io"));
+    this.processors = new SimpleIoProcessorPool<NioSession>(
+        NioProcessor.class, this.ioExecutor, processorCount);
+    int connectThreads = processorCount * CONNECT_THREADS_PER_PROCESSOR;
+    ThreadPoolExecutor connectPool = new ThreadPoolExecutor(connectThreads,
+        connectThreads, CONNECT_KEEP_ALIVE, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(CONNECT_QUEUE_LENGTH),
+        new NamedThreadFactory("WorldModelTransport-connect"));
+    connectPool.allowCoreThreadTimeOut(true);
+    this.connectExecutor = connectPool;
+    // Threads are started as needed up to the maximum; a core size above 1
+    // is rejected by the executor's constructor on newer JVMs
+    this.eventExecutor = new OrderedThreadPoolExecutor(0, eventThreads, 30,
+        TimeUnit.SECONDS, new NamedThreadFactory("WorldModelTransport-event"));
+    this.reconnectScheduler = Executors.newScheduledThreadPool(1,
+        new NamedThreadFactory("WorldModelTransport-reconnect"));
+    this.backgroundExecutor = new ThreadPoolExecutor(
+        DEFAULT_BACKGROUND_THREADS, DEFAULT_BACKGROUND_THREADS, 30,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory("WorldModelTransport-background"));
+    this.backgroundExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Creates a socket connector that uses this transport's processors and
+   * connection executor. Disposing the connector does not affect the
+   * transport.
+   * 
+   * @return a new socket connector.
+   */
+  public NioSocketConnector createConnector() {
+    return new NioSocketConnector(this.connectExecutor, this.processors);
+  }
+
+  /**
+   * Creates an executor filter that runs events on this transport's shared
+   * event threads. Destroying the filter does not affect the transport.
+   * 
+   * @return a new executor filter.
+   */
+  public ExecutorFilter createExecutorFilter() {
+    return new ExecutorFilter(this.eventExecutor);
+  }
+
+  /**
+   * Schedules a task, such as a reconnection attempt, to run after a delay.
+   * Scheduled tasks run on a single thread, so they should not block for
+   * longer than a connection timeout.
+   * 
+   * @param task
+   *          the task to run.
+   * @param delayMillis
+   *          the delay before running the task, in milliseconds.
+   */
+  public void schedule(final Runnable task, final long delayMillis) {
+    this.reconnectScheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns an executor for long-running background tasks. Tasks beyond the
+   * number of background threads are queued.
+   * 
+   * @return the background executor.
+   */
+  public ExecutorService getBackgroundExecutor() {
+    return this.backgroundExecutor;
+  }
+
+  /**
+   * Returns {@code true} if this transport has been disposed.
+   * 
+   * @return {@code true} if disposed.
+   */
+  public boolean isDisposed() {
+    return this.processors.isDisposed();
+  }
+
+  /**
+   * Stops all of the threads of this transport. Any connections still using
+   * the transport stop working.
+   */
+  public void dispose() {
+    log.debug("Disposing {}.", this);
+    this.reconnectScheduler.shutdownNow();
+    this.connectExecutor.shutdown();
+    this.processors.dispose();
+    this.ioExecutor.shutdown();
+    this.eventExecutor.shutdown();
+    this.backgroundExecutor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "World Model transport";
+  }
+}
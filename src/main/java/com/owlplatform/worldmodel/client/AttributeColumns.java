@@ -0,0 +1,408 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * Column-oriented values of a single numeric attribute, decoded in bulk from
+ * one or more {@link WorldState} objects. Row {@code i} of each column
+ * describes the same attribute value. Useful for analyzing long histories
+ * returned by range requests, where decoding each value separately through a
+ * {@code TypeConverter} is too slow.
+ * <p>
+ * Payloads are first copied into a single contiguous array, which is then
+ * decoded with one bulk transfer through a {@code DoubleBuffer} or
+ * {@code LongBuffer} view. Attribute values with payloads shorter than 8
+ * bytes are skipped.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class AttributeColumns {
+
+  /**
+   * Number of bytes in an encoded Double or Long value.
+   */
+  private static final int VALUE_LENGTH = 8;
+
+  /**
+   * The attribute name that was decoded.
+   */
+  private final String attributeName;
+
+  /**
+   * Identifier of each value.
+   */
+  private final String[] identifiers;
+
+  /**
+   * Creation timestamp of each value.
+   */
+  private final long[] creationDates;
+
+  /**
+   * Expiration timestamp of each value.
+   */
+  private final long[] expirationDates;
+
+  /**
+   * Decoded values, if the attribute was decoded as Doubles.
+   */
+  private final double[] doubleValues;
+
+  /**
+   * Decoded values, if the attribute was decoded as Longs.
+   */
+  private final long[] longValues;
+
+  /**
+   * Creates a new set of columns.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @param identifiers
+   *          the Identifier column.
+   * @param creationDates
+   *          the creation timestamp column.
+   * @param expirationDates
+   *          the expiration timestamp column.
+   * @param doubleValues
+   *          the Double values, or {@code null}.
+   * @param longValues
+   *          the Long values, or {@code null}.
+   */
+  private AttributeColumns(final String attributeName,
+      final String[] identifiers, final long[] creationDates,
+      final long[] expirationDates, final double[] doubleValues,
+      final long[] longValues) {
+    super();
+    this.attributeName = attributeName;
+    this.identifiers = identifiers;
+    this.creationDates = creationDates;
+    this.expirationDates = expirationDates;
+    this.doubleValues = doubleValues;
+    this.longValues = longValues;
+  }
+
+  /**
+   * Decodes every value of a Double-typed attribute in a world state.
+   * 
+   * @param attributeName
+   *          the name of the attribute to decode.
+   * @param state
+   *          the world state containing the values.
+   * @return the decoded columns.
+   */
+  public static AttributeColumns decodeDoubles(final String attributeName,
+      final WorldState state) {
+    return decodeDoubles(attributeName, Collections.singletonList(state));
+  }
+
+  /**
+   * Decodes every value of a Double-typed attribute in a series of world
+   * states, such as those returned by a range request.
+   * 
+   * @param attributeName
+   *          the name of the attribute to decode.
+   * @param states
+   *          the world states containing the values.
+   * @return the decoded columns, in the order of {@code states}.
+   */
+  public static AttributeColumns decodeDoubles(final String attributeName,
+      final Iterable<WorldState> states) {
+    Packed packed = pack(attributeName, states);
+    double[] values = new double[packed.size];
+    ByteBuffer.wrap(packed.payloads).asDoubleBuffer().get(values);
+    return new AttributeColumns(attributeName, packed.identifiers,
+        packed.creationDates, packed.expirationDates, values, null);
+  }
+
+  /**
+   * Waits for a range request to complete and decodes every value of a
+   * Double-typed attribute it returned.
+   * 
+   * @param attributeName
+   *          the name of the attribute to decode.
+   * @param response
+   *          the response to the range request.
+   * @return the decoded columns.
+   * @throws Exception
+   *           if the request generated an exception.
+   */
+  public static AttributeColumns decodeDoubles(final String attributeName,
+      final StepResponse response) throws Exception {
+    return decodeDoubles(attributeName, drain(response));
+  }
+
+  /**
+   * Decodes every value of a Long-typed attribute in a world state.
+   * 
+   * @param attributeName
+   *          the name of the attribute to decode.
+   * @param state
+   *          the world state containing the values.
+   * @return the decoded columns.
+   */
+  public static AttributeColumns decodeLongs(final String attributeName,
+      final WorldState state) {
+    return decodeLongs(attributeName, Collections.singletonList(state));
+  }
+
+  /**
+   * Decodes every value of a Long-typed attribute in a series of world
+   * states, such as those returned by a range request.
+   * 
+   * @param attributeName
+   *          the name of the attribute to decode.
+   * @param states
+   *          the world states containing the values.
+   * @return the decoded columns, in the order of {@code states}.
+   */
+  public static AttributeColumns decodeLongs(final String attributeName,
+      final Iterable<WorldState> states) {
+    Packed packed = pack(attributeName, states);
+    long[] values = new long[packed.size];
+    ByteBuffer.wrap(packed.payloads).asLongBuffer().get(values);
+    return new AttributeColumns(attributeName, packed.identifiers,
+        packed.creationDates, packed.expirationDates, null, values);
+  }
+
+  /**
+   * Waits for a range request to complete and decodes every value of a
+   * Long-typed attribute it returned.
+   * 
+   * @param attributeName
+   *          the name of the attribute to decode.
+   * @param response
+   *          the response to the range request.
+   * @return the decoded columns.
+   * @throws Exception
+   *           if the request generated an exception.
+   */
+  public static AttributeColumns decodeLongs(final String attributeName,
+      final StepResponse response) throws Exception {
+    return decodeLongs(attributeName, drain(response));
+  }
+
+  /**
+   * Payloads and metadata gathered for bulk decoding.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Packed {
+    /**
+     * Number of values.
+     */
+    int size;
+
+    /**
+     * Contiguous 8-byte payloads.
+     */
+    byte[] payloads;
+
+    /**
+     * Identifier of each value.
+     */
+    String[] identifiers;
+
+    /**
+     * Creation timestamp of each value.
+     */
+    long[] creationDates;
+
+    /**
+     * Expiration timestamp of each value.
+     */
+    long[] expirationDates;
+  }
+
+  /**
+   * Copies the payloads and metadata of every matching attribute value into
+   * contiguous arrays.
+   * 
+   * @param attributeName
+   *          the attribute name to match.
+   * @param states
+   *          the world states to search.
+   * @return the packed values.
+   */
+  private static Packed pack(final String attributeName,
+      final Iterable<WorldState> states) {
+    int count = 0;
+    for (WorldState state : states) {
+      for (String id : state.getIdentifiers()) {
+        for (Attribute attr : state.getState(id)) {
+          if (matches(attributeName, attr)) {
+            ++count;
+          }
+        }
+      }
+    }
+
+    Packed packed = new Packed();
+    packed.payloads = new byte[count * VALUE_LENGTH];
+    packed.identifiers = new String[count];
+    packed.creationDates = new long[count];
+    packed.expirationDates = new long[count];
+
+    int i = 0;
+    for (WorldState state : states) {
+      for (String id : state.getIdentifiers()) {
+        for (Attribute attr : state.getState(id)) {
+          if (i < count && matches(attributeName, attr)) {
+            attr.dataBuffer().get(packed.payloads, i * VALUE_LENGTH,
+                VALUE_LENGTH);
+            packed.identifiers[i] = id;
+            packed.creationDates[i] = attr.getCreationDate();
+            packed.expirationDates[i] = attr.getExpirationDate();
+            ++i;
+          }
+        }
+      }
+    }
+    packed.size = i;
+    if (i < count) {
+      // Fewer values matched the second time, so every column is trimmed
+      packed.identifiers = Arrays.copyOf(packed.identifiers, i);
+      packed.creationDates = Arrays.copyOf(packed.creationDates, i);
+      packed.expirationDates = Arrays.copyOf(packed.expirationDates, i);
+    }
+    return packed;
+  }
+
+  /**
+   * Determines if an attribute value should be decoded.
+   * 
+   * @param attributeName
+   *          the attribute name to match.
+   * @param attr
+   *          the attribute value.
+   * @return {@code true} if the names match and the value has a payload of at
+   *         least 8 bytes.
+   */
+  private static boolean matches(final String attributeName,
+      final Attribute attr) {
+    return attributeName.equals(attr.getAttributeName())
+        && attr.getDataLength() >= VALUE_LENGTH;
+  }
+
+  /**
+   * Retrieves every world state from a step response, blocking until it
+   * completes.
+   * 
+   * @param response
+   *          the response to drain.
+   * @return the world states, in the order they were returned.
+   * @throws Exception
+   *           if the request generated an exception.
+   */
+  private static List<WorldState> drain(final StepResponse response)
+      throws Exception {
+    List<WorldState> states = new ArrayList<WorldState>();
+    while (!response.isComplete() || response.hasNext()) {
+      try {
+        states.add(response.next());
+      } catch (IllegalStateException ise) {
+        // No more states
+        break;
+      }
+    }
+    if (response.isError()) {
+      throw response.getError();
+    }
+    return states;
+  }
+
+  /**
+   * Returns the number of values in each column.
+   * 
+   * @return the number of values.
+   */
+  public int size() {
+    return this.identifiers.length;
+  }
+
+  /**
+   * Returns the name of the decoded attribute.
+   * 
+   * @return the attribute name.
+   */
+  public String getAttributeName() {
+    return this.attributeName;
+  }
+
+  /**
+   * Returns the Identifier of each value. The array is not copied.
+   * 
+   * @return the Identifier column.
+   */
+  public String[] getIdentifiers() {
+    return this.identifiers;
+  }
+
+  /**
+   * Returns the creation timestamp of each value. The array is not copied.
+   * 
+   * @return the creation timestamp column.
+   */
+  public long[] getCreationDates() {
+    return this.creationDates;
+  }
+
+  /**
+   * Returns the expiration timestamp of each value. The array is not copied.
+   * 
+   * @return the expiration timestamp column.
+   */
+  public long[] getExpirationDates() {
+    return this.expirationDates;
+  }
+
+  /**
+   * Returns the decoded values if the attribute was decoded as Doubles. The
+   * array is not copied.
+   * 
+   * @return the value column, or {@code null} if the values were decoded as
+   *         Longs.
+   */
+  public double[] getDoubleValues() {
+    return this.doubleValues;
+  }
+
+  /**
+   * Returns the decoded values if the attribute was decoded as Longs. The
+   * array is not copied.
+   * 
+   * @return the value column, or {@code null} if the values were decoded as
+   *         Doubles.
+   */
+  public long[] getLongValues() {
+    return this.longValues;
+  }
+}
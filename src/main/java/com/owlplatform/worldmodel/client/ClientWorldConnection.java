@@ -26,10 +26,13 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.WorldModelTransport;
 import com.owlplatform.worldmodel.client.listeners.ConnectionListener;
 import com.owlplatform.worldmodel.client.listeners.DataListener;
 import com.owlplatform.worldmodel.client.protocol.messages.AbstractRequestMessage;
@@ -41,6 +44,7 @@ import com.owlplatform.worldmodel.client.protocol.messages.OriginPreferenceMessa
 import com.owlplatform.worldmodel.client.protocol.messages.RangeRequestMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.SnapshotRequestMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
+import com.owlplatform.worldmodel.metrics.WorldModelMetrics;
 
 /**
  * A simple class for clients or solvers that need to request data from the
@@ -150,6 +154,22 @@ public class ClientWorldConnection {
    */
   private final Map<Long, StepResponse> outstandingSteps = new ConcurrentHashMap<Long, StepResponse>();
 
+  /**
+   * Reports the number of states waiting in the open {@code StepResponse}
+   * queues of this connection.
+   */
+  private final WorldModelMetrics.Gauge stepResponseQueueDepth = new WorldModelMetrics.Gauge() {
+    @Override
+    public long getValue() {
+      long depth = 0;
+      for (StepResponse resp : ClientWorldConnection.this.outstandingSteps
+          .values()) {
+        depth += resp.queuedStates();
+      }
+      return depth;
+    }
+  };
+
   /**
    * A map of WorldState objects for Responses returned by snapshot requests.
    * The key is the request ticket number.
@@ -177,6 +197,21 @@ public class ClientWorldConnection {
    */
   private final LinkedBlockingQueue<String[]> idSearchResponses = new LinkedBlockingQueue<String[]>();
 
+  /**
+   * Traces of requests that have not yet completed, keyed by ticket number.
+   */
+  private final Map<Long, RequestTrace> outstandingTraces = new ConcurrentHashMap<Long, RequestTrace>();
+
+  /**
+   * Latency histograms of completed requests.
+   */
+  private final RequestLatencyReport latencyReport = new RequestLatencyReport();
+
+  /**
+   * Receives the trace of each finished request, if set.
+   */
+  private volatile RequestSpanExporter spanExporter = null;
+
   /**
    * Whether or not the world model is connected.
    * 
@@ -259,6 +294,51 @@ public class ClientWorldConnection {
     this.wmi.setPort(port);
   }
 
+  /**
+   * Sets the minimum attribute data length that is decoded into a direct
+   * (off-heap) buffer instead of a byte[]. Must be set before connecting.
+   * 
+   * @param offHeapPayloadThreshold
+   *          the threshold in bytes, or a negative value to always decode into
+   *          a byte[].
+   * @see ClientWorldModelInterface#setOffHeapPayloadThreshold(int)
+   */
+  public void setOffHeapPayloadThreshold(final int offHeapPayloadThreshold) {
+    this.wmi.setOffHeapPayloadThreshold(offHeapPayloadThreshold);
+  }
+
+  /**
+   * Attaches this connection to a transport shared with other connections,
+   * so that it does not create its own I/O and event threads. Must be set
+   * before connecting.
+   * 
+   * @param transport
+   *          the shared transport, or {@code null} to create threads for this
+   *          connection.
+   * @see ClientWorldModelInterface#setTransport(WorldModelTransport)
+   */
+  public void setTransport(final WorldModelTransport transport) {
+    this.wmi.setTransport(transport);
+  }
+
+  /**
+   * Sets where this connection reports measurements. In addition to the
+   * measurements of {@link ClientWorldModelInterface#setMetrics}, the number of
+   * states waiting in all open {@code StepResponse} queues is reported as the
+   * {@code stepResponseQueueDepth} gauge, summed with other connections that
+   * report to the same metrics. Must be set before connecting.
+   * 
+   * @param metrics
+   *          the metrics to report to, or {@code null} to stop reporting.
+   */
+  public void setMetrics(final WorldModelMetrics metrics) {
+    this.wmi.getMetrics().unregisterGauge("stepResponseQueueDepth",
+        this.stepResponseQueueDepth);
+    this.wmi.setMetrics(metrics);
+    this.wmi.getMetrics().registerGauge("stepResponseQueueDepth",
+        this.stepResponseQueueDepth);
+  }
+
   @Override
   public String toString() {
     return "World Model (C) @ " + this.wmi.getHost() + ":" + this.wmi.getPort();
@@ -300,7 +380,7 @@ public class ClientWorldConnection {
           }
         }
       }
-      long reqId = this.wmi.sendMessage(req);
+      long reqId = this.sendTraced(req, "Snapshot");
       resp.setTicketNumber(reqId);
       this.outstandingSnapshots.put(Long.valueOf(reqId), resp);
 
@@ -366,7 +446,7 @@ public class ClientWorldConnection {
           }
         }
       }
-      long reqId = this.wmi.sendMessage(req);
+      long reqId = this.sendTraced(req, "Range");
       resp.setTicketNumber(reqId);
       this.outstandingSteps.put(Long.valueOf(reqId), resp);
       log.info("Binding Tix #{} to {}", Long.valueOf(reqId), resp);
@@ -415,7 +495,7 @@ public class ClientWorldConnection {
           }
         }
       }
-      long reqId = this.wmi.sendMessage(req);
+      long reqId = this.sendTraced(req, "Stream");
       resp.setTicketNumber(reqId);
       this.outstandingSteps.put(Long.valueOf(reqId), resp);
 
@@ -455,6 +535,90 @@ public class ClientWorldConnection {
 
   }
 
+  /**
+   * Sends a request and starts tracing it.
+   * 
+   * @param req
+   *          the request to send.
+   * @param requestType
+   *          the type of request, for the latency report.
+   * @return the ticket number of the request.
+   */
+  private long sendTraced(final AbstractRequestMessage req,
+      final String requestType) {
+    final RequestTrace trace = new RequestTrace(requestType);
+    long reqId = this.wmi.sendMessage(req, new IoFutureListener<WriteFuture>() {
+      @Override
+      public void operationComplete(WriteFuture future) {
+        if (future.isWritten()) {
+          trace.written(System.nanoTime());
+        }
+      }
+    });
+    trace.setTicketNumber(reqId);
+    this.outstandingTraces.put(Long.valueOf(reqId), trace);
+    return reqId;
+  }
+
+  /**
+   * Ends the trace of a request, recording it in the latency report if it
+   * completed and passing it to the span exporter.
+   * 
+   * @param ticket
+   *          the ticket number of the request.
+   * @param completed
+   *          {@code true} if the Request Complete message arrived, or
+   *          {@code false} if the connection was lost.
+   */
+  private void finishTrace(final Long ticket, final boolean completed) {
+    RequestTrace trace = this.outstandingTraces.remove(ticket);
+    if (trace == null) {
+      return;
+    }
+    if (completed) {
+      trace.completed(System.nanoTime());
+      this.latencyReport.record(trace);
+    }
+    RequestSpanExporter exporter = this.spanExporter;
+    if (exporter != null) {
+      try {
+        exporter.export(trace);
+      } catch (Exception e) {
+        log.warn("Unable to export trace for Tix#{}: {}", ticket, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the latency histograms of the requests completed by this
+   * connection, for each request type and phase.
+   * 
+   * @return the latency report for this connection.
+   */
+  public RequestLatencyReport getLatencyReport() {
+    return this.latencyReport;
+  }
+
+  /**
+   * Sets the exporter that receives the trace of each request when it ends.
+   * 
+   * @param spanExporter
+   *          the exporter, or {@code null} to stop exporting.
+   */
+  public void setSpanExporter(final RequestSpanExporter spanExporter) {
+    this.spanExporter = spanExporter;
+  }
+
+  /**
+   * Returns the number of snapshot, range and stream requests sent on this
+   * connection that have not yet completed.
+   * 
+   * @return the number of outstanding tickets.
+   */
+  int outstandingTickets() {
+    return this.outstandingSnapshots.size() + this.outstandingSteps.size();
+  }
+
   /**
    * Cancels a request based on the ticket number.
    * 
@@ -474,6 +638,9 @@ public class ClientWorldConnection {
    */
   void connectionInterrupted(ClientWorldModelInterface worldModel) {
     this.isReady = false;
+    for (Long tix : new ArrayList<Long>(this.outstandingTraces.keySet())) {
+      this.finishTrace(tix, false);
+    }
     for (Iterator<Long> iter = this.outstandingSnapshots.keySet().iterator(); iter
         .hasNext();) {
       Long tix = iter.next();
@@ -538,6 +705,7 @@ public class ClientWorldConnection {
       AbstractRequestMessage message) {
     Long ticket = Long.valueOf(message.getTicketNumber());
     log.debug("Request {} completed.", ticket);
+    this.finishTrace(ticket, true);
 
     Response resp = this.outstandingSnapshots.remove(ticket);
     // Snapshot request
@@ -574,12 +742,17 @@ public class ClientWorldConnection {
    */
   synchronized void dataResponseReceived(ClientWorldModelInterface worldModel,
       DataResponseMessage message) {
+    RequestTrace trace = this.outstandingTraces.get(Long.valueOf(message
+        .getTicketNumber()));
+    if (trace != null) {
+      trace.dataReceived(System.nanoTime());
+    }
     // Check for snapshot request
     WorldState ws = null;
     ws = this.outstandingStates.get(Long.valueOf(message.getTicketNumber()));
     if (ws != null) {
-      log.debug("Updating data for ticket {}:\n{}",
-          Long.valueOf(message.getTicketNumber()), message);
+      log.debug("Updating data for ticket {}.",
+          Long.valueOf(message.getTicketNumber()));
       List<Attribute> attribList = new ArrayList<Attribute>();
       for (Attribute a : message.getAttributes()) {
         attribList.add(a);
@@ -595,8 +768,8 @@ public class ClientWorldConnection {
           Long.valueOf(message.getTicketNumber()));
       return;
     }
-    log.debug("Updating data for ticket {}:\n{}",
-        Long.valueOf(message.getTicketNumber()), message);
+    log.debug("Updating data for ticket {}.",
+        Long.valueOf(message.getTicketNumber()));
     ws = new WorldState();
     List<Attribute> attribList = new ArrayList<Attribute>();
     if (message.getAttributes() != null) {
@@ -0,0 +1,313 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.WorldModelTransport;
+
+/**
+ * A client that spreads requests over several connections, either to the same
+ * world model or to replicas of it. Snapshot and range requests are sent on the
+ * ready connection with the fewest outstanding tickets, so that large
+ * historical requests are not serialized behind each other on one session.
+ * Each stream request stays on the connection it was sent on until it is
+ * cancelled or that connection is lost. Every connection keeps its own
+ * attribute and origin alias tables, since alias values are only meaningful
+ * for the session that announced them.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ClientWorldConnectionPool {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(ClientWorldConnectionPool.class);
+
+  /**
+   * The connections in this pool.
+   */
+  private final List<ClientWorldConnection> connections = new CopyOnWriteArrayList<ClientWorldConnection>();
+
+  /**
+   * Transport shared by the connections, or {@code null} if each connection
+   * creates its own threads.
+   */
+  private final WorldModelTransport transport;
+
+  /**
+   * Rotates the first connection considered, so that connections with the
+   * same number of outstanding tickets take turns.
+   */
+  private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+  /**
+   * Creates a new pool whose connections each create their own I/O and event
+   * threads.
+   */
+  public ClientWorldConnectionPool() {
+    this(null);
+  }
+
+  /**
+   * Creates a new pool whose connections share the transport provided.
+   * 
+   * @param transport
+   *          the transport for the connections, or {@code null} to create
+   *          threads for each connection.
+   */
+  public ClientWorldConnectionPool(final WorldModelTransport transport) {
+    super();
+    this.transport = transport;
+  }
+
+  /**
+   * Adds a connection to the world model at the host and port provided. The
+   * connection is not connected until {@link #connect(long)} or
+   * {@link ClientWorldConnection#connect(long)} is called.
+   * 
+   * @param host
+   *          the world model host.
+   * @param port
+   *          the world model client port.
+   * @return the new connection.
+   */
+  public ClientWorldConnection addConnection(final String host, final int port) {
+    ClientWorldConnection conn = new ClientWorldConnection();
+    conn.setHost(host);
+    conn.setPort(port);
+    if (this.transport != null) {
+      conn.setTransport(this.transport);
+    }
+    this.connections.add(conn);
+    return conn;
+  }
+
+  /**
+   * Adds {@code count} connections to the world model at the host and port
+   * provided.
+   * 
+   * @param host
+   *          the world model host.
+   * @param port
+   *          the world model client port.
+   * @param count
+   *          the number of connections to add.
+   */
+  public void addConnections(final String host, final int port, final int count) {
+    for (int i = 0; i < count; ++i) {
+      this.addConnection(host, port);
+    }
+  }
+
+  /**
+   * Returns the connections in this pool, such as for configuring metrics or
+   * reading their latency reports.
+   * 
+   * @return an unmodifiable view of the connections.
+   */
+  public List<ClientWorldConnection> getConnections() {
+    return Collections.unmodifiableList(this.connections);
+  }
+
+  /**
+   * Connects each connection in this pool. Connections that fail to connect
+   * keep trying in the background.
+   * 
+   * @param timeout
+   *          the maximum time to attempt each connection or 0 for the
+   *          configured timeout.
+   * @return {@code true} if at least one connection succeeded, else
+   *         {@code false}.
+   */
+  public boolean connect(long timeout) {
+    boolean connected = false;
+    for (ClientWorldConnection conn : this.connections) {
+      if (conn.connect(timeout)) {
+        connected = true;
+      } else {
+        log.warn("Unable to connect {}.", conn);
+      }
+    }
+    return connected;
+  }
+
+  /**
+   * Permanently disconnects every connection in this pool.
+   */
+  public void disconnect() {
+    for (ClientWorldConnection conn : this.connections) {
+      conn.disconnect();
+    }
+  }
+
+  /**
+   * Whether or not at least one connection is ready to accept requests.
+   * 
+   * @return {@code true} if a connection is ready, else {@code false}.
+   */
+  public boolean isReady() {
+    for (ClientWorldConnection conn : this.connections) {
+      if (conn.isReady()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sends a snapshot request on the least-loaded connection.
+   * 
+   * @param idRegex
+   *          regular expression for matching the identifier.
+   * @param start
+   *          the begin time for the snapshot.
+   * @param end
+   *          the ending time for the snapshot.
+   * @param attributes
+   *          the attribute regular expressions to request
+   * @return a {@code Response} for the request.
+   * @see ClientWorldConnection#getSnapshot(String, long, long, String...)
+   */
+  public Response getSnapshot(final String idRegex, final long start,
+      final long end, String... attributes) {
+    return this.select().getSnapshot(idRegex, start, end, attributes);
+  }
+
+  /**
+   * Sends a snapshot request for current values on the least-loaded
+   * connection.
+   * 
+   * @param idRegex
+   *          the regular expression to match the identifiers.
+   * @param attributes
+   *          regular expressions to match attributes.
+   * @return a {@code Response} for the request.
+   * @see ClientWorldConnection#getCurrentSnapshot(String, String...)
+   */
+  public Response getCurrentSnapshot(final String idRegex, String... attributes) {
+    return this.select().getCurrentSnapshot(idRegex, attributes);
+  }
+
+  /**
+   * Sends a range request on the least-loaded connection.
+   * 
+   * @param idRegex
+   *          regular expression for matching the identifier.
+   * @param start
+   *          the beginning of the range.
+   * @param end
+   *          the end of the range.
+   * @param attributes
+   *          the attribute regular expressions to request
+   * @return a {@code StepResponse} for the request.
+   * @see ClientWorldConnection#getRangeRequest(String, long, long, String...)
+   */
+  public StepResponse getRangeRequest(final String idRegex, final long start,
+      final long end, String... attributes) {
+    return this.select().getRangeRequest(idRegex, start, end, attributes);
+  }
+
+  /**
+   * Sends a stream request on the least-loaded connection. The stream remains
+   * on that connection; if the connection is lost, the {@code StepResponse}
+   * completes with an error and the stream may be requested again.
+   * 
+   * @param idRegex
+   *          the regular expression for matching identifiers
+   * @param start
+   *          the earliest data to stream.
+   * @param interval
+   *          the minimum time between attribute value updates.
+   * @param attributes
+   *          the attribute regular expressions to match.
+   * @return a {@code StepResponse} for the request.
+   * @see ClientWorldConnection#getStreamRequest(String, long, long, String...)
+   */
+  public StepResponse getStreamRequest(final String idRegex, final long start,
+      final long interval, String... attributes) {
+    return this.select().getStreamRequest(idRegex, start, interval, attributes);
+  }
+
+  /**
+   * Searches for any Identifier values that match the provided regular
+   * expression, using the least-loaded connection.
+   * 
+   * @param idRegex
+   *          a regular expression to match against Identifiers in the world
+   *          model.
+   * @return all matching Identifiers.
+   * @see ClientWorldConnection#searchId(String)
+   */
+  public String[] searchId(final String idRegex) {
+    return this.select().searchId(idRegex);
+  }
+
+  /**
+   * Chooses the ready connection with the fewest outstanding tickets. If no
+   * connection is ready, a connection is returned anyway so that the request
+   * waits for it to become ready, as it would with a single connection.
+   * 
+   * @return the connection for the next request.
+   * @throws IllegalStateException
+   *           if the pool has no connections.
+   */
+  private ClientWorldConnection select() {
+    ClientWorldConnection[] conns = this.connections
+        .toArray(new ClientWorldConnection[0]);
+    if (conns.length == 0) {
+      throw new IllegalStateException("No connections in " + this + ".");
+    }
+    int first = (this.nextIndex.getAndIncrement() & Integer.MAX_VALUE)
+        % conns.length;
+    ClientWorldConnection best = null;
+    int bestTickets = Integer.MAX_VALUE;
+    for (int i = 0; i < conns.length; ++i) {
+      ClientWorldConnection conn = conns[(first + i) % conns.length];
+      if (!conn.isReady()) {
+        continue;
+      }
+      int tickets = conn.outstandingTickets();
+      if (tickets < bestTickets) {
+        best = conn;
+        bestTickets = tickets;
+      }
+    }
+    if (best == null) {
+      log.debug("No ready connection in {}, waiting on {}.", this,
+          conns[first]);
+      return conns[first];
+    }
+    return best;
+  }
+
+  @Override
+  public String toString() {
+    return "World Model (C) pool of " + this.connections.size();
+  }
+}
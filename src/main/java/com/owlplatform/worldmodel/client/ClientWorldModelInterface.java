@@ -22,10 +22,13 @@ package com.owlplatform.worldmodel.client;
 import java.net.InetSocketAddress;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mina.core.RuntimeIoException;
 import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
@@ -35,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.WorldModelTransport;
 import com.owlplatform.worldmodel.client.listeners.ConnectionListener;
 import com.owlplatform.worldmodel.client.listeners.DataListener;
 import com.owlplatform.worldmodel.client.protocol.codec.WorldModelClientProtocolCodecFactory;
@@ -54,6 +58,10 @@ import com.owlplatform.worldmodel.client.protocol.messages.RangeRequestMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.RequestCompleteMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.SnapshotRequestMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
+import com.owlplatform.worldmodel.metrics.NoOpMetrics;
+import com.owlplatform.worldmodel.metrics.WorldModelMetrics;
+import com.owlplatform.worldmodel.types.DataConverter;
+import com.owlplatform.worldmodel.types.TypeConverter;
 
 /**
  * Handles low-level network interaction with the World Model for client
@@ -113,6 +121,12 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
    */
   private boolean stayConnected = true;
 
+  /**
+   * Minimum attribute data length, in bytes, that is decoded into a direct
+   * (off-heap) buffer. Negative to always decode into a byte[].
+   */
+  private int offHeapPayloadThreshold = -1;
+
   /**
    * The Handshake message sent to the World Model.
    */
@@ -128,6 +142,20 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
    */
   private final ConcurrentHashMap<Integer, String> attributeAliasValues = new ConcurrentHashMap<Integer, String>();
 
+  /**
+   * Largest attribute alias value that will be stored in
+   * {@link #aliasConverters}. Attributes with larger aliases look up their
+   * converter by name.
+   */
+  private static final int MAX_INDEXED_ALIAS = 65535;
+
+  /**
+   * Session-based converters for attribute data, indexed by attribute alias.
+   * Replaced, never modified, when new aliases arrive. Entries are
+   * {@code null} for unknown aliases and attributes with no mapped converter.
+   */
+  private volatile TypeConverter<?>[] aliasConverters = new TypeConverter<?>[0];
+
   /**
    * Session-based mapping of Origin values to 32-bit unsigned integer values.
    */
@@ -170,6 +198,27 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
    */
   private final ConcurrentHashMap<Long, AbstractRequestMessage> outstandingRequests = new ConcurrentHashMap<Long, AbstractRequestMessage>();
 
+  /**
+   * Where this interface and its codec report measurements.
+   */
+  private volatile WorldModelMetrics metrics = NoOpMetrics.INSTANCE;
+
+  /**
+   * Reports the number of outstanding request tickets of this interface.
+   */
+  private final WorldModelMetrics.Gauge outstandingTickets = new WorldModelMetrics.Gauge() {
+    @Override
+    public long getValue() {
+      return ClientWorldModelInterface.this.outstandingRequests.size();
+    }
+  };
+
+  /**
+   * Shared threads to use instead of creating a connector and executor for
+   * this interface, if set.
+   */
+  private volatile WorldModelTransport transport = null;
+
   /**
    * Registers a listener to receive connection-related events from this
    * {@code ClientWorldModelInterface}.
@@ -235,11 +284,14 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
       log.error("Port value is invalid {}.", Integer.valueOf(this.port));
       return false;
     }
+    WorldModelTransport shared = this.transport;
     if (this.executors == null) {
-      this.executors = new ExecutorFilter(1);
+      this.executors = shared == null ? new ExecutorFilter(1) : shared
+          .createExecutorFilter();
     }
 
-    this.connector = new NioSocketConnector();
+    this.connector = shared == null ? new NioSocketConnector() : shared
+        .createConnector();
     this.connector.getSessionConfig().setIdleTime(IdleStatus.WRITER_IDLE,
         ClientWorldModelInterface.TIMEOUT_PERIOD / 2);
 //    this.connector.getSessionConfig().setIdleTime(IdleStatus.READER_IDLE,
@@ -249,7 +301,8 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
       this.connector.getFilterChain().addLast(
           WorldModelClientProtocolCodecFactory.CODEC_NAME,
           new ProtocolCodecFilter(
-              new WorldModelClientProtocolCodecFactory(true)));
+              new WorldModelClientProtocolCodecFactory(true,
+                  this.offHeapPayloadThreshold, this.metrics)));
     }
     this.connector.getFilterChain().addLast("ExecutorPool", this.executors);
     this.connector.setHandler(this.ioHandler);
@@ -366,6 +419,7 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
     if (!connFuture.awaitUninterruptibly(timeout)) {
       log.warn("Unable to connect to world model after {}ms.",
           Long.valueOf(this.connectionTimeout));
+      connFuture.cancel();
       return false;
     }
     if (!connFuture.isConnected()) {
@@ -395,7 +449,9 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
     this.sentHandshake = null;
     this.receivedHandshake = null;
     this.attributeAliasValues.clear();
+    this.aliasConverters = new TypeConverter<?>[0];
     this.originAliasValues.clear();
+    this.outstandingRequests.clear();
 
     if (currentSession != null && !currentSession.isClosing()) {
 
@@ -454,6 +510,11 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
     log.info("Lost connection to World Model (C) {}:{}", this.host,
         Integer.valueOf(this.port));
     this._disconnect();
+    if (this.stayConnected && this.transport != null) {
+      // Don't hold a shared event thread while waiting to reconnect
+      this.scheduleReconnect();
+      return;
+    }
     while (this.stayConnected) {
       Exception e = new Exception();
       e.printStackTrace();
@@ -467,6 +528,7 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
       }
       log.info("Reconnecting to World Model (C) {}:{}", this.host,
           Integer.valueOf(this.port));
+      this.metrics.reconnectAttempted();
 
       if (this.connect(this.connectionTimeout)) {
         return;
@@ -476,6 +538,105 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
     this.finishConnection();
   }
 
+  /**
+   * Schedules a reconnection attempt on the shared transport, and another
+   * after it if the attempt fails.
+   */
+  private void scheduleReconnect() {
+    log.info("Reconnecting after {}ms.",
+        Long.valueOf(this.connectionRetryDelay));
+    try {
+      this.transport.schedule(new Runnable() {
+        @Override
+        public void run() {
+          ClientWorldModelInterface.this.reconnect();
+        }
+      }, this.connectionRetryDelay);
+    } catch (RejectedExecutionException ree) {
+      log.warn("Transport for {} was disposed, not reconnecting.", this);
+      this.finishConnection();
+    }
+  }
+
+  /**
+   * Makes one scheduled reconnection attempt. The attempt does not block the
+   * transport's scheduling thread: it completes in
+   * {@link #reconnectCompleted(ConnectFuture)}, which schedules the next
+   * attempt if it fails.
+   */
+  void reconnect() {
+    if (!this.stayConnected) {
+      this.finishConnection();
+      return;
+    }
+    IoSession currentSession = this.session;
+    if (currentSession != null && currentSession.isConnected()
+        && !currentSession.isClosing()) {
+      return;
+    }
+    NioSocketConnector conn = this.connector;
+    if (conn == null) {
+      if (!this.setConnector()) {
+        log.error("Unable to set up connection to the World Model.");
+        this.scheduleReconnect();
+        return;
+      }
+      conn = this.connector;
+    }
+    log.info("Reconnecting to World Model (C) {}:{}", this.host,
+        Integer.valueOf(this.port));
+    this.metrics.reconnectAttempted();
+    try {
+      // A concurrent disconnect may clear or dispose the connector
+      conn.setConnectTimeoutMillis(this.connectionTimeout);
+      conn.connect(new InetSocketAddress(this.host, this.port)).addListener(
+          new IoFutureListener<ConnectFuture>() {
+            @Override
+            public void operationComplete(ConnectFuture future) {
+              ClientWorldModelInterface.this.reconnectCompleted(future);
+            }
+          });
+    } catch (RuntimeException re) {
+      log.warn("Unable to start reconnection to World Model (C) {}:{}: {}",
+          new Object[] { this.host, Integer.valueOf(this.port), re });
+      if (!this.stayConnected) {
+        this.finishConnection();
+        return;
+      }
+      // A connector whose connection loop did not start cannot be reused
+      if (conn != null && this.connector == conn) {
+        this.connector = null;
+        conn.dispose();
+      }
+      this.scheduleReconnect();
+    }
+  }
+
+  /**
+   * Handles the result of a scheduled reconnection attempt. Called on a MINA
+   * I/O thread, so it must not block.
+   * 
+   * @param future
+   *          the completed connection attempt.
+   */
+  void reconnectCompleted(final ConnectFuture future) {
+    if (!future.isConnected()) {
+      log.warn("Reconnection to World Model (C) {}:{} failed: {}",
+          new Object[] { this.host, Integer.valueOf(this.port),
+              future.getException() });
+      // The next attempt cleans up if reconnecting was stopped meanwhile
+      this.scheduleReconnect();
+      return;
+    }
+    IoSession newSession = future.getSession();
+    if (!this.stayConnected) {
+      // connectionClosed() cleans up
+      newSession.close(true);
+      return;
+    }
+    this.session = newSession;
+  }
+
   @Override
   public void handshakeReceived(IoSession session, HandshakeMessage message) {
     log.debug("Received {}", message);
@@ -575,10 +736,63 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
       log.debug("Attribute ({})->{}", alias.attributeName,
           Integer.valueOf(alias.aliasNumber));
     }
+    this.bindAliasConverters(aliases);
 
+    WorldModelMetrics metrics = this.metrics;
+    long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+        .nanoTime();
     for (DataListener listener : this.dataListeners) {
       listener.attributeAliasesReceived(this, message);
     }
+    if (metrics != NoOpMetrics.INSTANCE) {
+      metrics.listenersInvoked("attributeAliasesReceived",
+          System.nanoTime() - listenerStart);
+    }
+  }
+
+  /**
+   * Stores the converter mapped to each attribute name in the alias-indexed
+   * converter table.
+   * 
+   * @param aliases
+   *          the newly-received attribute aliases.
+   */
+  private synchronized void bindAliasConverters(final AttributeAlias[] aliases) {
+    int maxAlias = this.aliasConverters.length - 1;
+    for (AttributeAlias alias : aliases) {
+      if (alias.aliasNumber > maxAlias && alias.aliasNumber <= MAX_INDEXED_ALIAS) {
+        maxAlias = alias.aliasNumber;
+      }
+    }
+    TypeConverter<?>[] converters = new TypeConverter<?>[maxAlias + 1];
+    System.arraycopy(this.aliasConverters, 0, converters, 0,
+        this.aliasConverters.length);
+    for (AttributeAlias alias : aliases) {
+      if (alias.aliasNumber >= 0 && alias.aliasNumber <= MAX_INDEXED_ALIAS) {
+        converters[alias.aliasNumber] = DataConverter
+            .getConverter(alias.attributeName);
+      }
+    }
+    this.aliasConverters = converters;
+  }
+
+  /**
+   * Returns the converter for an attribute alias on the current connection.
+   * The converter is bound when the alias is received, so attributes whose
+   * converter is mapped later with {@link DataConverter#putConverter} are
+   * looked up by name instead.
+   * 
+   * @param attributeAlias
+   *          the attribute alias.
+   * @return the converter for the alias, or {@code null} if the alias is
+   *         unknown or has no mapped converter.
+   */
+  public TypeConverter<?> getConverter(final int attributeAlias) {
+    TypeConverter<?>[] converters = this.aliasConverters;
+    if (attributeAlias < 0 || attributeAlias >= converters.length) {
+      return null;
+    }
+    return converters[attributeAlias];
   }
 
   @Override
@@ -596,9 +810,16 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
           Integer.valueOf(alias.aliasNumber));
     }
 
+    WorldModelMetrics metrics = this.metrics;
+    long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+        .nanoTime();
     for (DataListener listener : this.dataListeners) {
       listener.originAliasesReceived(this, message);
     }
+    if (metrics != NoOpMetrics.INSTANCE) {
+      metrics.listenersInvoked("originAliasesReceived",
+          System.nanoTime() - listenerStart);
+    }
   }
 
   @Override
@@ -607,15 +828,23 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
     Long ticketNumber = Long.valueOf(message.getTicketNumber());
     log.debug("Request {} has completed.", ticketNumber);
 
-    AbstractRequestMessage request = this.outstandingRequests.get(ticketNumber);
+    AbstractRequestMessage request = this.outstandingRequests
+        .remove(ticketNumber);
     if (request == null) {
       log.error("Unable to retrieve request for ticket {}.", ticketNumber);
       this._disconnect();
       return;
     }
+    WorldModelMetrics metrics = this.metrics;
+    long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+        .nanoTime();
     for (DataListener listener : this.dataListeners) {
       listener.requestCompleted(this, request);
     }
+    if (metrics != NoOpMetrics.INSTANCE) {
+      metrics.listenersInvoked("requestCompleted",
+          System.nanoTime() - listenerStart);
+    }
 
   }
 
@@ -630,6 +859,7 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
   public void dataResponseReceived(IoSession session,
       DataResponseMessage message) {
     if (message.getAttributes() != null) {
+      TypeConverter<?>[] converters = this.aliasConverters;
       for (Attribute attr : message.getAttributes()) {
         String attributeName = this.attributeAliasValues.get(Integer
             .valueOf(attr.getAttributeNameAlias()));
@@ -640,6 +870,10 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
           return;
         }
         attr.setAttributeName(attributeName);
+        if (attr.getAttributeNameAlias() >= 0
+            && attr.getAttributeNameAlias() < converters.length) {
+          attr.bindConverter(converters[attr.getAttributeNameAlias()]);
+        }
 
         String originName = this.originAliasValues.get(Integer.valueOf(attr
             .getOriginNameAlias()));
@@ -653,11 +887,16 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
       }
     }
 
-    log.debug("Received data response from {}: {}", this, message);
-
+    WorldModelMetrics metrics = this.metrics;
+    long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+        .nanoTime();
     for (DataListener listener : this.dataListeners) {
       listener.dataResponseReceived(this, message);
     }
+    if (metrics != NoOpMetrics.INSTANCE) {
+      metrics.listenersInvoked("dataResponseReceived",
+          System.nanoTime() - listenerStart);
+    }
   }
 
   /**
@@ -668,11 +907,29 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
    * @return the ticket number of the request.
    */
   public synchronized long sendMessage(AbstractRequestMessage message) {
+    return this.sendMessage(message, null);
+  }
+
+  /**
+   * Sends a request message to the world model, notifying {@code listener}
+   * when the message has been written to the socket.
+   * 
+   * @param message
+   *          the message to send.
+   * @param listener
+   *          notified when the write completes, or {@code null}.
+   * @return the ticket number of the request.
+   */
+  synchronized long sendMessage(AbstractRequestMessage message,
+      IoFutureListener<WriteFuture> listener) {
     log.debug("Sending {} to {}", message, this);
     message.setTicketNumber(this.nextTicketNumber.getAndIncrement());
     this.outstandingRequests.put(Long.valueOf(message.getTicketNumber()),
         message);
-    this.session.write(message);
+    WriteFuture future = this.session.write(message);
+    if (listener != null) {
+      future.addListener(listener);
+    }
     return message.getTicketNumber();
   }
 
@@ -706,9 +963,16 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
   public void idSearchResponseReceived(IoSession session,
       IdSearchResponseMessage message) {
     log.debug("Received Identifier search response from {}: {}", this, message);
+    WorldModelMetrics metrics = this.metrics;
+    long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+        .nanoTime();
     for (DataListener listener : this.dataListeners) {
       listener.idSearchResponseReceived(this, message);
     }
+    if (metrics != NoOpMetrics.INSTANCE) {
+      metrics.listenersInvoked("idSearchResponseReceived",
+          System.nanoTime() - listenerStart);
+    }
 
   }
 
@@ -936,6 +1200,78 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
     this.stayConnected = stayConnected;
   }
 
+  /**
+   * Returns the minimum attribute data length that is decoded into a direct
+   * (off-heap) buffer.
+   * 
+   * @return the threshold in bytes, or a negative value if attribute data is
+   *         always decoded into a byte[].
+   */
+  public int getOffHeapPayloadThreshold() {
+    return this.offHeapPayloadThreshold;
+  }
+
+  /**
+   * Sets the minimum attribute data length that is decoded into a direct
+   * (off-heap) buffer instead of a byte[]. Such data is read with
+   * {@link com.owlplatform.worldmodel.Attribute#dataBuffer()} without copying
+   * it onto the heap. Must be set before the first call to
+   * {@link #connect(long)}.
+   * 
+   * @param offHeapPayloadThreshold
+   *          the threshold in bytes, or a negative value to always decode into
+   *          a byte[].
+   */
+  public void setOffHeapPayloadThreshold(int offHeapPayloadThreshold) {
+    this.offHeapPayloadThreshold = offHeapPayloadThreshold;
+  }
+
+  /**
+   * Sets where this interface and its protocol codec report message counts,
+   * coding times, reconnections, listener latency, and the number of
+   * outstanding request tickets. Must be called before {@link #connect(long)}
+   * for the codec measurements to take effect.
+   * 
+   * @param metrics
+   *          the metrics to report to, or {@code null} to stop reporting.
+   */
+  public void setMetrics(final WorldModelMetrics metrics) {
+    this.metrics.unregisterGauge("outstandingTickets", this.outstandingTickets);
+    this.metrics = metrics == null ? NoOpMetrics.INSTANCE : metrics;
+    this.metrics.registerGauge("outstandingTickets", this.outstandingTickets);
+  }
+
+  /**
+   * Attaches this interface to a transport shared with other connections,
+   * so that it does not create its own I/O and event threads. Must be called
+   * before {@link #connect(long)}.
+   * 
+   * @param transport
+   *          the shared transport, or {@code null} to create threads for
+   *          this interface.
+   */
+  public void setTransport(final WorldModelTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Returns the transport this interface is attached to.
+   * 
+   * @return the shared transport, or {@code null} if none is set.
+   */
+  public WorldModelTransport getTransport() {
+    return this.transport;
+  }
+
+  /**
+   * Returns where this interface reports measurements.
+   * 
+   * @return the metrics for this interface.
+   */
+  public WorldModelMetrics getMetrics() {
+    return this.metrics;
+  }
+
   @Override
   public String toString() {
     StringBuffer sb = new StringBuffer("Client-World Model Interface");
@@ -962,9 +1298,16 @@ public class ClientWorldModelInterface implements ClientIoAdapter {
       OriginPreferenceMessage message) {
     log.debug("Sent {}", message);
 
+    WorldModelMetrics metrics = this.metrics;
+    long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+        .nanoTime();
     for (DataListener listener : this.dataListeners) {
       listener.originPreferenceSent(this, message);
     }
+    if (metrics != NoOpMetrics.INSTANCE) {
+      metrics.listenersInvoked("originPreferenceSent",
+          System.nanoTime() - listenerStart);
+    }
 
   }
 }
@@ -18,6 +18,7 @@
  */
 package com.owlplatform.worldmodel.client;
 
+import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
@@ -37,6 +38,7 @@ import com.owlplatform.worldmodel.client.protocol.messages.SnapshotRequestMessag
 import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchResponseMessage;
+import com.owlplatform.worldmodel.metrics.ProtocolTrace;
 
 /**
  * IOHandler for Client-World Model protocol events. Demultiplexes the messages
@@ -96,7 +98,7 @@ public class ClientWorldModelIoHandler implements IoHandler {
   @Override
   public void messageReceived(IoSession session, Object message)
       throws Exception {
-    log.debug("Received message from {}: {}", session, message);
+    ProtocolTrace.received(session, message);
     if (this.ioAdapter == null) {
       log.warn("No IoAdapter defined, ignoring message from {}.\n{}", session,
           message);
@@ -146,7 +148,7 @@ public class ClientWorldModelIoHandler implements IoHandler {
 
   @Override
   public void messageSent(IoSession session, Object message) throws Exception {
-    log.debug("Sent message to {}: {}", session, message);
+    ProtocolTrace.sent(session, message);
     if (this.ioAdapter == null) {
       log.warn("No IoAdapter defined, ignoring message to {}.\n{}", session,
           message);
@@ -183,6 +185,10 @@ public class ClientWorldModelIoHandler implements IoHandler {
     } else if (message instanceof OriginPreferenceMessage) {
       this.ioAdapter.OriginPreferenceSent(session,
           (OriginPreferenceMessage) message);
+    } else if (message instanceof IoBuffer) {
+      // Pre-encoded messages, such as shared stream Data Responses
+      log.debug("Sent {} encoded bytes to {}.",
+          Integer.valueOf(((IoBuffer) message).limit()), session);
     }
 
     else {
@@ -0,0 +1,130 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.client;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.owlplatform.worldmodel.metrics.LatencyHistogram;
+
+/**
+ * Latency histograms for each phase of each type of request completed by a
+ * {@link ClientWorldConnection}. Only requests that completed normally are
+ * recorded.
+ * 
+ * @author Robert Moore
+ * @see RequestTrace
+ */
+public class RequestLatencyReport {
+
+  /**
+   * Histograms for each request type, indexed by phase ordinal.
+   */
+  private final ConcurrentHashMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<String, LatencyHistogram[]>();
+
+  /**
+   * Records the phases of a finished request. Does nothing if the request did
+   * not complete.
+   * 
+   * @param trace
+   *          the trace of the request.
+   */
+  public void record(final RequestTrace trace) {
+    if (!trace.isComplete()) {
+      return;
+    }
+    LatencyHistogram[] phases = this.histograms.get(trace.getRequestType());
+    if (phases == null) {
+      phases = new LatencyHistogram[RequestTrace.Phase.values().length];
+      for (int i = 0; i < phases.length; ++i) {
+        phases[i] = new LatencyHistogram();
+      }
+      LatencyHistogram[] existing = this.histograms.putIfAbsent(
+          trace.getRequestType(), phases);
+      if (existing != null) {
+        phases = existing;
+      }
+    }
+    for (RequestTrace.Phase phase : RequestTrace.Phase.values()) {
+      long duration = trace.getDuration(phase);
+      if (duration >= 0) {
+        phases[phase.ordinal()].recordValue(duration);
+      }
+    }
+  }
+
+  /**
+   * Returns the request types that have been recorded.
+   * 
+   * @return the recorded request types, in sorted order.
+   */
+  public Set<String> getRequestTypes() {
+    return new TreeSet<String>(this.histograms.keySet());
+  }
+
+  /**
+   * Returns a copy of the histogram for one phase of a request type.
+   * 
+   * @param requestType
+   *          the request type, such as "Snapshot".
+   * @param phase
+   *          the phase of the request.
+   * @return the histogram of durations in nanoseconds, or {@code null} if no
+   *         requests of that type have completed.
+   */
+  public LatencyHistogram getHistogram(final String requestType,
+      final RequestTrace.Phase phase) {
+    LatencyHistogram[] phases = this.histograms.get(requestType);
+    if (phases == null) {
+      return null;
+    }
+    return phases[phase.ordinal()].copy();
+  }
+
+  /**
+   * Removes all recorded requests.
+   */
+  public void reset() {
+    this.histograms.clear();
+  }
+
+  /**
+   * Returns a table of the count, 50th, 90th, 99th percentile and maximum
+   * duration, in microseconds, of each phase of each request type.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(String.format(
+        "%-10s %-10s %10s %10s %10s %10s %10s%n", "Request", "Phase", "Count",
+        "p50(us)", "p90(us)", "p99(us)", "max(us)"));
+    for (String type : this.getRequestTypes()) {
+      for (RequestTrace.Phase phase : RequestTrace.Phase.values()) {
+        LatencyHistogram hist = this.getHistogram(type, phase);
+        sb.append(String.format("%-10s %-10s %10d %10d %10d %10d %10d%n", type,
+            phase, Long.valueOf(hist.getTotalCount()),
+            Long.valueOf(hist.getValueAtPercentile(50) / 1000),
+            Long.valueOf(hist.getValueAtPercentile(90) / 1000),
+            Long.valueOf(hist.getValueAtPercentile(99) / 1000),
+            Long.valueOf(hist.getMaxValue() / 1000)));
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.client;
+
+/**
+ * Receives the trace of each request made through a
+ * {@link ClientWorldConnection} once the request ends, so that it can be
+ * exported as a span to a tracing system. Implementations are called on the
+ * connection's I/O threads, sometimes while the connection's lock is held,
+ * and when a connection is lost they may be called at the same time as for a
+ * request that just completed. They must be thread-safe and should hand
+ * traces off rather than blocking.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface RequestSpanExporter {
+
+  /**
+   * Called once for each request, after its Request Complete message arrives
+   * or its connection is lost.
+   * 
+   * @param trace
+   *          the finished trace.
+   */
+  public void export(final RequestTrace trace);
+}
@@ -0,0 +1,308 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.client;
+
+/**
+ * Timestamps for a single request ticket on a {@link ClientWorldConnection},
+ * from the moment the request is sent until its Request Complete message
+ * arrives. The time between each pair of timestamps is one {@link Phase} of the
+ * request, which shows whether a slow request spent its time waiting to be
+ * written, waiting on the world model, or receiving data.
+ * <p>
+ * Timestamps are from {@link System#nanoTime()}, except for
+ * {@link #getStartTime()}, and are 0 if the event has not happened.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RequestTrace {
+
+  /**
+   * The intervals between the timestamps of a request.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static enum Phase {
+    /**
+     * From sending the request until it was written to the socket.
+     */
+    SEND,
+    /**
+     * From writing the request until the first Data Response arrived, which
+     * includes world model processing and network transfer.
+     */
+    FIRST_DATA,
+    /**
+     * From the first Data Response until the last one.
+     */
+    TRANSFER,
+    /**
+     * From sending the request until its Request Complete message arrived.
+     */
+    TOTAL
+  }
+
+  /**
+   * The type of request, such as "Snapshot", "Range", or "Stream".
+   */
+  private final String requestType;
+
+  /**
+   * Wall-clock time when the request was sent, in milliseconds since the
+   * epoch.
+   */
+  private final long startTime = System.currentTimeMillis();
+
+  /**
+   * When the request was sent.
+   */
+  private final long sentNanos = System.nanoTime();
+
+  /**
+   * The ticket number of the request.
+   */
+  private long ticketNumber = 0;
+
+  /**
+   * When the request was written to the socket.
+   */
+  private volatile long writtenNanos = 0;
+
+  /**
+   * When the first Data Response arrived.
+   */
+  private long firstDataNanos = 0;
+
+  /**
+   * When the most recent Data Response arrived.
+   */
+  private long lastDataNanos = 0;
+
+  /**
+   * When the Request Complete message arrived.
+   */
+  private long completeNanos = 0;
+
+  /**
+   * Number of Data Response messages received.
+   */
+  private int dataResponses = 0;
+
+  /**
+   * Creates a new trace for a request that is about to be sent.
+   * 
+   * @param requestType
+   *          the type of request.
+   */
+  RequestTrace(final String requestType) {
+    this.requestType = requestType;
+  }
+
+  /**
+   * Sets the ticket number assigned to the request.
+   * 
+   * @param ticketNumber
+   *          the ticket number.
+   */
+  void setTicketNumber(final long ticketNumber) {
+    this.ticketNumber = ticketNumber;
+  }
+
+  /**
+   * Records the time the request was written to the socket.
+   * 
+   * @param nanos
+   *          the time the request was written.
+   */
+  void written(final long nanos) {
+    this.writtenNanos = nanos;
+  }
+
+  /**
+   * Records the arrival of a Data Response message.
+   * 
+   * @param nanos
+   *          the time the message arrived.
+   */
+  void dataReceived(final long nanos) {
+    if (this.firstDataNanos == 0) {
+      this.firstDataNanos = nanos;
+    }
+    this.lastDataNanos = nanos;
+    ++this.dataResponses;
+  }
+
+  /**
+   * Records the arrival of the Request Complete message.
+   * 
+   * @param nanos
+   *          the time the message arrived.
+   */
+  void completed(final long nanos) {
+    this.completeNanos = nanos;
+  }
+
+  /**
+   * Returns the type of request, such as "Snapshot", "Range", or "Stream".
+   * 
+   * @return the request type.
+   */
+  public String getRequestType() {
+    return this.requestType;
+  }
+
+  /**
+   * Returns the ticket number of the request.
+   * 
+   * @return the ticket number.
+   */
+  public long getTicketNumber() {
+    return this.ticketNumber;
+  }
+
+  /**
+   * Returns the wall-clock time when the request was sent.
+   * 
+   * @return the send time, in milliseconds since the epoch.
+   */
+  public long getStartTime() {
+    return this.startTime;
+  }
+
+  /**
+   * Returns when the request was sent.
+   * 
+   * @return the send time, in nanoseconds.
+   */
+  public long getSentNanos() {
+    return this.sentNanos;
+  }
+
+  /**
+   * Returns when the request was written to the socket.
+   * 
+   * @return the write time, in nanoseconds, or 0 if it was not written.
+   */
+  public long getWrittenNanos() {
+    return this.writtenNanos;
+  }
+
+  /**
+   * Returns when the first Data Response arrived.
+   * 
+   * @return the arrival time, in nanoseconds, or 0 if no data arrived.
+   */
+  public long getFirstDataNanos() {
+    return this.firstDataNanos;
+  }
+
+  /**
+   * Returns when the last Data Response arrived.
+   * 
+   * @return the arrival time, in nanoseconds, or 0 if no data arrived.
+   */
+  public long getLastDataNanos() {
+    return this.lastDataNanos;
+  }
+
+  /**
+   * Returns when the Request Complete message arrived.
+   * 
+   * @return the arrival time, in nanoseconds, or 0 if the request did not
+   *         complete.
+   */
+  public long getCompleteNanos() {
+    return this.completeNanos;
+  }
+
+  /**
+   * Returns the number of Data Response messages received for the request.
+   * 
+   * @return the number of Data Responses.
+   */
+  public int getDataResponses() {
+    return this.dataResponses;
+  }
+
+  /**
+   * Returns {@code true} if the request completed normally, or {@code false}
+   * if the connection was lost first.
+   * 
+   * @return {@code true} if the Request Complete message arrived.
+   */
+  public boolean isComplete() {
+    return this.completeNanos != 0;
+  }
+
+  /**
+   * Returns the duration of one phase of the request.
+   * 
+   * @param phase
+   *          the phase.
+   * @return the duration in nanoseconds, or -1 if either end of the phase
+   *         did not happen.
+   */
+  public long getDuration(final Phase phase) {
+    switch (phase) {
+    case SEND:
+      return between(this.sentNanos, this.writtenNanos);
+    case FIRST_DATA:
+      return between(this.writtenNanos, this.firstDataNanos);
+    case TRANSFER:
+      return between(this.firstDataNanos, this.lastDataNanos);
+    case TOTAL:
+      return between(this.sentNanos, this.completeNanos);
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the time between two timestamps.
+   * 
+   * @param from
+   *          the earlier timestamp.
+   * @param to
+   *          the later timestamp.
+   * @return the time between them, or -1 if either is 0.
+   */
+  private static long between(final long from, final long to) {
+    if (from == 0 || to == 0) {
+      return -1;
+    }
+    return Math.max(0, to - from);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(this.requestType).append(" Tix#").append(this.ticketNumber);
+    for (Phase phase : Phase.values()) {
+      sb.append(' ').append(phase).append('=')
+          .append(this.getDuration(phase));
+    }
+    sb.append(" responses=").append(this.dataResponses);
+    if (!this.isComplete()) {
+      sb.append(" (incomplete)");
+    }
+    return sb.toString();
+  }
+}
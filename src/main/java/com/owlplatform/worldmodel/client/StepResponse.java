@@ -251,4 +251,14 @@ public class StepResponse {
   void setTicketNumber(long ticketNumber) {
     this.ticketNumber = ticketNumber;
   }
+
+  /**
+   * Returns the number of states received from the world model that have not
+   * yet been taken by {@link #next()}.
+   * 
+   * @return the number of queued states.
+   */
+  int queuedStates() {
+    return this.states.size();
+  }
 }
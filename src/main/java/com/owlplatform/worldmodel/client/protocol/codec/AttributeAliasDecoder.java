@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage.AttributeAlias;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 /**
  * Decoder for Attribute Alias messages.
  * @author Robert Moore
@@ -71,7 +72,7 @@ public class AttributeAliasDecoder implements MessageDecoder {
 				int nameLength = buffer.getInt();
 				byte[] nameBytes = new byte[nameLength];
 				buffer.get(nameBytes);
-				String name = new String(nameBytes, "UTF-16BE");
+				String name = Utf16Codec.decode(nameBytes);
 
 				aliases[i] = new AttributeAlias(aliasNumber, name);
 			}
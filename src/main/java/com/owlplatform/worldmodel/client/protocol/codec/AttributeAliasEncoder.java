@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage.AttributeAlias;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Attribute Alias messages.
@@ -46,9 +47,8 @@ public class AttributeAliasEncoder implements MessageEncoder<AttributeAliasMessa
 			buffer.putInt(aliases.length);
 			for(AttributeAlias alias : aliases){
 				buffer.putInt(alias.aliasNumber);
-				byte[] aliasBytes = alias.attributeName.getBytes("UTF-16BE");
-				buffer.putInt(aliasBytes.length);
-				buffer.put(aliasBytes);
+				buffer.putInt(Utf16Codec.length(alias.attributeName));
+				Utf16Codec.put(alias.attributeName, buffer);
 			}
 		}else{
 			buffer.putInt(0);
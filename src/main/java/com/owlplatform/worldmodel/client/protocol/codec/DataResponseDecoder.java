@@ -18,6 +18,7 @@
  */
 package com.owlplatform.worldmodel.client.protocol.codec;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import org.apache.mina.core.buffer.IoBuffer;
@@ -30,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.Attribute;
 import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Data Response messages.
@@ -43,6 +45,32 @@ public class DataResponseDecoder implements MessageDecoder {
 	 */
 	private static final Logger log = LoggerFactory.getLogger(DataResponseDecoder.class);
 
+	/**
+	 * Minimum attribute data length, in bytes, that is copied into a direct
+	 * (off-heap) buffer instead of a byte[]. Negative to always use a byte[].
+	 */
+	private final int offHeapThreshold;
+
+	/**
+	 * Creates a new decoder that stores all attribute data in byte[] objects.
+	 */
+	public DataResponseDecoder() {
+		this(-1);
+	}
+
+	/**
+	 * Creates a new decoder that stores large attribute data in direct
+	 * buffers, available through {@link Attribute#dataBuffer()}.
+	 * 
+	 * @param offHeapThreshold
+	 *          the minimum data length, in bytes, stored off-heap, or a
+	 *          negative value to always use a byte[].
+	 */
+	public DataResponseDecoder(final int offHeapThreshold) {
+		super();
+		this.offHeapThreshold = offHeapThreshold;
+	}
+
 	@Override
 	public MessageDecoderResult decodable(IoSession session, IoBuffer buffer) {
 		if (buffer.prefixedDataAvailable(4)) {
@@ -85,7 +113,7 @@ public class DataResponseDecoder implements MessageDecoder {
 		buffer.get(idBytes);
 		messageLength -= idLength;
 		
-		String identifier = new String(idBytes,"UTF-16BE");
+		String identifier = Utf16Codec.decode(idBytes);
 		message.setId(identifier);
 		
 		int ticketNumber = buffer.getInt();
@@ -121,10 +149,20 @@ public class DataResponseDecoder implements MessageDecoder {
 				int dataLength = buffer.getInt();
 				messageLength -= 4;
 				if(dataLength > 0){
-					byte[] data = new byte[dataLength];
-					buffer.get(data);
+					if(this.offHeapThreshold >= 0 && dataLength >= this.offHeapThreshold){
+						ByteBuffer data = ByteBuffer.allocateDirect(dataLength);
+						int limit = buffer.limit();
+						buffer.limit(buffer.position() + dataLength);
+						data.put(buffer.buf());
+						buffer.limit(limit);
+						data.flip();
+						attrib.setData(data);
+					}else{
+						byte[] data = new byte[dataLength];
+						buffer.get(data);
+						attrib.setData(data);
+					}
 					messageLength -= dataLength;
-					attrib.setData(data);
 				}
 				
 				attributes.add(attrib);
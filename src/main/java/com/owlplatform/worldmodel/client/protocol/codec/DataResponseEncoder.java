@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.Attribute;
 import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Data Response messages.
@@ -44,6 +45,23 @@ public class DataResponseEncoder implements MessageEncoder<DataResponseMessage>
 	@Override
 	public void encode(IoSession session, DataResponseMessage message,
 			ProtocolEncoderOutput out) throws Exception {
+		IoBuffer buffer = encode(message);
+
+		out.write(buffer);
+
+		buffer.free();
+	}
+
+	/**
+	 * Encodes a Data Response message into a new buffer, so that it can be
+	 * written to several sessions without being encoded again.
+	 * 
+	 * @param message
+	 *          the message to encode.
+	 * @return a flipped buffer containing the encoded message.
+	 * @see #getTicketNumberOffset(String)
+	 */
+	public static IoBuffer encode(final DataResponseMessage message) {
 		IoBuffer buffer = IoBuffer.allocate(message.getMessageLength() + 4);
 
 		// Message length
@@ -53,9 +71,8 @@ public class DataResponseEncoder implements MessageEncoder<DataResponseMessage>
 
 		// Message Identifier (this really shouldn't be null)
 		if (message.getId() != null) {
-			byte[] idBytes = message.getId().getBytes("UTF-16BE");
-			buffer.putInt(idBytes.length);
-			buffer.put(idBytes);
+			buffer.putInt(Utf16Codec.length(message.getId()));
+			Utf16Codec.put(message.getId(), buffer);
 		} else {
 			log.error("Message Identifier is null!");
 		}
@@ -74,15 +91,31 @@ public class DataResponseEncoder implements MessageEncoder<DataResponseMessage>
 				buffer.putLong(attr.getCreationDate());
 				buffer.putLong(attr.getExpirationDate());
 				buffer.putInt(attr.getOriginNameAlias());
-
+				int dataLength = attr.getDataLength();
+				buffer.putInt(dataLength);
+				if (dataLength > 0) {
+					buffer.put(attr.dataBuffer());
+				}
 			}
 		}
 
 		buffer.flip();
 
-		out.write(buffer);
+		return buffer;
+	}
 
-		buffer.free();
+	/**
+	 * Returns the position of the ticket number within an encoded Data Response
+	 * message, so the ticket number of an encoded message can be replaced.
+	 * 
+	 * @param identifier
+	 *          the Identifier of the message.
+	 * @return the offset of the 4-byte ticket number from the start of the
+	 *         encoded message.
+	 */
+	public static int getTicketNumberOffset(final String identifier) {
+		// Message length, message type, Identifier length, Identifier
+		return 4 + 1 + 4 + Utf16Codec.length(identifier);
 	}
 
 }
@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Identifier Search messages.
@@ -62,7 +63,7 @@ public class IdSearchDecoder implements MessageDecoder {
 		--messageLength;
 		byte[] idBytes = new byte[messageLength];
 		buffer.get(idBytes);
-		String identifier = new String(idBytes,"UTF-16BE");
+		String identifier = Utf16Codec.decode(idBytes);
 		
 		IdSearchMessage message = new IdSearchMessage();
 		message.setIdRegex(identifier);
@@ -24,6 +24,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Identifier Search messages.
@@ -40,8 +41,7 @@ public class IdSearchEncoder implements MessageEncoder<IdSearchMessage> {
 		buffer.putInt(message.getMessageLength());
 		buffer.put(IdSearchMessage.MESSAGE_TYPE);
 		if (message.getIdRegex() != null) {
-			byte[] idRegexByte = message.getIdRegex().getBytes("UTF-16BE");
-			buffer.put(idRegexByte);
+			Utf16Codec.put(message.getIdRegex(), buffer);
 		}
 
 		
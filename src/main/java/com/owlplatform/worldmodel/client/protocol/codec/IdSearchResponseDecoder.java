@@ -27,6 +27,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchResponseMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Identifier Search responses.
@@ -74,7 +75,7 @@ public class IdSearchResponseDecoder implements MessageDecoder {
 				byte[] idBytes = new byte[idLength];
 				buffer.get(idBytes);
 				messageLength -= idLength;
-				matchingIds.add(new String(idBytes, "UTF-16BE"));
+				matchingIds.add(Utf16Codec.decode(idBytes));
 			}
 			message.setMatchingIds(matchingIds.toArray(new String[matchingIds.size()]));
 
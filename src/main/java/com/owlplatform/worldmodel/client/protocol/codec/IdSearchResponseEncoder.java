@@ -24,6 +24,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchResponseMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Identifier Search response messages.
@@ -45,9 +46,8 @@ public class IdSearchResponseEncoder implements
 		
 		if(message.getMatchingIds() != null){
 			for(String identifier : message.getMatchingIds()){
-				byte[] idByte = identifier.getBytes("UTF-16BE");
-				buffer.putInt(idByte.length);
-				buffer.put(idByte);
+				buffer.putInt(Utf16Codec.length(identifier));
+				Utf16Codec.put(identifier, buffer);
 			}
 		}
 		
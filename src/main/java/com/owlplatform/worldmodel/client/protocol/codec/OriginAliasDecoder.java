@@ -30,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage.OriginAlias;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Origin Alias messages.
@@ -87,7 +88,7 @@ public class OriginAliasDecoder implements MessageDecoder {
 				if (nameLength != 0) {
 					byte[] nameBytes = new byte[nameLength];
 					buffer.get(nameBytes);
-					name = new String(nameBytes, "UTF-16BE");
+					name = Utf16Codec.decode(nameBytes);
 
 				}else{
 					log.warn("World Model sent an empty origin name for alias number {}.",Integer.valueOf(aliasNumber));
@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage.OriginAlias;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Origin Alias messages.
@@ -53,9 +54,8 @@ public class OriginAliasEncoder implements
 			buffer.putInt(aliases.length);
 			for(OriginAlias alias : aliases){
 				buffer.putInt(alias.aliasNumber);
-				byte[] aliasNameByte = alias.origin.getBytes("UTF-16BE");
-				buffer.putInt(aliasNameByte.length);
-				buffer.put(aliasNameByte);
+				buffer.putInt(Utf16Codec.length(alias.origin));
+				Utf16Codec.put(alias.origin, buffer);
 			}
 		}
 		
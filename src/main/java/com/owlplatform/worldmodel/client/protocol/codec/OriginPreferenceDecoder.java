@@ -18,6 +18,9 @@
  */
 package com.owlplatform.worldmodel.client.protocol.codec;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
@@ -25,6 +28,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.client.protocol.messages.OriginPreferenceMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Origin Preference messages.
@@ -58,6 +62,8 @@ public class OriginPreferenceDecoder implements MessageDecoder {
 			ProtocolDecoderOutput out) throws Exception {
 
 		OriginPreferenceMessage message = new OriginPreferenceMessage();
+		Map<String, Integer> weights = new HashMap<String, Integer>();
+		message.setWeights(weights);
 
 		int messageLength = buffer.getInt();
 
@@ -74,7 +80,7 @@ public class OriginPreferenceDecoder implements MessageDecoder {
 		    int weight = buffer.getInt();
 		    messageLength -= 4;
 		    
-		    message.getWeights().put(new String(stringBytes,"UTF-16BE"),Integer.valueOf(weight));
+		    weights.put(Utf16Codec.decode(stringBytes),Integer.valueOf(weight));
 		}
 		
 		out.write(message);
@@ -24,6 +24,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.OriginPreferenceMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Origin Preference messages.
@@ -46,10 +47,9 @@ public class OriginPreferenceEncoder implements
 		
 		if(message.getWeights().size() > 0){
 		    for(String origin : message.getWeights().keySet()){
-		        byte[] originBytes = origin.getBytes("UTF-16BE");
 		        int weight = message.getWeights().get(origin).intValue();
-		        buffer.putInt(originBytes.length);
-		        buffer.put(originBytes);
+		        buffer.putInt(Utf16Codec.length(origin));
+		        Utf16Codec.put(origin, buffer);
 		        buffer.putInt(weight);
 		    }
 		}
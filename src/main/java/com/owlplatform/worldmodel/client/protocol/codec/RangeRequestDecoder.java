@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.client.protocol.messages.RangeRequestMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Range Request messages.
@@ -67,7 +68,7 @@ public class RangeRequestDecoder implements MessageDecoder {
 		int queryLength = buffer.getInt();
 		byte[] queryBytes = new byte[queryLength];
 		buffer.get(queryBytes);
-		String query = new String(queryBytes, "UTF-16BE");
+		String query = Utf16Codec.decode(queryBytes);
 		
 		message.setIdRegex(query);
 
@@ -78,7 +79,7 @@ public class RangeRequestDecoder implements MessageDecoder {
 				int attribLength = buffer.getInt();
 				byte[] attribBytes = new byte[attribLength];
 				buffer.get(attribBytes);
-				String attribute = new String(attribBytes,"UTF-16BE");
+				String attribute = Utf16Codec.decode(attribBytes);
 				attributes[i] = attribute;
 			}
 			
@@ -24,6 +24,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Stream Request messages.
@@ -44,9 +45,8 @@ public class StreamRequestEncoder implements
 		buffer.put(StreamRequestMessage.MESSAGE_TYPE);
 		buffer.putInt((int)message.getTicketNumber());
 		
-		byte[] idQueryByte = message.getIdRegex().getBytes("UTF-16BE");
-		buffer.putInt(idQueryByte.length);
-		buffer.put(idQueryByte);
+		buffer.putInt(Utf16Codec.length(message.getIdRegex()));
+		Utf16Codec.put(message.getIdRegex(), buffer);
 		
 		String[] attributes = message.getAttributeRegexes();
 		
@@ -56,9 +56,8 @@ public class StreamRequestEncoder implements
 		else{
 			buffer.putInt(attributes.length);
 			for(String attribute : attributes){
-				byte[] attribByte = attribute.getBytes("UTF-16BE");
-				buffer.putInt(attribByte.length);
-				buffer.put(attribByte);
+				buffer.putInt(Utf16Codec.length(attribute));
+				Utf16Codec.put(attribute, buffer);
 			}
 		}
 		
@@ -19,6 +19,8 @@
 package com.owlplatform.worldmodel.client.protocol.codec;
 
 import org.apache.mina.filter.codec.demux.DemuxingProtocolCodecFactory;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.CancelRequestMessage;
@@ -33,6 +35,10 @@ import com.owlplatform.worldmodel.client.protocol.messages.SnapshotRequestMessag
 import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchMessage;
 import com.owlplatform.worldmodel.client.protocol.messages.IdSearchResponseMessage;
+import com.owlplatform.worldmodel.metrics.MeteredMessageDecoder;
+import com.owlplatform.worldmodel.metrics.MeteredMessageEncoder;
+import com.owlplatform.worldmodel.metrics.NoOpMetrics;
+import com.owlplatform.worldmodel.metrics.WorldModelMetrics;
 
 /**
  * Protocol codec factory for the Client-World Model protocol.
@@ -48,64 +54,146 @@ public class WorldModelClientProtocolCodecFactory extends
    */
   public static final String CODEC_NAME = "Owl Platform Client-World Model codec";
 
+  /**
+   * Where encoders and decoders report measurements.
+   */
+  private final WorldModelMetrics metrics;
+
   /**
    * Generates a protocol codec factory depending on whether the connection is for the World Model (server)
    * or client.
    * @param isClient {@code true} if the codec will be for the client, or {@code false} if it is for the World Model.
    */
   public WorldModelClientProtocolCodecFactory(final boolean isClient) {
+    this(isClient, -1);
+  }
+
+  /**
+   * Generates a protocol codec factory depending on whether the connection is for the World Model (server)
+   * or client, optionally decoding large attribute data into direct (off-heap) buffers.
+   * @param isClient {@code true} if the codec will be for the client, or {@code false} if it is for the World Model.
+   * @param offHeapThreshold the minimum attribute data length, in bytes, decoded into a direct buffer, or a
+   * negative value to always decode into a byte[].  Only used by the client.
+   */
+  public WorldModelClientProtocolCodecFactory(final boolean isClient,
+      final int offHeapThreshold) {
+    this(isClient, offHeapThreshold, NoOpMetrics.INSTANCE);
+  }
+
+  /**
+   * Generates a protocol codec factory depending on whether the connection is for the World Model (server)
+   * or client, with encoders and decoders that report to {@code metrics}.
+   * @param isClient {@code true} if the codec will be for the client, or {@code false} if it is for the World Model.
+   * @param offHeapThreshold the minimum attribute data length, in bytes, decoded into a direct buffer, or a
+   * negative value to always decode into a byte[].  Only used by the client.
+   * @param metrics where encoders and decoders report the type, length and coding time of each message.
+   * {@link NoOpMetrics#INSTANCE} leaves the encoders and decoders unwrapped.
+   */
+  public WorldModelClientProtocolCodecFactory(final boolean isClient,
+      final int offHeapThreshold, final WorldModelMetrics metrics) {
     super();
+    this.metrics = metrics;
 
     // Encoders for both sides
-    super.addMessageEncoder(HandshakeMessage.class, HandshakeEncoder.class);
-    super.addMessageEncoder(KeepAliveMessage.class, KeepAliveEncoder.class);
+    this.addEncoder(HandshakeMessage.class, HandshakeEncoder.class);
+    this.addEncoder(KeepAliveMessage.class, KeepAliveEncoder.class);
 
     if (isClient) {
       // Encoders for client
-      super.addMessageEncoder(SnapshotRequestMessage.class,
+      this.addEncoder(SnapshotRequestMessage.class,
           SnapshotRequestEncoder.class);
-      super.addMessageEncoder(RangeRequestMessage.class,
+      this.addEncoder(RangeRequestMessage.class,
           RangeRequestEncoder.class);
-      super.addMessageEncoder(StreamRequestMessage.class,
+      this.addEncoder(StreamRequestMessage.class,
           StreamRequestEncoder.class);
-      super.addMessageEncoder(CancelRequestMessage.class,
+      this.addEncoder(CancelRequestMessage.class,
           CancelRequestEncoder.class);
-      super.addMessageEncoder(IdSearchMessage.class, IdSearchEncoder.class);
-      super.addMessageEncoder(OriginPreferenceMessage.class,
+      this.addEncoder(IdSearchMessage.class, IdSearchEncoder.class);
+      this.addEncoder(OriginPreferenceMessage.class,
           OriginPreferenceEncoder.class);
 
       // Decoders for client
-      super.addMessageDecoder(IdSearchResponseDecoder.class);
-      super.addMessageDecoder(OriginAliasDecoder.class);
-      super.addMessageDecoder(AttributeAliasDecoder.class);
-      super.addMessageDecoder(DataResponseDecoder.class);
-      super.addMessageDecoder(RequestCompleteDecoder.class);
+      this.addDecoder(IdSearchResponseDecoder.class);
+      this.addDecoder(OriginAliasDecoder.class);
+      this.addDecoder(AttributeAliasDecoder.class);
+      this.addDecoder(new DataResponseDecoder(offHeapThreshold));
+      this.addDecoder(RequestCompleteDecoder.class);
 
     } else {
       // Encoders for World Model
-      super.addMessageEncoder(DataResponseMessage.class,
+      this.addEncoder(DataResponseMessage.class,
           DataResponseEncoder.class);
-      super.addMessageEncoder(IdSearchResponseMessage.class,
+      this.addEncoder(IdSearchResponseMessage.class,
           IdSearchResponseEncoder.class);
-      super.addMessageEncoder(RequestCompleteMessage.class,
+      this.addEncoder(RequestCompleteMessage.class,
           RequestCompleteEncoder.class);
-      super.addMessageEncoder(OriginAliasMessage.class,
+      this.addEncoder(OriginAliasMessage.class,
           OriginAliasEncoder.class);
-      super.addMessageEncoder(AttributeAliasMessage.class,
+      this.addEncoder(AttributeAliasMessage.class,
           AttributeAliasEncoder.class);
 
       // Decoders for World Model
-      super.addMessageDecoder(SnapshotRequestDecoder.class);
-      super.addMessageDecoder(RangeRequestDecoder.class);
-      super.addMessageDecoder(StreamRequestDecoder.class);
-      super.addMessageDecoder(CancelRequestDecoder.class);
-      super.addMessageDecoder(IdSearchDecoder.class);
-      super.addMessageDecoder(OriginPreferenceDecoder.class);
+      this.addDecoder(SnapshotRequestDecoder.class);
+      this.addDecoder(RangeRequestDecoder.class);
+      this.addDecoder(StreamRequestDecoder.class);
+      this.addDecoder(CancelRequestDecoder.class);
+      this.addDecoder(IdSearchDecoder.class);
+      this.addDecoder(OriginPreferenceDecoder.class);
     }
     // Decoders for both
-    super.addMessageDecoder(KeepAliveDecoder.class);
-    super.addMessageDecoder(HandshakeDecoder.class);
+    this.addDecoder(KeepAliveDecoder.class);
+    this.addDecoder(HandshakeDecoder.class);
+
+  }
 
+  /**
+   * Registers an encoder, measured unless metrics are disabled.
+   * 
+   * @param messageType
+   *          the message class.
+   * @param encoderClass
+   *          the encoder class.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void addEncoder(final Class<?> messageType,
+      final Class<? extends MessageEncoder> encoderClass) {
+    if (this.metrics == NoOpMetrics.INSTANCE) {
+      super.addMessageEncoder(messageType, encoderClass);
+    } else {
+      super.addMessageEncoder(messageType,
+          MeteredMessageEncoder.factory(encoderClass, this.metrics));
+    }
+  }
+
+  /**
+   * Registers a decoder class, measured unless metrics are disabled.
+   * 
+   * @param decoderClass
+   *          the decoder class.
+   */
+  private void addDecoder(final Class<? extends MessageDecoder> decoderClass) {
+    if (this.metrics == NoOpMetrics.INSTANCE) {
+      super.addMessageDecoder(decoderClass);
+    } else {
+      super.addMessageDecoder(MeteredMessageDecoder.factory(decoderClass,
+          this.metrics));
+    }
+  }
+
+  /**
+   * Registers a shared decoder instance, measured unless metrics are
+   * disabled.
+   * 
+   * @param decoder
+   *          the decoder.
+   */
+  private void addDecoder(final MessageDecoder decoder) {
+    if (this.metrics == NoOpMetrics.INSTANCE) {
+      super.addMessageDecoder(decoder);
+    } else {
+      super.addMessageDecoder(MeteredMessageDecoder.factory(decoder,
+          this.metrics));
+    }
   }
 
 }
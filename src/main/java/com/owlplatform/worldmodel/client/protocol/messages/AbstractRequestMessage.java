@@ -19,13 +19,15 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
+import com.owlplatform.worldmodel.metrics.MessageSummary;
+
 /**
  * Abstract class containing the ticket number for request messages
  * in the Solver-World Model protocol.
  * @author Robert Moore
  *
  */
-public abstract class AbstractRequestMessage {
+public abstract class AbstractRequestMessage implements MessageSummary {
 
     /**
      * The client-assigned ticket number for the request.  Used by the 
@@ -53,5 +55,12 @@ public abstract class AbstractRequestMessage {
     {
         this.ticketNumber = ticketNumber&0xFFFFFFFF;
     }
+
+    @Override
+    public void appendSummary(final StringBuilder sb)
+    {
+        sb.append("type=").append(this.getClass().getSimpleName())
+            .append(" ticket=").append(this.ticketNumber);
+    }
     
 }
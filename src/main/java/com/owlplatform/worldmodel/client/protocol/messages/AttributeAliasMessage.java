@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * The Attribute Alias message is sent from the World Model server to the client
@@ -35,12 +32,6 @@ import org.slf4j.LoggerFactory;
  */
 public class AttributeAliasMessage {
 
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory
-			.getLogger(AttributeAliasMessage.class);
-
 	/**
 	 * Message type for the Attribute Alias message.
 	 */
@@ -67,12 +58,7 @@ public class AttributeAliasMessage {
 			for (AttributeAlias alias : this.aliases) {
 				// Alias number, name length
 				messageLength += 8;
-				try {
-					messageLength += alias.attributeName.getBytes("UTF-16BE").length;
-				} catch (UnsupportedEncodingException e) {
-					log.error("Unable to encode strings into UTF-16.");
-					e.printStackTrace();
-				}
+				messageLength += Utf16Codec.length(alias.attributeName);
 			}
 		}
 
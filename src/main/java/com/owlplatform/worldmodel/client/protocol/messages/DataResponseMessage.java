@@ -18,24 +18,15 @@
  */
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.metrics.MessageSummary;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * This message contains data requested by the client and is sent by the server
  * in response to a request message.
  */
-public class DataResponseMessage {
-
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory
-			.getLogger(DataResponseMessage.class);
+public class DataResponseMessage implements MessageSummary {
 
 	/**
 	 * Message type value identifying Data Response messages.
@@ -68,11 +59,7 @@ public class DataResponseMessage {
 
 		// Identifier bytes
 		if (this.identifier != null) {
-			try {
-				length += this.identifier.getBytes("UTF-16BE").length;
-			} catch (UnsupportedEncodingException e) {
-				log.error("UTF-16BE is unsupported in this environment.");
-			}
+			length += Utf16Codec.length(this.identifier);
 		}
 
 		// Ticket number
@@ -139,6 +126,21 @@ public class DataResponseMessage {
 		this.attributes = attributes;
 	}
 
+	@Override
+	public void appendSummary(final StringBuilder sb) {
+		sb.append("type=DataResponseMessage ticket=").append(this.ticketNumber)
+				.append(" id=").append(this.identifier);
+		int dataBytes = 0;
+		if (this.attributes != null) {
+			for (Attribute attrib : this.attributes) {
+				dataBytes += attrib.getDataLength();
+			}
+		}
+		sb.append(" attributes=")
+				.append(this.attributes == null ? 0 : this.attributes.length)
+				.append(" dataBytes=").append(dataBytes);
+	}
+
 	@Override
 	public String toString() {
 
@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * A World Model-Client message used to search the World Model for matching Identifier values.
@@ -31,11 +28,6 @@ import org.slf4j.LoggerFactory;
  */
 public class IdSearchMessage {
 
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory.getLogger(IdSearchMessage.class);
-	
 	/**	
 	 * Message Type value for the Identifier Search message.
 	 */
@@ -54,12 +46,7 @@ public class IdSearchMessage {
 		if(this.identifierRegex == null){
 			return 1;
 		}
-		try {
-			return this.identifierRegex.getBytes("UTF-16BE").length + 1;
-		} catch (UnsupportedEncodingException e) {
-			log.error("Unable to decode UTF-16BE String: {}", e);
-			return 1;
-		}
+		return Utf16Codec.length(this.identifierRegex) + 1;
 	}
 
 	/**
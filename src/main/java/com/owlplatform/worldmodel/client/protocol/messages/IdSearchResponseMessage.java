@@ -18,10 +18,7 @@
  */
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * The message sent in response to a Identifier Search Request. It may contain zero or
@@ -32,12 +29,6 @@ import org.slf4j.LoggerFactory;
  */
 public class IdSearchResponseMessage {
 
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory
-			.getLogger(IdSearchResponseMessage.class);
-
 	/**
 	 * Message Type byte value for the Identifier Search Response message.
 	 */
@@ -57,12 +48,8 @@ public class IdSearchResponseMessage {
 
 		if (this.matchingIds != null) {
 			for (String id : this.matchingIds) {
-				try {
-					length += 4;
-					length += id.getBytes("UTF-16BE").length;
-				} catch (UnsupportedEncodingException uee) {
-					log.error("Unable to encode UTF-16BE String: {}", uee);
-				}
+				length += 4;
+				length += Utf16Codec.length(id);
 			}
 		}
 		return length;
@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * This message specifies aliases for some origin names to save on bandwidth.
@@ -38,12 +35,6 @@ import org.slf4j.LoggerFactory;
  */
 public class OriginAliasMessage {
 
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory
-			.getLogger(OriginAliasMessage.class);
-
 	/**
 	 * Message type for the Origin Alias message.
 	 */
@@ -69,12 +60,7 @@ public class OriginAliasMessage {
 			for (OriginAlias alias : this.aliases) {
 				// Alias number, name length
 				messageLength += 8;
-				try {
-					messageLength += alias.origin.getBytes("UTF-16BE").length;
-				} catch (UnsupportedEncodingException e) {
-					log.error("Unable to encode strings into UTF-16.");
-					e.printStackTrace();
-				}
+				messageLength += Utf16Codec.length(alias.origin);
 			}
 		}
 
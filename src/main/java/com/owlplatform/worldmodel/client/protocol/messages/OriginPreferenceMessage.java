@@ -19,11 +19,9 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Provides the World Model with a list of preferred origins for the client.
@@ -36,12 +34,6 @@ import org.slf4j.LoggerFactory;
  * 
  */
 public class OriginPreferenceMessage {
-  /**
-   * Logging facility for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(OriginPreferenceMessage.class);
-
   /**
    * The message type for the Origin Preference message.
    */
@@ -77,11 +69,7 @@ public class OriginPreferenceMessage {
       for (String origin : this.weights.keySet()) {
         // String prefix, weight
         length += 8;
-        try {
-          length += origin.getBytes("UTF-16BE").length;
-        } catch (UnsupportedEncodingException uee) {
-          log.error("Unable to encode to UTF-16BE.");
-        }
+        length += Utf16Codec.length(origin);
       }
     }
 
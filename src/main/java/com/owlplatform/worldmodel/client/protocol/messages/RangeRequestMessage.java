@@ -19,11 +19,9 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Date;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * The Range Request message is sent by a client to the World Model in order
@@ -35,11 +33,6 @@ import org.slf4j.LoggerFactory;
  */
 public class RangeRequestMessage extends AbstractRequestMessage {
 
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory.getLogger(RangeRequestMessage.class);
-	
 	/**
 	 * Message type value for Range Request messages.
 	 */
@@ -85,12 +78,7 @@ public class RangeRequestMessage extends AbstractRequestMessage {
 		messageLength += 4;
 		
 		if(this.identifierRegex != null){
-			try {
-				messageLength += this.identifierRegex.getBytes("UTF-16BE").length;
-			} catch (UnsupportedEncodingException e) {
-				log.error("Unable to encode String into UTF-16.");
-				e.printStackTrace();
-			}
+			messageLength += Utf16Codec.length(this.identifierRegex);
 		}
 		
 		// Number of query attributes length prefix
@@ -100,12 +88,7 @@ public class RangeRequestMessage extends AbstractRequestMessage {
 		if(this.attributeRegexes != null){
 			for(String attrib : this.attributeRegexes){
 				messageLength += 4;
-				try {
-					messageLength += attrib.getBytes("UTF-16BE").length;
-				} catch (UnsupportedEncodingException e) {
-					log.error("Unable to encode String into uTF-16");
-					e.printStackTrace();
-				}
+				messageLength += Utf16Codec.length(attrib);
 			}
 		}
 		
@@ -19,11 +19,9 @@
 
 package com.owlplatform.worldmodel.client.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Date;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * The Stream Request message is sent by a client to the World Model in order to
@@ -37,12 +35,6 @@ import org.slf4j.LoggerFactory;
  */
 public class StreamRequestMessage extends AbstractRequestMessage {
 
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory
-			.getLogger(StreamRequestMessage.class);
-
 	/**
 	 * Message type value for Stream Request messages.
 	 */
@@ -108,12 +100,7 @@ public class StreamRequestMessage extends AbstractRequestMessage {
 		messageLength += 4;
 
 		if (this.identifierRegex != null) {
-			try {
-				messageLength += this.identifierRegex.getBytes("UTF-16BE").length;
-			} catch (UnsupportedEncodingException e) {
-				log.error("Unable to encode String into UTF-16.");
-				e.printStackTrace();
-			}
+			messageLength += Utf16Codec.length(this.identifierRegex);
 		}
 
 		// Number of query attributes length prefix
@@ -123,12 +110,7 @@ public class StreamRequestMessage extends AbstractRequestMessage {
 		if (this.attributeRegexes != null) {
 			for (String attrib : this.attributeRegexes) {
 				messageLength += 4;
-				try {
-					messageLength += attrib.getBytes("UTF-16BE").length;
-				} catch (UnsupportedEncodingException e) {
-					log.error("Unable to encode String into uTF-16");
-					e.printStackTrace();
-				}
+				messageLength += Utf16Codec.length(attrib);
 			}
 		}
 
@@ -0,0 +1,436 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@code WorldModelMetrics} implementation that keeps running totals in
+ * memory and publishes them as a dynamic MBean on the platform MBean server.
+ * Counters are created the first time a message type or listener callback is
+ * seen, so the set of MBean attributes grows as the connection is used:
+ * <ul>
+ * <li>{@code Sent.<type>.Count}, {@code Sent.<type>.Bytes} and
+ * {@code Sent.<type>.EncodeNanos} for each message type sent</li>
+ * <li>{@code Received.<type>.Count}, {@code Received.<type>.Bytes} and
+ * {@code Received.<type>.DecodeNanos} for each message type received</li>
+ * <li>{@code Listener.<callback>.Count}, {@code Listener.<callback>.TotalNanos}
+ * and {@code Listener.<callback>.MaxNanos} for each listener callback</li>
+ * <li>{@code Gauge.<name>} for each gauge name: the sum of the gauges
+ * registered under it</li>
+ * <li>{@code Reconnects}</li>
+ * </ul>
+ * The {@code reset} operation clears all counters, but not gauges.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class JmxMetrics implements WorldModelMetrics, DynamicMBean {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory.getLogger(JmxMetrics.class);
+
+  /**
+   * The JMX domain of the MBeans registered by this class.
+   */
+  public static final String JMX_DOMAIN = "com.owlplatform.worldmodel";
+
+  /**
+   * Running totals for a single message type.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class MessageCounters {
+    /**
+     * Number of messages.
+     */
+    final AtomicLong count = new AtomicLong(0);
+
+    /**
+     * Total encoded length of the messages.
+     */
+    final AtomicLong bytes = new AtomicLong(0);
+
+    /**
+     * Total time spent encoding or decoding the messages.
+     */
+    final AtomicLong nanos = new AtomicLong(0);
+
+    /**
+     * Creates new, zeroed counters.
+     */
+    MessageCounters() {
+      super();
+    }
+  }
+
+  /**
+   * Running totals for a single listener callback.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class CallbackCounters {
+    /**
+     * Number of events dispatched.
+     */
+    final AtomicLong count = new AtomicLong(0);
+
+    /**
+     * Total time spent in listeners.
+     */
+    final AtomicLong totalNanos = new AtomicLong(0);
+
+    /**
+     * Longest time spent in listeners for a single event.
+     */
+    final AtomicLong maxNanos = new AtomicLong(0);
+
+    /**
+     * Creates new, zeroed counters.
+     */
+    CallbackCounters() {
+      super();
+    }
+  }
+
+  /**
+   * The name this MBean is registered under.
+   */
+  private final ObjectName objectName;
+
+  /**
+   * Counters for sent messages, keyed by message type.
+   */
+  private final ConcurrentHashMap<String, MessageCounters> sent = new ConcurrentHashMap<String, MessageCounters>();
+
+  /**
+   * Counters for received messages, keyed by message type.
+   */
+  private final ConcurrentHashMap<String, MessageCounters> received = new ConcurrentHashMap<String, MessageCounters>();
+
+  /**
+   * Counters for listener callbacks, keyed by callback name.
+   */
+  private final ConcurrentHashMap<String, CallbackCounters> callbacks = new ConcurrentHashMap<String, CallbackCounters>();
+
+  /**
+   * Registered gauges, keyed by name. Names are kept after their last gauge
+   * is removed, so that a concurrent registration is never lost.
+   */
+  private final ConcurrentHashMap<String, CopyOnWriteArrayList<Gauge>> gauges = new ConcurrentHashMap<String, CopyOnWriteArrayList<Gauge>>();
+
+  /**
+   * Number of reconnection attempts.
+   */
+  private final AtomicLong reconnects = new AtomicLong(0);
+
+  /**
+   * Creates a new set of metrics that will be registered as
+   * {@code com.owlplatform.worldmodel:type=Metrics,name=<name>}. The MBean is
+   * not visible until {@link #register()} is called.
+   * 
+   * @param name
+   *          a name that distinguishes this connection from others in the
+   *          same JVM, such as the host and port of the World Model.
+   */
+  public JmxMetrics(final String name) {
+    super();
+    try {
+      this.objectName = new ObjectName(JMX_DOMAIN + ":type=Metrics,name="
+          + ObjectName.quote(name));
+    } catch (MalformedObjectNameException mone) {
+      throw new IllegalArgumentException("Invalid metrics name: " + name,
+          mone);
+    }
+  }
+
+  /**
+   * Registers this MBean with the platform MBean server.
+   * 
+   * @return {@code true} if registration succeeded, else {@code false}.
+   */
+  public boolean register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+          this.objectName);
+      return true;
+    } catch (JMException jme) {
+      log.warn("Unable to register {}: {}", this.objectName, jme);
+      return false;
+    }
+  }
+
+  /**
+   * Unregisters this MBean from the platform MBean server.
+   * 
+   * @return {@code true} if the MBean was unregistered, else {@code false}.
+   */
+  public boolean unregister() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+          this.objectName);
+      return true;
+    } catch (JMException jme) {
+      log.warn("Unable to unregister {}: {}", this.objectName, jme);
+      return false;
+    }
+  }
+
+  /**
+   * Returns the name this MBean is registered under.
+   * 
+   * @return the MBean's object name.
+   */
+  public ObjectName getObjectName() {
+    return this.objectName;
+  }
+
+  /**
+   * Returns the counters for a message type, creating them if necessary.
+   * 
+   * @param map
+   *          the sent or received counters.
+   * @param messageType
+   *          the message type.
+   * @return the counters for the message type.
+   */
+  private static MessageCounters countersFor(
+      final ConcurrentHashMap<String, MessageCounters> map,
+      final String messageType) {
+    MessageCounters counters = map.get(messageType);
+    if (counters == null) {
+      counters = new MessageCounters();
+      MessageCounters existing = map.putIfAbsent(messageType, counters);
+      if (existing != null) {
+        counters = existing;
+      }
+    }
+    return counters;
+  }
+
+  @Override
+  public void messageSent(final String messageType, final int bytes,
+      final long encodeNanos) {
+    MessageCounters counters = countersFor(this.sent, messageType);
+    counters.count.incrementAndGet();
+    counters.bytes.addAndGet(bytes);
+    counters.nanos.addAndGet(encodeNanos);
+  }
+
+  @Override
+  public void messageReceived(final String messageType, final int bytes,
+      final long decodeNanos) {
+    MessageCounters counters = countersFor(this.received, messageType);
+    counters.count.incrementAndGet();
+    counters.bytes.addAndGet(bytes);
+    counters.nanos.addAndGet(decodeNanos);
+  }
+
+  @Override
+  public void reconnectAttempted() {
+    this.reconnects.incrementAndGet();
+  }
+
+  @Override
+  public void listenersInvoked(final String callback, final long nanos) {
+    CallbackCounters counters = this.callbacks.get(callback);
+    if (counters == null) {
+      counters = new CallbackCounters();
+      CallbackCounters existing = this.callbacks.putIfAbsent(callback,
+          counters);
+      if (existing != null) {
+        counters = existing;
+      }
+    }
+    counters.count.incrementAndGet();
+    counters.totalNanos.addAndGet(nanos);
+    long max = counters.maxNanos.get();
+    while (nanos > max && !counters.maxNanos.compareAndSet(max, nanos)) {
+      max = counters.maxNanos.get();
+    }
+  }
+
+  @Override
+  public void registerGauge(final String name, final Gauge gauge) {
+    CopyOnWriteArrayList<Gauge> named = this.gauges.get(name);
+    if (named == null) {
+      named = new CopyOnWriteArrayList<Gauge>();
+      CopyOnWriteArrayList<Gauge> existing = this.gauges.putIfAbsent(name,
+          named);
+      if (existing != null) {
+        named = existing;
+      }
+    }
+    named.add(gauge);
+  }
+
+  @Override
+  public void unregisterGauge(final String name, final Gauge gauge) {
+    CopyOnWriteArrayList<Gauge> named = this.gauges.get(name);
+    if (named != null) {
+      named.remove(gauge);
+    }
+  }
+
+  /**
+   * Clears all message, listener, and reconnection counters. Registered gauges
+   * are kept.
+   */
+  public void reset() {
+    this.sent.clear();
+    this.received.clear();
+    this.callbacks.clear();
+    this.reconnects.set(0);
+  }
+
+  /**
+   * Returns a snapshot of every value published by this MBean, sorted by
+   * attribute name.
+   * 
+   * @return the current values, keyed by attribute name.
+   */
+  public Map<String, Long> getValues() {
+    TreeMap<String, Long> values = new TreeMap<String, Long>();
+    for (Map.Entry<String, MessageCounters> entry : this.sent.entrySet()) {
+      String prefix = "Sent." + entry.getKey();
+      MessageCounters counters = entry.getValue();
+      values.put(prefix + ".Count", Long.valueOf(counters.count.get()));
+      values.put(prefix + ".Bytes", Long.valueOf(counters.bytes.get()));
+      values.put(prefix + ".EncodeNanos", Long.valueOf(counters.nanos.get()));
+    }
+    for (Map.Entry<String, MessageCounters> entry : this.received.entrySet()) {
+      String prefix = "Received." + entry.getKey();
+      MessageCounters counters = entry.getValue();
+      values.put(prefix + ".Count", Long.valueOf(counters.count.get()));
+      values.put(prefix + ".Bytes", Long.valueOf(counters.bytes.get()));
+      values.put(prefix + ".DecodeNanos", Long.valueOf(counters.nanos.get()));
+    }
+    for (Map.Entry<String, CallbackCounters> entry : this.callbacks
+        .entrySet()) {
+      String prefix = "Listener." + entry.getKey();
+      CallbackCounters counters = entry.getValue();
+      values.put(prefix + ".Count", Long.valueOf(counters.count.get()));
+      values.put(prefix + ".TotalNanos",
+          Long.valueOf(counters.totalNanos.get()));
+      values.put(prefix + ".MaxNanos", Long.valueOf(counters.maxNanos.get()));
+    }
+    for (Map.Entry<String, CopyOnWriteArrayList<Gauge>> entry : this.gauges
+        .entrySet()) {
+      long sum = 0;
+      for (Gauge gauge : entry.getValue()) {
+        sum += gauge.getValue();
+      }
+      values.put("Gauge." + entry.getKey(), Long.valueOf(sum));
+    }
+    values.put("Reconnects", Long.valueOf(this.reconnects.get()));
+    return values;
+  }
+
+  @Override
+  public Object getAttribute(final String attribute)
+      throws AttributeNotFoundException, MBeanException, ReflectionException {
+    Long value = this.getValues().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public void setAttribute(final Attribute attribute)
+      throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics attributes are read-only: "
+        + attribute.getName());
+  }
+
+  @Override
+  public AttributeList getAttributes(final String[] attributes) {
+    Map<String, Long> values = this.getValues();
+    AttributeList list = new AttributeList();
+    for (String name : attributes) {
+      Long value = values.get(name);
+      if (value != null) {
+        list.add(new Attribute(name, value));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public AttributeList setAttributes(final AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(final String actionName, final Object[] params,
+      final String[] signature) throws MBeanException, ReflectionException {
+    if ("reset".equals(actionName)) {
+      this.reset();
+      return null;
+    }
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Map<String, Long> values = this.getValues();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+    int i = 0;
+    for (String name : values.keySet()) {
+      attributes[i++] = new MBeanAttributeInfo(name, "long", name, true,
+          false, false);
+    }
+    MBeanOperationInfo[] operations = new MBeanOperationInfo[] { new MBeanOperationInfo(
+        "reset", "Clears all counters except gauges.",
+        new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION) };
+    return new MBeanInfo(JmxMetrics.class.getName(),
+        "World Model connection metrics", attributes, null, operations, null);
+  }
+
+  @Override
+  public String toString() {
+    return "JMX metrics " + this.objectName;
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+/**
+ * A fixed-size latency histogram in the style of HdrHistogram. Values are
+ * counted in log-linear buckets: every power of two is divided into 64
+ * sub-buckets, so any recorded value is reported to within 1.6% of its true
+ * value while the whole range from 1 nanosecond to several hours fits in
+ * about 20 kilobytes. Values above {@link #HIGHEST_TRACKABLE_VALUE} are
+ * counted as that value.
+ * <p>
+ * All methods are synchronized, so a histogram can be recorded into by one
+ * thread while another reads percentiles from it.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LatencyHistogram {
+
+  /**
+   * Number of bits of each value kept exactly.
+   */
+  private static final int SUB_BUCKET_BITS = 7;
+
+  /**
+   * Number of values counted exactly before bucketing begins.
+   */
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Number of sub-buckets in each power of two above
+   * {@link #SUB_BUCKET_COUNT}.
+   */
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+  /**
+   * Number of bits in the highest trackable value.
+   */
+  private static final int MAX_VALUE_BITS = 44;
+
+  /**
+   * The largest value that can be recorded, about 4.9 hours in nanoseconds.
+   */
+  public static final long HIGHEST_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+  /**
+   * Count of values in each bucket.
+   */
+  private final long[] counts = new long[SUB_BUCKET_COUNT
+      + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF];
+
+  /**
+   * Total number of values recorded.
+   */
+  private long totalCount = 0;
+
+  /**
+   * Sum of all values recorded, for the mean.
+   */
+  private double sum = 0;
+
+  /**
+   * Smallest value recorded.
+   */
+  private long min = Long.MAX_VALUE;
+
+  /**
+   * Largest value recorded.
+   */
+  private long max = 0;
+
+  /**
+   * Returns the bucket index for a value.
+   * 
+   * @param value
+   *          a value between 0 and {@link #HIGHEST_TRACKABLE_VALUE}.
+   * @return the index of the value's bucket.
+   */
+  private static int indexOf(final long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF
+        + (int) (value >>> shift) - SUB_BUCKET_HALF;
+  }
+
+  /**
+   * Returns the largest value that is counted in a bucket.
+   * 
+   * @param index
+   *          the bucket index.
+   * @return the highest value equivalent to the bucket.
+   */
+  private static long highestValueAt(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int offset = index - SUB_BUCKET_COUNT;
+    int shift = offset / SUB_BUCKET_HALF + 1;
+    long lowest = ((long) (offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Records a single value. Negative values are ignored.
+   * 
+   * @param value
+   *          the value to record, usually in nanoseconds.
+   */
+  public synchronized void recordValue(final long value) {
+    if (value < 0) {
+      return;
+    }
+    long clamped = Math.min(value, HIGHEST_TRACKABLE_VALUE);
+    ++this.counts[indexOf(clamped)];
+    ++this.totalCount;
+    this.sum += clamped;
+    if (clamped < this.min) {
+      this.min = clamped;
+    }
+    if (clamped > this.max) {
+      this.max = clamped;
+    }
+  }
+
+  /**
+   * Adds all of the values recorded in another histogram to this one.
+   * 
+   * @param other
+   *          the histogram to add.
+   */
+  public void add(final LatencyHistogram other) {
+    LatencyHistogram copy = other.copy();
+    synchronized (this) {
+      for (int i = 0; i < this.counts.length; ++i) {
+        this.counts[i] += copy.counts[i];
+      }
+      this.totalCount += copy.totalCount;
+      this.sum += copy.sum;
+      this.min = Math.min(this.min, copy.min);
+      this.max = Math.max(this.max, copy.max);
+    }
+  }
+
+  /**
+   * Returns a copy of this histogram.
+   * 
+   * @return a new histogram with the same recorded values.
+   */
+  public synchronized LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    System.arraycopy(this.counts, 0, copy.counts, 0, this.counts.length);
+    copy.totalCount = this.totalCount;
+    copy.sum = this.sum;
+    copy.min = this.min;
+    copy.max = this.max;
+    return copy;
+  }
+
+  /**
+   * Removes all recorded values.
+   */
+  public synchronized void reset() {
+    for (int i = 0; i < this.counts.length; ++i) {
+      this.counts[i] = 0;
+    }
+    this.totalCount = 0;
+    this.sum = 0;
+    this.min = Long.MAX_VALUE;
+    this.max = 0;
+  }
+
+  /**
+   * Returns the number of values recorded.
+   * 
+   * @return the total count.
+   */
+  public synchronized long getTotalCount() {
+    return this.totalCount;
+  }
+
+  /**
+   * Returns the smallest value recorded, or 0 if none were recorded.
+   * 
+   * @return the minimum value.
+   */
+  public synchronized long getMinValue() {
+    return this.totalCount == 0 ? 0 : this.min;
+  }
+
+  /**
+   * Returns the largest value recorded, or 0 if none were recorded.
+   * 
+   * @return the maximum value.
+   */
+  public synchronized long getMaxValue() {
+    return this.max;
+  }
+
+  /**
+   * Returns the mean of the recorded values, or 0 if none were recorded.
+   * 
+   * @return the mean value.
+   */
+  public synchronized double getMean() {
+    return this.totalCount == 0 ? 0 : this.sum / this.totalCount;
+  }
+
+  /**
+   * Returns the value at a percentile of the recorded values. As with
+   * HdrHistogram, the result is the highest value equivalent to the bucket
+   * containing the percentile, but never more than the maximum recorded.
+   * 
+   * @param percentile
+   *          the percentile, from 0 to 100.
+   * @return the value at the percentile, or 0 if no values were recorded.
+   */
+  public synchronized long getValueAtPercentile(final double percentile) {
+    if (this.totalCount == 0) {
+      return 0;
+    }
+    double fraction = Math.min(Math.max(percentile, 0), 100) / 100;
+    long target = Math.max(1, (long) Math.ceil(fraction * this.totalCount));
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; ++i) {
+      seen += this.counts[i];
+      if (seen >= target) {
+        return Math.min(highestValueAt(i), this.max);
+      }
+    }
+    return this.max;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "count=%d min=%d p50=%d p90=%d p99=%d p99.9=%d max=%d",
+        Long.valueOf(this.totalCount), Long.valueOf(this.getMinValue()),
+        Long.valueOf(this.getValueAtPercentile(50)),
+        Long.valueOf(this.getValueAtPercentile(90)),
+        Long.valueOf(this.getValueAtPercentile(99)),
+        Long.valueOf(this.getValueAtPercentile(99.9)),
+        Long.valueOf(this.max));
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+/**
+ * A protocol message that can describe itself in a single short line for
+ * {@link ProtocolTrace}. Summaries should only use fields that are already
+ * available, without converting attribute data, formatting dates, or walking
+ * every attribute in detail.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface MessageSummary {
+
+  /**
+   * Appends a summary of this message as space-separated {@code key=value}
+   * pairs, beginning with {@code type=}.
+   * 
+   * @param sb
+   *          the builder to append to.
+   */
+  public void appendSummary(final StringBuilder sb);
+}
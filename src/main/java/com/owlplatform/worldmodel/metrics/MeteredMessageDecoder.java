@@ -0,0 +1,175 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageDecoderFactory;
+import org.apache.mina.filter.codec.demux.MessageDecoderResult;
+
+/**
+ * Wraps a {@code MessageDecoder} to report the type, encoded length, and
+ * decoding time of each message it decodes. Because the demultiplexing codec
+ * hands each decoder a buffer positioned at the start of a message, the
+ * number of bytes consumed by a successful decode is the exact length of the
+ * message.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class MeteredMessageDecoder implements MessageDecoder {
+
+  /**
+   * Records the type of the last message written by the wrapped decoder.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class TypeCapture implements ProtocolDecoderOutput {
+    /**
+     * The real decoder output.
+     */
+    private final ProtocolDecoderOutput out;
+
+    /**
+     * Type of the last message written, or {@code null} if none was written.
+     */
+    String messageType = null;
+
+    /**
+     * Creates a new capture around the real decoder output.
+     * 
+     * @param out
+     *          the real decoder output.
+     */
+    TypeCapture(final ProtocolDecoderOutput out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(final Object message) {
+      this.messageType = message.getClass().getSimpleName();
+      this.out.write(message);
+    }
+
+    @Override
+    public void flush(final NextFilter nextFilter, final IoSession session) {
+      this.out.flush(nextFilter, session);
+    }
+  }
+
+  /**
+   * The decoder being measured.
+   */
+  private final MessageDecoder decoder;
+
+  /**
+   * Where measurements are reported.
+   */
+  private final WorldModelMetrics metrics;
+
+  /**
+   * Creates a new decoder that measures {@code decoder}.
+   * 
+   * @param decoder
+   *          the decoder to measure.
+   * @param metrics
+   *          where measurements are reported.
+   */
+  public MeteredMessageDecoder(final MessageDecoder decoder,
+      final WorldModelMetrics metrics) {
+    super();
+    this.decoder = decoder;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns a factory that creates a new instance of {@code decoderClass} for
+   * each session and wraps it in a {@code MeteredMessageDecoder}.
+   * 
+   * @param decoderClass
+   *          the decoder class, which must have a public no-argument
+   *          constructor.
+   * @param metrics
+   *          where measurements are reported.
+   * @return a factory for measured decoders.
+   */
+  public static MessageDecoderFactory factory(
+      final Class<? extends MessageDecoder> decoderClass,
+      final WorldModelMetrics metrics) {
+    return new MessageDecoderFactory() {
+      @Override
+      public MessageDecoder getDecoder() throws Exception {
+        return new MeteredMessageDecoder(decoderClass.newInstance(), metrics);
+      }
+    };
+  }
+
+  /**
+   * Returns a factory that wraps a single decoder instance, shared by all
+   * sessions, in a {@code MeteredMessageDecoder}.
+   * 
+   * @param decoder
+   *          the shared decoder instance.
+   * @param metrics
+   *          where measurements are reported.
+   * @return a factory for the measured decoder.
+   */
+  public static MessageDecoderFactory factory(final MessageDecoder decoder,
+      final WorldModelMetrics metrics) {
+    final MeteredMessageDecoder metered = new MeteredMessageDecoder(decoder,
+        metrics);
+    return new MessageDecoderFactory() {
+      @Override
+      public MessageDecoder getDecoder() {
+        return metered;
+      }
+    };
+  }
+
+  @Override
+  public MessageDecoderResult decodable(final IoSession session,
+      final IoBuffer in) {
+    return this.decoder.decodable(session, in);
+  }
+
+  @Override
+  public MessageDecoderResult decode(final IoSession session,
+      final IoBuffer in, final ProtocolDecoderOutput out) throws Exception {
+    TypeCapture capture = new TypeCapture(out);
+    int start = in.position();
+    long startNanos = System.nanoTime();
+    MessageDecoderResult result = this.decoder.decode(session, in, capture);
+    long nanos = System.nanoTime() - startNanos;
+    if (capture.messageType != null) {
+      this.metrics.messageReceived(capture.messageType, in.position() - start,
+          nanos);
+    }
+    return result;
+  }
+
+  @Override
+  public void finishDecode(final IoSession session,
+      final ProtocolDecoderOutput out) throws Exception {
+    this.decoder.finishDecode(session, out);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.mina.filter.codec.demux.MessageEncoder;
+import org.apache.mina.filter.codec.demux.MessageEncoderFactory;
+
+/**
+ * Wraps a {@code MessageEncoder} to report the type, encoded length, and
+ * encoding time of each message it encodes.
+ * 
+ * @author Robert Moore
+ * 
+ * @param <T>
+ *          the type of message encoded.
+ */
+public class MeteredMessageEncoder<T> implements MessageEncoder<T> {
+
+  /**
+   * Counts the bytes written by the wrapped encoder.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class ByteCount implements ProtocolEncoderOutput {
+    /**
+     * The real encoder output.
+     */
+    private final ProtocolEncoderOutput out;
+
+    /**
+     * Number of bytes written so far.
+     */
+    int bytes = 0;
+
+    /**
+     * Creates a new counter around the real encoder output.
+     * 
+     * @param out
+     *          the real encoder output.
+     */
+    ByteCount(final ProtocolEncoderOutput out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(final Object encodedMessage) {
+      if (encodedMessage instanceof IoBuffer) {
+        this.bytes += ((IoBuffer) encodedMessage).remaining();
+      }
+      this.out.write(encodedMessage);
+    }
+
+    @Override
+    public void mergeAll() {
+      this.out.mergeAll();
+    }
+
+    @Override
+    public WriteFuture flush() {
+      return this.out.flush();
+    }
+  }
+
+  /**
+   * The encoder being measured.
+   */
+  private final MessageEncoder<T> encoder;
+
+  /**
+   * Where measurements are reported.
+   */
+  private final WorldModelMetrics metrics;
+
+  /**
+   * Creates a new encoder that measures {@code encoder}.
+   * 
+   * @param encoder
+   *          the encoder to measure.
+   * @param metrics
+   *          where measurements are reported.
+   */
+  public MeteredMessageEncoder(final MessageEncoder<T> encoder,
+      final WorldModelMetrics metrics) {
+    super();
+    this.encoder = encoder;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns a factory that creates a new instance of {@code encoderClass} for
+   * each session and wraps it in a {@code MeteredMessageEncoder}.
+   * 
+   * @param encoderClass
+   *          the encoder class, which must have a public no-argument
+   *          constructor.
+   * @param metrics
+   *          where measurements are reported.
+   * @return a factory for measured encoders.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static MessageEncoderFactory factory(
+      final Class<? extends MessageEncoder> encoderClass,
+      final WorldModelMetrics metrics) {
+    return new MessageEncoderFactory() {
+      @Override
+      public MessageEncoder getEncoder() throws Exception {
+        return new MeteredMessageEncoder(encoderClass.newInstance(), metrics);
+      }
+    };
+  }
+
+  @Override
+  public void encode(final IoSession session, final T message,
+      final ProtocolEncoderOutput out) throws Exception {
+    ByteCount count = new ByteCount(out);
+    long startNanos = System.nanoTime();
+    this.encoder.encode(session, message, count);
+    this.metrics.messageSent(message.getClass().getSimpleName(), count.bytes,
+        System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+/**
+ * A {@code WorldModelMetrics} implementation that discards all measurements.
+ * This is the default for every connection, and codec factories skip
+ * instrumenting their encoders and decoders entirely when it is used.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public final class NoOpMetrics implements WorldModelMetrics {
+
+  /**
+   * The single shared instance.
+   */
+  public static final NoOpMetrics INSTANCE = new NoOpMetrics();
+
+  /**
+   * Private constructor; use {@link #INSTANCE}.
+   */
+  private NoOpMetrics() {
+    super();
+  }
+
+  @Override
+  public void messageSent(final String messageType, final int bytes,
+      final long encodeNanos) {
+    // Discarded
+  }
+
+  @Override
+  public void messageReceived(final String messageType, final int bytes,
+      final long decodeNanos) {
+    // Discarded
+  }
+
+  @Override
+  public void reconnectAttempted() {
+    // Discarded
+  }
+
+  @Override
+  public void listenersInvoked(final String callback, final long nanos) {
+    // Discarded
+  }
+
+  @Override
+  public void registerGauge(final String name, final Gauge gauge) {
+    // Discarded
+  }
+
+  @Override
+  public void unregisterGauge(final String name, final Gauge gauge) {
+    // Discarded
+  }
+
+  @Override
+  public String toString() {
+    return "No-op metrics";
+  }
+}
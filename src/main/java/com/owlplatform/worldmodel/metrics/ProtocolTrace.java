@@ -0,0 +1,276 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sampled, rate-limited logging of every protocol message sent or received by
+ * clients, solvers, and the world model server. Message tracing has its own
+ * switch, separate from debug logging, so it can be turned on in production:
+ * when it is off, tracing a message costs a single volatile read.
+ * <p>
+ * When enabled, one of every {@code sampleInterval} messages is considered,
+ * and at most {@code maxPerSecond} of those are logged each second. Each line
+ * is written at INFO level to the {@code com.owlplatform.worldmodel.protocol}
+ * logger and holds a short {@code key=value} summary of the message (see
+ * {@link MessageSummary}), or the full message text if
+ * {@link #setFullMessages(boolean)} is set. The number of messages dropped by
+ * the rate limit since the previous line is included as {@code suppressed=}.
+ * </p>
+ * <p>
+ * The initial settings are read from the system properties
+ * {@code owl.worldmodel.trace} ({@code true} to enable),
+ * {@code owl.worldmodel.trace.sample}, {@code owl.worldmodel.trace.maxPerSecond}
+ * and {@code owl.worldmodel.trace.full}.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public final class ProtocolTrace {
+
+  /**
+   * Name of the logger that trace lines are written to.
+   */
+  public static final String LOGGER_NAME = "com.owlplatform.worldmodel.protocol";
+
+  /**
+   * Logger for trace lines.
+   */
+  private static final Logger traceLog = LoggerFactory.getLogger(LOGGER_NAME);
+
+  /**
+   * Default maximum number of lines logged each second.
+   */
+  public static final int DEFAULT_MAX_PER_SECOND = 100;
+
+  /**
+   * Length of a rate-limiting window.
+   */
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Whether tracing is enabled.
+   */
+  private static volatile boolean enabled = Boolean
+      .getBoolean("owl.worldmodel.trace");
+
+  /**
+   * Only one of this many messages is considered for logging.
+   */
+  private static volatile int sampleInterval = Math.max(1,
+      Integer.getInteger("owl.worldmodel.trace.sample", 1).intValue());
+
+  /**
+   * Maximum number of lines logged each second.
+   */
+  private static volatile int maxPerSecond = Integer.getInteger(
+      "owl.worldmodel.trace.maxPerSecond", DEFAULT_MAX_PER_SECOND).intValue();
+
+  /**
+   * Whether to log the full text of messages instead of summaries.
+   */
+  private static volatile boolean fullMessages = Boolean
+      .getBoolean("owl.worldmodel.trace.full");
+
+  /**
+   * Number of messages traced, for sampling.
+   */
+  private static final AtomicLong messageCount = new AtomicLong(0);
+
+  /**
+   * Start of the current rate-limiting window.
+   */
+  private static final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+  /**
+   * Number of lines logged in the current rate-limiting window.
+   */
+  private static final AtomicInteger windowCount = new AtomicInteger(0);
+
+  /**
+   * Number of sampled messages dropped by the rate limit since the last line.
+   */
+  private static final AtomicLong suppressed = new AtomicLong(0);
+
+  /**
+   * Static methods only.
+   */
+  private ProtocolTrace() {
+    super();
+  }
+
+  /**
+   * Returns {@code true} if message tracing is enabled.
+   * 
+   * @return {@code true} if tracing is enabled.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enables or disables message tracing.
+   * 
+   * @param enable
+   *          {@code true} to enable tracing.
+   */
+  public static void setEnabled(final boolean enable) {
+    enabled = enable;
+  }
+
+  /**
+   * Sets how many messages pass for each one considered for logging.
+   * 
+   * @param interval
+   *          log one of every {@code interval} messages; values less than 1
+   *          are treated as 1.
+   */
+  public static void setSampleInterval(final int interval) {
+    sampleInterval = Math.max(1, interval);
+  }
+
+  /**
+   * Sets the maximum number of lines logged each second.
+   * 
+   * @param max
+   *          the maximum number of lines, or a negative value for no limit.
+   */
+  public static void setMaxPerSecond(final int max) {
+    maxPerSecond = max;
+  }
+
+  /**
+   * Sets whether the full text of each message is logged instead of a
+   * summary. Full messages may convert every attribute value, so this should
+   * only be used with a low rate limit.
+   * 
+   * @param full
+   *          {@code true} to log full messages.
+   */
+  public static void setFullMessages(final boolean full) {
+    fullMessages = full;
+  }
+
+  /**
+   * Traces a message received on a connection.
+   * 
+   * @param connection
+   *          the connection or session the message arrived on.
+   * @param message
+   *          the message.
+   */
+  public static void received(final Object connection, final Object message) {
+    if (enabled) {
+      trace("<-", connection, message);
+    }
+  }
+
+  /**
+   * Traces a message sent on a connection.
+   * 
+   * @param connection
+   *          the connection or session the message was sent on.
+   * @param message
+   *          the message.
+   */
+  public static void sent(final Object connection, final Object message) {
+    if (enabled) {
+      trace("->", connection, message);
+    }
+  }
+
+  /**
+   * Samples, rate-limits, and logs a message.
+   * 
+   * @param direction
+   *          the direction marker.
+   * @param connection
+   *          the connection or session.
+   * @param message
+   *          the message.
+   */
+  private static void trace(final String direction, final Object connection,
+      final Object message) {
+    int interval = sampleInterval;
+    if (interval > 1 && messageCount.incrementAndGet() % interval != 0) {
+      return;
+    }
+    if (!traceLog.isInfoEnabled()) {
+      return;
+    }
+    int max = maxPerSecond;
+    if (max >= 0) {
+      long now = System.nanoTime();
+      long start = windowStart.get();
+      if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+        windowCount.set(0);
+      }
+      if (windowCount.incrementAndGet() > max) {
+        suppressed.incrementAndGet();
+        return;
+      }
+    }
+
+    StringBuilder sb = new StringBuilder(128);
+    sb.append(direction).append(' ').append(connection).append(' ');
+    if (fullMessages) {
+      sb.append(message);
+    } else {
+      summarize(message, sb);
+    }
+    long dropped = suppressed.getAndSet(0);
+    if (dropped > 0) {
+      sb.append(" suppressed=").append(dropped);
+    }
+    traceLog.info(sb.toString());
+  }
+
+  /**
+   * Appends a summary of any message to {@code sb}.
+   * 
+   * @param message
+   *          the message.
+   * @param sb
+   *          the builder to append to.
+   */
+  public static void summarize(final Object message, final StringBuilder sb) {
+    if (message instanceof MessageSummary) {
+      ((MessageSummary) message).appendSummary(sb);
+    } else if (message instanceof IoBuffer) {
+      // Pre-encoded message
+      IoBuffer buffer = (IoBuffer) message;
+      sb.append("type=Encoded bytes=").append(buffer.limit());
+      if (buffer.limit() > 4) {
+        sb.append(" messageType=").append(buffer.get(4) & 0xFF);
+      }
+    } else if (message == null) {
+      sb.append("type=null");
+    } else {
+      sb.append("type=").append(message.getClass().getSimpleName());
+    }
+  }
+}
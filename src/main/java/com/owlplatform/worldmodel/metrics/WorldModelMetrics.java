@@ -0,0 +1,119 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.metrics;
+
+/**
+ * Receives measurements from World Model connections, their protocol codecs,
+ * and their response queues. Implementations must be thread-safe, since
+ * measurements are reported from MINA I/O threads, executor threads, and
+ * application threads at the same time, and should be cheap enough to call
+ * for every message.
+ * <p>
+ * Message types are reported as the simple class name of the message (for
+ * example, {@code DataResponseMessage}), and listener callbacks as the name of
+ * the listener method being invoked (for example,
+ * {@code dataResponseReceived}).
+ * </p>
+ * 
+ * @author Robert Moore
+ * @see NoOpMetrics
+ * @see JmxMetrics
+ */
+public interface WorldModelMetrics {
+
+  /**
+   * A value that is sampled when it is read, such as the depth of a queue.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static interface Gauge {
+    /**
+     * Returns the current value of this gauge.
+     * 
+     * @return the current value.
+     */
+    public long getValue();
+  }
+
+  /**
+   * Called after a message has been encoded for sending.
+   * 
+   * @param messageType
+   *          the type of message that was encoded.
+   * @param bytes
+   *          the encoded length of the message, including its length prefix.
+   * @param encodeNanos
+   *          the time spent encoding the message, in nanoseconds, or 0 if the
+   *          message was encoded ahead of time.
+   */
+  public void messageSent(final String messageType, final int bytes,
+      final long encodeNanos);
+
+  /**
+   * Called after a message has been decoded.
+   * 
+   * @param messageType
+   *          the type of message that was decoded.
+   * @param bytes
+   *          the encoded length of the message, including its length prefix.
+   * @param decodeNanos
+   *          the time spent decoding the message, in nanoseconds.
+   */
+  public void messageReceived(final String messageType, final int bytes,
+      final long decodeNanos);
+
+  /**
+   * Called each time a connection attempts to reconnect after it was lost.
+   */
+  public void reconnectAttempted();
+
+  /**
+   * Called after the registered listeners have been notified of an event.
+   * 
+   * @param callback
+   *          the name of the listener method that was invoked.
+   * @param nanos
+   *          the time spent in all listeners for the event, in nanoseconds.
+   */
+  public void listenersInvoked(final String callback, final long nanos);
+
+  /**
+   * Registers a gauge under a name. Several gauges may share a name, such as
+   * one per connection reporting to the same metrics, in which case the value
+   * reported for the name is the sum of all of them.
+   * 
+   * @param name
+   *          the name of the gauge.
+   * @param gauge
+   *          the gauge to sample.
+   */
+  public void registerGauge(final String name, final Gauge gauge);
+
+  /**
+   * Removes a previously-registered gauge. Other gauges registered under the
+   * same name are kept.
+   * 
+   * @param name
+   *          the name the gauge was registered under.
+   * @param gauge
+   *          the gauge to remove.
+   */
+  public void unregisterGauge(final String name, final Gauge gauge);
+}
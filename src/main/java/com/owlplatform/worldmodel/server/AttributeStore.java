@@ -0,0 +1,172 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * Storage for the Identifiers and Attribute values of a world model.
+ * Implementations must be safe for concurrent use, since solver updates and
+ * client requests arrive on different threads.
+ * <p>
+ * Identifier and attribute name regular expressions must match the entire
+ * Identifier or attribute name, as with {@link java.util.regex.Matcher#matches()}.
+ * A timestamp of 0 for the end of a request means "now".
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface AttributeStore {
+
+  /**
+   * Creates a new Identifier in the store.
+   * 
+   * @param identifier
+   *          the Identifier to create.
+   * @param creationTime
+   *          the creation time of the Identifier.
+   * @return {@code true} if the Identifier was created, or {@code false} if it
+   *         already existed.
+   */
+  public boolean createIdentifier(String identifier, long creationTime);
+
+  /**
+   * Expires an Identifier and all of its current Attribute values.
+   * 
+   * @param identifier
+   *          the Identifier to expire.
+   * @param expirationTime
+   *          the expiration time.
+   * @return {@code true} if the Identifier existed, else {@code false}.
+   */
+  public boolean expireIdentifier(String identifier, long expirationTime);
+
+  /**
+   * Deletes an Identifier and the history of all of its Attributes.
+   * 
+   * @param identifier
+   *          the Identifier to delete.
+   * @return {@code true} if the Identifier existed, else {@code false}.
+   */
+  public boolean deleteIdentifier(String identifier);
+
+  /**
+   * Stores a new Attribute value. The Identifier, attribute name and origin
+   * name of {@code attribute} must be set.
+   * 
+   * @param attribute
+   *          the new Attribute value.
+   * @param createId
+   *          {@code true} to create the Identifier if it does not exist.
+   * @return {@code true} if the value was stored, or {@code false} if the
+   *         Identifier does not exist and {@code createId} was {@code false}.
+   */
+  public boolean updateAttribute(Attribute attribute, boolean createId);
+
+  /**
+   * Expires the current value of an Attribute from a single origin.
+   * 
+   * @param identifier
+   *          the Identifier of the Attribute.
+   * @param attributeName
+   *          the name of the Attribute.
+   * @param origin
+   *          the origin of the Attribute.
+   * @param expirationTime
+   *          the expiration time.
+   * @return {@code true} if the Attribute existed, else {@code false}.
+   */
+  public boolean expireAttribute(String identifier, String attributeName,
+      String origin, long expirationTime);
+
+  /**
+   * Deletes the history of an Attribute from a single origin.
+   * 
+   * @param identifier
+   *          the Identifier of the Attribute.
+   * @param attributeName
+   *          the name of the Attribute.
+   * @param origin
+   *          the origin of the Attribute.
+   * @return {@code true} if the Attribute existed, else {@code false}.
+   */
+  public boolean deleteAttribute(String identifier, String attributeName,
+      String origin);
+
+  /**
+   * Returns the Identifiers matching a regular expression.
+   * 
+   * @param idRegex
+   *          the regular expression to match.
+   * @return the matching Identifiers, possibly empty.
+   */
+  public String[] searchIdentifiers(String idRegex);
+
+  /**
+   * Returns the state of the matching Identifiers as of {@code end}: for each
+   * Identifier, attribute name and origin, the most recent value created
+   * between {@code begin} and {@code end} that had not expired by
+   * {@code end}.
+   * 
+   * @param idRegex
+   *          the regular expression for Identifiers.
+   * @param attributeRegexes
+   *          the regular expressions for attribute names.
+   * @param begin
+   *          the earliest creation time to include.
+   * @param end
+   *          the time of the snapshot, or 0 for the current state.
+   * @return a map of Identifiers to their Attribute values. Identifiers with
+   *         no matching values are not included.
+   */
+  public Map<String, Collection<Attribute>> getSnapshot(String idRegex,
+      String[] attributeRegexes, long begin, long end);
+
+  /**
+   * Returns every matching Attribute value created in
+   * {@code [begin, end)}, ordered by creation time.
+   * 
+   * @param idRegex
+   *          the regular expression for Identifiers.
+   * @param attributeRegexes
+   *          the regular expressions for attribute names.
+   * @param begin
+   *          the earliest creation time to include.
+   * @param end
+   *          the end of the range (exclusive), or 0 for no limit.
+   * @return the Attribute values, with their Identifiers set, in creation time
+   *         order.
+   */
+  public List<Attribute> getRange(String idRegex, String[] attributeRegexes,
+      long begin, long end);
+
+  /**
+   * Returns the index the store uses to evaluate Identifier regular
+   * expressions. The server evaluates stream requests against the same index,
+   * so it must contain every Identifier in the store.
+   * 
+   * @return the Identifier index.
+   */
+  public RegexIndex getIndex();
+}
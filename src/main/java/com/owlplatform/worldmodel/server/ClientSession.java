@@ -0,0 +1,348 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage.AttributeAlias;
+import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage.OriginAlias;
+import com.owlplatform.worldmodel.client.protocol.messages.RequestCompleteMessage;
+
+/**
+ * The state of a single client connected to a {@link WorldModelServer}: the
+ * aliases already sent to it, its origin preferences and its active streams.
+ * All Data Response messages for a client are written through this class so
+ * that alias messages always precede the data that uses them.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class ClientSession {
+
+  /**
+   * The session for this client.
+   */
+  private final IoSession session;
+
+  /**
+   * The server that assigns aliases.
+   */
+  private final WorldModelServer server;
+
+  /**
+   * Attribute name aliases already sent to the client.
+   */
+  private final Set<Integer> sentAttributeAliases = new HashSet<Integer>();
+
+  /**
+   * Origin aliases already sent to the client.
+   */
+  private final Set<Integer> sentOriginAliases = new HashSet<Integer>();
+
+  /**
+   * Origin weights from the client's last Origin Preference message.
+   */
+  private volatile Map<String, Integer> originWeights = null;
+
+  /**
+   * Active streams, keyed by ticket number.
+   */
+  final ConcurrentHashMap<Long, StreamSubscription> streams = new ConcurrentHashMap<Long, StreamSubscription>();
+
+  /**
+   * Creates a new client state.
+   * 
+   * @param session
+   *          the session for the client.
+   * @param server
+   *          the server that assigns aliases.
+   */
+  ClientSession(final IoSession session, final WorldModelServer server) {
+    this.session = session;
+    this.server = server;
+  }
+
+  /**
+   * Returns the session for this client.
+   * 
+   * @return the session.
+   */
+  IoSession getSession() {
+    return this.session;
+  }
+
+  /**
+   * Sets the origin weights for this client.
+   * 
+   * @param weights
+   *          the new weights, or {@code null} to accept all origins.
+   */
+  void setOriginWeights(final Map<String, Integer> weights) {
+    this.originWeights = weights;
+  }
+
+  /**
+   * Determines whether this client wants data from an origin. Origins given
+   * a negative weight in an Origin Preference message are excluded.
+   * 
+   * @param origin
+   *          the origin name.
+   * @return {@code true} if data from the origin should be sent.
+   */
+  boolean acceptsOrigin(final String origin) {
+    Map<String, Integer> weights = this.originWeights;
+    if (weights == null) {
+      return true;
+    }
+    Integer weight = weights.get(origin);
+    return weight == null || weight.intValue() >= 0;
+  }
+
+  /**
+   * Sends the Attribute values of an Identifier to this client, preceded by
+   * any aliases it has not seen yet.
+   * 
+   * @param ticketNumber
+   *          the ticket number of the request.
+   * @param identifier
+   *          the Identifier.
+   * @param values
+   *          the Attribute values to send.
+   */
+  void sendData(final long ticketNumber, final String identifier,
+      final Collection<Attribute> values) {
+    List<Attribute> accepted = new ArrayList<Attribute>(values.size());
+    for (Attribute value : values) {
+      if (this.acceptsOrigin(value.getOriginName())) {
+        accepted.add(value);
+      }
+    }
+    if (accepted.isEmpty()) {
+      return;
+    }
+
+    DataResponseMessage message = new DataResponseMessage();
+    message.setTicketNumber(ticketNumber);
+    message.setId(identifier);
+    message.setAttributes(accepted.toArray(new Attribute[accepted.size()]));
+
+    synchronized (this) {
+      this.sendAliases(accepted);
+      this.session.write(message);
+    }
+  }
+
+  /**
+   * Sends snapshot values of an Identifier for a stream, recording their
+   * creation dates so that older values held during the snapshot are not sent
+   * after them.
+   * 
+   * @param stream
+   *          the stream.
+   * @param identifier
+   *          the Identifier.
+   * @param values
+   *          the snapshot values of the Identifier.
+   */
+  void sendSnapshot(final StreamSubscription stream, final String identifier,
+      final Collection<Attribute> values) {
+    synchronized (this) {
+      for (Attribute value : values) {
+        stream.snapshotDates.put(StreamSubscription.valueKey(identifier, value),
+            Long.valueOf(value.getCreationDate()));
+      }
+    }
+    this.sendData(stream.ticketNumber, identifier, values);
+  }
+
+  /**
+   * Sends an already-encoded Data Response message for a stream to this
+   * client, preceded by any aliases it has not seen yet. The encoded message is
+   * copied, so it can be shared by several clients. If the stream's snapshot
+   * has not been sent yet, the copy is held until it has.
+   * 
+   * @param stream
+   *          the stream, whose ticket number is placed in the copy.
+   * @param values
+   *          the Attribute values in the encoded message, with the server's
+   *          aliases bound.
+   * @param encoded
+   *          the encoded message. Its position is not changed.
+   * @param ticketNumberOffset
+   *          the position of the ticket number in the encoded message.
+   */
+  void sendEncoded(final StreamSubscription stream, final Attribute[] values,
+      final IoBuffer encoded, final int ticketNumberOffset) {
+    IoBuffer copy = IoBuffer.allocate(encoded.remaining());
+    copy.put(encoded.duplicate());
+    copy.flip();
+    copy.putInt(ticketNumberOffset, (int) stream.ticketNumber);
+    synchronized (this) {
+      if (stream.cancelled) {
+        return;
+      }
+      if (!stream.snapshotSent) {
+        stream.heldMessages.add(copy);
+        stream.heldValues.add(values);
+        return;
+      }
+      this.sendAliases(Arrays.asList(values));
+      this.session.write(copy);
+    }
+  }
+
+  /**
+   * Marks the snapshot of a stream as sent and sends the new values that
+   * arrived while it was being sent. Held values that are not newer than the
+   * snapshot value of the same Attribute were already in the store when the
+   * snapshot was read, so they are dropped.
+   * 
+   * @param stream
+   *          the stream whose snapshot has been sent.
+   */
+  void snapshotSent(final StreamSubscription stream) {
+    synchronized (this) {
+      if (stream.cancelled) {
+        return;
+      }
+      for (int i = 0; i < stream.heldMessages.size(); ++i) {
+        Attribute[] values = stream.heldValues.get(i);
+        List<Attribute> newer = new ArrayList<Attribute>(values.length);
+        for (Attribute value : values) {
+          Long snapshotDate = stream.snapshotDates.get(StreamSubscription
+              .valueKey(value.getId(), value));
+          if (snapshotDate == null
+              || value.getCreationDate() > snapshotDate.longValue()) {
+            newer.add(value);
+          }
+        }
+        if (newer.isEmpty()) {
+          continue;
+        }
+        this.sendAliases(newer);
+        if (newer.size() == values.length) {
+          this.session.write(stream.heldMessages.get(i));
+        } else {
+          DataResponseMessage message = new DataResponseMessage();
+          message.setTicketNumber(stream.ticketNumber);
+          message.setId(values[0].getId());
+          message.setAttributes(newer.toArray(new Attribute[newer.size()]));
+          this.session.write(message);
+        }
+      }
+      stream.heldMessages.clear();
+      stream.heldValues.clear();
+      stream.snapshotDates.clear();
+      stream.snapshotSent = true;
+    }
+  }
+
+  /**
+   * Sends a Request Complete message to this client.
+   * 
+   * @param ticketNumber
+   *          the ticket number of the completed request.
+   */
+  void sendComplete(final long ticketNumber) {
+    RequestCompleteMessage message = new RequestCompleteMessage();
+    message.setTicketNumber(ticketNumber);
+    synchronized (this) {
+      this.session.write(message);
+    }
+  }
+
+  /**
+   * Cancels a stream and sends its Request Complete message. No more values
+   * are sent for the stream once this returns, even by sends that had already
+   * selected it.
+   * 
+   * @param stream
+   *          the stream to cancel.
+   */
+  void cancelStream(final StreamSubscription stream) {
+    synchronized (this) {
+      stream.cancelled = true;
+      stream.heldMessages.clear();
+      stream.heldValues.clear();
+      stream.snapshotDates.clear();
+      this.sendComplete(stream.ticketNumber);
+    }
+  }
+
+  /**
+   * Binds the server's aliases to each value and sends the Attribute Alias
+   * and Origin Alias messages this client has not received yet. Must be
+   * called while holding this object's monitor.
+   * 
+   * @param values
+   *          the values about to be sent.
+   */
+  private void sendAliases(final List<Attribute> values) {
+    List<AttributeAlias> newAttributes = null;
+    List<OriginAlias> newOrigins = null;
+    for (Attribute value : values) {
+      int attributeAlias = this.server.bindAliases(value);
+      if (this.sentAttributeAliases.add(Integer.valueOf(attributeAlias))) {
+        if (newAttributes == null) {
+          newAttributes = new ArrayList<AttributeAlias>();
+        }
+        newAttributes.add(new AttributeAlias(attributeAlias, value
+            .getAttributeName()));
+      }
+      int originAlias = value.getOriginNameAlias();
+      if (this.sentOriginAliases.add(Integer.valueOf(originAlias))) {
+        if (newOrigins == null) {
+          newOrigins = new ArrayList<OriginAlias>();
+        }
+        newOrigins.add(new OriginAlias(originAlias, WorldModelServer
+            .originName(value)));
+      }
+    }
+    if (newAttributes != null) {
+      AttributeAliasMessage message = new AttributeAliasMessage();
+      message.setAliases(newAttributes
+          .toArray(new AttributeAlias[newAttributes.size()]));
+      this.session.write(message);
+    }
+    if (newOrigins != null) {
+      OriginAliasMessage message = new OriginAliasMessage();
+      message.setAliases(newOrigins.toArray(new OriginAlias[newOrigins.size()]));
+      this.session.write(message);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Client " + this.session.getRemoteAddress();
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientIoAdapter;
+import com.owlplatform.worldmodel.client.protocol.messages.AttributeAliasMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.CancelRequestMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.HandshakeMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.IdSearchMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.IdSearchResponseMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.KeepAliveMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginAliasMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.OriginPreferenceMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.RangeRequestMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.RequestCompleteMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.SnapshotRequestMessage;
+import com.owlplatform.worldmodel.client.protocol.messages.StreamRequestMessage;
+
+/**
+ * Answers the requests of clients connected to a {@link WorldModelServer}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class ClientSessionAdapter implements ClientIoAdapter {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(ClientSessionAdapter.class);
+
+  /**
+   * Session attribute key for the {@link ClientSession} of each client.
+   */
+  private static final String CLIENT_KEY = ClientSessionAdapter.class
+      .getName() + ".CLIENT";
+
+  /**
+   * The server that owns this adapter.
+   */
+  private final WorldModelServer server;
+
+  /**
+   * Creates a new adapter for a server.
+   * 
+   * @param server
+   *          the server that owns this adapter.
+   */
+  ClientSessionAdapter(final WorldModelServer server) {
+    this.server = server;
+  }
+
+  /**
+   * Returns the state of the client on a session.
+   * 
+   * @param session
+   *          the session.
+   * @return the client state, or {@code null} if the session was not opened
+   *         by this adapter.
+   */
+  private static ClientSession getClient(final IoSession session) {
+    return (ClientSession) session.getAttribute(CLIENT_KEY);
+  }
+
+  @Override
+  public void exceptionCaught(IoSession session, Throwable cause) {
+    log.error("Exception on client session " + session + ".", cause);
+    session.close(true);
+  }
+
+  @Override
+  public void sessionIdle(IoSession session, IdleStatus status) {
+    if (status.equals(IdleStatus.WRITER_IDLE)
+        || status.equals(IdleStatus.BOTH_IDLE)) {
+      session.write(KeepAliveMessage.MESSAGE);
+    }
+  }
+
+  @Override
+  public void connectionOpened(IoSession session) {
+    log.info("Client connected from {}.", session.getRemoteAddress());
+    session.setAttribute(CLIENT_KEY, new ClientSession(session, this.server));
+    session.write(HandshakeMessage.getDefaultMessage());
+  }
+
+  @Override
+  public void connectionClosed(IoSession session) {
+    log.info("Client at {} disconnected.", session.getRemoteAddress());
+    ClientSession client = getClient(session);
+    if (client != null) {
+      for (StreamSubscription stream : client.streams.values()) {
+        this.server.removeStream(stream);
+      }
+      client.streams.clear();
+    }
+  }
+
+  @Override
+  public void handshakeReceived(IoSession session, HandshakeMessage message) {
+    if (!HandshakeMessage.getDefaultMessage().equals(message)) {
+      log.warn("Invalid handshake from {}: {}", session, message);
+      session.close(true);
+    }
+  }
+
+  @Override
+  public void keepAliveReceived(IoSession session, KeepAliveMessage message) {
+    log.debug("Keep-Alive from {}.", session);
+  }
+
+  @Override
+  public void snapshotRequestReceived(IoSession session,
+      SnapshotRequestMessage message) {
+    ClientSession client = getClient(session);
+    long ticket = message.getTicketNumber();
+    try {
+      Map<String, Collection<Attribute>> snapshot = this.server.getStore()
+          .getSnapshot(message.getIdRegex(), message.getAttributeRegexes(),
+              message.getBeginTimestamp(), message.getEndTimestamp());
+      for (Map.Entry<String, Collection<Attribute>> entry : snapshot
+          .entrySet()) {
+        client.sendData(ticket, entry.getKey(), entry.getValue());
+      }
+    } catch (PatternSyntaxException pse) {
+      log.warn("Invalid regular expression in {}: {}", message,
+          pse.getMessage());
+    }
+    client.sendComplete(ticket);
+  }
+
+  @Override
+  public void rangeRequestReceived(IoSession session,
+      RangeRequestMessage message) {
+    ClientSession client = getClient(session);
+    long ticket = message.getTicketNumber();
+    try {
+      List<Attribute> range = this.server.getStore().getRange(
+          message.getIdRegex(), message.getAttributeRegexes(),
+          message.getBeginTimestamp(), message.getEndTimestamp());
+      // Consecutive values for the same Identifier share a Data Response
+      List<Attribute> batch = new ArrayList<Attribute>();
+      String batchId = null;
+      for (Attribute value : range) {
+        if (batchId != null && !batchId.equals(value.getId())) {
+          client.sendData(ticket, batchId, batch);
+          batch = new ArrayList<Attribute>();
+        }
+        batchId = value.getId();
+        batch.add(value);
+      }
+      if (batchId != null) {
+        client.sendData(ticket, batchId, batch);
+      }
+    } catch (PatternSyntaxException pse) {
+      log.warn("Invalid regular expression in {}: {}", message,
+          pse.getMessage());
+    }
+    client.sendComplete(ticket);
+  }
+
+  @Override
+  public void streamRequestReceived(IoSession session,
+      StreamRequestMessage message) {
+    ClientSession client = getClient(session);
+    long ticket = message.getTicketNumber();
+    StreamSubscription stream;
+    try {
+      // Compile now so an invalid expression is rejected immediately
+      this.server.getIndex().compile(message.getIdRegex());
+      stream = new StreamSubscription(client, ticket, message.getIdRegex(),
+          this.server.getIndex().nameFilter(message.getAttributeRegexes()),
+          message.getUpdateInterval());
+    } catch (PatternSyntaxException pse) {
+      log.warn("Invalid regular expression in {}: {}", message,
+          pse.getMessage());
+      client.sendComplete(ticket);
+      return;
+    }
+
+    // Register first so that no update is missed while sending the snapshot.
+    // New values are held until the snapshot has been sent.
+    client.streams.put(Long.valueOf(ticket), stream);
+    this.server.addStream(stream);
+
+    try {
+      Map<String, Collection<Attribute>> snapshot = this.server.getStore()
+          .getSnapshot(message.getIdRegex(), message.getAttributeRegexes(),
+              message.getBeginTimestamp(), 0);
+      for (Map.Entry<String, Collection<Attribute>> entry : snapshot
+          .entrySet()) {
+        client.sendSnapshot(stream, entry.getKey(), entry.getValue());
+      }
+    } finally {
+      client.snapshotSent(stream);
+    }
+  }
+
+  @Override
+  public void cancelRequestReceived(IoSession session,
+      CancelRequestMessage message) {
+    ClientSession client = getClient(session);
+    StreamSubscription stream = client.streams.remove(Long.valueOf(message
+        .getTicketNumber()));
+    if (stream == null) {
+      log.debug("No stream to cancel for {}.", message);
+      return;
+    }
+    this.server.removeStream(stream);
+    client.cancelStream(stream);
+  }
+
+  @Override
+  public void idSearchReceived(IoSession session, IdSearchMessage message) {
+    IdSearchResponseMessage response = new IdSearchResponseMessage();
+    try {
+      response.setMatchingIds(this.server.getStore().searchIdentifiers(
+          message.getIdRegex()));
+    } catch (PatternSyntaxException pse) {
+      log.warn("Invalid regular expression in {}: {}", message,
+          pse.getMessage());
+      response.setMatchingIds(new String[0]);
+    }
+    session.write(response);
+  }
+
+  @Override
+  public void originPreferenceReceived(IoSession session,
+      OriginPreferenceMessage message) {
+    getClient(session).setOriginWeights(message.getWeights());
+  }
+
+  @Override
+  public void attributeAliasReceived(IoSession session,
+      AttributeAliasMessage message) {
+    log.warn("Clients should not send Attribute Alias messages: {}", message);
+  }
+
+  @Override
+  public void originAliasReceived(IoSession session, OriginAliasMessage message) {
+    log.warn("Clients should not send Origin Alias messages: {}", message);
+  }
+
+  @Override
+  public void requestCompleteReceived(IoSession session,
+      RequestCompleteMessage message) {
+    log.warn("Clients should not send Request Complete messages: {}", message);
+  }
+
+  @Override
+  public void dataResponseReceived(IoSession session,
+      DataResponseMessage message) {
+    log.warn("Clients should not send Data Response messages: {}", message);
+  }
+
+  @Override
+  public void idSearchResponseReceived(IoSession session,
+      IdSearchResponseMessage message) {
+    log.warn("Clients should not send Id Search Response messages: {}",
+        message);
+  }
+
+  @Override
+  public void handshakeSent(IoSession session, HandshakeMessage message) {
+    log.debug("Sent handshake to {}.", session);
+  }
+
+  @Override
+  public void keepAliveSent(IoSession session, KeepAliveMessage message) {
+    log.debug("Sent Keep-Alive to {}.", session);
+  }
+
+  @Override
+  public void snapshotRequestSent(IoSession session,
+      SnapshotRequestMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void rangeRequestSent(IoSession session, RangeRequestMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void streamRequestSent(IoSession session, StreamRequestMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void attributeAliasSent(IoSession session,
+      AttributeAliasMessage message) {
+    log.debug("Sent {} to {}.", message, session);
+  }
+
+  @Override
+  public void originAliasSent(IoSession session, OriginAliasMessage message) {
+    log.debug("Sent {} to {}.", message, session);
+  }
+
+  @Override
+  public void requestCompleteSent(IoSession session,
+      RequestCompleteMessage message) {
+    log.debug("Sent {} to {}.", message, session);
+  }
+
+  @Override
+  public void cancelRequestSent(IoSession session, CancelRequestMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void dataResponseSent(IoSession session, DataResponseMessage message) {
+    // Too frequent to log
+  }
+
+  @Override
+  public void idSearchSent(IoSession session, IdSearchMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void idSearchResponseSent(IoSession session,
+      IdSearchResponseMessage message) {
+    log.debug("Sent {} to {}.", message, session);
+  }
+
+  @Override
+  public void OriginPreferenceSent(IoSession session,
+      OriginPreferenceMessage message) {
+    // Not sent by the world model
+  }
+}
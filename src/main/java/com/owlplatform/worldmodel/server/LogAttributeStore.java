@@ -0,0 +1,1750 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.solver.protocol.codec.AttributeUpdateDecoder;
+import com.owlplatform.worldmodel.solver.protocol.codec.AttributeUpdateEncoder;
+import com.owlplatform.worldmodel.types.Utf16Codec;
+
+/**
+ * An {@link AttributeStore} that keeps its history in an append-only log of
+ * memory-mapped segment files, so that it survives restarts. The log is
+ * replayed when the store is opened.
+ * <p>
+ * Attribute values are logged in the layout used by Attribute Update messages
+ * (see {@link AttributeUpdateEncoder#putAttribute(Attribute, IoBuffer)}),
+ * preceded by an origin alias. Each segment defines its own attribute name
+ * and origin aliases. Expiration and deletion are logged as small records and
+ * applied to the in-memory state immediately. The logged values they make
+ * obsolete are removed later by a background compaction, which rewrites
+ * sealed segments without them.
+ * </p>
+ * <p>
+ * The latest value of each Attribute is kept in memory, so current snapshots
+ * never read the log. For range requests and snapshots of past times, each
+ * Identifier has a sparse time index: one entry per segment that contains
+ * values of that Identifier, with the first and last record positions and the
+ * earliest and latest creation times. Only the part of each overlapping
+ * segment between those positions is read.
+ * </p>
+ * <p>
+ * Expired values are kept for {@link #setExpiredRetention(long)}
+ * milliseconds after their expiration and removed by the next compaction
+ * after that. Until then they remain available to range requests.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LogAttributeStore implements AttributeStore, Closeable {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(LogAttributeStore.class);
+
+  /**
+   * Default size of new segment files, in bytes.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * Default time between background compactions, in milliseconds.
+   */
+  public static final long DEFAULT_COMPACTION_INTERVAL = 60000;
+
+  /**
+   * Record defining an attribute name alias: alias, name.
+   */
+  static final byte ATTRIBUTE_NAME = 1;
+
+  /**
+   * Record defining an origin alias: alias, origin.
+   */
+  static final byte ORIGIN_NAME = 2;
+
+  /**
+   * Record for an Attribute value: origin alias, then the Attribute Update
+   * layout.
+   */
+  static final byte ATTRIBUTE = 3;
+
+  /**
+   * Record for a created Identifier: creation time, Identifier.
+   */
+  static final byte CREATE_ID = 4;
+
+  /**
+   * Record for a deleted Identifier: Identifier.
+   */
+  static final byte DELETE_ID = 5;
+
+  /**
+   * Record for an expired Attribute value: name alias, origin alias, creation
+   * time of the value, expiration time, Identifier.
+   */
+  static final byte EXPIRE_ATTRIBUTE = 6;
+
+  /**
+   * Record for a deleted Attribute: name alias, origin alias, Identifier.
+   */
+  static final byte DELETE_ATTRIBUTE = 7;
+
+  /**
+   * The part of one segment containing values of an Identifier.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class SegmentEntry {
+    /**
+     * The segment.
+     */
+    final LogSegment segment;
+
+    /**
+     * Position of the first value.
+     */
+    int first;
+
+    /**
+     * Position of the last value.
+     */
+    int last;
+
+    /**
+     * Earliest creation time.
+     */
+    long minTime;
+
+    /**
+     * Latest creation time.
+     */
+    long maxTime;
+
+    /**
+     * Creates an entry for a single value.
+     * 
+     * @param segment
+     *          the segment.
+     * @param offset
+     *          the position of the value.
+     * @param time
+     *          the creation time of the value.
+     */
+    SegmentEntry(final LogSegment segment, final int offset, final long time) {
+      this.segment = segment;
+      this.first = offset;
+      this.last = offset;
+      this.minTime = time;
+      this.maxTime = time;
+    }
+
+    /**
+     * Adds a later value to this entry.
+     * 
+     * @param offset
+     *          the position of the value.
+     * @param time
+     *          the creation time of the value.
+     */
+    void add(final int offset, final long time) {
+      this.last = offset;
+      if (time < this.minTime) {
+        this.minTime = time;
+      }
+      if (time > this.maxTime) {
+        this.maxTime = time;
+      }
+    }
+  }
+
+  /**
+   * The in-memory state of an Attribute from a single origin.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class KeyState {
+    /**
+     * The attribute name.
+     */
+    final String name;
+
+    /**
+     * The origin.
+     */
+    final String origin;
+
+    /**
+     * The value with the latest creation time.
+     */
+    volatile Attribute latest = null;
+
+    /**
+     * Creates a new state.
+     * 
+     * @param name
+     *          the attribute name.
+     * @param origin
+     *          the origin.
+     */
+    KeyState(final String name, final String origin) {
+      this.name = name;
+      this.origin = origin;
+    }
+  }
+
+  /**
+   * The in-memory state of an Identifier.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class IdState {
+    /**
+     * Log position of the deletion of an earlier Identifier with the same
+     * name. Records before it belong to the deleted Identifier.
+     */
+    volatile long floor;
+
+    /**
+     * The Attributes of this Identifier, keyed by name and origin.
+     */
+    final ConcurrentHashMap<String, KeyState> keys = new ConcurrentHashMap<String, KeyState>();
+
+    /**
+     * Log positions of Attribute deletions, keyed by name and origin. Values
+     * logged before the deletion are obsolete.
+     */
+    final ConcurrentHashMap<String, Long> tombstones = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Expiration times of expired values, keyed by name, origin and creation
+     * time.
+     */
+    final ConcurrentHashMap<String, Long> expirations = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The sparse time index: one entry per segment, in segment order. Guarded
+     * by this object's monitor.
+     */
+    final List<SegmentEntry> entries = new ArrayList<SegmentEntry>();
+
+    /**
+     * Creates a new state.
+     * 
+     * @param floor
+     *          log position of the deletion of an earlier Identifier with the
+     *          same name, or {@code Long.MIN_VALUE}.
+     */
+    IdState(final long floor) {
+      this.floor = floor;
+    }
+
+    /**
+     * Determines whether a logged value is still part of this Identifier.
+     * 
+     * @param key
+     *          the name and origin key of the value.
+     * @param position
+     *          the log position of the value.
+     * @return {@code true} if the value has not been deleted.
+     */
+    boolean isLive(final String key, final long position) {
+      if (position < this.floor) {
+        return false;
+      }
+      Long tombstone = this.tombstones.get(key);
+      return tombstone == null || position > tombstone.longValue();
+    }
+
+    /**
+     * Adds a logged value to the time index.
+     * 
+     * @param segment
+     *          the segment of the value.
+     * @param offset
+     *          the position of the value in the segment.
+     * @param time
+     *          the creation time of the value.
+     */
+    synchronized void index(final LogSegment segment, final int offset,
+        final long time) {
+      int size = this.entries.size();
+      if (size > 0) {
+        SegmentEntry last = this.entries.get(size - 1);
+        if (last.segment == segment) {
+          last.add(offset, time);
+          return;
+        }
+      }
+      this.entries.add(new SegmentEntry(segment, offset, time));
+    }
+  }
+
+  /**
+   * Receives the values read from the log.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private interface ValueVisitor {
+    /**
+     * Called for each live value read.
+     * 
+     * @param key
+     *          the Identifier, name and origin key of the value.
+     * @param value
+     *          the value.
+     */
+    void visit(String key, Attribute value);
+  }
+
+  /**
+   * The log directory.
+   */
+  private final File directory;
+
+  /**
+   * Size of new segment files.
+   */
+  private final int segmentSize;
+
+  /**
+   * All segments, by sequence number.
+   */
+  private final ConcurrentSkipListMap<Integer, LogSegment> segments = new ConcurrentSkipListMap<Integer, LogSegment>();
+
+  /**
+   * The segment being appended to. Guarded by this object's monitor.
+   */
+  private LogSegment active = null;
+
+  /**
+   * The live Identifiers.
+   */
+  private final ConcurrentHashMap<String, IdState> identifiers = new ConcurrentHashMap<String, IdState>();
+
+  /**
+   * Log positions of Identifier deletions, for Identifiers that have not been
+   * created again.
+   */
+  private final ConcurrentHashMap<String, Long> deletedIds = new ConcurrentHashMap<String, Long>();
+
+  /**
+   * Sorted index of the live Identifiers.
+   */
+  private final RegexIndex index = new RegexIndex();
+
+  /**
+   * Held for reading while the log is read, and for writing while compaction
+   * replaces a segment and the positions that refer to it.
+   */
+  private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+  /**
+   * Prevents concurrent compactions.
+   */
+  private final Object compactionLock = new Object();
+
+  /**
+   * How long expired values are kept, in milliseconds.
+   */
+  private volatile long expiredRetention = 0;
+
+  /**
+   * Runs background compactions.
+   */
+  private final ScheduledExecutorService compactor;
+
+  /**
+   * Opens a store in a directory with the default segment size and
+   * compaction interval, replaying any existing log.
+   * 
+   * @param directory
+   *          the log directory, created if it does not exist.
+   * @throws IOException
+   *           if the log cannot be opened.
+   */
+  public LogAttributeStore(final File directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_INTERVAL);
+  }
+
+  /**
+   * Opens a store in a directory, replaying any existing log.
+   * 
+   * @param directory
+   *          the log directory, created if it does not exist.
+   * @param segmentSize
+   *          the size of new segment files, in bytes.
+   * @param compactionInterval
+   *          the time between background compactions in milliseconds, or 0
+   *          to only compact when {@link #compact()} is called.
+   * @throws IOException
+   *           if the log cannot be opened.
+   */
+  public LogAttributeStore(final File directory, final int segmentSize,
+      final long compactionInterval) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create log directory " + directory
+          + ".");
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.recover();
+
+    if (compactionInterval > 0) {
+      this.compactor = Executors
+          .newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "Log Compaction "
+                  + LogAttributeStore.this.directory.getName());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      this.compactor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            LogAttributeStore.this.compact();
+          } catch (Exception e) {
+            log.error("Log compaction failed.", e);
+          }
+        }
+      }, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+    } else {
+      this.compactor = null;
+    }
+  }
+
+  /**
+   * Replays every segment in the log directory.
+   * 
+   * @throws IOException
+   *           if a segment cannot be opened.
+   */
+  private void recover() throws IOException {
+    File[] leftovers = this.directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(LogSegment.SUFFIX + ".compact");
+      }
+    });
+    if (leftovers != null) {
+      for (File f : leftovers) {
+        log.info("Removing incomplete compaction {}.", f);
+        if (!f.delete()) {
+          log.warn("Unable to delete {}.", f);
+        }
+      }
+    }
+
+    File[] files = this.directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(LogSegment.SUFFIX);
+      }
+    });
+    List<Integer> sequences = new ArrayList<Integer>();
+    if (files != null) {
+      for (File f : files) {
+        String name = f.getName();
+        try {
+          sequences.add(Integer.valueOf(name.substring(0, name.length()
+              - LogSegment.SUFFIX.length())));
+        } catch (NumberFormatException nfe) {
+          log.warn("Ignoring unexpected file {} in log directory.", f);
+        }
+      }
+    }
+    Collections.sort(sequences);
+
+    for (int i = 0; i < sequences.size(); ++i) {
+      int sequence = sequences.get(i).intValue();
+      boolean last = i == sequences.size() - 1;
+      LogSegment segment = LogSegment.open(
+          LogSegment.fileFor(this.directory, sequence), sequence,
+          last ? this.segmentSize : 0);
+      this.segments.put(Integer.valueOf(sequence), segment);
+      this.replay(segment);
+      if (last) {
+        this.active = segment;
+      }
+    }
+    if (this.active == null) {
+      this.active = LogSegment.open(LogSegment.fileFor(this.directory, 0), 0,
+          this.segmentSize);
+      this.segments.put(Integer.valueOf(0), this.active);
+    }
+    log.info("Recovered {} Identifiers from {} log segments in {}.",
+        new Object[] { Integer.valueOf(this.identifiers.size()),
+            Integer.valueOf(this.segments.size()), this.directory });
+  }
+
+  /**
+   * Applies every record of a segment to the in-memory state.
+   * 
+   * @param segment
+   *          the segment to replay.
+   */
+  private void replay(final LogSegment segment) {
+    ByteBuffer records = segment.records();
+    while (records.remaining() >= LogSegment.HEADER_LENGTH) {
+      int offset = records.position();
+      int length = records.getInt();
+      byte type = records.get();
+      ByteBuffer body = records.slice();
+      body.limit(length - 1);
+      records.position(offset + 4 + length);
+      long position = position(segment.sequence, offset);
+      IoBuffer in = IoBuffer.wrap(body);
+
+      switch (type) {
+      case ATTRIBUTE_NAME: {
+        int alias = in.getInt();
+        String name = Utf16Codec.get(in, in.remaining());
+        segment.attributeNames.put(Integer.valueOf(alias), name);
+        segment.attributeAliases.put(name, Integer.valueOf(alias));
+        break;
+      }
+      case ORIGIN_NAME: {
+        int alias = in.getInt();
+        String origin = Utf16Codec.get(in, in.remaining());
+        segment.origins.put(Integer.valueOf(alias), origin);
+        segment.originAliases.put(origin, Integer.valueOf(alias));
+        break;
+      }
+      case ATTRIBUTE: {
+        Attribute value = readAttribute(segment, in);
+        this.applyAttribute(value, segment, offset, position);
+        break;
+      }
+      case CREATE_ID: {
+        long time = in.getLong();
+        this.applyCreate(readId(in), time);
+        break;
+      }
+      case DELETE_ID:
+        this.applyDeleteId(readId(in), position);
+        break;
+      case EXPIRE_ATTRIBUTE: {
+        String name = segment.attributeNames.get(Integer.valueOf(in.getInt()));
+        String origin = segment.origins.get(Integer.valueOf(in.getInt()));
+        long target = in.getLong();
+        long expiration = in.getLong();
+        this.applyExpire(readId(in), name, origin, target, expiration);
+        break;
+      }
+      case DELETE_ATTRIBUTE: {
+        String name = segment.attributeNames.get(Integer.valueOf(in.getInt()));
+        String origin = segment.origins.get(Integer.valueOf(in.getInt()));
+        this.applyDeleteAttribute(readId(in), name, origin, position);
+        break;
+      }
+      default:
+        log.warn("Unknown record type {} at {} in {}.", new Object[] {
+            Byte.valueOf(type), Integer.valueOf(offset), segment });
+      }
+    }
+  }
+
+  /**
+   * Reads the body of an Attribute record.
+   * 
+   * @param segment
+   *          the segment containing the record.
+   * @param in
+   *          the record body.
+   * @return the value, with its Identifier, name, origin, creation time and
+   *         data set.
+   */
+  private static Attribute readAttribute(final LogSegment segment,
+      final IoBuffer in) {
+    int originAlias = in.getInt();
+    Attribute value = AttributeUpdateDecoder.getAttribute(in);
+    value.setAttributeName(segment.attributeNames.get(Integer.valueOf(value
+        .getAttributeNameAlias())));
+    value.setAttributeNameAlias(0);
+    value.setOriginName(segment.origins.get(Integer.valueOf(originAlias)));
+    return value;
+  }
+
+  /**
+   * Reads a length-prefixed Identifier.
+   * 
+   * @param in
+   *          the buffer to read from.
+   * @return the Identifier.
+   */
+  private static String readId(final IoBuffer in) {
+    int length = in.getInt();
+    return Utf16Codec.get(in, length);
+  }
+
+  /**
+   * Returns the log position of a record.
+   * 
+   * @param sequence
+   *          the sequence number of the segment.
+   * @param offset
+   *          the position of the record in the segment.
+   * @return the log position, which orders all records in the log.
+   */
+  private static long position(final int sequence, final int offset) {
+    return ((long) sequence << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the key for an attribute name and origin.
+   * 
+   * @param name
+   *          the attribute name.
+   * @param origin
+   *          the origin.
+   * @return the key.
+   */
+  private static String key(final String name, final String origin) {
+    return name + '\0' + (origin == null ? "" : origin);
+  }
+
+  /**
+   * Returns the state of an Identifier, creating it if needed.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @return the state.
+   */
+  private IdState getOrCreate(final String identifier) {
+    IdState state = this.identifiers.get(identifier);
+    if (state == null) {
+      Long floor = this.deletedIds.remove(identifier);
+      state = new IdState(floor == null ? Long.MIN_VALUE : floor.longValue());
+      this.identifiers.put(identifier, state);
+      this.index.add(identifier);
+    }
+    return state;
+  }
+
+  /**
+   * Applies a logged Attribute value to the in-memory state.
+   * 
+   * @param value
+   *          the value.
+   * @param segment
+   *          the segment containing the value.
+   * @param offset
+   *          the position of the value in the segment.
+   * @param position
+   *          the log position of the value.
+   */
+  private void applyAttribute(final Attribute value, final LogSegment segment,
+      final int offset, final long position) {
+    IdState state = this.getOrCreate(value.getId());
+    String key = key(value.getAttributeName(), value.getOriginName());
+    KeyState keyState = state.keys.get(key);
+    if (keyState == null) {
+      keyState = new KeyState(value.getAttributeName(),
+          value.getOriginName());
+      state.keys.put(key, keyState);
+    }
+    Attribute latest = keyState.latest;
+    if (latest == null || value.getCreationDate() >= latest.getCreationDate()) {
+      keyState.latest = value;
+    }
+    state.index(segment, offset, value.getCreationDate());
+  }
+
+  /**
+   * Applies a created Identifier to the in-memory state.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param time
+   *          the creation time.
+   */
+  private void applyCreate(final String identifier, final long time) {
+    this.getOrCreate(identifier);
+  }
+
+  /**
+   * Applies a deleted Identifier to the in-memory state.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param position
+   *          the log position of the deletion.
+   */
+  private void applyDeleteId(final String identifier, final long position) {
+    if (this.identifiers.remove(identifier) != null) {
+      this.index.remove(identifier);
+    }
+    this.deletedIds.put(identifier, Long.valueOf(position));
+  }
+
+  /**
+   * Applies an expired Attribute value to the in-memory state.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param name
+   *          the attribute name.
+   * @param origin
+   *          the origin.
+   * @param target
+   *          the creation time of the expired value.
+   * @param expiration
+   *          the expiration time.
+   */
+  private void applyExpire(final String identifier, final String name,
+      final String origin, final long target, final long expiration) {
+    IdState state = this.identifiers.get(identifier);
+    if (state == null) {
+      return;
+    }
+    String key = key(name, origin);
+    state.expirations.put(key + '\0' + target, Long.valueOf(expiration));
+    KeyState keyState = state.keys.get(key);
+    if (keyState == null) {
+      return;
+    }
+    Attribute latest = keyState.latest;
+    if (latest != null && latest.getCreationDate() == target
+        && latest.getExpirationDate() == 0) {
+      Attribute expired = MemoryAttributeStore.copy(latest);
+      expired.setExpirationDate(expiration);
+      keyState.latest = expired;
+    }
+  }
+
+  /**
+   * Applies a deleted Attribute to the in-memory state.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param name
+   *          the attribute name.
+   * @param origin
+   *          the origin.
+   * @param position
+   *          the log position of the deletion.
+   */
+  private void applyDeleteAttribute(final String identifier,
+      final String name, final String origin, final long position) {
+    IdState state = this.identifiers.get(identifier);
+    if (state == null) {
+      return;
+    }
+    String key = key(name, origin);
+    state.keys.remove(key);
+    state.tombstones.put(key, Long.valueOf(position));
+    String prefix = key + '\0';
+    for (Iterator<String> iter = state.expirations.keySet().iterator(); iter
+        .hasNext();) {
+      if (iter.next().startsWith(prefix)) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Makes sure the active segment has room for a record and the alias
+   * definitions it may need, starting a new segment if it does not. Must be
+   * called while holding this object's monitor.
+   * 
+   * @param bodyLength
+   *          the length of the record body.
+   * @param name
+   *          the attribute name the record uses, or {@code null}.
+   * @param origin
+   *          the origin the record uses, or {@code null}.
+   * @throws IOException
+   *           if a new segment cannot be created.
+   */
+  private void reserve(final int bodyLength, final String name,
+      final String origin) throws IOException {
+    int needed = LogSegment.HEADER_LENGTH + bodyLength;
+    if (name != null) {
+      needed += LogSegment.HEADER_LENGTH + 4 + Utf16Codec.length(name);
+    }
+    if (origin != null) {
+      needed += LogSegment.HEADER_LENGTH + 4 + Utf16Codec.length(origin);
+    }
+    if (this.active.remaining() >= needed) {
+      return;
+    }
+    this.active.force();
+    int sequence = this.active.sequence + 1;
+    this.active = LogSegment.open(LogSegment.fileFor(this.directory, sequence),
+        sequence, Math.max(this.segmentSize, needed));
+    this.segments.put(Integer.valueOf(sequence), this.active);
+    log.debug("Started {}.", this.active);
+  }
+
+  /**
+   * Returns the alias of a name in the active segment, logging its definition
+   * if needed. Must be called while holding this object's monitor.
+   * 
+   * @param type
+   *          {@link #ATTRIBUTE_NAME} or {@link #ORIGIN_NAME}.
+   * @param name
+   *          the attribute name or origin.
+   * @return the alias.
+   */
+  private int alias(final byte type, final String name) {
+    Map<String, Integer> aliases = type == ATTRIBUTE_NAME ? this.active.attributeAliases
+        : this.active.originAliases;
+    Integer alias = aliases.get(name);
+    if (alias == null) {
+      alias = Integer.valueOf(aliases.size() + 1);
+      IoBuffer body = IoBuffer.allocate(4 + Utf16Codec.length(name));
+      body.putInt(alias.intValue());
+      Utf16Codec.put(name, body);
+      body.flip();
+      this.active.append(type, body.buf());
+      aliases.put(name, alias);
+      if (type == ATTRIBUTE_NAME) {
+        this.active.attributeNames.put(alias, name);
+      } else {
+        this.active.origins.put(alias, name);
+      }
+    }
+    return alias.intValue();
+  }
+
+  /**
+   * Appends a record to the active segment. Must be called while holding this
+   * object's monitor, after {@link #reserve(int, String, String)}.
+   * 
+   * @param type
+   *          the record type.
+   * @param body
+   *          the flipped record body.
+   * @return the position of the record in the active segment.
+   */
+  private int append(final byte type, final IoBuffer body) {
+    return this.active.append(type, body.buf());
+  }
+
+  /**
+   * Allocates the body of a record that ends with an Identifier.
+   * 
+   * @param fixedLength
+   *          the length of the fields before the Identifier.
+   * @param identifier
+   *          the Identifier.
+   * @return a buffer with room for the fields and the Identifier.
+   */
+  private static IoBuffer allocate(final int fixedLength,
+      final String identifier) {
+    return IoBuffer.allocate(fixedLength + 4 + Utf16Codec.length(identifier));
+  }
+
+  /**
+   * Writes a length-prefixed Identifier and flips the buffer.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param body
+   *          the record body.
+   * @return the flipped body.
+   */
+  private static IoBuffer finish(final String identifier, final IoBuffer body) {
+    body.putInt(Utf16Codec.length(identifier));
+    Utf16Codec.put(identifier, body);
+    body.flip();
+    return body;
+  }
+
+  @Override
+  public synchronized boolean createIdentifier(final String identifier,
+      final long creationTime) {
+    if (this.identifiers.containsKey(identifier)) {
+      return false;
+    }
+    try {
+      IoBuffer body = allocate(8, identifier);
+      body.putLong(creationTime);
+      this.reserve(body.capacity(), null, null);
+      this.append(CREATE_ID, finish(identifier, body));
+    } catch (IOException ioe) {
+      log.error("Unable to log creation of " + identifier + ".", ioe);
+      return false;
+    }
+    this.applyCreate(identifier, creationTime);
+    return true;
+  }
+
+  @Override
+  public synchronized boolean expireIdentifier(final String identifier,
+      final long expirationTime) {
+    IdState state = this.identifiers.get(identifier);
+    if (state == null) {
+      return false;
+    }
+    for (KeyState keyState : state.keys.values()) {
+      this.expire(identifier, keyState, expirationTime);
+    }
+    return true;
+  }
+
+  /**
+   * Logs and applies the expiration of the latest value of an Attribute, unless
+   * it has already expired. Must be called while holding this object's
+   * monitor.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param keyState
+   *          the Attribute.
+   * @param expirationTime
+   *          the expiration time.
+   */
+  private void expire(final String identifier, final KeyState keyState,
+      final long expirationTime) {
+    Attribute latest = keyState.latest;
+    if (latest == null || latest.getExpirationDate() != 0) {
+      return;
+    }
+    try {
+      IoBuffer body = allocate(4 + 4 + 8 + 8, identifier);
+      this.reserve(body.capacity(), keyState.name, keyState.origin);
+      body.putInt(this.alias(ATTRIBUTE_NAME, keyState.name));
+      body.putInt(this.alias(ORIGIN_NAME, keyState.origin));
+      body.putLong(latest.getCreationDate());
+      body.putLong(expirationTime);
+      this.append(EXPIRE_ATTRIBUTE, finish(identifier, body));
+    } catch (IOException ioe) {
+      log.error("Unable to log expiration of " + identifier + ".", ioe);
+      return;
+    }
+    this.applyExpire(identifier, keyState.name, keyState.origin,
+        latest.getCreationDate(), expirationTime);
+  }
+
+  @Override
+  public synchronized boolean deleteIdentifier(final String identifier) {
+    if (!this.identifiers.containsKey(identifier)) {
+      return false;
+    }
+    int offset;
+    try {
+      IoBuffer body = allocate(0, identifier);
+      this.reserve(body.capacity(), null, null);
+      offset = this.append(DELETE_ID, finish(identifier, body));
+    } catch (IOException ioe) {
+      log.error("Unable to log deletion of " + identifier + ".", ioe);
+      return false;
+    }
+    this.applyDeleteId(identifier, position(this.active.sequence, offset));
+    return true;
+  }
+
+  @Override
+  public synchronized boolean updateAttribute(final Attribute attribute,
+      final boolean createId) {
+    if (!createId && !this.identifiers.containsKey(attribute.getId())) {
+      log.debug("Ignoring {} for unknown Identifier {}.", attribute,
+          attribute.getId());
+      return false;
+    }
+    String origin = attribute.getOriginName() == null ? "" : attribute
+        .getOriginName();
+    Attribute value = MemoryAttributeStore.copy(attribute);
+    value.setOriginName(origin);
+    int offset;
+    try {
+      int bodyLength = 4 + value.getSolverLength();
+      this.reserve(bodyLength, value.getAttributeName(), origin);
+      Attribute record = MemoryAttributeStore.copy(value);
+      record.setAttributeNameAlias(this.alias(ATTRIBUTE_NAME,
+          value.getAttributeName()));
+      IoBuffer body = IoBuffer.allocate(bodyLength);
+      body.putInt(this.alias(ORIGIN_NAME, origin));
+      AttributeUpdateEncoder.putAttribute(record, body);
+      body.flip();
+      offset = this.append(ATTRIBUTE, body);
+    } catch (IOException ioe) {
+      log.error("Unable to log " + attribute + ".", ioe);
+      return false;
+    }
+    this.applyAttribute(value, this.active, offset,
+        position(this.active.sequence, offset));
+    return true;
+  }
+
+  @Override
+  public synchronized boolean expireAttribute(final String identifier,
+      final String attributeName, final String origin,
+      final long expirationTime) {
+    IdState state = this.identifiers.get(identifier);
+    if (state == null) {
+      return false;
+    }
+    KeyState keyState = state.keys.get(key(attributeName, origin));
+    if (keyState == null) {
+      return false;
+    }
+    this.expire(identifier, keyState, expirationTime);
+    return true;
+  }
+
+  @Override
+  public synchronized boolean deleteAttribute(final String identifier,
+      final String attributeName, final String origin) {
+    IdState state = this.identifiers.get(identifier);
+    if (state == null
+        || !state.keys.containsKey(key(attributeName, origin))) {
+      return false;
+    }
+    String originName = origin == null ? "" : origin;
+    int offset;
+    try {
+      IoBuffer body = allocate(4 + 4, identifier);
+      this.reserve(body.capacity(), attributeName, originName);
+      body.putInt(this.alias(ATTRIBUTE_NAME, attributeName));
+      body.putInt(this.alias(ORIGIN_NAME, originName));
+      offset = this.append(DELETE_ATTRIBUTE, finish(identifier, body));
+    } catch (IOException ioe) {
+      log.error("Unable to log deletion of " + identifier + "/"
+          + attributeName + ".", ioe);
+      return false;
+    }
+    this.applyDeleteAttribute(identifier, attributeName, originName,
+        position(this.active.sequence, offset));
+    return true;
+  }
+
+  @Override
+  public String[] searchIdentifiers(final String idRegex) {
+    return this.index.match(idRegex).clone();
+  }
+
+  @Override
+  public Map<String, Collection<Attribute>> getSnapshot(final String idRegex,
+      final String[] attributeRegexes, final long begin, final long end) {
+    final RegexIndex.NameFilter filter = this.index
+        .nameFilter(attributeRegexes);
+    String[] matches = this.index.match(idRegex);
+    final Map<String, Collection<Attribute>> snapshot = new HashMap<String, Collection<Attribute>>();
+
+    if (end == 0) {
+      // The current state is always in memory
+      for (String identifier : matches) {
+        IdState state = this.identifiers.get(identifier);
+        if (state == null) {
+          continue;
+        }
+        List<Attribute> values = new ArrayList<Attribute>();
+        for (KeyState keyState : state.keys.values()) {
+          Attribute latest = keyState.latest;
+          if (latest != null && filter.matches(keyState.name)
+              && latest.getCreationDate() >= begin
+              && latest.getExpirationDate() == 0) {
+            values.add(latest);
+          }
+        }
+        if (!values.isEmpty()) {
+          snapshot.put(identifier, values);
+        }
+      }
+      return snapshot;
+    }
+
+    final Map<String, Attribute> best = new HashMap<String, Attribute>();
+    this.scan(matches, filter, begin, end, new ValueVisitor() {
+      @Override
+      public void visit(String key, Attribute value) {
+        long created = value.getCreationDate();
+        if (created < begin || created > end) {
+          return;
+        }
+        Attribute current = best.get(key);
+        if (current == null || created >= current.getCreationDate()) {
+          best.put(key, value);
+        }
+      }
+    });
+    for (Attribute value : best.values()) {
+      if (MemoryAttributeStore.isExpired(value.getExpirationDate(), end)) {
+        continue;
+      }
+      Collection<Attribute> values = snapshot.get(value.getId());
+      if (values == null) {
+        values = new ArrayList<Attribute>();
+        snapshot.put(value.getId(), values);
+      }
+      values.add(value);
+    }
+    return snapshot;
+  }
+
+  @Override
+  public List<Attribute> getRange(final String idRegex,
+      final String[] attributeRegexes, final long begin, final long end) {
+    final long last = end == 0 ? Long.MAX_VALUE : end - 1;
+    final List<Attribute> range = new ArrayList<Attribute>();
+    this.scan(this.index.match(idRegex),
+        this.index.nameFilter(attributeRegexes), begin, last,
+        new ValueVisitor() {
+          @Override
+          public void visit(String key, Attribute value) {
+            long created = value.getCreationDate();
+            if (created >= begin && created <= last) {
+              range.add(value);
+            }
+          }
+        });
+    Collections.sort(range, new Comparator<Attribute>() {
+      @Override
+      public int compare(Attribute o1, Attribute o2) {
+        long t1 = o1.getCreationDate();
+        long t2 = o2.getCreationDate();
+        return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+      }
+    });
+    return range;
+  }
+
+  /**
+   * Reads the live values of some Identifiers from the segments whose time
+   * index entries overlap a time range. Segments are read in log order.
+   * 
+   * @param identifiers
+   *          the Identifiers.
+   * @param filter
+   *          the attribute name filter.
+   * @param from
+   *          the earliest creation time of interest.
+   * @param to
+   *          the latest creation time of interest.
+   * @param visitor
+   *          receives each value read, with its expiration set if known.
+   */
+  private void scan(final String[] identifiers,
+      final RegexIndex.NameFilter filter, final long from, final long to,
+      final ValueVisitor visitor) {
+    this.segmentLock.readLock().lock();
+    try {
+      // Which part of which segment to read, and for which Identifiers
+      TreeMap<Integer, int[]> bounds = new TreeMap<Integer, int[]>();
+      Map<Integer, LogSegment> segmentsRead = new HashMap<Integer, LogSegment>();
+      Map<String, IdState> states = new HashMap<String, IdState>();
+      for (String identifier : identifiers) {
+        IdState state = this.identifiers.get(identifier);
+        if (state == null) {
+          continue;
+        }
+        states.put(identifier, state);
+        synchronized (state) {
+          for (SegmentEntry entry : state.entries) {
+            if (entry.maxTime < from || entry.minTime > to) {
+              continue;
+            }
+            Integer sequence = Integer.valueOf(entry.segment.sequence);
+            int[] range = bounds.get(sequence);
+            if (range == null) {
+              bounds.put(sequence, new int[] { entry.first, entry.last });
+              segmentsRead.put(sequence, entry.segment);
+            } else {
+              range[0] = Math.min(range[0], entry.first);
+              range[1] = Math.max(range[1], entry.last);
+            }
+          }
+        }
+      }
+
+      for (Map.Entry<Integer, int[]> bound : bounds.entrySet()) {
+        LogSegment segment = segmentsRead.get(bound.getKey());
+        ByteBuffer records = segment.records();
+        int offset = bound.getValue()[0];
+        int lastOffset = bound.getValue()[1];
+        while (offset <= lastOffset) {
+          int length = records.getInt(offset);
+          if (records.get(offset + 4) == ATTRIBUTE) {
+            this.visitValue(segment, records, offset, length, states, filter,
+                from, to, visitor);
+          }
+          offset += 4 + length;
+        }
+      }
+    } finally {
+      this.segmentLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Decodes a logged value and passes it to a visitor if it is wanted. The
+   * creation time, attribute name and Identifier are read from the encoded
+   * record and checked before the data is copied.
+   * 
+   * @param segment
+   *          the segment.
+   * @param records
+   *          the records of the segment.
+   * @param offset
+   *          the position of the record.
+   * @param length
+   *          the length of the record.
+   * @param states
+   *          the Identifiers of interest.
+   * @param filter
+   *          the attribute name filter.
+   * @param from
+   *          the earliest creation time of interest.
+   * @param to
+   *          the latest creation time of interest.
+   * @param visitor
+   *          the visitor.
+   */
+  private void visitValue(final LogSegment segment, final ByteBuffer records,
+      final int offset, final int length, final Map<String, IdState> states,
+      final RegexIndex.NameFilter filter, final long from, final long to,
+      final ValueVisitor visitor) {
+    int body = offset + LogSegment.HEADER_LENGTH;
+    // Origin alias, name alias, creation time, Identifier length
+    long created = records.getLong(body + 8);
+    if (created < from || created > to) {
+      return;
+    }
+    String name = segment.attributeNames.get(Integer.valueOf(records
+        .getInt(body + 4)));
+    if (name == null || !filter.matches(name)) {
+      return;
+    }
+    ByteBuffer view = records.duplicate();
+    view.position(body + 16);
+    view.limit(offset + 4 + length);
+    IoBuffer in = IoBuffer.wrap(view.slice());
+    String id = readId(in);
+    IdState state = states.get(id);
+    if (state == null) {
+      return;
+    }
+    byte[] data = new byte[in.getInt()];
+    in.get(data);
+    Attribute value = new Attribute();
+    value.setId(id);
+    value.setAttributeName(name);
+    value.setOriginName(segment.origins.get(Integer.valueOf(records
+        .getInt(body))));
+    value.setCreationDate(created);
+    value.setData(data);
+    String key = key(name, value.getOriginName());
+    if (!state.isLive(key, position(segment.sequence, offset))) {
+      return;
+    }
+    Long expiration = state.expirations.get(key + '\0' + created);
+    if (expiration != null) {
+      value.setExpirationDate(expiration.longValue());
+    }
+    visitor.visit(id + '\0' + key, value);
+  }
+
+  /**
+   * Returns how long expired values are kept before compaction removes them.
+   * 
+   * @return the retention time in milliseconds.
+   */
+  public long getExpiredRetention() {
+    return this.expiredRetention;
+  }
+
+  /**
+   * Sets how long expired values are kept before compaction removes them.
+   * 
+   * @param expiredRetention
+   *          the retention time in milliseconds, or {@code Long.MAX_VALUE} to
+   *          keep expired values forever.
+   */
+  public void setExpiredRetention(final long expiredRetention) {
+    this.expiredRetention = expiredRetention;
+  }
+
+  @Override
+  public RegexIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Forces all logged records to disk.
+   */
+  public synchronized void flush() {
+    this.active.force();
+  }
+
+  /**
+   * Stops background compaction and forces all logged records to disk.
+   */
+  @Override
+  public void close() {
+    if (this.compactor != null) {
+      this.compactor.shutdownNow();
+    }
+    synchronized (this.compactionLock) {
+      this.flush();
+    }
+  }
+
+  /**
+   * Rewrites every sealed segment that contains deleted values, or expired
+   * values past their retention time, without them. Segments left empty are
+   * removed. This runs periodically in the background, but may also be called
+   * directly.
+   * 
+   * @throws IOException
+   *           if a segment cannot be rewritten.
+   */
+  public void compact() throws IOException {
+    synchronized (this.compactionLock) {
+      List<LogSegment> sealed = new ArrayList<LogSegment>();
+      synchronized (this) {
+        for (LogSegment segment : this.segments.values()) {
+          if (segment != this.active) {
+            sealed.add(segment);
+          }
+        }
+      }
+      long retention = this.expiredRetention;
+      long cutoff = retention == Long.MAX_VALUE ? Long.MIN_VALUE : System
+          .currentTimeMillis() - retention;
+      for (LogSegment segment : sealed) {
+        boolean oldest = this.segments.firstKey().intValue() == segment.sequence;
+        this.compact(segment, oldest, cutoff);
+      }
+    }
+  }
+
+  /**
+   * Rewrites a single sealed segment without its obsolete records.
+   * 
+   * @param segment
+   *          the segment.
+   * @param oldest
+   *          {@code true} if no earlier segment exists, so deletion records
+   *          are no longer needed.
+   * @param cutoff
+   *          expired values with an expiration time before this are removed.
+   * @throws IOException
+   *           if the segment cannot be rewritten.
+   */
+  private void compact(final LogSegment segment, final boolean oldest,
+      final long cutoff) throws IOException {
+    ByteBuffer records = segment.records();
+    List<int[]> candidates = new ArrayList<int[]>();
+    Set<String> droppedExpirations = new HashSet<String>();
+    Map<String, Long> droppedTombstones = new HashMap<String, Long>();
+    Set<String> usedNames = new HashSet<String>();
+    Set<String> usedOrigins = new HashSet<String>();
+    while (records.remaining() >= LogSegment.HEADER_LENGTH) {
+      int offset = records.position();
+      int length = records.getInt();
+      byte type = records.get();
+      ByteBuffer body = records.slice();
+      body.limit(length - 1);
+      records.position(offset + 4 + length);
+      // Alias definitions are checked once every other record is decided
+      if (type == ATTRIBUTE_NAME
+          || type == ORIGIN_NAME
+          || this.keep(segment, type, IoBuffer.wrap(body),
+              position(segment.sequence, offset), oldest, cutoff,
+              droppedExpirations, droppedTombstones, usedNames, usedOrigins)) {
+        candidates.add(new int[] { offset, length });
+      }
+    }
+    List<int[]> kept = new ArrayList<int[]>(candidates.size());
+    int keptBytes = 0;
+    for (int[] record : candidates) {
+      byte type = records.get(record[0] + 4);
+      if (type == ATTRIBUTE_NAME || type == ORIGIN_NAME) {
+        Integer alias = Integer.valueOf(records.getInt(record[0]
+            + LogSegment.HEADER_LENGTH));
+        boolean used = type == ATTRIBUTE_NAME ? usedNames
+            .contains(segment.attributeNames.get(alias)) : usedOrigins
+            .contains(segment.origins.get(alias));
+        if (!used) {
+          continue;
+        }
+      }
+      kept.add(record);
+      keptBytes += 4 + record[1];
+    }
+    if (keptBytes == segment.size()) {
+      return;
+    }
+
+    if (kept.isEmpty()) {
+      this.segmentLock.writeLock().lock();
+      try {
+        synchronized (this) {
+          this.segments.remove(Integer.valueOf(segment.sequence));
+          this.forget(droppedExpirations, droppedTombstones);
+          this.reindex(segment, null, null, null);
+        }
+      } finally {
+        this.segmentLock.writeLock().unlock();
+      }
+      if (!segment.file.delete()) {
+        log.warn("Unable to delete empty segment {}.", segment.file);
+      }
+      log.debug("Removed {}.", segment);
+      return;
+    }
+
+    File temp = new File(this.directory, segment.file.getName() + ".compact");
+    LogSegment rewritten = LogSegment.open(temp, segment.sequence, keptBytes);
+    int[] oldOffsets = new int[kept.size()];
+    int[] newOffsets = new int[kept.size()];
+    ByteBuffer source = segment.records();
+    for (int i = 0; i < kept.size(); ++i) {
+      int offset = kept.get(i)[0];
+      int length = kept.get(i)[1];
+      source.limit(offset + 4 + length);
+      source.position(offset + LogSegment.HEADER_LENGTH);
+      oldOffsets[i] = offset;
+      newOffsets[i] = rewritten.append(records.get(offset + 4), source);
+      source.limit(source.capacity());
+    }
+    rewritten.force();
+    if (!temp.renameTo(segment.file)) {
+      if (!segment.file.delete() || !temp.renameTo(segment.file)) {
+        throw new IOException("Unable to replace " + segment.file + ".");
+      }
+    }
+    LogSegment replacement = LogSegment.open(segment.file, segment.sequence, 0);
+
+    // Rebuild the aliases and time index entries of the new segment
+    Map<String, SegmentEntry> entries = new HashMap<String, SegmentEntry>();
+    ByteBuffer newRecords = replacement.records();
+    while (newRecords.remaining() >= LogSegment.HEADER_LENGTH) {
+      int offset = newRecords.position();
+      int length = newRecords.getInt();
+      byte type = newRecords.get();
+      ByteBuffer body = newRecords.slice();
+      body.limit(length - 1);
+      newRecords.position(offset + 4 + length);
+      IoBuffer in = IoBuffer.wrap(body);
+      if (type == ATTRIBUTE_NAME || type == ORIGIN_NAME) {
+        int alias = in.getInt();
+        String name = Utf16Codec.get(in, in.remaining());
+        if (type == ATTRIBUTE_NAME) {
+          replacement.attributeNames.put(Integer.valueOf(alias), name);
+        } else {
+          replacement.origins.put(Integer.valueOf(alias), name);
+        }
+      } else if (type == ATTRIBUTE) {
+        Attribute value = readAttribute(replacement, in);
+        SegmentEntry entry = entries.get(value.getId());
+        if (entry == null) {
+          entries.put(value.getId(), new SegmentEntry(replacement, offset,
+              value.getCreationDate()));
+        } else {
+          entry.add(offset, value.getCreationDate());
+        }
+      }
+    }
+
+    this.segmentLock.writeLock().lock();
+    try {
+      // Writers may create Identifiers from deletedIds while positions move
+      synchronized (this) {
+        this.segments.put(Integer.valueOf(segment.sequence), replacement);
+        this.forget(droppedExpirations, droppedTombstones);
+        this.reindex(segment, entries, oldOffsets, newOffsets);
+      }
+    } finally {
+      this.segmentLock.writeLock().unlock();
+    }
+    log.debug("Compacted {} from {} to {} bytes.", new Object[] { segment,
+        Integer.valueOf(segment.size()), Integer.valueOf(keptBytes) });
+  }
+
+  /**
+   * Determines whether a record is still needed.
+   * 
+   * @param segment
+   *          the segment containing the record.
+   * @param type
+   *          the record type.
+   * @param in
+   *          the record body.
+   * @param position
+   *          the log position of the record.
+   * @param oldest
+   *          {@code true} if no earlier segment exists.
+   * @param cutoff
+   *          expired values with an expiration time before this are not
+   *          needed.
+   * @param droppedExpirations
+   *          receives the Identifier and expiration key of each expired value
+   *          that is not needed.
+   * @param droppedTombstones
+   *          receives the Identifier and key of each Attribute deletion that
+   *          is not needed, with its log position.
+   * @param usedNames
+   *          receives the attribute names used by the record if it is needed.
+   * @param usedOrigins
+   *          receives the origins used by the record if it is needed.
+   * @return {@code true} if the record must be kept.
+   */
+  private boolean keep(final LogSegment segment, final byte type,
+      final IoBuffer in, final long position, final boolean oldest,
+      final long cutoff, final Set<String> droppedExpirations,
+      final Map<String, Long> droppedTombstones, final Set<String> usedNames,
+      final Set<String> usedOrigins) {
+    switch (type) {
+    case ATTRIBUTE: {
+      Attribute value = readAttribute(segment, in);
+      IdState state = this.identifiers.get(value.getId());
+      String key = key(value.getAttributeName(), value.getOriginName());
+      if (state == null || !state.isLive(key, position)) {
+        return false;
+      }
+      String expirationKey = key + '\0' + value.getCreationDate();
+      Long expiration = state.expirations.get(expirationKey);
+      if (expiration != null && expiration.longValue() < cutoff) {
+        KeyState keyState = state.keys.get(key);
+        // The current value is kept so the current state survives a restart
+        if (keyState == null || keyState.latest == null
+            || keyState.latest.getCreationDate() != value.getCreationDate()) {
+          droppedExpirations.add(value.getId() + '\0' + expirationKey);
+          return false;
+        }
+      }
+      usedNames.add(value.getAttributeName());
+      usedOrigins.add(value.getOriginName());
+      return true;
+    }
+    case CREATE_ID: {
+      in.getLong();
+      IdState state = this.identifiers.get(readId(in));
+      return state != null && position >= state.floor;
+    }
+    case EXPIRE_ATTRIBUTE: {
+      String name = segment.attributeNames.get(Integer.valueOf(in.getInt()));
+      String origin = segment.origins.get(Integer.valueOf(in.getInt()));
+      in.getLong();
+      long expiration = in.getLong();
+      IdState state = this.identifiers.get(readId(in));
+      String key = key(name, origin);
+      if (state == null || !state.isLive(key, position)) {
+        return false;
+      }
+      KeyState keyState = state.keys.get(key);
+      boolean needed = expiration >= cutoff
+          || (keyState != null && keyState.latest != null && keyState.latest
+              .getExpirationDate() == expiration);
+      if (needed) {
+        usedNames.add(name);
+        usedOrigins.add(origin);
+      }
+      return needed;
+    }
+    case DELETE_ID:
+      // Earlier segments may still hold the values they delete
+      return !oldest;
+    case DELETE_ATTRIBUTE: {
+      String name = segment.attributeNames.get(Integer.valueOf(in.getInt()));
+      String origin = segment.origins.get(Integer.valueOf(in.getInt()));
+      if (!oldest) {
+        usedNames.add(name);
+        usedOrigins.add(origin);
+        return true;
+      }
+      droppedTombstones.put(readId(in) + '\0' + key(name, origin),
+          Long.valueOf(position));
+      return false;
+    }
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Removes the in-memory state of expired values and Attribute deletions
+   * whose records were dropped by compaction. Must be called while holding the
+   * segment write lock and the store monitor, before
+   * {@link #reindex(LogSegment, Map, int[], int[])}.
+   * <p>
+   * A dropped deletion is no longer needed once the values it deleted are gone,
+   * and keeping it would make a value logged right after it look deleted when
+   * its position is remapped.
+   * </p>
+   * 
+   * @param droppedExpirations
+   *          the Identifier and expiration key of each dropped expired value.
+   * @param droppedTombstones
+   *          the Identifier and key of each dropped Attribute deletion, with
+   *          its log position.
+   */
+  private void forget(final Set<String> droppedExpirations,
+      final Map<String, Long> droppedTombstones) {
+    for (String expiration : droppedExpirations) {
+      int split = expiration.indexOf('\0');
+      IdState state = this.identifiers.get(expiration.substring(0, split));
+      if (state != null) {
+        state.expirations.remove(expiration.substring(split + 1));
+      }
+    }
+    for (Map.Entry<String, Long> tombstone : droppedTombstones.entrySet()) {
+      String deleted = tombstone.getKey();
+      int split = deleted.indexOf('\0');
+      IdState state = this.identifiers.get(deleted.substring(0, split));
+      if (state != null) {
+        // A later deletion of the same Attribute replaces this one
+        state.tombstones.remove(deleted.substring(split + 1),
+            tombstone.getValue());
+      }
+    }
+  }
+
+  /**
+   * Replaces the time index entries and deletion positions that refer to a
+   * compacted segment. Must be called while holding the segment write lock
+   * and the store monitor, so that no Identifier is created or deleted with a
+   * position that has not been remapped yet.
+   * 
+   * @param segment
+   *          the compacted segment.
+   * @param entries
+   *          the new time index entries by Identifier, or {@code null} if the
+   *          segment was removed.
+   * @param oldOffsets
+   *          the former positions of the kept records, in order, or
+   *          {@code null} if the segment was removed.
+   * @param newOffsets
+   *          the new positions of the kept records, or {@code null} if the
+   *          segment was removed.
+   */
+  private void reindex(final LogSegment segment,
+      final Map<String, SegmentEntry> entries, final int[] oldOffsets,
+      final int[] newOffsets) {
+    for (Map.Entry<String, IdState> id : this.identifiers.entrySet()) {
+      IdState state = id.getValue();
+      synchronized (state) {
+        for (int i = 0; i < state.entries.size(); ++i) {
+          if (state.entries.get(i).segment == segment) {
+            SegmentEntry replacement = entries == null ? null : entries.get(id
+                .getKey());
+            if (replacement == null) {
+              state.entries.remove(i);
+            } else {
+              state.entries.set(i, replacement);
+            }
+            break;
+          }
+        }
+      }
+      state.floor = this.remap(segment, state.floor, oldOffsets, newOffsets);
+      for (Map.Entry<String, Long> tombstone : state.tombstones.entrySet()) {
+        long remapped = this.remap(segment, tombstone.getValue().longValue(),
+            oldOffsets, newOffsets);
+        if (remapped != tombstone.getValue().longValue()) {
+          state.tombstones.replace(tombstone.getKey(), tombstone.getValue(),
+              Long.valueOf(remapped));
+        }
+      }
+    }
+    for (Map.Entry<String, Long> deleted : this.deletedIds.entrySet()) {
+      long remapped = this.remap(segment, deleted.getValue().longValue(),
+          oldOffsets, newOffsets);
+      if (remapped != deleted.getValue().longValue()) {
+        this.deletedIds.replace(deleted.getKey(), deleted.getValue(),
+            Long.valueOf(remapped));
+      }
+    }
+  }
+
+  /**
+   * Maps a log position in a compacted segment to the equivalent position in
+   * the rewritten segment: the new position of the first kept record at or
+   * after it.
+   * 
+   * @param segment
+   *          the compacted segment.
+   * @param position
+   *          the log position.
+   * @param oldOffsets
+   *          the former positions of the kept records, or {@code null} if the
+   *          segment was removed.
+   * @param newOffsets
+   *          the new positions of the kept records.
+   * @return the new log position, or {@code position} if it is not in the
+   *         segment.
+   */
+  private long remap(final LogSegment segment, final long position,
+      final int[] oldOffsets, final int[] newOffsets) {
+    if ((int) (position >>> 32) != segment.sequence
+        || position == Long.MIN_VALUE) {
+      return position;
+    }
+    if (oldOffsets == null) {
+      // Nothing remains in the segment
+      return position(segment.sequence, 0);
+    }
+    int offset = (int) position;
+    int index = Arrays.binarySearch(oldOffsets, offset);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    if (index >= newOffsets.length) {
+      int lastIndex = newOffsets.length - 1;
+      return position(segment.sequence, newOffsets[lastIndex] + 1);
+    }
+    return position(segment.sequence, newOffsets[index]);
+  }
+
+  @Override
+  public String toString() {
+    return "Log Attribute Store (" + this.directory + ")";
+  }
+}
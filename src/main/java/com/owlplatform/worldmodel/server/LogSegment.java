@@ -0,0 +1,243 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single memory-mapped file of a {@link LogAttributeStore}. Records are
+ * framed as a 4-byte length (covering the type and body), a 1-byte type and
+ * the body. A length of 0 marks the end of the written records.
+ * <p>
+ * Each segment has its own dictionary of attribute name and origin aliases,
+ * defined by records within the segment, so that segments can be compacted
+ * and read independently.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class LogSegment {
+
+  /**
+   * File name suffix of segment files.
+   */
+  static final String SUFFIX = ".log";
+
+  /**
+   * Length of the record frame header: length and type.
+   */
+  static final int HEADER_LENGTH = 5;
+
+  /**
+   * The sequence number of this segment, which orders segments in the log.
+   */
+  final int sequence;
+
+  /**
+   * The segment file.
+   */
+  final File file;
+
+  /**
+   * The mapped content of the file.
+   */
+  private final MappedByteBuffer buffer;
+
+  /**
+   * Where the next record will be written. Only written by the appending
+   * thread.
+   */
+  private volatile int writePosition;
+
+  /**
+   * Attribute names by alias within this segment.
+   */
+  final ConcurrentHashMap<Integer, String> attributeNames = new ConcurrentHashMap<Integer, String>();
+
+  /**
+   * Origins by alias within this segment.
+   */
+  final ConcurrentHashMap<Integer, String> origins = new ConcurrentHashMap<Integer, String>();
+
+  /**
+   * Aliases of attribute names, used when appending.
+   */
+  final Map<String, Integer> attributeAliases = new HashMap<String, Integer>();
+
+  /**
+   * Aliases of origins, used when appending.
+   */
+  final Map<String, Integer> originAliases = new HashMap<String, Integer>();
+
+  /**
+   * Creates a segment object for a mapped file.
+   * 
+   * @param sequence
+   *          the sequence number.
+   * @param file
+   *          the file.
+   * @param buffer
+   *          the mapped content.
+   * @param writePosition
+   *          the end of the written records.
+   */
+  private LogSegment(final int sequence, final File file,
+      final MappedByteBuffer buffer, final int writePosition) {
+    this.sequence = sequence;
+    this.file = file;
+    this.buffer = buffer;
+    this.writePosition = writePosition;
+  }
+
+  /**
+   * Returns the file for a segment.
+   * 
+   * @param directory
+   *          the log directory.
+   * @param sequence
+   *          the sequence number.
+   * @return the segment file.
+   */
+  static File fileFor(final File directory, final int sequence) {
+    return new File(directory, String.format("%010d", Integer.valueOf(sequence))
+        + SUFFIX);
+  }
+
+  /**
+   * Maps a segment file, creating or extending it to {@code capacity} bytes.
+   * The write position is set to the end of the records already in the file.
+   * 
+   * @param file
+   *          the segment file.
+   * @param sequence
+   *          the sequence number.
+   * @param capacity
+   *          the minimum size of the mapping.
+   * @return the segment.
+   * @throws IOException
+   *           if the file cannot be mapped.
+   */
+  static LogSegment open(final File file, final int sequence,
+      final int capacity) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = Math.max(capacity, channel.size());
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          size);
+      LogSegment segment = new LogSegment(sequence, file, mapped, 0);
+      segment.writePosition = segment.findEnd();
+      return segment;
+    } finally {
+      // The mapping stays valid once the file is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Returns the position after the last complete record.
+   * 
+   * @return the end of the written records.
+   */
+  private int findEnd() {
+    int position = 0;
+    int limit = this.buffer.capacity();
+    while (position + HEADER_LENGTH <= limit) {
+      int length = this.buffer.getInt(position);
+      if (length <= 0 || position + 4 + length > limit) {
+        break;
+      }
+      position += 4 + length;
+    }
+    return position;
+  }
+
+  /**
+   * Returns the number of bytes of records in this segment.
+   * 
+   * @return the end of the written records.
+   */
+  int size() {
+    return this.writePosition;
+  }
+
+  /**
+   * Returns the number of bytes left for new records.
+   * 
+   * @return the remaining capacity.
+   */
+  int remaining() {
+    return this.buffer.capacity() - this.writePosition;
+  }
+
+  /**
+   * Appends a record. The caller must check that there is room and ensure
+   * that only one thread appends at a time.
+   * 
+   * @param type
+   *          the record type.
+   * @param body
+   *          the record body, from its position to its limit.
+   * @return the position of the record in this segment.
+   */
+  int append(final byte type, final ByteBuffer body) {
+    int position = this.writePosition;
+    ByteBuffer out = this.buffer.duplicate();
+    out.position(position + 4);
+    out.put(type);
+    out.put(body);
+    // Write the length last so a partial record is never read as complete
+    this.buffer.putInt(position, out.position() - position - 4);
+    this.writePosition = out.position();
+    return position;
+  }
+
+  /**
+   * Returns a view of the written records of this segment.
+   * 
+   * @return a buffer positioned at 0 with its limit at the end of the records.
+   */
+  ByteBuffer records() {
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(0);
+    view.limit(this.writePosition);
+    return view;
+  }
+
+  /**
+   * Forces the written records to disk.
+   */
+  void force() {
+    this.buffer.force();
+  }
+
+  @Override
+  public String toString() {
+    return "Segment " + this.sequence + " (" + this.writePosition + " bytes)";
+  }
+}
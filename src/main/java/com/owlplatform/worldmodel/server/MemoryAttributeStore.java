@@ -0,0 +1,621 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * An {@link AttributeStore} that keeps the full history of every Attribute in
+ * memory.
+ * <p>
+ * The history of each (Identifier, attribute name, origin) is kept in
+ * creation-time order as primitive {@code long[]} columns of creation and
+ * expiration times next to an array of the stored values. Snapshot and range
+ * requests locate values by binary search on the creation times. Reads never
+ * lock: each history publishes an immutable view of its columns through a
+ * volatile reference. Writes lock one of a fixed number of stripes chosen by
+ * Identifier, so updates to different Identifiers rarely contend.
+ * </p>
+ * <p>
+ * Regular expressions in requests are evaluated with a {@link RegexIndex} of
+ * the stored Identifiers.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class MemoryAttributeStore implements AttributeStore {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(MemoryAttributeStore.class);
+
+  /**
+   * Default number of write lock stripes.
+   */
+  public static final int DEFAULT_STRIPES = 64;
+
+  /**
+   * Initial capacity of a new history.
+   */
+  private static final int INITIAL_CAPACITY = 4;
+
+  /**
+   * Orders Attribute values by creation time.
+   */
+  private static final Comparator<Attribute> CREATION_ORDER = new Comparator<Attribute>() {
+    @Override
+    public int compare(Attribute o1, Attribute o2) {
+      long t1 = o1.getCreationDate();
+      long t2 = o2.getCreationDate();
+      return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+    }
+  };
+
+  /**
+   * Key for the history of an Attribute from a single origin.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class AttributeKey {
+    /**
+     * The attribute name.
+     */
+    final String name;
+
+    /**
+     * The origin name.
+     */
+    final String origin;
+
+    /**
+     * Creates a new key.
+     * 
+     * @param name
+     *          the attribute name.
+     * @param origin
+     *          the origin name.
+     */
+    AttributeKey(final String name, final String origin) {
+      this.name = name;
+      this.origin = origin == null ? "" : origin;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof AttributeKey)) {
+        return false;
+      }
+      AttributeKey k = (AttributeKey) o;
+      return this.name.equals(k.name) && this.origin.equals(k.origin);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.name.hashCode() * 31 + this.origin.hashCode();
+    }
+  }
+
+  /**
+   * An immutable view of the history of an Attribute. Entries below
+   * {@link #size} never change once published. Appends write the slot at
+   * {@code size} in the shared arrays and publish a new view with a larger
+   * size; any other change copies the arrays first.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Columns {
+    /**
+     * Creation time of each value, in ascending order.
+     */
+    final long[] created;
+
+    /**
+     * Expiration time of each value, or 0 if it has not expired.
+     */
+    final long[] expires;
+
+    /**
+     * The stored values.
+     */
+    final Attribute[] values;
+
+    /**
+     * The number of valid entries.
+     */
+    final int size;
+
+    /**
+     * Creates a new view.
+     * 
+     * @param created
+     *          the creation time column.
+     * @param expires
+     *          the expiration time column.
+     * @param values
+     *          the stored values.
+     * @param size
+     *          the number of valid entries.
+     */
+    Columns(final long[] created, final long[] expires,
+        final Attribute[] values, final int size) {
+      this.created = created;
+      this.expires = expires;
+      this.values = values;
+      this.size = size;
+    }
+
+    /**
+     * Returns the index of the first entry created after {@code time}.
+     * 
+     * @param time
+     *          the time to search for.
+     * @return the index of the first entry with a creation time greater than
+     *         {@code time}, or {@link #size} if there is none.
+     */
+    int upperBound(final long time) {
+      int low = 0;
+      int high = this.size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (this.created[mid] <= time) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Returns the index of the first entry created at or after {@code time}.
+     * 
+     * @param time
+     *          the time to search for.
+     * @return the index of the first entry with a creation time of at least
+     *         {@code time}, or {@link #size} if there is none.
+     */
+    int lowerBound(final long time) {
+      int low = 0;
+      int high = this.size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (this.created[mid] < time) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * An empty history.
+   */
+  private static final Columns EMPTY = new Columns(new long[0], new long[0],
+      new Attribute[0], 0);
+
+  /**
+   * The history of a single Attribute from a single origin. Only modified
+   * while holding the stripe lock of its Identifier.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class History {
+    /**
+     * The current view of this history.
+     */
+    volatile Columns columns = EMPTY;
+
+    /**
+     * Adds a value, keeping creation-time order. Values with equal creation
+     * times are kept in arrival order.
+     * 
+     * @param value
+     *          the new value.
+     */
+    void add(final Attribute value) {
+      Columns current = this.columns;
+      int size = current.size;
+      long time = value.getCreationDate();
+      if (size == 0 || current.created[size - 1] <= time) {
+        if (size < current.created.length) {
+          current.created[size] = time;
+          current.expires[size] = value.getExpirationDate();
+          current.values[size] = value;
+          this.columns = new Columns(current.created, current.expires,
+              current.values, size + 1);
+          return;
+        }
+        Columns grown = copy(current, Math.max(INITIAL_CAPACITY, size * 2));
+        grown.created[size] = time;
+        grown.expires[size] = value.getExpirationDate();
+        grown.values[size] = value;
+        this.columns = new Columns(grown.created, grown.expires,
+            grown.values, size + 1);
+        return;
+      }
+
+      // Out-of-order value, so readers must not see the entries shift
+      int index = current.upperBound(time);
+      int capacity = Math.max(current.created.length, size + 1);
+      long[] created = new long[capacity];
+      long[] expires = new long[capacity];
+      Attribute[] values = new Attribute[capacity];
+      System.arraycopy(current.created, 0, created, 0, index);
+      System.arraycopy(current.expires, 0, expires, 0, index);
+      System.arraycopy(current.values, 0, values, 0, index);
+      created[index] = time;
+      expires[index] = value.getExpirationDate();
+      values[index] = value;
+      System.arraycopy(current.created, index, created, index + 1, size
+          - index);
+      System.arraycopy(current.expires, index, expires, index + 1, size
+          - index);
+      System.arraycopy(current.values, index, values, index + 1, size - index);
+      this.columns = new Columns(created, expires, values, size + 1);
+    }
+
+    /**
+     * Expires the latest value, unless it has already expired.
+     * 
+     * @param expirationTime
+     *          the expiration time.
+     */
+    void expireLatest(final long expirationTime) {
+      Columns current = this.columns;
+      int last = current.size - 1;
+      if (last < 0 || current.expires[last] != 0) {
+        return;
+      }
+      Columns expired = copy(current, current.created.length);
+      expired.expires[last] = expirationTime;
+      // Stored values may be in use by other threads, so never modify them
+      Attribute value = MemoryAttributeStore.copy(current.values[last]);
+      value.setExpirationDate(expirationTime);
+      expired.values[last] = value;
+      this.columns = expired;
+    }
+
+    /**
+     * Copies the valid entries of a view into new arrays.
+     * 
+     * @param columns
+     *          the view to copy.
+     * @param capacity
+     *          the capacity of the new arrays.
+     * @return a view of the copied arrays with the same size.
+     */
+    private static Columns copy(final Columns columns, final int capacity) {
+      long[] created = new long[capacity];
+      long[] expires = new long[capacity];
+      Attribute[] values = new Attribute[capacity];
+      System.arraycopy(columns.created, 0, created, 0, columns.size);
+      System.arraycopy(columns.expires, 0, expires, 0, columns.size);
+      System.arraycopy(columns.values, 0, values, 0, columns.size);
+      return new Columns(created, expires, values, columns.size);
+    }
+  }
+
+  /**
+   * The stored state of a single Identifier.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class IdentifierRecord {
+    /**
+     * When the Identifier was created.
+     */
+    final long creationTime;
+
+    /**
+     * History of each Attribute.
+     */
+    final ConcurrentHashMap<AttributeKey, History> attributes = new ConcurrentHashMap<AttributeKey, History>();
+
+    /**
+     * Creates a new record.
+     * 
+     * @param creationTime
+     *          when the Identifier was created.
+     */
+    IdentifierRecord(final long creationTime) {
+      this.creationTime = creationTime;
+    }
+  }
+
+  /**
+   * The stored Identifiers.
+   */
+  private final ConcurrentHashMap<String, IdentifierRecord> identifiers = new ConcurrentHashMap<String, IdentifierRecord>();
+
+  /**
+   * Sorted index of the stored Identifiers, used to evaluate regular
+   * expressions.
+   */
+  private final RegexIndex index = new RegexIndex();
+
+  /**
+   * Write locks, chosen by Identifier.
+   */
+  private final Object[] stripes;
+
+  /**
+   * Creates a new store with the default number of write lock stripes.
+   */
+  public MemoryAttributeStore() {
+    this(DEFAULT_STRIPES);
+  }
+
+  /**
+   * Creates a new store.
+   * 
+   * @param stripeCount
+   *          the number of write lock stripes, rounded up to a power of 2.
+   *          More stripes allow more concurrent writers.
+   */
+  public MemoryAttributeStore(final int stripeCount) {
+    int count = 1;
+    while (count < stripeCount) {
+      count <<= 1;
+    }
+    this.stripes = new Object[count];
+    for (int i = 0; i < count; ++i) {
+      this.stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Returns the write lock for an Identifier.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @return the lock that guards changes to the Identifier.
+   */
+  private Object lockFor(final String identifier) {
+    int hash = identifier.hashCode();
+    hash ^= (hash >>> 16);
+    return this.stripes[hash & (this.stripes.length - 1)];
+  }
+
+  @Override
+  public boolean createIdentifier(final String identifier,
+      final long creationTime) {
+    synchronized (this.lockFor(identifier)) {
+      if (this.identifiers.containsKey(identifier)) {
+        return false;
+      }
+      this.identifiers.put(identifier, new IdentifierRecord(creationTime));
+      this.index.add(identifier);
+      return true;
+    }
+  }
+
+  @Override
+  public boolean expireIdentifier(final String identifier,
+      final long expirationTime) {
+    synchronized (this.lockFor(identifier)) {
+      IdentifierRecord record = this.identifiers.get(identifier);
+      if (record == null) {
+        return false;
+      }
+      for (History history : record.attributes.values()) {
+        history.expireLatest(expirationTime);
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public boolean deleteIdentifier(final String identifier) {
+    synchronized (this.lockFor(identifier)) {
+      if (this.identifiers.remove(identifier) == null) {
+        return false;
+      }
+      this.index.remove(identifier);
+      return true;
+    }
+  }
+
+  @Override
+  public boolean updateAttribute(final Attribute attribute,
+      final boolean createId) {
+    String identifier = attribute.getId();
+    synchronized (this.lockFor(identifier)) {
+      IdentifierRecord record = this.identifiers.get(identifier);
+      if (record == null) {
+        if (!createId) {
+          log.debug("Ignoring {} for unknown Identifier {}.", attribute,
+              identifier);
+          return false;
+        }
+        record = new IdentifierRecord(attribute.getCreationDate());
+        this.identifiers.put(identifier, record);
+        this.index.add(identifier);
+      }
+      AttributeKey key = new AttributeKey(attribute.getAttributeName(),
+          attribute.getOriginName());
+      History history = record.attributes.get(key);
+      if (history == null) {
+        history = new History();
+        record.attributes.put(key, history);
+      }
+      history.add(attribute);
+      return true;
+    }
+  }
+
+  @Override
+  public boolean expireAttribute(final String identifier,
+      final String attributeName, final String origin,
+      final long expirationTime) {
+    synchronized (this.lockFor(identifier)) {
+      IdentifierRecord record = this.identifiers.get(identifier);
+      if (record == null) {
+        return false;
+      }
+      History history = record.attributes.get(new AttributeKey(attributeName,
+          origin));
+      if (history == null) {
+        return false;
+      }
+      history.expireLatest(expirationTime);
+      return true;
+    }
+  }
+
+  @Override
+  public boolean deleteAttribute(final String identifier,
+      final String attributeName, final String origin) {
+    synchronized (this.lockFor(identifier)) {
+      IdentifierRecord record = this.identifiers.get(identifier);
+      if (record == null) {
+        return false;
+      }
+      return record.attributes.remove(new AttributeKey(attributeName, origin)) != null;
+    }
+  }
+
+  @Override
+  public String[] searchIdentifiers(final String idRegex) {
+    return this.index.match(idRegex).clone();
+  }
+
+  @Override
+  public Map<String, Collection<Attribute>> getSnapshot(final String idRegex,
+      final String[] attributeRegexes, final long begin, final long end) {
+    RegexIndex.NameFilter attributeFilter = this.index
+        .nameFilter(attributeRegexes);
+    long last = end == 0 ? Long.MAX_VALUE : end;
+
+    Map<String, Collection<Attribute>> snapshot = new HashMap<String, Collection<Attribute>>();
+    for (String identifier : this.index.match(idRegex)) {
+      IdentifierRecord record = this.identifiers.get(identifier);
+      if (record == null) {
+        // Deleted since the match
+        continue;
+      }
+      List<Attribute> values = new ArrayList<Attribute>();
+      for (Map.Entry<AttributeKey, History> attr : record.attributes
+          .entrySet()) {
+        if (!attributeFilter.matches(attr.getKey().name)) {
+          continue;
+        }
+        Columns columns = attr.getValue().columns;
+        int index = columns.upperBound(last) - 1;
+        if (index >= 0 && columns.created[index] >= begin
+            && !isExpired(columns.expires[index], end)) {
+          values.add(columns.values[index]);
+        }
+      }
+      if (!values.isEmpty()) {
+        snapshot.put(identifier, values);
+      }
+    }
+    return snapshot;
+  }
+
+  @Override
+  public List<Attribute> getRange(final String idRegex,
+      final String[] attributeRegexes, final long begin, final long end) {
+    RegexIndex.NameFilter attributeFilter = this.index
+        .nameFilter(attributeRegexes);
+
+    List<Attribute> range = new ArrayList<Attribute>();
+    for (String identifier : this.index.match(idRegex)) {
+      IdentifierRecord record = this.identifiers.get(identifier);
+      if (record == null) {
+        // Deleted since the match
+        continue;
+      }
+      for (Map.Entry<AttributeKey, History> attr : record.attributes
+          .entrySet()) {
+        if (!attributeFilter.matches(attr.getKey().name)) {
+          continue;
+        }
+        Columns columns = attr.getValue().columns;
+        int from = columns.lowerBound(begin);
+        int to = end == 0 ? columns.size : columns.lowerBound(end);
+        for (int i = from; i < to; ++i) {
+          range.add(columns.values[i]);
+        }
+      }
+    }
+    // Each history is already sorted, which the merge sort takes advantage of
+    Collections.sort(range, CREATION_ORDER);
+    return range;
+  }
+
+  @Override
+  public RegexIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Returns a copy of an Attribute value that shares its data.
+   * 
+   * @param attribute
+   *          the value to copy.
+   * @return the copy.
+   */
+  static Attribute copy(final Attribute attribute) {
+    Attribute copy = new Attribute();
+    copy.setId(attribute.getId());
+    copy.setAttributeName(attribute.getAttributeName());
+    copy.setAttributeNameAlias(attribute.getAttributeNameAlias());
+    copy.setOriginName(attribute.getOriginName());
+    copy.setOriginNameAlias(attribute.getOriginNameAlias());
+    copy.setCreationDate(attribute.getCreationDate());
+    copy.setExpirationDate(attribute.getExpirationDate());
+    copy.setData(attribute.dataBuffer());
+    return copy;
+  }
+
+  /**
+   * Determines whether a value had expired at a point in time.
+   * 
+   * @param expiration
+   *          the expiration time of the value, or 0 if it has not expired.
+   * @param time
+   *          the point in time, or 0 for "now".
+   * @return {@code true} if the value had expired.
+   */
+  static boolean isExpired(final long expiration, final long time) {
+    return expiration != 0 && (time == 0 || expiration <= time);
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the Identifier and attribute name regular expressions of client
+ * requests. Keeps a sorted index of Identifiers, caches compiled patterns, and
+ * caches match results so that repeated requests do not re-run the same
+ * regular expressions.
+ * <p>
+ * Before any regular expression is run against the Identifier index, its
+ * literal prefix (if any) is extracted so that only the Identifiers starting
+ * with that prefix are tested. For example, {@code "building\.3\..*"} only
+ * tests Identifiers in the range starting at {@code "building.3."}.
+ * </p>
+ * <p>
+ * All regular expressions must match the entire Identifier or name.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RegexIndex {
+
+  /**
+   * Maximum number of entries kept in each cache before it is cleared.
+   */
+  private static final int MAX_CACHED = 1024;
+
+  /**
+   * Maximum number of cached results for a single Identifier.
+   */
+  private static final int MAX_CACHED_PER_ID = 64;
+
+  /**
+   * Maximum number of Identifiers with cached results. Each may hold up to
+   * {@link #MAX_CACHED_PER_ID} results.
+   */
+  private static final int MAX_CACHED_IDS = MAX_CACHED * MAX_CACHED_PER_ID;
+
+  /**
+   * Matches attribute names against a fixed set of regular expressions,
+   * remembering the result for each name. Attribute names are few compared
+   * to Identifiers, so nearly every test after the first is a cache hit.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class NameFilter {
+    /**
+     * The compiled patterns.
+     */
+    private final Pattern[] patterns;
+
+    /**
+     * Results for each name tested so far.
+     */
+    private final ConcurrentHashMap<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Creates a new filter.
+     * 
+     * @param patterns
+     *          the compiled patterns.
+     */
+    NameFilter(final Pattern[] patterns) {
+      this.patterns = patterns;
+    }
+
+    /**
+     * Determines whether a name matches any of the regular expressions.
+     * 
+     * @param name
+     *          the name to test.
+     * @return {@code true} if at least one regular expression matches.
+     */
+    public boolean matches(final String name) {
+      Boolean result = this.results.get(name);
+      if (result == null) {
+        result = Boolean.FALSE;
+        for (Pattern p : this.patterns) {
+          if (p.matcher(name).matches()) {
+            result = Boolean.TRUE;
+            break;
+          }
+        }
+        if (this.results.size() >= MAX_CACHED) {
+          this.results.clear();
+        }
+        this.results.put(name, result);
+      }
+      return result.booleanValue();
+    }
+  }
+
+  /**
+   * Identifiers matching a regular expression, valid for one version of the
+   * Identifier index.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class MatchResult {
+    /**
+     * The index version the result was computed for.
+     */
+    final long version;
+
+    /**
+     * The matching Identifiers, sorted.
+     */
+    final String[] identifiers;
+
+    /**
+     * Creates a new result.
+     * 
+     * @param version
+     *          the index version.
+     * @param identifiers
+     *          the matching Identifiers.
+     */
+    MatchResult(final long version, final String[] identifiers) {
+      this.version = version;
+      this.identifiers = identifiers;
+    }
+  }
+
+  /**
+   * All Identifiers, sorted.
+   */
+  private final ConcurrentSkipListSet<String> identifiers = new ConcurrentSkipListSet<String>();
+
+  /**
+   * Incremented whenever an Identifier is added or removed, invalidating
+   * {@link #results}.
+   */
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Compiled patterns, keyed by regular expression.
+   */
+  private final ConcurrentHashMap<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
+  /**
+   * Identifiers matching each regular expression.
+   */
+  private final ConcurrentHashMap<String, MatchResult> results = new ConcurrentHashMap<String, MatchResult>();
+
+  /**
+   * For each Identifier, the result of each regular expression tested
+   * against it.
+   */
+  private final ConcurrentHashMap<String, Map<String, Boolean>> identifierResults = new ConcurrentHashMap<String, Map<String, Boolean>>();
+
+  /**
+   * Attribute name filters, keyed by their regular expressions.
+   */
+  private final ConcurrentHashMap<List<String>, NameFilter> nameFilters = new ConcurrentHashMap<List<String>, NameFilter>();
+
+  /**
+   * Adds an Identifier to the index.
+   * 
+   * @param identifier
+   *          the new Identifier.
+   * @return {@code true} if the Identifier was not already in the index.
+   */
+  public boolean add(final String identifier) {
+    if (!this.identifiers.add(identifier)) {
+      return false;
+    }
+    this.version.incrementAndGet();
+    this.identifierResults.remove(identifier);
+    return true;
+  }
+
+  /**
+   * Removes an Identifier from the index.
+   * 
+   * @param identifier
+   *          the Identifier to remove.
+   * @return {@code true} if the Identifier was in the index.
+   */
+  public boolean remove(final String identifier) {
+    if (!this.identifiers.remove(identifier)) {
+      return false;
+    }
+    this.version.incrementAndGet();
+    this.identifierResults.remove(identifier);
+    return true;
+  }
+
+  /**
+   * Returns the number of Identifiers in the index.
+   * 
+   * @return the number of Identifiers.
+   */
+  public int size() {
+    return this.identifiers.size();
+  }
+
+  /**
+   * Returns the compiled form of a regular expression.
+   * 
+   * @param regex
+   *          the regular expression.
+   * @return the compiled pattern.
+   * @throws java.util.regex.PatternSyntaxException
+   *           if the regular expression is invalid.
+   */
+  public Pattern compile(final String regex) {
+    Pattern pattern = this.patterns.get(regex);
+    if (pattern == null) {
+      pattern = Pattern.compile(regex);
+      if (this.patterns.size() >= MAX_CACHED) {
+        this.patterns.clear();
+      }
+      this.patterns.put(regex, pattern);
+    }
+    return pattern;
+  }
+
+  /**
+   * Returns the indexed Identifiers that match a regular expression. The
+   * result is cached until an Identifier is added or removed.
+   * 
+   * @param regex
+   *          the regular expression.
+   * @return the matching Identifiers in sorted order. The array is shared and
+   *         must not be modified.
+   * @throws java.util.regex.PatternSyntaxException
+   *           if the regular expression is invalid.
+   */
+  public String[] match(final String regex) {
+    long current = this.version.get();
+    MatchResult result = this.results.get(regex);
+    if (result != null && result.version == current) {
+      return result.identifiers;
+    }
+
+    Pattern pattern = this.compile(regex);
+    String prefix = literalPrefix(regex);
+    List<String> matches = new ArrayList<String>();
+    Iterable<String> candidates = prefix.length() == 0 ? this.identifiers
+        : this.identifiers.tailSet(prefix);
+    for (String id : candidates) {
+      if (!id.startsWith(prefix)) {
+        break;
+      }
+      if (pattern.matcher(id).matches()) {
+        matches.add(id);
+      }
+    }
+    String[] identifiers = matches.toArray(new String[matches.size()]);
+    if (this.results.size() >= MAX_CACHED) {
+      this.results.clear();
+    }
+    this.results.put(regex, new MatchResult(current, identifiers));
+    return identifiers;
+  }
+
+  /**
+   * Determines whether a single Identifier matches a regular expression,
+   * remembering the result for that Identifier.
+   * 
+   * @param regex
+   *          the regular expression.
+   * @param identifier
+   *          the Identifier to test.
+   * @return {@code true} if the regular expression matches the Identifier.
+   * @throws java.util.regex.PatternSyntaxException
+   *           if the regular expression is invalid.
+   */
+  public boolean matches(final String regex, final String identifier) {
+    Map<String, Boolean> cached = this.identifierResults.get(identifier);
+    if (cached == null) {
+      cached = new ConcurrentHashMap<String, Boolean>();
+      if (this.identifierResults.size() >= MAX_CACHED_IDS) {
+        this.identifierResults.clear();
+      }
+      Map<String, Boolean> existing = this.identifierResults.putIfAbsent(
+          identifier, cached);
+      if (existing != null) {
+        cached = existing;
+      }
+    }
+    Boolean result = cached.get(regex);
+    if (result == null) {
+      result = Boolean.valueOf(this.compile(regex).matcher(identifier)
+          .matches());
+      if (cached.size() >= MAX_CACHED_PER_ID) {
+        cached.clear();
+      }
+      cached.put(regex, result);
+    }
+    return result.booleanValue();
+  }
+
+  /**
+   * Returns a filter for attribute names that matches any of the regular
+   * expressions.
+   * 
+   * @param regexes
+   *          the regular expressions, or {@code null} for none.
+   * @return the filter.
+   * @throws java.util.regex.PatternSyntaxException
+   *           if a regular expression is invalid.
+   */
+  public NameFilter nameFilter(final String[] regexes) {
+    List<String> key = regexes == null ? new ArrayList<String>() : Arrays
+        .asList(regexes.clone());
+    NameFilter filter = this.nameFilters.get(key);
+    if (filter == null) {
+      Pattern[] compiled = new Pattern[key.size()];
+      for (int i = 0; i < compiled.length; ++i) {
+        compiled[i] = this.compile(key.get(i));
+      }
+      filter = new NameFilter(compiled);
+      if (this.nameFilters.size() >= MAX_CACHED) {
+        this.nameFilters.clear();
+      }
+      this.nameFilters.put(key, filter);
+    }
+    return filter;
+  }
+
+  /**
+   * Returns the literal text that every string matched by a regular
+   * expression must begin with. The result is conservative: an empty string is
+   * returned whenever the prefix cannot be determined simply.
+   * 
+   * @param regex
+   *          the regular expression.
+   * @return the literal prefix, possibly empty.
+   */
+  public static String literalPrefix(final String regex) {
+    // Alternation could allow matches that do not share a prefix
+    if (regex.indexOf('|') >= 0) {
+      return "";
+    }
+    StringBuilder prefix = new StringBuilder();
+    int i = 0;
+    if (regex.startsWith("^")) {
+      i = 1;
+    }
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      int next = i + 1;
+      if (c == '\\') {
+        if (next >= regex.length()) {
+          break;
+        }
+        char escaped = regex.charAt(next);
+        // Escaped letters and digits are classes or other constructs
+        if (Character.isLetterOrDigit(escaped)) {
+          break;
+        }
+        c = escaped;
+        next = i + 2;
+      } else if (".[]()*+?{}^$".indexOf(c) >= 0) {
+        break;
+      }
+      if (next < regex.length() && "*?{".indexOf(regex.charAt(next)) >= 0) {
+        // The character may not appear at all
+        break;
+      }
+      prefix.append(c);
+      i = next;
+    }
+    return prefix.toString();
+  }
+}
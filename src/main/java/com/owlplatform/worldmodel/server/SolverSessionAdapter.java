@@ -0,0 +1,376 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.solver.SolverIoAdapter;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.CreateIdentifierMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.DeleteAttributeMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.DeleteIdentifierMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.ExpireAttributeMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.ExpireIdentifierMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.KeepAliveMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
+import com.owlplatform.worldmodel.solver.protocol.messages.StartOnDemandMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.StopOnDemandMessage;
+
+/**
+ * Stores the updates of solvers connected to a {@link WorldModelServer}, and
+ * starts and stops their on-demand attributes as client streams come and go.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class SolverSessionAdapter implements SolverIoAdapter {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(SolverSessionAdapter.class);
+
+  /**
+   * The announced origin and attributes of a solver.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class SolverState {
+    /**
+     * The origin announced by the solver.
+     */
+    volatile String origin = null;
+
+    /**
+     * The announced attributes of the solver, keyed by the solver's alias.
+     */
+    final ConcurrentHashMap<Integer, AttributeSpecification> attributes = new ConcurrentHashMap<Integer, AttributeSpecification>();
+  }
+
+  /**
+   * The server that owns this adapter.
+   */
+  private final WorldModelServer server;
+
+  /**
+   * The connected solvers.
+   */
+  private final ConcurrentHashMap<IoSession, SolverState> solvers = new ConcurrentHashMap<IoSession, SolverState>();
+
+  /**
+   * Creates a new adapter for a server.
+   * 
+   * @param server
+   *          the server that owns this adapter.
+   */
+  SolverSessionAdapter(final WorldModelServer server) {
+    this.server = server;
+  }
+
+  /**
+   * Asks every solver with matching on-demand attributes to start sending
+   * them for a stream.
+   * 
+   * @param stream
+   *          the new stream.
+   */
+  void streamAdded(final StreamSubscription stream) {
+    for (IoSession session : this.solvers.keySet()) {
+      this.sendOnDemand(session, this.solvers.get(session), stream, true);
+    }
+  }
+
+  /**
+   * Asks every solver with matching on-demand attributes to stop sending them
+   * for a stream.
+   * 
+   * @param stream
+   *          the removed stream.
+   */
+  void streamRemoved(final StreamSubscription stream) {
+    for (IoSession session : this.solvers.keySet()) {
+      this.sendOnDemand(session, this.solvers.get(session), stream, false);
+    }
+  }
+
+  /**
+   * Sends a Start or Stop On-Demand message to a solver for the on-demand
+   * attributes that match a stream. Nothing is sent if none match.
+   * 
+   * @param session
+   *          the solver's session.
+   * @param state
+   *          the solver's announced attributes.
+   * @param stream
+   *          the stream.
+   * @param start
+   *          {@code true} to start the attributes, {@code false} to stop them.
+   */
+  private void sendOnDemand(final IoSession session, final SolverState state,
+      final StreamSubscription stream, final boolean start) {
+    if (state == null) {
+      return;
+    }
+    List<OnDemandRequest> requests = new ArrayList<OnDemandRequest>();
+    for (AttributeSpecification spec : state.attributes.values()) {
+      if (spec.getOnDemand() && stream.matchesAttribute(spec.getAttributeName())) {
+        OnDemandRequest request = new OnDemandRequest();
+        request.setAttributeAlias(spec.getAlias());
+        request.setIdPatterns(new String[] { stream.idRegex });
+        requests.add(request);
+      }
+    }
+    if (requests.isEmpty()) {
+      return;
+    }
+    OnDemandRequest[] array = requests.toArray(new OnDemandRequest[requests
+        .size()]);
+    if (start) {
+      StartOnDemandMessage message = new StartOnDemandMessage();
+      message.setRequests(array);
+      session.write(message);
+    } else {
+      StopOnDemandMessage message = new StopOnDemandMessage();
+      message.setRequests(array);
+      session.write(message);
+    }
+  }
+
+  @Override
+  public void exceptionCaught(IoSession session, Throwable cause) {
+    log.error("Exception on solver session " + session + ".", cause);
+    session.close(true);
+  }
+
+  @Override
+  public void sessionIdle(IoSession session, IdleStatus status) {
+    if (status.equals(IdleStatus.WRITER_IDLE)
+        || status.equals(IdleStatus.BOTH_IDLE)) {
+      session.write(KeepAliveMessage.MESSAGE);
+    }
+  }
+
+  @Override
+  public void connectionOpened(IoSession session) {
+    log.info("Solver connected from {}.", session.getRemoteAddress());
+    this.solvers.put(session, new SolverState());
+    session.write(HandshakeMessage.getDefaultMessage());
+  }
+
+  @Override
+  public void connectionClosed(IoSession session) {
+    log.info("Solver at {} disconnected.", session.getRemoteAddress());
+    this.solvers.remove(session);
+  }
+
+  @Override
+  public void handshakeReceived(IoSession session, HandshakeMessage message) {
+    if (!HandshakeMessage.getDefaultMessage().equals(message)) {
+      log.warn("Invalid handshake from {}: {}", session, message);
+      session.close(true);
+    }
+  }
+
+  @Override
+  public void keepAliveReceived(IoSession session, KeepAliveMessage message) {
+    log.debug("Keep-Alive from {}.", session);
+  }
+
+  @Override
+  public void attributeAnnounceReceived(IoSession session,
+      AttributeAnnounceMessage message) {
+    SolverState state = this.solvers.get(session);
+    if (state == null) {
+      return;
+    }
+    state.origin = message.getOrigin();
+    AttributeSpecification[] specs = message.getAttributeSpecifications();
+    if (specs == null) {
+      return;
+    }
+    SolverState announced = new SolverState();
+    for (AttributeSpecification spec : specs) {
+      state.attributes.put(Integer.valueOf(spec.getAlias()), spec);
+      announced.attributes.put(Integer.valueOf(spec.getAlias()), spec);
+    }
+    // Start newly-announced on-demand attributes for existing streams
+    for (StreamSubscription stream : this.server.getStreams()) {
+      this.sendOnDemand(session, announced, stream, true);
+    }
+  }
+
+  @Override
+  public void attributeUpdateReceived(IoSession session,
+      AttributeUpdateMessage message) {
+    SolverState state = this.solvers.get(session);
+    Attribute[] attributes = message.getAttributes();
+    if (state == null || attributes == null) {
+      return;
+    }
+    for (Attribute attr : attributes) {
+      AttributeSpecification spec = state.attributes.get(Integer.valueOf(attr
+          .getAttributeNameAlias()));
+      if (spec == null) {
+        log.warn("Unknown attribute alias {} from {}.",
+            Integer.valueOf(attr.getAttributeNameAlias()), session);
+        continue;
+      }
+      attr.setAttributeName(spec.getAttributeName());
+      attr.setOriginName(state.origin);
+      this.server.updateAttribute(attr, message.getCreateId());
+    }
+  }
+
+  @Override
+  public void createIdReceived(IoSession session,
+      CreateIdentifierMessage message) {
+    this.server.getStore().createIdentifier(message.getId(),
+        message.getCreationTime());
+  }
+
+  @Override
+  public void expireIdReceived(IoSession session,
+      ExpireIdentifierMessage message) {
+    this.server.getStore().expireIdentifier(message.getId(),
+        message.getExpirationTime());
+  }
+
+  @Override
+  public void deleteIdReceived(IoSession session,
+      DeleteIdentifierMessage message) {
+    this.server.getStore().deleteIdentifier(message.getId());
+  }
+
+  @Override
+  public void expireAttributeReceived(IoSession session,
+      ExpireAttributeMessage message) {
+    this.server.getStore().expireAttribute(message.getId(),
+        message.getAttributeName(), this.originOf(session, message.getOrigin()),
+        message.getExpirationTime());
+  }
+
+  @Override
+  public void deleteAttributeReceived(IoSession session,
+      DeleteAttributeMessage message) {
+    this.server.getStore().deleteAttribute(message.getId(),
+        message.getAttributeName(), this.originOf(session, message.getOrigin()));
+  }
+
+  /**
+   * Returns the origin of a message, or the origin announced by the solver if
+   * the message does not have one.
+   * 
+   * @param session
+   *          the solver's session.
+   * @param origin
+   *          the origin in the message, possibly {@code null}.
+   * @return the origin to use.
+   */
+  private String originOf(final IoSession session, final String origin) {
+    if (origin != null) {
+      return origin;
+    }
+    SolverState state = this.solvers.get(session);
+    return state == null ? null : state.origin;
+  }
+
+  @Override
+  public void startOnDemandReceived(IoSession session,
+      StartOnDemandMessage message) {
+    log.warn("Solvers should not send Start On-Demand messages: {}", message);
+  }
+
+  @Override
+  public void stopOnDemandReceived(IoSession session,
+      StopOnDemandMessage message) {
+    log.warn("Solvers should not send Stop On-Demand messages: {}", message);
+  }
+
+  @Override
+  public void handshakeSent(IoSession session, HandshakeMessage message) {
+    log.debug("Sent handshake to {}.", session);
+  }
+
+  @Override
+  public void keepAliveSent(IoSession session, KeepAliveMessage message) {
+    log.debug("Sent Keep-Alive to {}.", session);
+  }
+
+  @Override
+  public void attributeAnnounceSent(IoSession session,
+      AttributeAnnounceMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void startOnDemandSent(IoSession session, StartOnDemandMessage message) {
+    log.debug("Sent {} to {}.", message, session);
+  }
+
+  @Override
+  public void stopOnDemandSent(IoSession session, StopOnDemandMessage message) {
+    log.debug("Sent {} to {}.", message, session);
+  }
+
+  @Override
+  public void attributeUpdateSent(IoSession session,
+      AttributeUpdateMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void createIdSent(IoSession session, CreateIdentifierMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void expireIdSent(IoSession session, ExpireIdentifierMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void deleteIdSent(IoSession session, DeleteIdentifierMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void expireAttributeSent(IoSession session,
+      ExpireAttributeMessage message) {
+    // Not sent by the world model
+  }
+
+  @Override
+  public void deleteAttributeSent(IoSession session,
+      DeleteAttributeMessage message) {
+    // Not sent by the world model
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.protocol.codec.DataResponseEncoder;
+import com.owlplatform.worldmodel.client.protocol.messages.DataResponseMessage;
+
+/**
+ * Sends new Attribute values to the client streams that match them.
+ * <p>
+ * Streams are grouped by update interval. Streams with an interval of 0 are
+ * sent each value as it arrives; every other group holds the latest value of
+ * each Attribute until its interval next elapses, then sends them all at
+ * once. Identifier regular expressions are tested through a shared
+ * {@link RegexIndex}, so each expression is evaluated at most once per
+ * Identifier no matter how many streams use it.
+ * </p>
+ * <p>
+ * Each Data Response is encoded once for every distinct set of values sent
+ * for an Identifier. Each stream receiving that set gets a copy of the encoded
+ * bytes with its own ticket number.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class StreamEngine {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(StreamEngine.class);
+
+  /**
+   * The streams that share an update interval.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private final class IntervalGroup implements Runnable {
+    /**
+     * The update interval, in milliseconds.
+     */
+    final long interval;
+
+    /**
+     * The streams in this group.
+     */
+    final CopyOnWriteArrayList<StreamSubscription> streams = new CopyOnWriteArrayList<StreamSubscription>();
+
+    /**
+     * Values waiting for the next interval, keyed by Identifier and then by
+     * attribute name and origin. Guarded by this object's monitor.
+     */
+    private Map<String, Map<String, Attribute>> pending = new LinkedHashMap<String, Map<String, Attribute>>();
+
+    /**
+     * The task that sends pending values.
+     */
+    ScheduledFuture<?> task = null;
+
+    /**
+     * Creates a new group.
+     * 
+     * @param interval
+     *          the update interval, in milliseconds.
+     */
+    IntervalGroup(final long interval) {
+      this.interval = interval;
+    }
+
+    /**
+     * Queues a value for the next interval.
+     * 
+     * @param value
+     *          the new value.
+     */
+    synchronized void queue(final Attribute value) {
+      Map<String, Attribute> idValues = this.pending.get(value.getId());
+      if (idValues == null) {
+        idValues = new LinkedHashMap<String, Attribute>();
+        this.pending.put(value.getId(), idValues);
+      }
+      idValues.put(value.getAttributeName() + '\0' + value.getOriginName(),
+          value);
+    }
+
+    /**
+     * Sends all queued values to the streams of this group.
+     */
+    @Override
+    public void run() {
+      Map<String, Map<String, Attribute>> toSend;
+      synchronized (this) {
+        if (this.pending.isEmpty()) {
+          return;
+        }
+        toSend = this.pending;
+        this.pending = new LinkedHashMap<String, Map<String, Attribute>>();
+      }
+      try {
+        for (Map.Entry<String, Map<String, Attribute>> entry : toSend
+            .entrySet()) {
+          String identifier = entry.getKey();
+          List<StreamSubscription> matching = new ArrayList<StreamSubscription>();
+          for (StreamSubscription stream : this.streams) {
+            if (StreamEngine.this.index.matches(stream.idRegex, identifier)) {
+              matching.add(stream);
+            }
+          }
+          if (!matching.isEmpty()) {
+            send(identifier, new ArrayList<Attribute>(entry.getValue()
+                .values()), matching);
+          }
+        }
+      } catch (RuntimeException re) {
+        // Keep the periodic task alive
+        log.error("Unable to send stream updates.", re);
+      }
+    }
+  }
+
+  /**
+   * Shared index for evaluating Identifier regular expressions.
+   */
+  final RegexIndex index;
+
+  /**
+   * Stream groups, keyed by update interval.
+   */
+  private final ConcurrentHashMap<Long, IntervalGroup> groups = new ConcurrentHashMap<Long, IntervalGroup>();
+
+  /**
+   * Runs the periodic sends of interval groups.
+   */
+  private ScheduledExecutorService scheduler = null;
+
+  /**
+   * Creates a new engine.
+   * 
+   * @param index
+   *          the index used to evaluate Identifier regular expressions.
+   */
+  StreamEngine(final RegexIndex index) {
+    this.index = index;
+  }
+
+  /**
+   * Starts the periodic sends of interval groups.
+   */
+  synchronized void start() {
+    if (this.scheduler == null) {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+  }
+
+  /**
+   * Stops all periodic sends and removes every stream.
+   */
+  synchronized void stop() {
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+      this.scheduler = null;
+    }
+    this.groups.clear();
+  }
+
+  /**
+   * Adds a stream.
+   * 
+   * @param stream
+   *          the new stream.
+   */
+  synchronized void add(final StreamSubscription stream) {
+    Long key = Long.valueOf(stream.updateInterval);
+    IntervalGroup group = this.groups.get(key);
+    if (group == null) {
+      group = new IntervalGroup(stream.updateInterval);
+      if (group.interval > 0 && this.scheduler != null) {
+        group.task = this.scheduler.scheduleAtFixedRate(group, group.interval,
+            group.interval, TimeUnit.MILLISECONDS);
+      }
+      this.groups.put(key, group);
+    }
+    group.streams.add(stream);
+  }
+
+  /**
+   * Removes a stream. Values queued for it are discarded.
+   * 
+   * @param stream
+   *          the stream to remove.
+   * @return {@code true} if the stream was present.
+   */
+  synchronized boolean remove(final StreamSubscription stream) {
+    Long key = Long.valueOf(stream.updateInterval);
+    IntervalGroup group = this.groups.get(key);
+    if (group == null || !group.streams.remove(stream)) {
+      return false;
+    }
+    if (group.streams.isEmpty()) {
+      this.groups.remove(key);
+      if (group.task != null) {
+        group.task.cancel(false);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns all active streams.
+   * 
+   * @return the active streams.
+   */
+  Collection<StreamSubscription> getStreams() {
+    List<StreamSubscription> streams = new ArrayList<StreamSubscription>();
+    for (IntervalGroup group : this.groups.values()) {
+      streams.addAll(group.streams);
+    }
+    return streams;
+  }
+
+  /**
+   * Sends a new value to the matching streams, or queues it for their next
+   * interval. The value's client aliases must already be bound.
+   * 
+   * @param value
+   *          the new value, with its Identifier, name and origin set.
+   */
+  void offer(final Attribute value) {
+    String identifier = value.getId();
+    String name = value.getAttributeName();
+    for (IntervalGroup group : this.groups.values()) {
+      List<StreamSubscription> matching = null;
+      for (StreamSubscription stream : group.streams) {
+        if (stream.matchesAttribute(name)
+            && this.index.matches(stream.idRegex, identifier)) {
+          if (group.interval > 0) {
+            // One match is enough to queue it, streams are checked on sending
+            group.queue(value);
+            break;
+          }
+          if (matching == null) {
+            matching = new ArrayList<StreamSubscription>();
+          }
+          matching.add(stream);
+        }
+      }
+      if (matching != null) {
+        List<Attribute> values = new ArrayList<Attribute>(1);
+        values.add(value);
+        send(identifier, values, matching);
+      }
+    }
+  }
+
+  /**
+   * Sends values of an Identifier to streams, encoding each distinct subset
+   * of the values only once.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param values
+   *          the values.
+   * @param streams
+   *          the streams whose Identifier regular expression matches.
+   */
+  static void send(final String identifier, final List<Attribute> values,
+      final List<StreamSubscription> streams) {
+    // Group the streams by which of the values they receive
+    Map<BitSet, List<StreamSubscription>> bySubset = new LinkedHashMap<BitSet, List<StreamSubscription>>();
+    for (StreamSubscription stream : streams) {
+      BitSet subset = new BitSet(values.size());
+      for (int i = 0; i < values.size(); ++i) {
+        Attribute value = values.get(i);
+        if (stream.matchesAttribute(value.getAttributeName())
+            && stream.client.acceptsOrigin(value.getOriginName())) {
+          subset.set(i);
+        }
+      }
+      if (subset.isEmpty()) {
+        continue;
+      }
+      List<StreamSubscription> receivers = bySubset.get(subset);
+      if (receivers == null) {
+        receivers = new ArrayList<StreamSubscription>();
+        bySubset.put(subset, receivers);
+      }
+      receivers.add(stream);
+    }
+
+    int ticketOffset = DataResponseEncoder.getTicketNumberOffset(identifier);
+    for (Map.Entry<BitSet, List<StreamSubscription>> entry : bySubset
+        .entrySet()) {
+      BitSet subset = entry.getKey();
+      Attribute[] selected = new Attribute[subset.cardinality()];
+      for (int i = subset.nextSetBit(0), j = 0; i >= 0; i = subset
+          .nextSetBit(i + 1), ++j) {
+        selected[j] = values.get(i);
+      }
+      DataResponseMessage message = new DataResponseMessage();
+      message.setId(identifier);
+      message.setAttributes(selected);
+      IoBuffer encoded = DataResponseEncoder.encode(message);
+      for (StreamSubscription stream : entry.getValue()) {
+        stream.client.sendEncoded(stream, selected, encoded, ticketOffset);
+      }
+    }
+  }
+}
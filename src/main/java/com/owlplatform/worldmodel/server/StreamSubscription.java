@@ -0,0 +1,154 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * A stream request from a client. Matching and sending of new values is done
+ * by the {@link StreamEngine}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class StreamSubscription {
+
+  /**
+   * The client that made the request.
+   */
+  final ClientSession client;
+
+  /**
+   * The ticket number of the request.
+   */
+  final long ticketNumber;
+
+  /**
+   * The Identifier regular expression of the request.
+   */
+  final String idRegex;
+
+  /**
+   * Filter for the attribute regular expressions of the request.
+   */
+  final RegexIndex.NameFilter attributeFilter;
+
+  /**
+   * Minimum time between updates, in milliseconds.
+   */
+  final long updateInterval;
+
+  /**
+   * Whether the initial snapshot of the stream has been sent. Until it has,
+   * new values are held so that they don't reach the client ahead of older
+   * snapshot values of the same Attribute. Guarded by the client's monitor.
+   */
+  boolean snapshotSent = false;
+
+  /**
+   * Creation dates of the snapshot values sent for this stream, keyed by
+   * {@link #valueKey(String, Attribute)}. Held values that are not newer are
+   * dropped when the snapshot is done. Guarded by the client's monitor.
+   */
+  final Map<String, Long> snapshotDates = new HashMap<String, Long>();
+
+  /**
+   * Whether the stream has been cancelled and its Request Complete message
+   * sent. The {@link StreamEngine} may still be sending to a list of streams
+   * captured before the cancel, so every send checks this flag. Guarded by the
+   * client's monitor.
+   */
+  boolean cancelled = false;
+
+  /**
+   * Encoded Data Responses held until the snapshot has been sent, each with
+   * the Attribute values it contains. Guarded by the client's monitor.
+   */
+  final List<IoBuffer> heldMessages = new ArrayList<IoBuffer>();
+
+  /**
+   * The Attribute values of each message in {@link #heldMessages}. Guarded by
+   * the client's monitor.
+   */
+  final List<Attribute[]> heldValues = new ArrayList<Attribute[]>();
+
+  /**
+   * Creates a new stream subscription.
+   * 
+   * @param client
+   *          the client that made the request.
+   * @param ticketNumber
+   *          the ticket number of the request.
+   * @param idRegex
+   *          the Identifier regular expression.
+   * @param attributeFilter
+   *          the filter for the attribute regular expressions.
+   * @param updateInterval
+   *          the minimum time between updates, in milliseconds.
+   */
+  StreamSubscription(final ClientSession client, final long ticketNumber,
+      final String idRegex, final RegexIndex.NameFilter attributeFilter,
+      final long updateInterval) {
+    this.client = client;
+    this.ticketNumber = ticketNumber;
+    this.idRegex = idRegex;
+    this.attributeFilter = attributeFilter;
+    this.updateInterval = updateInterval < 0 ? 0 : updateInterval;
+  }
+
+  /**
+   * Determines whether an attribute name matches this stream.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @return {@code true} if it matches any of the attribute regular
+   *         expressions.
+   */
+  boolean matchesAttribute(final String attributeName) {
+    return this.attributeFilter.matches(attributeName);
+  }
+
+  /**
+   * Returns the key that identifies an Attribute of an Identifier from one
+   * origin.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param value
+   *          the Attribute value.
+   * @return the key for the value's Identifier, name and origin.
+   */
+  static String valueKey(final String identifier, final Attribute value) {
+    return identifier + '\0' + value.getAttributeName() + '\0'
+        + WorldModelServer.originName(value);
+  }
+
+  @Override
+  public String toString() {
+    return "Stream " + this.ticketNumber + " (" + this.idRegex + ") every "
+        + this.updateInterval + "ms for " + this.client;
+  }
+}
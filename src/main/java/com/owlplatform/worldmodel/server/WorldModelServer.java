@@ -0,0 +1,464 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldModelIoHandler;
+import com.owlplatform.worldmodel.client.protocol.codec.WorldModelClientProtocolCodecFactory;
+import com.owlplatform.worldmodel.solver.SolverWorldModelIoHandler;
+import com.owlplatform.worldmodel.solver.protocol.codec.WorldModelSolverProtocolCodecFactory;
+
+/**
+ * An embeddable world model that accepts client and solver connections and
+ * keeps its data in an {@link AttributeStore}. It answers snapshot, range,
+ * stream and Identifier search requests from clients and stores the updates
+ * of solvers, using the world-model side of the existing protocol codecs.
+ * <p>
+ * Typical usage:
+ * 
+ * <pre>
+ * WorldModelServer server = new WorldModelServer();
+ * server.setClientPort(7010);
+ * server.setSolverPort(7009);
+ * if (server.start()) {
+ *   // Connect clients and solvers
+ *   server.stop();
+ * }
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class WorldModelServer {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(WorldModelServer.class);
+
+  /**
+   * Default port for client connections.
+   */
+  public static final int DEFAULT_CLIENT_PORT = 7010;
+
+  /**
+   * Default port for solver connections.
+   */
+  public static final int DEFAULT_SOLVER_PORT = 7009;
+
+  /**
+   * How long a session may go without writing before a Keep-Alive is sent, in
+   * seconds.
+   */
+  private static final int IDLE_TIME = 30;
+
+  /**
+   * Where Identifiers and Attribute values are kept.
+   */
+  private final AttributeStore store;
+
+  /**
+   * The port for client connections. 0 binds an ephemeral port.
+   */
+  private int clientPort = DEFAULT_CLIENT_PORT;
+
+  /**
+   * The port for solver connections. 0 binds an ephemeral port.
+   */
+  private int solverPort = DEFAULT_SOLVER_PORT;
+
+  /**
+   * The local address to bind, or {@code null} for all addresses.
+   */
+  private String host = null;
+
+  /**
+   * Acceptor for client connections.
+   */
+  private NioSocketAcceptor clientAcceptor = null;
+
+  /**
+   * Acceptor for solver connections.
+   */
+  private NioSocketAcceptor solverAcceptor = null;
+
+  /**
+   * Handles client requests.
+   */
+  private final ClientSessionAdapter clientAdapter = new ClientSessionAdapter(
+      this);
+
+  /**
+   * Handles solver updates.
+   */
+  private final SolverSessionAdapter solverAdapter = new SolverSessionAdapter(
+      this);
+
+  /**
+   * Index for evaluating the regular expressions of streams, shared with the
+   * store if it has one.
+   */
+  private final RegexIndex index;
+
+  /**
+   * Sends new values to client streams.
+   */
+  private final StreamEngine streamEngine;
+
+  /**
+   * Attribute name aliases sent to clients. These are shared by all clients so
+   * that a stored value can be sent to any client without being modified.
+   */
+  private final ConcurrentHashMap<String, Integer> attributeAliases = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * Origin aliases sent to clients, shared by all clients.
+   */
+  private final ConcurrentHashMap<String, Integer> originAliases = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * The next attribute name alias to assign.
+   */
+  private final AtomicInteger nextAttributeAlias = new AtomicInteger(1);
+
+  /**
+   * The next origin alias to assign.
+   */
+  private final AtomicInteger nextOriginAlias = new AtomicInteger(1);
+
+
+  /**
+   * Creates a new server that keeps its data in memory.
+   */
+  public WorldModelServer() {
+    this(new MemoryAttributeStore());
+  }
+
+  /**
+   * Creates a new server that keeps its data in the provided store.
+   * 
+   * @param store
+   *          the store for Identifiers and Attribute values.
+   */
+  public WorldModelServer(final AttributeStore store) {
+    if (store == null) {
+      throw new IllegalArgumentException("Attribute store cannot be null.");
+    }
+    this.store = store;
+    this.index = store.getIndex();
+    this.streamEngine = new StreamEngine(this.index);
+  }
+
+  /**
+   * Binds the client and solver ports and starts accepting connections.
+   * 
+   * @return {@code true} if both ports were bound, else {@code false}.
+   */
+  public synchronized boolean start() {
+    if (this.clientAcceptor != null) {
+      log.warn("World model server is already running.");
+      return true;
+    }
+    this.streamEngine.start();
+
+    this.clientAcceptor = new NioSocketAcceptor();
+    this.clientAcceptor.getSessionConfig().setIdleTime(IdleStatus.WRITER_IDLE,
+        IDLE_TIME);
+    this.clientAcceptor.getFilterChain().addLast(
+        WorldModelClientProtocolCodecFactory.CODEC_NAME,
+        new ProtocolCodecFilter(new WorldModelClientProtocolCodecFactory(false)));
+    // Requests can take a while to answer, so keep them off the I/O threads
+    this.clientAcceptor.getFilterChain().addLast("ExecutorPool",
+        new ExecutorFilter());
+    this.clientAcceptor.setHandler(new ClientWorldModelIoHandler(
+        this.clientAdapter));
+
+    this.solverAcceptor = new NioSocketAcceptor();
+    this.solverAcceptor.getSessionConfig().setIdleTime(IdleStatus.WRITER_IDLE,
+        IDLE_TIME);
+    this.solverAcceptor.getFilterChain().addLast(
+        WorldModelSolverProtocolCodecFactory.CODEC_NAME,
+        new ProtocolCodecFilter(new WorldModelSolverProtocolCodecFactory(false)));
+    this.solverAcceptor.setHandler(new SolverWorldModelIoHandler(
+        this.solverAdapter));
+
+    try {
+      this.clientAcceptor.bind(this.address(this.clientPort));
+      this.clientPort = this.clientAcceptor.getLocalAddress().getPort();
+      this.solverAcceptor.bind(this.address(this.solverPort));
+      this.solverPort = this.solverAcceptor.getLocalAddress().getPort();
+    } catch (IOException ioe) {
+      log.error("Unable to bind world model server ports.", ioe);
+      this.stop();
+      return false;
+    }
+    log.info("World model server accepting clients on {} and solvers on {}.",
+        Integer.valueOf(this.clientPort), Integer.valueOf(this.solverPort));
+    return true;
+  }
+
+  /**
+   * Closes all connections and unbinds the client and solver ports.
+   */
+  public synchronized void stop() {
+    if (this.clientAcceptor != null) {
+      this.clientAcceptor.unbind();
+      this.clientAcceptor.dispose(true);
+      this.clientAcceptor = null;
+    }
+    if (this.solverAcceptor != null) {
+      this.solverAcceptor.unbind();
+      this.solverAcceptor.dispose(true);
+      this.solverAcceptor = null;
+    }
+    this.streamEngine.stop();
+  }
+
+  /**
+   * Determines whether this server is accepting connections.
+   * 
+   * @return {@code true} if the server is running.
+   */
+  public synchronized boolean isRunning() {
+    return this.clientAcceptor != null;
+  }
+
+  /**
+   * Returns the socket address to bind for a port.
+   * 
+   * @param port
+   *          the port.
+   * @return the address for the port.
+   */
+  private InetSocketAddress address(final int port) {
+    return this.host == null ? new InetSocketAddress(port)
+        : new InetSocketAddress(this.host, port);
+  }
+
+  /**
+   * Assigns the server's client aliases to an Attribute value, replacing any
+   * aliases from the solver that sent it.
+   * 
+   * @param attribute
+   *          the Attribute value.
+   * @return the attribute name alias.
+   */
+  int bindAliases(final Attribute attribute) {
+    int attributeAlias = alias(this.attributeAliases,
+        this.nextAttributeAlias, attribute.getAttributeName());
+    int originAlias = alias(this.originAliases, this.nextOriginAlias,
+        originName(attribute));
+    // Aliases never change, so repeated binding writes the same values
+    if (attribute.getAttributeNameAlias() != attributeAlias) {
+      attribute.setAttributeNameAlias(attributeAlias);
+    }
+    if (attribute.getOriginNameAlias() != originAlias) {
+      attribute.setOriginNameAlias(originAlias);
+    }
+    return attributeAlias;
+  }
+
+  /**
+   * Returns the origin name of an Attribute value as it is aliased and sent
+   * to clients. Values without an origin use the empty String.
+   * 
+   * @param attribute
+   *          the Attribute value.
+   * @return the origin name, never {@code null}.
+   */
+  static String originName(final Attribute attribute) {
+    return attribute.getOriginName() == null ? "" : attribute.getOriginName();
+  }
+
+  /**
+   * Returns the alias for a name, assigning a new one if needed.
+   * 
+   * @param aliases
+   *          the assigned aliases.
+   * @param next
+   *          the next alias to assign.
+   * @param name
+   *          the name.
+   * @return the alias for the name.
+   */
+  private static int alias(final ConcurrentHashMap<String, Integer> aliases,
+      final AtomicInteger next, final String name) {
+    Integer alias = aliases.get(name);
+    if (alias == null) {
+      Integer newAlias = Integer.valueOf(next.getAndIncrement());
+      alias = aliases.putIfAbsent(name, newAlias);
+      if (alias == null) {
+        alias = newAlias;
+      }
+    }
+    return alias.intValue();
+  }
+
+  /**
+   * Stores a new Attribute value from a solver and sends it to matching
+   * streams.
+   * 
+   * @param attribute
+   *          the new value, with its Identifier, name and origin set.
+   * @param createId
+   *          {@code true} to create the Identifier if it does not exist.
+   */
+  void updateAttribute(final Attribute attribute, final boolean createId) {
+    this.bindAliases(attribute);
+    if (!this.store.updateAttribute(attribute, createId)) {
+      return;
+    }
+    this.streamEngine.offer(attribute);
+  }
+
+  /**
+   * Adds a client stream and starts any matching on-demand attributes.
+   * 
+   * @param stream
+   *          the new stream.
+   */
+  void addStream(final StreamSubscription stream) {
+    this.streamEngine.add(stream);
+    this.solverAdapter.streamAdded(stream);
+  }
+
+  /**
+   * Removes a client stream and stops any matching on-demand attributes.
+   * 
+   * @param stream
+   *          the removed stream.
+   */
+  void removeStream(final StreamSubscription stream) {
+    if (this.streamEngine.remove(stream)) {
+      this.solverAdapter.streamRemoved(stream);
+    }
+  }
+
+  /**
+   * Returns the active client streams.
+   * 
+   * @return the active streams.
+   */
+  Collection<StreamSubscription> getStreams() {
+    return this.streamEngine.getStreams();
+  }
+
+  /**
+   * Returns the index used to evaluate the regular expressions of streams.
+   * 
+   * @return the regular expression index.
+   */
+  RegexIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Returns the store used by this server.
+   * 
+   * @return the store.
+   */
+  public AttributeStore getStore() {
+    return this.store;
+  }
+
+  /**
+   * Returns the port for client connections. Once the server has started, this
+   * is the bound port.
+   * 
+   * @return the client port.
+   */
+  public int getClientPort() {
+    return this.clientPort;
+  }
+
+  /**
+   * Sets the port for client connections. Takes effect the next time the
+   * server is started.
+   * 
+   * @param clientPort
+   *          the new client port, or 0 for an ephemeral port.
+   */
+  public void setClientPort(int clientPort) {
+    this.clientPort = clientPort;
+  }
+
+  /**
+   * Returns the port for solver connections. Once the server has started, this
+   * is the bound port.
+   * 
+   * @return the solver port.
+   */
+  public int getSolverPort() {
+    return this.solverPort;
+  }
+
+  /**
+   * Sets the port for solver connections. Takes effect the next time the
+   * server is started.
+   * 
+   * @param solverPort
+   *          the new solver port, or 0 for an ephemeral port.
+   */
+  public void setSolverPort(int solverPort) {
+    this.solverPort = solverPort;
+  }
+
+  /**
+   * Returns the local address the server binds.
+   * 
+   * @return the local host name or address, or {@code null} for all addresses.
+   */
+  public String getHost() {
+    return this.host;
+  }
+
+  /**
+   * Sets the local address the server binds. Takes effect the next time the
+   * server is started.
+   * 
+   * @param host
+   *          the local host name or address, or {@code null} for all
+   *          addresses.
+   */
+  public void setHost(String host) {
+    this.host = host;
+  }
+
+  @Override
+  public String toString() {
+    return "World Model Server (C:" + this.clientPort + ", S:"
+        + this.solverPort + ")";
+  }
+}
@@ -0,0 +1,465 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.solver;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
+import com.owlplatform.worldmodel.types.DoubleTypeConverter;
+import com.owlplatform.worldmodel.types.IntegerTypeConverter;
+import com.owlplatform.worldmodel.types.LongTypeConverter;
+
+/**
+ * Encodes Attribute values directly into an Attribute Update message buffer
+ * without creating {@code Attribute} objects, boxed values, or intermediate
+ * byte arrays. Values are accumulated into a single message until
+ * {@link #flush()} is called or the message reaches its maximum size.
+ * <p>
+ * A typical use looks like:
+ * 
+ * <pre>
+ * connection.beginUpdate().id(&quot;tag.42&quot;).time(now)
+ *     .attr(&quot;location.x_offset&quot;).putDouble(x)
+ *     .attr(&quot;location.y_offset&quot;).putDouble(y).flush();
+ * </pre>
+ * 
+ * The Identifier, attribute name, and timestamp are retained between values,
+ * so only the parts that change need to be set. Writers are not thread-safe;
+ * {@link SolverWorldConnection#beginUpdate()} returns a separate writer for
+ * each thread.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class AttributeUpdateWriter {
+
+  /**
+   * Length of the message header: message length, message type, create
+   * Identifier flag, and number of attributes.
+   */
+  private static final int HEADER_LENGTH = 4 + 1 + 1 + 4;
+
+  /**
+   * Offset of the attribute count within the message header.
+   */
+  private static final int COUNT_OFFSET = 4 + 1 + 1;
+
+  /**
+   * Default maximum encoded size of a message before it is flushed
+   * automatically.
+   */
+  public static final int DEFAULT_MAX_MESSAGE_BYTES = 32768;
+
+  /**
+   * The world model interface that messages are written to.
+   */
+  private final SolverWorldModelInterface wmi;
+
+  /**
+   * Maximum encoded size of a message before it is flushed automatically.
+   */
+  private int maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+
+  /**
+   * The message currently being encoded, or {@code null} if no values have
+   * been written since the last flush.
+   */
+  private IoBuffer buffer = null;
+
+  /**
+   * Number of attribute values in the current message.
+   */
+  private int count = 0;
+
+  /**
+   * Identifier for the next value.
+   */
+  private String identifier = null;
+
+  /**
+   * Attribute name for the next value.
+   */
+  private String attributeName = null;
+
+  /**
+   * Alias of {@link #attributeName}, or -1 if it has not been resolved.
+   */
+  private int attributeAlias = -1;
+
+  /**
+   * Creation timestamp for the next value.
+   */
+  private long creationDate = 0;
+
+  /**
+   * Whether {@link #creationDate} has been set. If not, the current time is
+   * used for each value.
+   */
+  private boolean creationDateSet = false;
+
+  /**
+   * Creates a new writer for the world model interface.
+   * 
+   * @param wmi
+   *          the interface that encoded messages are written to.
+   */
+  AttributeUpdateWriter(final SolverWorldModelInterface wmi) {
+    super();
+    this.wmi = wmi;
+  }
+
+  /**
+   * Sets the Identifier for subsequent values.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter id(final String identifier) {
+    this.identifier = identifier;
+    return this;
+  }
+
+  /**
+   * Sets the attribute name for subsequent values. The name must have been
+   * registered with the connection before it was established.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @return this writer.
+   * @throws IllegalArgumentException
+   *           if the attribute name has not been announced to the world model.
+   */
+  public AttributeUpdateWriter attr(final String attributeName) {
+    if (attributeName != this.attributeName || this.attributeAlias < 0) {
+      int alias = this.wmi.getAttributeAlias(attributeName);
+      if (alias < 0) {
+        throw new IllegalArgumentException("Unregistered attribute type: "
+            + attributeName);
+      }
+      this.attributeName = attributeName;
+      this.attributeAlias = alias;
+    }
+    return this;
+  }
+
+  /**
+   * Sets the creation timestamp for subsequent values.
+   * 
+   * @param creationDate
+   *          the creation timestamp, in milliseconds since the UNIX epoch.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter time(final long creationDate) {
+    this.creationDate = creationDate;
+    this.creationDateSet = true;
+    return this;
+  }
+
+  /**
+   * Writes a Double-typed value.
+   * 
+   * @param value
+   *          the value.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter putDouble(final double value) {
+    this.beginValue(8).putDouble(value);
+    return this.endValue();
+  }
+
+  /**
+   * Writes a Long-typed value.
+   * 
+   * @param value
+   *          the value.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter putLong(final long value) {
+    this.beginValue(8).putLong(value);
+    return this.endValue();
+  }
+
+  /**
+   * Writes an Integer-typed value.
+   * 
+   * @param value
+   *          the value.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter putInt(final int value) {
+    this.beginValue(4).putInt(value);
+    return this.endValue();
+  }
+
+  /**
+   * Writes a Boolean-typed value.
+   * 
+   * @param value
+   *          the value.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter putBoolean(final boolean value) {
+    this.beginValue(1).put(value ? (byte) 0xFF : (byte) 0);
+    return this.endValue();
+  }
+
+  /**
+   * Writes a String-typed value.
+   * 
+   * @param value
+   *          the value.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter putString(final String value) {
+    IoBuffer buff = this.beginValue(value.length() * 2);
+    for (int i = 0; i < value.length(); ++i) {
+      buff.putChar(value.charAt(i));
+    }
+    return this.endValue();
+  }
+
+  /**
+   * Writes a value of a Double-typed schema attribute, encoding it with the
+   * entry's converter directly into the message buffer.
+   * 
+   * @param entry
+   *          the schema attribute, which sets the attribute name for
+   *          subsequent values.
+   * @param value
+   *          the value.
+   * @return this writer.
+   * @throws IllegalArgumentException
+   *           if the attribute has not been announced to the world model.
+   */
+  public AttributeUpdateWriter put(final SolverSchema.DoubleEntry entry,
+      final double value) {
+    this.attr(entry.getAttributeName());
+    entry.doubleConverter.encodeDouble(value,
+        this.beginValue(DoubleTypeConverter.ENCODED_LENGTH));
+    return this.endValue();
+  }
+
+  /**
+   * Writes a value of a Long-typed schema attribute, encoding it with the
+   * entry's converter directly into the message buffer.
+   * 
+   * @param entry
+   *          the schema attribute, which sets the attribute name for
+   *          subsequent values.
+   * @param value
+   *          the value.
+   * @return this writer.
+   * @throws IllegalArgumentException
+   *           if the attribute has not been announced to the world model.
+   */
+  public AttributeUpdateWriter put(final SolverSchema.LongEntry entry,
+      final long value) {
+    this.attr(entry.getAttributeName());
+    entry.longConverter.encodeLong(value,
+        this.beginValue(LongTypeConverter.ENCODED_LENGTH));
+    return this.endValue();
+  }
+
+  /**
+   * Writes a value of an Integer-typed schema attribute, encoding it with the
+   * entry's converter directly into the message buffer.
+   * 
+   * @param entry
+   *          the schema attribute, which sets the attribute name for
+   *          subsequent values.
+   * @param value
+   *          the value.
+   * @return this writer.
+   * @throws IllegalArgumentException
+   *           if the attribute has not been announced to the world model.
+   */
+  public AttributeUpdateWriter put(final SolverSchema.IntEntry entry,
+      final int value) {
+    this.attr(entry.getAttributeName());
+    entry.intConverter.encodeInt(value,
+        this.beginValue(IntegerTypeConverter.ENCODED_LENGTH));
+    return this.endValue();
+  }
+
+  /**
+   * Writes a value of any schema attribute, encoded with the entry's
+   * converter.
+   * 
+   * @param entry
+   *          the schema attribute, which sets the attribute name for
+   *          subsequent values.
+   * @param value
+   *          the value.
+   * @return this writer.
+   * @throws IllegalArgumentException
+   *           if the attribute has not been announced to the world model.
+   */
+  public <T> AttributeUpdateWriter put(final SolverSchema.Entry<T> entry,
+      final T value) {
+    this.attr(entry.getAttributeName());
+    return this.putBytes(entry.encode(value));
+  }
+
+  /**
+   * Writes a value that has already been encoded.
+   * 
+   * @param data
+   *          the encoded value, or {@code null} for no data.
+   * @return this writer.
+   */
+  public AttributeUpdateWriter putBytes(final byte[] data) {
+    if (data == null) {
+      this.beginValue(0);
+    } else {
+      this.beginValue(data.length).put(data);
+    }
+    return this.endValue();
+  }
+
+  /**
+   * Writes the current message to the world model.
+   * 
+   * @return {@code true} if the message was written or there was nothing to
+   *         write, or {@code false} if the connection was not ready, in which
+   *         case the values are discarded.
+   */
+  public boolean flush() {
+    if (this.count == 0) {
+      return true;
+    }
+    IoBuffer buff = this.buffer;
+    buff.putInt(0, buff.position() - 4);
+    buff.putInt(COUNT_OFFSET, this.count);
+    buff.flip();
+    this.buffer = null;
+    this.count = 0;
+    return this.wmi.writeEncodedUpdate(buff);
+  }
+
+  /**
+   * Discards any values written since the last flush and clears the
+   * Identifier, attribute name, and timestamp.
+   */
+  public void reset() {
+    if (this.buffer != null) {
+      this.buffer.free();
+      this.buffer = null;
+    }
+    this.count = 0;
+    this.identifier = null;
+    this.creationDateSet = false;
+  }
+
+  /**
+   * Clears the Identifier and timestamp, keeping any values that have not yet
+   * been flushed.
+   */
+  void begin() {
+    this.identifier = null;
+    this.creationDateSet = false;
+  }
+
+  /**
+   * Returns the number of values written since the last flush.
+   * 
+   * @return the number of pending values.
+   */
+  public int getPendingCount() {
+    return this.count;
+  }
+
+  /**
+   * Gets the maximum encoded size of a message before it is flushed
+   * automatically.
+   * 
+   * @return the maximum message size, in bytes.
+   */
+  public int getMaxMessageBytes() {
+    return this.maxMessageBytes;
+  }
+
+  /**
+   * Sets the maximum encoded size of a message before it is flushed
+   * automatically.
+   * 
+   * @param maxMessageBytes
+   *          the new maximum message size, in bytes.
+   */
+  public void setMaxMessageBytes(int maxMessageBytes) {
+    this.maxMessageBytes = maxMessageBytes;
+  }
+
+  /**
+   * Writes the attribute alias, timestamp, Identifier, and data length for a
+   * new value, starting a new message if necessary.
+   * 
+   * @param dataLength
+   *          the length of the encoded value.
+   * @return the buffer, positioned to write the value.
+   * @throws IllegalStateException
+   *           if the Identifier or attribute name has not been set.
+   */
+  private IoBuffer beginValue(final int dataLength) {
+    if (this.identifier == null) {
+      throw new IllegalStateException("No Identifier set for attribute value.");
+    }
+    if (this.attributeAlias < 0) {
+      throw new IllegalStateException("No attribute set for attribute value.");
+    }
+
+    IoBuffer buff = this.buffer;
+    if (buff == null) {
+      buff = IoBuffer.allocate(Math.max(this.maxMessageBytes, 256));
+      buff.setAutoExpand(true);
+      buff.putInt(0);
+      buff.put(AttributeUpdateMessage.MESSAGE_TYPE);
+      buff.put(this.wmi.isCreateIds() ? (byte) 1 : (byte) 0);
+      buff.putInt(0);
+      this.buffer = buff;
+    }
+
+    buff.putInt(this.attributeAlias);
+    buff.putLong(this.creationDateSet ? this.creationDate : System
+        .currentTimeMillis());
+    String id = this.identifier;
+    buff.putInt(id.length() * 2);
+    for (int i = 0; i < id.length(); ++i) {
+      buff.putChar(id.charAt(i));
+    }
+    buff.putInt(dataLength);
+    return buff;
+  }
+
+  /**
+   * Counts the value just written and flushes the message if it has reached
+   * its maximum size.
+   * 
+   * @return this writer.
+   */
+  private AttributeUpdateWriter endValue() {
+    ++this.count;
+    if (this.buffer.position() >= this.maxMessageBytes
+        && this.buffer.position() > HEADER_LENGTH) {
+      this.flush();
+    }
+    return this;
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.solver;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
+
+/**
+ * Tracks the on-demand attributes that the world model has requested from a
+ * solver. Identifier patterns are compiled once per attribute alias, requests
+ * for the same pattern are reference-counted so that overlapping start/stop
+ * messages are merged, and the result of matching an Identifier is cached so
+ * that repeated calls to {@link #isRequested(int, String)} are a single hash
+ * lookup.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class OnDemandRegistry {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(OnDemandRegistry.class);
+
+  /**
+   * Default maximum number of cached match results per attribute alias.
+   */
+  public static final int DEFAULT_MAX_CACHED_IDS = 65536;
+
+  /**
+   * Largest attribute alias accepted in a Start On-Demand message. Aliases
+   * index the request array, so larger values are rejected rather than
+   * allocating an array for them.
+   */
+  public static final int MAX_ALIAS = 65535;
+
+  /**
+   * A set of compiled Identifier patterns and the cached match results for
+   * them. Never modified once published, except for adding results.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class CompiledPatterns {
+    /**
+     * The compiled patterns.
+     */
+    final Pattern[] patterns;
+
+    /**
+     * Cached match results for Identifiers against {@code patterns}.
+     */
+    final ConcurrentHashMap<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Creates a new set of compiled patterns with an empty result cache.
+     * 
+     * @param patterns
+     *          the compiled patterns.
+     */
+    CompiledPatterns(final Pattern[] patterns) {
+      this.patterns = patterns;
+    }
+  }
+
+  /**
+   * The requested Identifier patterns for a single attribute alias.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class AliasRequests {
+    /**
+     * Number of outstanding requests for each pattern.
+     */
+    final Map<String, Integer> patternCounts = new HashMap<String, Integer>();
+
+    /**
+     * The compiled form of the keys of {@code patternCounts}, replaced
+     * together with its result cache whenever the patterns change.
+     */
+    volatile CompiledPatterns compiled = new CompiledPatterns(new Pattern[0]);
+
+    /**
+     * Recompiles the pattern array and discards cached results.
+     * 
+     * @param patternCache
+     *          previously-compiled patterns.
+     */
+    void rebuild(final Map<String, Pattern> patternCache) {
+      Pattern[] newCompiled = new Pattern[this.patternCounts.size()];
+      int i = 0;
+      for (String regex : this.patternCounts.keySet()) {
+        newCompiled[i++] = patternCache.get(regex);
+      }
+      this.compiled = new CompiledPatterns(newCompiled);
+    }
+  }
+
+  /**
+   * Requests indexed by attribute alias. Replaced, never modified, when a new
+   * alias is added.
+   */
+  private volatile AliasRequests[] requests = new AliasRequests[0];
+
+  /**
+   * Compiled patterns by regular expression, shared by all aliases.
+   */
+  private final Map<String, Pattern> patternCache = new HashMap<String, Pattern>();
+
+  /**
+   * Maximum number of cached match results per attribute alias.
+   */
+  private volatile int maxCachedIds = DEFAULT_MAX_CACHED_IDS;
+
+  /**
+   * Adds the requests in a Start On-Demand message.
+   * 
+   * @param onDemandRequests
+   *          the requests to add.
+   */
+  public synchronized void start(final OnDemandRequest[] onDemandRequests) {
+    if (onDemandRequests == null) {
+      return;
+    }
+    for (OnDemandRequest request : onDemandRequests) {
+      if (request == null || request.getIdPatterns() == null) {
+        continue;
+      }
+      int aliasNum = request.getAttributeAlias();
+      if (aliasNum < 0 || aliasNum > MAX_ALIAS) {
+        log.warn("Ignoring on-demand request for invalid attribute alias {}.",
+            Integer.valueOf(aliasNum));
+        continue;
+      }
+      AliasRequests alias = this.getOrCreate(aliasNum);
+      boolean changed = false;
+      for (String regex : request.getIdPatterns()) {
+        Integer count = alias.patternCounts.get(regex);
+        if (count != null) {
+          alias.patternCounts.put(regex, Integer.valueOf(count.intValue() + 1));
+          continue;
+        }
+        if (!this.patternCache.containsKey(regex)) {
+          try {
+            this.patternCache.put(regex, Pattern.compile(regex));
+          } catch (PatternSyntaxException pse) {
+            log.warn("Ignoring invalid on-demand Identifier pattern \"{}\": {}",
+                regex, pse.getMessage());
+            continue;
+          }
+        }
+        alias.patternCounts.put(regex, Integer.valueOf(1));
+        changed = true;
+      }
+      if (changed) {
+        alias.rebuild(this.patternCache);
+      }
+    }
+  }
+
+  /**
+   * Removes the requests in a Stop On-Demand message. A pattern stays active
+   * until it has been stopped as many times as it was started.
+   * 
+   * @param onDemandRequests
+   *          the requests to remove.
+   */
+  public synchronized void stop(final OnDemandRequest[] onDemandRequests) {
+    if (onDemandRequests == null) {
+      return;
+    }
+    AliasRequests[] current = this.requests;
+    for (OnDemandRequest request : onDemandRequests) {
+      if (request == null || request.getIdPatterns() == null) {
+        continue;
+      }
+      int aliasNum = request.getAttributeAlias();
+      if (aliasNum < 0 || aliasNum >= current.length
+          || current[aliasNum] == null) {
+        continue;
+      }
+      AliasRequests alias = current[aliasNum];
+      boolean changed = false;
+      for (String regex : request.getIdPatterns()) {
+        Integer count = alias.patternCounts.get(regex);
+        if (count == null) {
+          continue;
+        }
+        if (count.intValue() > 1) {
+          alias.patternCounts.put(regex, Integer.valueOf(count.intValue() - 1));
+        } else {
+          alias.patternCounts.remove(regex);
+          changed = true;
+        }
+      }
+      if (changed) {
+        alias.rebuild(this.patternCache);
+      }
+    }
+    this.prunePatternCache();
+  }
+
+  /**
+   * Removes all requests. Should be called when the world model connection is
+   * lost, since the world model sends its requests again after reconnecting.
+   */
+  public synchronized void clear() {
+    this.requests = new AliasRequests[0];
+    this.patternCache.clear();
+  }
+
+  /**
+   * Determines whether the world model has requested the on-demand attribute
+   * for an Identifier.
+   * 
+   * @param attributeAlias
+   *          the alias of the attribute.
+   * @param identifier
+   *          the Identifier.
+   * @return {@code true} if at least one active request matches.
+   */
+  public boolean isRequested(final int attributeAlias, final String identifier) {
+    AliasRequests[] current = this.requests;
+    if (attributeAlias < 0 || attributeAlias >= current.length) {
+      return false;
+    }
+    AliasRequests alias = current[attributeAlias];
+    if (alias == null) {
+      return false;
+    }
+    CompiledPatterns compiled = alias.compiled;
+    Pattern[] patterns = compiled.patterns;
+    if (patterns.length == 0) {
+      return false;
+    }
+    ConcurrentHashMap<String, Boolean> results = compiled.results;
+    Boolean cached = results.get(identifier);
+    if (cached != null) {
+      return cached.booleanValue();
+    }
+
+    boolean matched = false;
+    for (Pattern p : patterns) {
+      if (p.matcher(identifier).matches()) {
+        matched = true;
+        break;
+      }
+    }
+    if (results.size() >= this.maxCachedIds) {
+      results.clear();
+    }
+    results.put(identifier, Boolean.valueOf(matched));
+    return matched;
+  }
+
+  /**
+   * Determines whether any Identifier is currently requested for an on-demand
+   * attribute.
+   * 
+   * @param attributeAlias
+   *          the alias of the attribute.
+   * @return {@code true} if there is at least one active request for the
+   *         attribute.
+   */
+  public boolean hasRequests(final int attributeAlias) {
+    AliasRequests[] current = this.requests;
+    if (attributeAlias < 0 || attributeAlias >= current.length
+        || current[attributeAlias] == null) {
+      return false;
+    }
+    return current[attributeAlias].compiled.patterns.length > 0;
+  }
+
+  /**
+   * Gets the maximum number of cached match results per attribute alias.
+   * 
+   * @return the maximum number of cached results.
+   */
+  public int getMaxCachedIds() {
+    return this.maxCachedIds;
+  }
+
+  /**
+   * Sets the maximum number of cached match results per attribute alias. When
+   * the limit is reached the cache for that alias is cleared.
+   * 
+   * @param maxCachedIds
+   *          the new maximum number of cached results.
+   */
+  public void setMaxCachedIds(int maxCachedIds) {
+    this.maxCachedIds = maxCachedIds;
+  }
+
+  /**
+   * Returns the requests for an alias, growing the request array if needed.
+   * Must be called while holding the lock on this object.
+   * 
+   * @param aliasNum
+   *          the attribute alias, between 0 and {@link #MAX_ALIAS}.
+   * @return the requests for the alias.
+   */
+  private AliasRequests getOrCreate(final int aliasNum) {
+    AliasRequests[] current = this.requests;
+    if (aliasNum < current.length && current[aliasNum] != null) {
+      return current[aliasNum];
+    }
+    AliasRequests[] grown = new AliasRequests[Math.max(current.length,
+        aliasNum + 1)];
+    System.arraycopy(current, 0, grown, 0, current.length);
+    AliasRequests alias = new AliasRequests();
+    grown[aliasNum] = alias;
+    this.requests = grown;
+    return alias;
+  }
+
+  /**
+   * Removes compiled patterns that are no longer used by any alias. Must be
+   * called while holding the lock on this object.
+   */
+  private void prunePatternCache() {
+    AliasRequests[] current = this.requests;
+    for (Iterator<String> iter = this.patternCache.keySet()
+        .iterator(); iter.hasNext();) {
+      String regex = iter.next();
+      boolean used = false;
+      for (AliasRequests alias : current) {
+        if (alias != null && alias.patternCounts.containsKey(regex)) {
+          used = true;
+          break;
+        }
+      }
+      if (!used) {
+        iter.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+import com.owlplatform.worldmodel.types.DataConverter;
+import com.owlplatform.worldmodel.types.DoubleConverter;
+import com.owlplatform.worldmodel.types.DoubleTypeConverter;
+import com.owlplatform.worldmodel.types.IntegerConverter;
+import com.owlplatform.worldmodel.types.IntegerTypeConverter;
+import com.owlplatform.worldmodel.types.LongConverter;
+import com.owlplatform.worldmodel.types.LongTypeConverter;
+import com.owlplatform.worldmodel.types.TypeConverter;
+
+/**
+ * The set of attributes produced by a solver, with the type of each one.
+ * Each {@link Entry} resolves its converter once, when it is added, so
+ * encoding a value is a direct call on that converter instead of a lookup by
+ * attribute name in {@link DataConverter} for every value. Double, Long and
+ * Integer attributes get the final entry types {@link DoubleEntry},
+ * {@link LongEntry} and {@link IntEntry}, which
+ * {@link AttributeUpdateWriter} encodes straight into its message buffer. A
+ * schema is announced to the world model with
+ * {@link SolverWorldConnection#addSchema(SolverSchema)}.
+ * <p>
+ * For example:
+ * 
+ * <pre>
+ * SolverSchema schema = new SolverSchema();
+ * SolverSchema.DoubleEntry xOffset = schema.addDouble(&quot;location.x_offset&quot;,
+ *     false);
+ * connection.addSchema(schema);
+ * ...
+ * connection.beginUpdate().id(id).time(now).put(xOffset, x).flush();
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverSchema {
+
+  /**
+   * A single attribute of a solver schema.
+   * 
+   * @author Robert Moore
+   * 
+   * @param <T>
+   *          the Java type of the attribute's values.
+   */
+  public static class Entry<T> {
+
+    /**
+     * The attribute name.
+     */
+    private final String attributeName;
+
+    /**
+     * The converter for this attribute's values.
+     */
+    private final TypeConverter<T> converter;
+
+    /**
+     * The specification announced to the world model for this attribute.
+     */
+    private final AttributeSpecification specification;
+
+    /**
+     * Creates a new schema entry.
+     * 
+     * @param attributeName
+     *          the attribute name.
+     * @param converter
+     *          the converter for the attribute's values.
+     * @param onDemand
+     *          whether the attribute is only produced on demand.
+     */
+    Entry(final String attributeName, final TypeConverter<T> converter,
+        final boolean onDemand) {
+      super();
+      this.attributeName = attributeName;
+      this.converter = converter;
+      this.specification = new AttributeSpecification();
+      this.specification.setAttributeName(attributeName);
+      this.specification.setIsOnDemand(onDemand);
+    }
+
+    /**
+     * Encodes a value of this attribute.
+     * 
+     * @param value
+     *          the value to encode.
+     * @return the encoded value.
+     */
+    public byte[] encode(final T value) {
+      return this.converter.encode(value);
+    }
+
+    /**
+     * Encodes the String form of a value of this attribute.
+     * 
+     * @param asString
+     *          the value as a String.
+     * @return the encoded value.
+     */
+    public byte[] encodeString(final String asString) {
+      return this.converter.encode(asString);
+    }
+
+    /**
+     * Creates an Attribute value for this attribute.
+     * 
+     * @param identifier
+     *          the Identifier the value belongs to.
+     * @param creationDate
+     *          the creation timestamp of the value.
+     * @param value
+     *          the value.
+     * @return a new Attribute containing the encoded value.
+     */
+    public Attribute newAttribute(final String identifier,
+        final long creationDate, final T value) {
+      return this.newAttribute(identifier, creationDate, this.encode(value));
+    }
+
+    /**
+     * Creates an Attribute value for this attribute from data that has
+     * already been encoded.
+     * 
+     * @param identifier
+     *          the Identifier the value belongs to.
+     * @param creationDate
+     *          the creation timestamp of the value.
+     * @param data
+     *          the encoded value.
+     * @return a new Attribute containing the data.
+     */
+    public Attribute newAttribute(final String identifier,
+        final long creationDate, final byte[] data) {
+      Attribute attr = new Attribute();
+      attr.setId(identifier);
+      attr.setAttributeName(this.attributeName);
+      attr.setCreationDate(creationDate);
+      attr.setData(data);
+      attr.bindConverter(this.converter);
+      return attr;
+    }
+
+    /**
+     * Returns the attribute name.
+     * 
+     * @return the attribute name.
+     */
+    public String getAttributeName() {
+      return this.attributeName;
+    }
+
+    /**
+     * Returns the converter for this attribute's values.
+     * 
+     * @return the converter.
+     */
+    public TypeConverter<T> getConverter() {
+      return this.converter;
+    }
+
+    /**
+     * Returns whether this attribute is only produced on demand.
+     * 
+     * @return {@code true} if the attribute is on-demand.
+     */
+    public boolean isOnDemand() {
+      return this.specification.getOnDemand();
+    }
+
+    /**
+     * Returns the specification announced to the world model for this
+     * attribute. The same object is returned by every call.
+     * 
+     * @return the attribute specification.
+     */
+    public AttributeSpecification getSpecification() {
+      return this.specification;
+    }
+
+    @Override
+    public String toString() {
+      return this.attributeName + " (" + this.converter.getTypeName()
+          + (this.isOnDemand() ? ", on-demand)" : ")");
+    }
+  }
+
+  /**
+   * A Double-typed attribute, encoded by {@link AttributeUpdateWriter} without
+   * boxing or intermediate arrays.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class DoubleEntry extends Entry<Double> {
+
+    /**
+     * The converter that encodes values into the writer's buffer.
+     */
+    final DoubleTypeConverter doubleConverter;
+
+    /**
+     * Creates a new Double-typed schema entry.
+     * 
+     * @param attributeName
+     *          the attribute name.
+     * @param converter
+     *          the converter for the attribute's values.
+     * @param onDemand
+     *          whether the attribute is only produced on demand.
+     */
+    <C extends TypeConverter<Double> & DoubleTypeConverter> DoubleEntry(
+        final String attributeName, final C converter, final boolean onDemand) {
+      super(attributeName, converter, onDemand);
+      this.doubleConverter = converter;
+    }
+  }
+
+  /**
+   * A Long-typed attribute, encoded by {@link AttributeUpdateWriter} without
+   * boxing or intermediate arrays.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class LongEntry extends Entry<Long> {
+
+    /**
+     * The converter that encodes values into the writer's buffer.
+     */
+    final LongTypeConverter longConverter;
+
+    /**
+     * Creates a new Long-typed schema entry.
+     * 
+     * @param attributeName
+     *          the attribute name.
+     * @param converter
+     *          the converter for the attribute's values.
+     * @param onDemand
+     *          whether the attribute is only produced on demand.
+     */
+    <C extends TypeConverter<Long> & LongTypeConverter> LongEntry(
+        final String attributeName, final C converter, final boolean onDemand) {
+      super(attributeName, converter, onDemand);
+      this.longConverter = converter;
+    }
+  }
+
+  /**
+   * An Integer-typed attribute, encoded by {@link AttributeUpdateWriter}
+   * without boxing or intermediate arrays.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class IntEntry extends Entry<Integer> {
+
+    /**
+     * The converter that encodes values into the writer's buffer.
+     */
+    final IntegerTypeConverter intConverter;
+
+    /**
+     * Creates a new Integer-typed schema entry.
+     * 
+     * @param attributeName
+     *          the attribute name.
+     * @param converter
+     *          the converter for the attribute's values.
+     * @param onDemand
+     *          whether the attribute is only produced on demand.
+     */
+    <C extends TypeConverter<Integer> & IntegerTypeConverter> IntEntry(
+        final String attributeName, final C converter, final boolean onDemand) {
+      super(attributeName, converter, onDemand);
+      this.intConverter = converter;
+    }
+  }
+
+  /**
+   * The entries of this schema, by attribute name, in the order they were
+   * added.
+   */
+  private final Map<String, Entry<?>> entries = new LinkedHashMap<String, Entry<?>>();
+
+  /**
+   * Adds an attribute to this schema. Double, Long and Integer attributes
+   * added with {@link #addDouble(String, boolean)},
+   * {@link #addLong(String, boolean)} and {@link #addInt(String, boolean)}
+   * can also be encoded without boxing.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @param converter
+   *          the converter for the attribute's values.
+   * @param onDemand
+   *          whether the attribute is only produced on demand.
+   * @return the new entry.
+   * @throws IllegalArgumentException
+   *           if the attribute name is already in this schema.
+   */
+  public synchronized <T> Entry<T> add(final String attributeName,
+      final TypeConverter<T> converter, final boolean onDemand) {
+    if (converter == null) {
+      throw new IllegalArgumentException(
+          "Attribute name and converter must not be null.");
+    }
+    return this.put(new Entry<T>(attributeName, converter, onDemand));
+  }
+
+  /**
+   * Adds a Double-typed attribute to this schema, encoded by
+   * {@link DoubleConverter}.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @param onDemand
+   *          whether the attribute is only produced on demand.
+   * @return the new entry.
+   * @throws IllegalArgumentException
+   *           if the attribute name is already in this schema.
+   */
+  public synchronized DoubleEntry addDouble(final String attributeName,
+      final boolean onDemand) {
+    return this.put(new DoubleEntry(attributeName, DoubleConverter.get(),
+        onDemand));
+  }
+
+  /**
+   * Adds a Long-typed attribute to this schema, encoded by
+   * {@link LongConverter}.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @param onDemand
+   *          whether the attribute is only produced on demand.
+   * @return the new entry.
+   * @throws IllegalArgumentException
+   *           if the attribute name is already in this schema.
+   */
+  public synchronized LongEntry addLong(final String attributeName,
+      final boolean onDemand) {
+    return this.put(new LongEntry(attributeName, LongConverter.get(),
+        onDemand));
+  }
+
+  /**
+   * Adds an Integer-typed attribute to this schema, encoded by
+   * {@link IntegerConverter}.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @param onDemand
+   *          whether the attribute is only produced on demand.
+   * @return the new entry.
+   * @throws IllegalArgumentException
+   *           if the attribute name is already in this schema.
+   */
+  public synchronized IntEntry addInt(final String attributeName,
+      final boolean onDemand) {
+    return this.put(new IntEntry(attributeName, IntegerConverter.get(),
+        onDemand));
+  }
+
+  /**
+   * Stores a new entry. Must be called while holding the lock on this object.
+   * 
+   * @param entry
+   *          the new entry.
+   * @return the entry.
+   * @throws IllegalArgumentException
+   *           if the attribute name is null or already in this schema.
+   */
+  private <E extends Entry<?>> E put(final E entry) {
+    String attributeName = entry.getAttributeName();
+    if (attributeName == null) {
+      throw new IllegalArgumentException(
+          "Attribute name and converter must not be null.");
+    }
+    if (this.entries.containsKey(attributeName)) {
+      throw new IllegalArgumentException("Attribute \"" + attributeName
+          + "\" is already in the schema.");
+    }
+    this.entries.put(attributeName, entry);
+    return entry;
+  }
+
+  /**
+   * Adds an attribute to this schema, using the converter for a type name
+   * supported by {@link DataConverter}.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @param typeName
+   *          the type name (<i>e.g.</i>, "String", "Double", "byte[]").
+   * @param onDemand
+   *          whether the attribute is only produced on demand.
+   * @return the new entry.
+   * @throws IllegalArgumentException
+   *           if the type is not supported or the attribute name is already in
+   *           this schema.
+   * @see DataConverter#getSupportedTypes()
+   */
+  public Entry<?> add(final String attributeName, final String typeName,
+      final boolean onDemand) {
+    TypeConverter<?> converter = DataConverter.getConverterForType(typeName);
+    if (converter == null) {
+      throw new IllegalArgumentException(
+          "Could not find a converter for data type \"" + typeName + "\".");
+    }
+    return this.add(attributeName, converter, onDemand);
+  }
+
+  /**
+   * Returns the entry for an attribute name.
+   * 
+   * @param attributeName
+   *          the attribute name.
+   * @return the entry, or {@code null} if the attribute is not in this schema.
+   */
+  public synchronized Entry<?> get(final String attributeName) {
+    return this.entries.get(attributeName);
+  }
+
+  /**
+   * Returns the entries of this schema in the order they were added.
+   * 
+   * @return an unmodifiable copy of the entries.
+   */
+  public synchronized Collection<Entry<?>> getEntries() {
+    return Collections.unmodifiableList(new ArrayList<Entry<?>>(this.entries
+        .values()));
+  }
+
+  /**
+   * Returns the attribute specifications for all entries in this schema.
+   * 
+   * @return the attribute specifications.
+   */
+  public synchronized AttributeSpecification[] getSpecifications() {
+    AttributeSpecification[] specs = new AttributeSpecification[this.entries
+        .size()];
+    int i = 0;
+    for (Entry<?> entry : this.entries.values()) {
+      specs[i++] = entry.getSpecification();
+    }
+    return specs;
+  }
+}
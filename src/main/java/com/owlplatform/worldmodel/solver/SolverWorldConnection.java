@@ -20,12 +20,25 @@ package com.owlplatform.worldmodel.solver;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.WorldModelTransport;
+import com.owlplatform.worldmodel.metrics.WorldModelMetrics;
 import com.owlplatform.worldmodel.solver.listeners.ConnectionListener;
 import com.owlplatform.worldmodel.solver.listeners.DataListener;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
@@ -34,10 +47,10 @@ import com.owlplatform.worldmodel.solver.protocol.messages.StartOnDemandMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.StopOnDemandMessage;
 
 /**
- * A simple class for solvers that need to push data into the World Model. This
- * interface is not suitable for solvers that produce transient data. Transient
- * solvers should use the lower-level {@link SolverWorldModelInterface} class
- * instead.
+ * A simple class for solvers that need to push data into the World Model.
+ * Solvers that produce on-demand (transient) attributes can use
+ * {@link #isOnDemandRequested(String, String)} to determine which values the
+ * world model currently wants.
  * 
  * @author Robert Moore
  * 
@@ -159,9 +172,147 @@ public class SolverWorldConnection {
    * A queue of solutions that should be sent to the world model the next time
    * the connection is available.
    */
-  private final LinkedBlockingQueue<Attribute> attributeBuffer = new LinkedBlockingQueue<Attribute>(
+  private final LinkedBlockingDeque<Attribute> attributeBuffer = new LinkedBlockingDeque<Attribute>(
       1000);
 
+  /**
+   * Reports the number of Attribute values waiting to be sent by this
+   * connection.
+   */
+  private final WorldModelMetrics.Gauge attributeBufferDepth = new WorldModelMetrics.Gauge() {
+    @Override
+    public long getValue() {
+      return SolverWorldConnection.this.getBufferedValueCount();
+    }
+  };
+
+  /**
+   * On-demand attribute requests made by the world model.
+   */
+  private final OnDemandRegistry onDemandRegistry = new OnDemandRegistry();
+
+  /**
+   * Per-thread writers returned by {@link #beginUpdate()}.
+   */
+  private final ThreadLocal<AttributeUpdateWriter> updateWriters = new ThreadLocal<AttributeUpdateWriter>() {
+    @Override
+    protected AttributeUpdateWriter initialValue() {
+      return new AttributeUpdateWriter(SolverWorldConnection.this.wmi);
+    }
+  };
+
+  /**
+   * Default maximum number of buffered Attribute values sent in a single
+   * update message when replaying the buffer.
+   */
+  public static final int DEFAULT_REPLAY_BATCH_SIZE = 100;
+
+  /**
+   * Default maximum encoded size, in bytes, of a single replay update message.
+   */
+  public static final int DEFAULT_REPLAY_BATCH_BYTES = 32768;
+
+  /**
+   * Default pause, in milliseconds, between replay batches.
+   */
+  public static final long DEFAULT_REPLAY_INTERVAL = 5l;
+
+  /**
+   * Maximum number of buffered Attribute values sent in a single update
+   * message when replaying the buffer.
+   */
+  private volatile int replayBatchSize = DEFAULT_REPLAY_BATCH_SIZE;
+
+  /**
+   * Maximum encoded size, in bytes, of a single replay update message. A batch
+   * always contains at least one value, even if that value alone is larger.
+   */
+  private volatile int replayBatchBytes = DEFAULT_REPLAY_BATCH_BYTES;
+
+  /**
+   * Pause, in milliseconds, between replay batches. Gives live updates a
+   * chance to be written between batches.
+   */
+  private volatile long replayInterval = DEFAULT_REPLAY_INTERVAL;
+
+  /**
+   * Runs the buffer replay off of the I/O thread. Created on first use unless
+   * one is provided with {@link #setReplayExecutor(Executor)}.
+   */
+  private Executor replayExecutor = null;
+
+  /**
+   * Flag to indicate that a replay task is scheduled or running, so that at
+   * most one replay drains the buffer at a time.
+   */
+  private final AtomicBoolean replaying = new AtomicBoolean(false);
+
+  /**
+   * Total number of buffered Attribute values that have been replayed to the
+   * world model.
+   */
+  private final AtomicLong replayedValues = new AtomicLong(0);
+
+  /**
+   * Throughput of the most recent replay, in Attribute values per second.
+   */
+  private volatile double lastReplayRate = 0;
+
+  /**
+   * A replay batch that could not be sent. It is sent before any other
+   * buffered value once the connection is ready again. Only the running
+   * replay modifies it.
+   */
+  private volatile List<Attribute> failedBatch = null;
+
+  /**
+   * Start time of the current replay.
+   */
+  private volatile long replayStart = 0;
+
+  /**
+   * Number of values sent by the current replay.
+   */
+  private volatile int replayCount = 0;
+
+  /**
+   * Delays replay batches when no transport is set. Created on first use.
+   */
+  private ScheduledExecutorService replayScheduler = null;
+
+  /**
+   * Sends one replay batch. Each batch schedules the next, so a replay never
+   * holds an executor thread between batches.
+   */
+  private final Runnable replayTask = new Runnable() {
+    @Override
+    public void run() {
+      SolverWorldConnection.this.replayNextBatch();
+    }
+  };
+
+  /**
+   * Reports the total number of buffered Attribute values replayed by this
+   * connection.
+   */
+  private final WorldModelMetrics.Gauge replayedValueCount = new WorldModelMetrics.Gauge() {
+    @Override
+    public long getValue() {
+      return SolverWorldConnection.this.replayedValues.get();
+    }
+  };
+
+  /**
+   * Reports the throughput of this connection's most recent replay, in
+   * Attribute values per second.
+   */
+  private final WorldModelMetrics.Gauge replayRate = new WorldModelMetrics.Gauge() {
+    @Override
+    public long getValue() {
+      return (long) SolverWorldConnection.this.lastReplayRate;
+    }
+  };
+
   /**
    * Creates a new {@code SolverWorldConnection} with the following parameters:
    * <ul>
@@ -204,6 +355,52 @@ public class SolverWorldConnection {
     this.wmi.setPort(wmPort);
   }
 
+  /**
+   * Attaches this connection to a transport shared with other connections,
+   * so that it does not create its own I/O and event threads. Unless a replay
+   * executor has been set, buffered values are also replayed on the
+   * transport's background threads. Must be set before connecting.
+   * 
+   * @param transport
+   *          the shared transport, or {@code null} to create threads for this
+   *          connection.
+   * @see SolverWorldModelInterface#setTransport(WorldModelTransport)
+   */
+  public void setTransport(final WorldModelTransport transport) {
+    this.wmi.setTransport(transport);
+    if (transport != null) {
+      synchronized (this) {
+        if (this.replayExecutor == null) {
+          this.replayExecutor = transport.getBackgroundExecutor();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets where this connection reports measurements. In addition to the
+   * measurements of {@link SolverWorldModelInterface#setMetrics}, the number
+   * of Attribute values waiting to be sent is reported as the
+   * {@code attributeBufferDepth} gauge, the number of buffered values replayed
+   * as {@code replayedValues}, and the throughput of the most recent replay,
+   * in values per second, as {@code replayRate}. Must be set before
+   * connecting.
+   * 
+   * @param metrics
+   *          the metrics to report to, or {@code null} to stop reporting.
+   */
+  public void setMetrics(final WorldModelMetrics metrics) {
+    WorldModelMetrics previous = this.wmi.getMetrics();
+    previous.unregisterGauge("attributeBufferDepth", this.attributeBufferDepth);
+    previous.unregisterGauge("replayedValues", this.replayedValueCount);
+    previous.unregisterGauge("replayRate", this.replayRate);
+    this.wmi.setMetrics(metrics);
+    WorldModelMetrics current = this.wmi.getMetrics();
+    current.registerGauge("attributeBufferDepth", this.attributeBufferDepth);
+    current.registerGauge("replayedValues", this.replayedValueCount);
+    current.registerGauge("replayRate", this.replayRate);
+  }
+
   /**
    * Connects to the world model at the configured host and port. Returns
    * immediately if the connection fails. If the connection succeeds, automatic
@@ -292,6 +489,29 @@ public class SolverWorldConnection {
     return true;
   }
 
+  /**
+   * Returns this thread's {@link AttributeUpdateWriter} for encoding Attribute
+   * values without per-value allocation. The Identifier and timestamp are
+   * cleared, but values that have not been flushed are kept. Unlike
+   * {@link #updateAttribute(Attribute)}, values are not buffered while the
+   * world model is disconnected; {@link AttributeUpdateWriter#flush()} returns
+   * {@code false} instead.
+   * 
+   * @return the update writer for the calling thread.
+   * @throws IllegalStateException
+   *           if this method is called once the world model connection has been
+   *           destroyed.
+   */
+  public AttributeUpdateWriter beginUpdate() throws IllegalStateException {
+    if (this.terminated) {
+      throw new IllegalStateException(
+          "Cannot send solutions to the World Model once the connection has been destroyed.");
+    }
+    AttributeUpdateWriter writer = this.updateWriters.get();
+    writer.begin();
+    return writer;
+  }
+
   /**
    * Adds the Attribute specification to the world model connection.
    * 
@@ -302,6 +522,20 @@ public class SolverWorldConnection {
     this.wmi.addAttribute(spec);
   }
 
+  /**
+   * Adds the specification of every attribute in a schema to the world model
+   * connection. Attributes added to the schema afterwards must be added
+   * separately.
+   * 
+   * @param schema
+   *          the schema of the attributes produced by this solver.
+   */
+  public void addSchema(final SolverSchema schema) {
+    for (AttributeSpecification spec : schema.getSpecifications()) {
+      this.wmi.addAttribute(spec);
+    }
+  }
+
   /**
    * Sets the origin string value for this world model connection. The origin
    * string uniquely identifies a solver to the world model.
@@ -396,28 +630,307 @@ public class SolverWorldConnection {
   }
 
   /**
-   * Sends any buffered Attribute values to the world model.
+   * Starts sending any buffered Attribute values to the world model on the
+   * replay executor. Returns immediately if a replay is already in progress.
    */
   private void sendBufferedValues() {
-    ArrayList<Attribute> attributesToSend = new ArrayList<Attribute>();
-    int num = 0;
-    while (!this.attributeBuffer.isEmpty()) {
-      num += this.attributeBuffer.drainTo(attributesToSend);
+    if (this.attributeBuffer.isEmpty() && this.failedBatch == null) {
+      return;
+    }
+    if (!this.replaying.compareAndSet(false, true)) {
+      return;
+    }
+    this.replayStart = System.currentTimeMillis();
+    this.replayCount = 0;
+    try {
+      this.getReplayExecutor().execute(this.replayTask);
+    } catch (RejectedExecutionException ree) {
+      log.warn("Replay executor for {} is shut down, not replaying.", this);
+      this.replaying.set(false);
+    }
+  }
+
+  /**
+   * Sends the next replay batch and schedules the batch after it, or ends the
+   * replay if the buffer is empty or the batch could not be sent.
+   */
+  void replayNextBatch() {
+    boolean more = false;
+    try {
+      more = this.sendReplayBatch();
+      if (more) {
+        this.scheduleNextBatch();
+      }
+    } catch (RejectedExecutionException ree) {
+      log.warn("Replay executor for {} is shut down, stopping replay.", this);
+      more = false;
+    } finally {
+      if (!more) {
+        this.endReplay();
+      }
+    }
+  }
+
+  /**
+   * Sends one batch of buffered Attribute values, limited by
+   * {@link #getReplayBatchSize()} and {@link #getReplayBatchBytes()}. A batch
+   * that could not be sent is kept aside and sent before any other buffered
+   * value by the next replay.
+   * 
+   * @return {@code true} if the batch was sent and more values are buffered,
+   *         else {@code false}.
+   */
+  private boolean sendReplayBatch() {
+    if (!this.canSend) {
+      return false;
+    }
+    List<Attribute> batch = this.failedBatch;
+    this.failedBatch = null;
+    if (batch == null) {
+      batch = new ArrayList<Attribute>();
+      int batchBytes = 0;
+      Attribute next;
+      while (batch.size() < this.replayBatchSize
+          && (next = this.attributeBuffer.peek()) != null) {
+        int length = next.getSolverLength();
+        if (!batch.isEmpty() && batchBytes + length > this.replayBatchBytes) {
+          break;
+        }
+        batch.add(this.attributeBuffer.poll());
+        batchBytes += length;
+      }
+      if (batch.isEmpty()) {
+        return false;
+      }
     }
+    if (!this.canSend || !this.wmi.updateAttributes(batch)) {
+      this.failedBatch = batch;
+      return false;
+    }
+    this.replayCount += batch.size();
+    this.replayedValues.addAndGet(batch.size());
+    return !this.attributeBuffer.isEmpty();
+  }
+
+  /**
+   * Schedules the next replay batch after {@link #getReplayInterval()}
+   * milliseconds, without holding a replay thread while waiting.
+   * 
+   * @throws RejectedExecutionException
+   *           if the replay executor or transport has been shut down.
+   */
+  private void scheduleNextBatch() {
+    final Executor executor = this.getReplayExecutor();
+    long delay = this.replayInterval;
+    if (delay <= 0) {
+      executor.execute(this.replayTask);
+      return;
+    }
+    Runnable handoff = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          executor.execute(SolverWorldConnection.this.replayTask);
+        } catch (RejectedExecutionException ree) {
+          log.warn("Replay executor for {} is shut down, stopping replay.",
+              SolverWorldConnection.this);
+          SolverWorldConnection.this.endReplay();
+        }
+      }
+    };
+    WorldModelTransport shared = this.wmi.getTransport();
+    if (shared != null) {
+      shared.schedule(handoff, delay);
+    } else {
+      this.getReplayScheduler().schedule(handoff, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Records the throughput of a finished replay and starts another if values
+   * were buffered after its last batch was taken.
+   */
+  private void endReplay() {
+    int num = this.replayCount;
     if (num > 0) {
-      this.wmi.updateAttributes(attributesToSend);
-      log.info("Sent {} buffered attribute updates.", Integer.valueOf(num));
+      long duration = System.currentTimeMillis() - this.replayStart;
+      this.lastReplayRate = num * 1000d / (duration < 1 ? 1 : duration);
+      log.info("Sent {} buffered attribute updates in {}ms, {} remaining.",
+          new Object[] { Integer.valueOf(num), Long.valueOf(duration),
+              Integer.valueOf(this.getBufferedValueCount()) });
     }
+    this.replaying.set(false);
+    if (this.canSend) {
+      this.sendBufferedValues();
+    }
+  }
+
+  /**
+   * Returns the scheduler that delays replay batches when this connection has
+   * no shared transport, creating a single daemon thread on first use.
+   * 
+   * @return the replay scheduler.
+   */
+  private synchronized ScheduledExecutorService getReplayScheduler() {
+    if (this.replayScheduler == null) {
+      this.replayScheduler = Executors
+          .newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "Solver replay pacing "
+                  + SolverWorldConnection.this.toString());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+    }
+    return this.replayScheduler;
+  }
+
+  /**
+   * Returns the replay executor, creating a single-thread executor whose
+   * thread exits when idle if none has been set.
+   * 
+   * @return the executor used to replay buffered values.
+   */
+  private synchronized Executor getReplayExecutor() {
+    if (this.replayExecutor == null) {
+      ThreadPoolExecutor exec = new ThreadPoolExecutor(1, 1, 30,
+          TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "Solver buffer replay "
+                  + SolverWorldConnection.this.toString());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      exec.allowCoreThreadTimeOut(true);
+      this.replayExecutor = exec;
+    }
+    return this.replayExecutor;
   }
 
   /**
-   * Marks the {@code canSend} flag to false.
+   * Sets the executor used to replay buffered Attribute values once the world
+   * model connection is ready. Each replay task sends a single batch and
+   * schedules the next one, so a replay does not hold an executor thread
+   * while it waits between batches. The executor should not be an I/O thread.
+   * 
+   * @param replayExecutor
+   *          the new replay executor.
+   */
+  public synchronized void setReplayExecutor(final Executor replayExecutor) {
+    this.replayExecutor = replayExecutor;
+  }
+
+  /**
+   * Gets the maximum number of buffered Attribute values sent in a single
+   * update message when replaying the buffer.
+   * 
+   * @return the maximum number of values per replay batch.
+   */
+  public int getReplayBatchSize() {
+    return this.replayBatchSize;
+  }
+
+  /**
+   * Sets the maximum number of buffered Attribute values sent in a single
+   * update message when replaying the buffer.
+   * 
+   * @param replayBatchSize
+   *          the new maximum number of values per replay batch.
+   * @throws IllegalArgumentException
+   *           if {@code replayBatchSize} is less than 1.
+   */
+  public void setReplayBatchSize(final int replayBatchSize) {
+    if (replayBatchSize < 1) {
+      throw new IllegalArgumentException("Replay batch size must be positive.");
+    }
+    this.replayBatchSize = replayBatchSize;
+  }
+
+  /**
+   * Gets the maximum encoded size of a single replay update message.
+   * 
+   * @return the maximum replay batch size, in bytes.
+   */
+  public int getReplayBatchBytes() {
+    return this.replayBatchBytes;
+  }
+
+  /**
+   * Sets the maximum encoded size of a single replay update message. A batch
+   * always contains at least one value, even if that value alone is larger.
+   * 
+   * @param replayBatchBytes
+   *          the new maximum replay batch size, in bytes.
+   */
+  public void setReplayBatchBytes(final int replayBatchBytes) {
+    this.replayBatchBytes = replayBatchBytes;
+  }
+
+  /**
+   * Gets the pause between replay batches.
+   * 
+   * @return the pause between replay batches, in milliseconds.
+   */
+  public long getReplayInterval() {
+    return this.replayInterval;
+  }
+
+  /**
+   * Sets the pause between replay batches. A value of 0 sends batches back to
+   * back.
+   * 
+   * @param replayInterval
+   *          the new pause between replay batches, in milliseconds.
+   */
+  public void setReplayInterval(final long replayInterval) {
+    this.replayInterval = replayInterval;
+  }
+
+  /**
+   * Returns the number of Attribute values currently buffered and waiting to
+   * be sent to the world model.
+   * 
+   * @return the number of buffered Attribute values.
+   */
+  public int getBufferedValueCount() {
+    List<Attribute> failed = this.failedBatch;
+    return this.attributeBuffer.size() + (failed == null ? 0 : failed.size());
+  }
+
+  /**
+   * Returns the total number of buffered Attribute values that have been
+   * replayed to the world model.
+   * 
+   * @return the number of replayed Attribute values.
+   */
+  public long getReplayedValueCount() {
+    return this.replayedValues.get();
+  }
+
+  /**
+   * Returns the throughput of the most recent buffer replay.
+   * 
+   * @return the most recent replay throughput, in Attribute values per second,
+   *         or 0 if no values have been replayed.
+   */
+  public double getLastReplayRate() {
+    return this.lastReplayRate;
+  }
+
+  /**
+   * Marks the {@code canSend} flag to false and clears any on-demand requests.
    * 
    * @param worldModel
    *          the connection to the world model.
    */
   void connectionInterrupted(SolverWorldModelInterface worldModel) {
     this.canSend = false;
+    this.onDemandRegistry.clear();
   }
 
   /**
@@ -443,31 +956,61 @@ public class SolverWorldConnection {
   }
 
   /**
-   * Does nothing for now.
+   * Adds the on-demand requests to the registry.
    * 
    * @param worldModel
+   *          the connection to the world model.
    * @param message
+   *          the received Start On-Demand message.
    */
   void startOnDemandReceived(SolverWorldModelInterface worldModel,
       StartOnDemandMessage message) {
-    // Nothing to do.
-
+    this.onDemandRegistry.start(message.getRequests());
   }
 
   /**
-   * Does nothing for now.
+   * Removes the on-demand requests from the registry.
    * 
    * @param worldModel
+   *          the connection to the world model.
    * @param message
+   *          the received Stop On-Demand message.
    */
   void stopOnDemand(SolverWorldModelInterface worldModel,
       StopOnDemandMessage message) {
-    // Nothing to do
+    this.onDemandRegistry.stop(message.getRequests());
+  }
 
+  /**
+   * Determines whether the world model has requested an on-demand attribute
+   * for an Identifier. Solvers can use this to avoid computing on-demand
+   * values that no client has asked for.
+   * 
+   * @param attributeName
+   *          the name of the on-demand attribute.
+   * @param identifier
+   *          the Identifier.
+   * @return {@code true} if the world model has an active request for the
+   *         attribute that matches the Identifier, else {@code false}.
+   */
+  public boolean isOnDemandRequested(final String attributeName,
+      final String identifier) {
+    return this.onDemandRegistry.isRequested(
+        this.wmi.getAttributeAlias(attributeName), identifier);
+  }
+
+  /**
+   * Returns the registry of on-demand requests made by the world model.
+   * 
+   * @return the on-demand request registry.
+   */
+  public OnDemandRegistry getOnDemandRegistry() {
+    return this.onDemandRegistry;
   }
 
   /**
-   * Marks {@code canSend} as true, sends any buffered Attribute updates.
+   * Marks {@code canSend} as true, schedules any buffered Attribute updates
+   * to be replayed.
    * 
    * @param worldModel
    *          the connection to the world model.
@@ -0,0 +1,570 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.solver.listeners.ConnectionListener;
+import com.owlplatform.worldmodel.solver.listeners.DataListener;
+import com.owlplatform.worldmodel.solver.protocol.codec.AttributeUpdateEncoder;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.StartOnDemandMessage;
+import com.owlplatform.worldmodel.solver.protocol.messages.StopOnDemandMessage;
+
+/**
+ * A solver connection that publishes the same Attribute values to several
+ * world models, such as a primary and a replica. Each update is encoded once
+ * and the encoded bytes are shared by all sinks. Every sink has its own
+ * connection, reconnect behavior, and buffer of updates that could not be
+ * sent because the sink was disconnected or had too many bytes waiting to be
+ * written.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverWorldFanOutConnection {
+
+  /**
+   * A single world model that updates are published to.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class Sink {
+
+    /**
+     * Private event handler so that the listener methods aren't visible to
+     * classes using the sink.
+     * 
+     * @author Robert Moore
+     * 
+     */
+    private static final class Handler implements ConnectionListener,
+        DataListener {
+
+      /**
+       * The sink that this handler is used by.
+       */
+      private final Sink parent;
+
+      /**
+       * Creates a new handler for the sink.
+       * 
+       * @param parent
+       *          the sink that this handler will interact with.
+       */
+      Handler(final Sink parent) {
+        super();
+        this.parent = parent;
+      }
+
+      @Override
+      public void connectionInterrupted(SolverWorldModelInterface worldModel) {
+        this.parent.canSend = false;
+      }
+
+      @Override
+      public void connectionEnded(SolverWorldModelInterface worldModel) {
+        this.parent.canSend = false;
+      }
+
+      @Override
+      public void connectionEstablished(SolverWorldModelInterface worldModel) {
+        // Wait for the attribute specifications to be sent
+      }
+
+      @Override
+      public void startOnDemandReceived(SolverWorldModelInterface worldModel,
+          StartOnDemandMessage message) {
+        // On-demand attributes are not supported by fan-out connections
+      }
+
+      @Override
+      public void stopOnDemandReceived(SolverWorldModelInterface worldModel,
+          StopOnDemandMessage message) {
+        // On-demand attributes are not supported by fan-out connections
+      }
+
+      @Override
+      public void attributeSpecificationsSent(
+          SolverWorldModelInterface worldModel,
+          AttributeAnnounceMessage message) {
+        this.parent.attributeSpecificationsSent();
+      }
+    }
+
+    /**
+     * Low-level world model interface for this sink.
+     */
+    final SolverWorldModelInterface wmi = new SolverWorldModelInterface();
+
+    /**
+     * Flag to indicate that the world model has received the attribute
+     * specifications and can accept updates.
+     */
+    private volatile boolean canSend = false;
+
+    /**
+     * Encoded updates waiting to be sent to this sink.
+     */
+    private final LinkedBlockingQueue<IoBuffer> pending;
+
+    /**
+     * Maximum number of bytes written to the session but not yet sent before
+     * new updates are held in {@code pending}.
+     */
+    private volatile long maxCachedWriteBytes;
+
+    /**
+     * Sends held updates once a write completes, so that updates held while
+     * the sink was congested are sent even if no new updates arrive.
+     */
+    private final IoFutureListener<WriteFuture> writeListener = new IoFutureListener<WriteFuture>() {
+      @Override
+      public void operationComplete(WriteFuture future) {
+        if (!Sink.this.pending.isEmpty()) {
+          Sink.this.drainPending();
+        }
+      }
+    };
+
+    /**
+     * Number of update messages written to this sink.
+     */
+    private final AtomicLong sentMessages = new AtomicLong(0);
+
+    /**
+     * Number of update messages discarded because {@code pending} was full.
+     */
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+
+    /**
+     * Creates a new sink for the world model host and port.
+     * 
+     * @param host
+     *          the world model host.
+     * @param port
+     *          the world model solver port.
+     * @param maxPending
+     *          the maximum number of updates to hold while the sink is
+     *          unavailable.
+     * @param maxCachedWriteBytes
+     *          the maximum number of unsent bytes before updates are held.
+     */
+    Sink(final String host, final int port, final int maxPending,
+        final long maxCachedWriteBytes) {
+      super();
+      this.pending = new LinkedBlockingQueue<IoBuffer>(maxPending);
+      this.maxCachedWriteBytes = maxCachedWriteBytes;
+      this.wmi.setHost(host);
+      this.wmi.setPort(port);
+      this.wmi.setConnectionRetryDelay(5000l);
+      this.wmi.setConnectionTimeout(5000l);
+      this.wmi.setCreateIds(true);
+      this.wmi.setDisconnectOnException(true);
+      this.wmi.setStayConnected(true);
+      Handler handler = new Handler(this);
+      this.wmi.addConnectionListener(handler);
+      this.wmi.addDataListener(handler);
+    }
+
+    /**
+     * Sends an encoded update to this sink, or holds it if the sink is
+     * disconnected or congested.
+     * 
+     * @param encoded
+     *          a read-only view of the encoded update.
+     * @return {@code true} if the update was sent or held, {@code false} if it
+     *         was dropped.
+     */
+    synchronized boolean send(final IoBuffer encoded) {
+      this.drainPending();
+      if (this.pending.isEmpty() && this.isWritable()
+          && this.wmi.writeEncodedUpdate(encoded, this.writeListener)) {
+        this.sentMessages.incrementAndGet();
+        return true;
+      }
+      if (this.pending.offer(encoded)) {
+        return true;
+      }
+      this.droppedMessages.incrementAndGet();
+      return false;
+    }
+
+    /**
+     * Sends held updates while the sink is writable. Called before each new
+     * update and whenever a write to the sink completes.
+     */
+    synchronized void drainPending() {
+      IoBuffer next;
+      while (this.isWritable() && (next = this.pending.peek()) != null) {
+        if (!this.wmi.writeEncodedUpdate(next, this.writeListener)) {
+          break;
+        }
+        this.pending.poll();
+        this.sentMessages.incrementAndGet();
+      }
+    }
+
+    /**
+     * Determines if an update can be written to the session right now.
+     * 
+     * @return {@code true} if the sink is connected and not congested.
+     */
+    private boolean isWritable() {
+      return this.canSend
+          && this.wmi.getCachedWriteBytes() < this.maxCachedWriteBytes;
+    }
+
+    /**
+     * Marks the sink as able to send and sends any held updates.
+     */
+    void attributeSpecificationsSent() {
+      this.canSend = true;
+      int held = this.pending.size();
+      this.drainPending();
+      if (held > 0) {
+        log.info("Sent {} held attribute updates to {}.",
+            Integer.valueOf(held - this.pending.size()), this);
+      }
+    }
+
+    /**
+     * Returns {@code true} if this sink can currently accept updates.
+     * 
+     * @return {@code true} if the handshake and attribute specifications have
+     *         been exchanged.
+     */
+    public boolean isConnectionLive() {
+      return this.canSend;
+    }
+
+    /**
+     * Returns the number of updates held for this sink.
+     * 
+     * @return the number of held updates.
+     */
+    public int getPendingCount() {
+      return this.pending.size();
+    }
+
+    /**
+     * Returns the number of update messages written to this sink.
+     * 
+     * @return the number of sent messages.
+     */
+    public long getSentCount() {
+      return this.sentMessages.get();
+    }
+
+    /**
+     * Returns the number of update messages dropped for this sink because too
+     * many were already held.
+     * 
+     * @return the number of dropped messages.
+     */
+    public long getDroppedCount() {
+      return this.droppedMessages.get();
+    }
+
+    /**
+     * Sets the maximum number of bytes written to the session but not yet
+     * sent before new updates are held instead of written.
+     * 
+     * @param maxCachedWriteBytes
+     *          the new limit, in bytes.
+     */
+    public void setMaxCachedWriteBytes(final long maxCachedWriteBytes) {
+      this.maxCachedWriteBytes = maxCachedWriteBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "World Model (S) @ " + this.wmi.getHost() + ":"
+          + this.wmi.getPort();
+    }
+  }
+
+  /**
+   * Logger for this class.
+   */
+  static final Logger log = LoggerFactory
+      .getLogger(SolverWorldFanOutConnection.class);
+
+  /**
+   * Default maximum number of updates held for each sink.
+   */
+  public static final int DEFAULT_MAX_PENDING = 1000;
+
+  /**
+   * Default maximum number of unsent bytes for a sink before updates are held.
+   */
+  public static final long DEFAULT_MAX_CACHED_WRITE_BYTES = 1024 * 1024;
+
+  /**
+   * The world models that updates are published to.
+   */
+  private final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+
+  /**
+   * Attribute specifications, in the order they were added. Each sink assigns
+   * aliases in the same order, so the alias of an attribute is its index.
+   */
+  private final List<AttributeSpecification> specifications = new ArrayList<AttributeSpecification>();
+
+  /**
+   * Attribute aliases shared by all sinks.
+   */
+  private final Map<String, Integer> attributeAliases = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * Origin string for the solver.
+   */
+  private String originString = null;
+
+  /**
+   * Whether the world models should create Identifiers that don't exist.
+   */
+  private volatile boolean createIds = true;
+
+  /**
+   * Flag to indicate the the connection has been terminated.
+   */
+  private volatile boolean terminated = false;
+
+  /**
+   * Adds a world model to publish updates to. Sinks must be added before
+   * {@link #connect(long)} is called.
+   * 
+   * @param host
+   *          the world model host.
+   * @param port
+   *          the world model solver port.
+   * @return the new sink.
+   */
+  public synchronized Sink addSink(final String host, final int port) {
+    Sink sink = new Sink(host, port, DEFAULT_MAX_PENDING,
+        DEFAULT_MAX_CACHED_WRITE_BYTES);
+    sink.wmi.setCreateIds(this.createIds);
+    if (this.originString != null) {
+      sink.wmi.setOriginString(this.originString);
+    }
+    for (AttributeSpecification spec : this.specifications) {
+      sink.wmi.addAttribute(spec);
+    }
+    this.sinks.add(sink);
+    return sink;
+  }
+
+  /**
+   * Returns the world models that updates are published to.
+   * 
+   * @return an unmodifiable list of the sinks.
+   */
+  public List<Sink> getSinks() {
+    return Collections.unmodifiableList(this.sinks);
+  }
+
+  /**
+   * Adds the Attribute specification to every world model connection.
+   * 
+   * @param spec
+   *          the Attribute specification to add.
+   */
+  public synchronized void addAttribute(final AttributeSpecification spec) {
+    if (this.specifications.contains(spec)) {
+      return;
+    }
+    this.attributeAliases.put(spec.getAttributeName(),
+        Integer.valueOf(this.specifications.size()));
+    this.specifications.add(spec);
+    for (Sink sink : this.sinks) {
+      sink.wmi.addAttribute(spec);
+    }
+  }
+
+  /**
+   * Adds the specification of every attribute in a schema to every world
+   * model connection.
+   * 
+   * @param schema
+   *          the schema of the attributes produced by this solver.
+   */
+  public synchronized void addSchema(final SolverSchema schema) {
+    for (AttributeSpecification spec : schema.getSpecifications()) {
+      this.addAttribute(spec);
+    }
+  }
+
+  /**
+   * Sets the origin string value for every world model connection.
+   * 
+   * @param origin
+   *          the origin string.
+   */
+  public synchronized void setOriginString(final String origin) {
+    this.originString = origin;
+    for (Sink sink : this.sinks) {
+      sink.wmi.setOriginString(origin);
+    }
+  }
+
+  /**
+   * Sets whether the world models should automatically create Identifiers
+   * when Attribute values are updated.
+   * 
+   * @param createIds
+   *          {@code true} to automatically create Identifiers.
+   */
+  public synchronized void setCreateIds(final boolean createIds) {
+    this.createIds = createIds;
+    for (Sink sink : this.sinks) {
+      sink.wmi.setCreateIds(createIds);
+    }
+  }
+
+  /**
+   * Connects to every world model. Sinks that fail to connect will keep
+   * retrying in the background.
+   * 
+   * @param timeout
+   *          how long to wait for each connection, in milliseconds. If 0, the
+   *          configured timeout value will be used.
+   * @return {@code true} if at least one world model connected.
+   */
+  public boolean connect(final long timeout) {
+    this.terminated = false;
+    boolean anyConnected = false;
+    for (Sink sink : this.sinks) {
+      if (sink.wmi.connect(timeout)) {
+        anyConnected = true;
+      }
+      sink.wmi.setStayConnected(true);
+    }
+    return anyConnected;
+  }
+
+  /**
+   * Disconnects from every world model. Automatic reconnection will not occur.
+   */
+  public void disconnect() {
+    this.terminated = true;
+    for (Sink sink : this.sinks) {
+      sink.wmi.disconnect();
+    }
+  }
+
+  /**
+   * Sends a single Attribute value to every world model.
+   * 
+   * @param attribute
+   *          the Attribute value to send.
+   * @return {@code true} if every sink sent or held the value.
+   * @throws IllegalStateException
+   *           if this method is called after {@link #disconnect()}.
+   */
+  public boolean updateAttribute(final Attribute attribute)
+      throws IllegalStateException {
+    return this.updateAttributes(Collections.singletonList(attribute));
+  }
+
+  /**
+   * Sends Attribute values to every world model. The values are encoded into
+   * a single message once, and each sink writes a read-only view of it.
+   * Attributes with unregistered names are not sent.
+   * 
+   * @param attributes
+   *          the Attribute values to send.
+   * @return {@code true} if every sink sent or held the values, {@code false}
+   *         if any attribute was unregistered or any sink dropped the update.
+   * @throws IllegalStateException
+   *           if this method is called after {@link #disconnect()}.
+   */
+  public boolean updateAttributes(final Collection<Attribute> attributes)
+      throws IllegalStateException {
+    if (this.terminated) {
+      throw new IllegalStateException(
+          "Cannot send solutions to the World Model once the connection has been destroyed.");
+    }
+
+    boolean retVal = true;
+    List<Attribute> toSend = new ArrayList<Attribute>(attributes.size());
+    for (Attribute attr : attributes) {
+      Integer alias = this.attributeAliases.get(attr.getAttributeName());
+      if (alias == null) {
+        log.error("Cannot send solution: Unregistered attribute type: {}",
+            attr.getAttributeName());
+        retVal = false;
+        continue;
+      }
+      attr.setAttributeNameAlias(alias.intValue());
+      toSend.add(attr);
+    }
+    if (toSend.isEmpty()) {
+      return retVal;
+    }
+
+    AttributeUpdateMessage message = new AttributeUpdateMessage();
+    message.setCreateId(this.createIds);
+    message.setAttributes(toSend.toArray(new Attribute[toSend.size()]));
+    IoBuffer encoded = AttributeUpdateEncoder.encodeMessage(message);
+
+    for (Sink sink : this.sinks) {
+      retVal = sink.send(encoded.asReadOnlyBuffer()) && retVal;
+    }
+    return retVal;
+  }
+
+  /**
+   * Returns {@code true} if at least one world model can currently accept
+   * updates.
+   * 
+   * @return {@code true} if any sink is live.
+   */
+  public boolean isConnectionLive() {
+    for (Sink sink : this.sinks) {
+      if (sink.isConnectionLive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "World Model (S) fan-out to " + this.sinks;
+  }
+}
@@ -25,9 +25,13 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.mina.core.RuntimeIoException;
+import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
@@ -37,6 +41,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.WorldModelTransport;
+import com.owlplatform.worldmodel.metrics.NoOpMetrics;
+import com.owlplatform.worldmodel.metrics.WorldModelMetrics;
 import com.owlplatform.worldmodel.solver.SolverWorldModelIoHandler;
 import com.owlplatform.worldmodel.solver.listeners.ConnectionListener;
 import com.owlplatform.worldmodel.solver.listeners.DataListener;
@@ -162,6 +169,17 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	 */
 	private final ConcurrentHashMap<String, Integer> attributeAliases = new ConcurrentHashMap<String, Integer>();
 
+	/**
+	 * Where this interface and its codec report measurements.
+	 */
+	private volatile WorldModelMetrics metrics = NoOpMetrics.INSTANCE;
+
+	/**
+	 * Shared threads to use instead of creating a connector and executor for
+	 * this interface, if set.
+	 */
+	private volatile WorldModelTransport transport = null;
+
 	/**
 	 * Queue of interfaces that are interested in connection status events.
 	 */
@@ -282,10 +300,13 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 			log.error("Port value is invalid {}.", Integer.valueOf(this.port));
 			return false;
 		}
+		WorldModelTransport shared = this.transport;
 		if (this.executors == null) {
-			this.executors = new ExecutorFilter(1);
+			this.executors = shared == null ? new ExecutorFilter(1) : shared
+					.createExecutorFilter();
 		}
-		this.connector = new NioSocketConnector();
+		this.connector = shared == null ? new NioSocketConnector() : shared
+				.createConnector();
 		this.connector.getSessionConfig().setWriterIdleTime(
 				SolverWorldModelInterface.TIMEOUT_PERIOD /2);
 		this.connector.getSessionConfig().setReaderIdleTime(
@@ -295,7 +316,8 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 			this.connector.getFilterChain().addLast(
 					WorldModelSolverProtocolCodecFactory.CODEC_NAME,
 					new ProtocolCodecFilter(
-							new WorldModelSolverProtocolCodecFactory(true)));
+							new WorldModelSolverProtocolCodecFactory(true,
+									this.metrics)));
 		}
 		this.connector.getFilterChain().addLast("ExecutorPool", this.executors);
 		this.connector.setHandler(this.ioHandler);
@@ -370,10 +392,13 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	 * Takes care of any post-disconnect cleanup necessary for the connection.
 	 */
 	void finishConnection() {
-		this.connector.dispose();
-		this.connector = null;
-		for (ConnectionListener listener : this.connectionListeners) {
-			listener.connectionEnded(this);
+		NioSocketConnector conn = this.connector;
+		if (conn != null) {
+			this.connector = null;
+			conn.dispose();
+			for (ConnectionListener listener : this.connectionListeners) {
+				listener.connectionEnded(this);
+			}
 		}
 		if (this.executors != null) {
 			this.executors.destroy();
@@ -405,6 +430,7 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 		if (!connFuture.awaitUninterruptibly(timeout)) {
 			log.warn("Unable to connect to world model after {}ms.",
 					Long.valueOf(this.connectionTimeout));
+			connFuture.cancel();
 			return false;
 		}
 		if (!connFuture.isConnected()) {
@@ -485,9 +511,15 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	@Override
 	public void connectionClosed(IoSession session) {
 		this._disconnect();
+		if (this.stayConnected && this.transport != null) {
+			// Don't hold a shared event thread while waiting to reconnect
+			this.scheduleReconnect();
+			return;
+		}
 		while (this.stayConnected) {
 			log.info("Reconnecting to World Model (S) {}:{}", this.host,
 					Integer.valueOf(this.port));
+			this.metrics.reconnectAttempted();
 
 			try {
 				Thread.sleep(this.connectionRetryDelay);
@@ -504,6 +536,105 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 		this.finishConnection();
 	}
 
+	/**
+	 * Schedules a reconnection attempt on the shared transport, and another
+	 * after it if the attempt fails.
+	 */
+	private void scheduleReconnect() {
+		try {
+			this.transport.schedule(new Runnable() {
+				@Override
+				public void run() {
+					SolverWorldModelInterface.this.reconnect();
+				}
+			}, this.connectionRetryDelay);
+		} catch (RejectedExecutionException ree) {
+			log.warn("Transport for {} was disposed, not reconnecting.", this);
+			this.finishConnection();
+		}
+	}
+
+	/**
+	 * Makes one scheduled reconnection attempt. The attempt does not block the
+	 * transport's scheduling thread: it completes in
+	 * {@link #reconnectCompleted(ConnectFuture)}, which schedules the next
+	 * attempt if it fails.
+	 */
+	void reconnect() {
+		if (!this.stayConnected) {
+			this.finishConnection();
+			return;
+		}
+		IoSession currentSession = this.session;
+		if (currentSession != null && currentSession.isConnected()
+				&& !currentSession.isClosing()) {
+			return;
+		}
+		NioSocketConnector conn = this.connector;
+		if (conn == null) {
+			if (!this.setConnector()) {
+				log.error("Unable to set up connection to the World Model.");
+				this.scheduleReconnect();
+				return;
+			}
+			conn = this.connector;
+		}
+		log.info("Reconnecting to World Model (S) {}:{}", this.host,
+				Integer.valueOf(this.port));
+		this.metrics.reconnectAttempted();
+		try {
+			// A concurrent disconnect may clear or dispose the connector
+			conn.setConnectTimeoutMillis(this.connectionTimeout);
+			conn.connect(new InetSocketAddress(this.host, this.port))
+					.addListener(new IoFutureListener<ConnectFuture>() {
+						@Override
+						public void operationComplete(ConnectFuture future) {
+							SolverWorldModelInterface.this
+									.reconnectCompleted(future);
+						}
+					});
+		} catch (RuntimeException re) {
+			log.warn(
+					"Unable to start reconnection to World Model (S) {}:{}: {}",
+					new Object[] { this.host, Integer.valueOf(this.port), re });
+			if (!this.stayConnected) {
+				this.finishConnection();
+				return;
+			}
+			// A connector whose connection loop did not start cannot be reused
+			if (conn != null && this.connector == conn) {
+				this.connector = null;
+				conn.dispose();
+			}
+			this.scheduleReconnect();
+		}
+	}
+
+	/**
+	 * Handles the result of a scheduled reconnection attempt. Called on a
+	 * MINA I/O thread, so it must not block.
+	 * 
+	 * @param future
+	 *            the completed connection attempt.
+	 */
+	void reconnectCompleted(final ConnectFuture future) {
+		if (!future.isConnected()) {
+			log.warn("Reconnection to World Model (S) {}:{} failed: {}",
+					new Object[] { this.host, Integer.valueOf(this.port),
+							future.getException() });
+			// The next attempt cleans up if reconnecting was stopped meanwhile
+			this.scheduleReconnect();
+			return;
+		}
+		IoSession newSession = future.getSession();
+		if (!this.stayConnected) {
+			// connectionClosed() cleans up
+			newSession.close(true);
+			return;
+		}
+		this.session = newSession;
+	}
+
 	@Override
 	public void handshakeReceived(IoSession session, HandshakeMessage message) {
 		log.debug("Received {}", message);
@@ -601,18 +732,32 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	public void startOnDemandReceived(IoSession session,
 			StartOnDemandMessage message) {
 		log.debug("Received Start Transient message from world model.");
+		WorldModelMetrics metrics = this.metrics;
+		long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+				.nanoTime();
 		for (DataListener listener : this.dataListeners) {
 			listener.startOnDemandReceived(this, message);
 		}
+		if (metrics != NoOpMetrics.INSTANCE) {
+			metrics.listenersInvoked("startOnDemandReceived",
+					System.nanoTime() - listenerStart);
+		}
 	}
 
 	@Override
 	public void stopOnDemandReceived(IoSession session,
 			StopOnDemandMessage message) {
 		log.debug("Received Stop Transient message from world model.");
+		WorldModelMetrics metrics = this.metrics;
+		long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+				.nanoTime();
 		for (DataListener listener : this.dataListeners) {
 			listener.stopOnDemandReceived(this, message);
 		}
+		if (metrics != NoOpMetrics.INSTANCE) {
+			metrics.listenersInvoked("stopOnDemandReceived",
+					System.nanoTime() - listenerStart);
+		}
 	}
 
 	@Override
@@ -684,9 +829,16 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	public void attributeAnnounceSent(IoSession session,
 			AttributeAnnounceMessage message) {
 		log.debug("Sent Type Announce message to {}: {}", this, message);
+		WorldModelMetrics metrics = this.metrics;
+		long listenerStart = metrics == NoOpMetrics.INSTANCE ? 0 : System
+				.nanoTime();
 		for (DataListener listener : this.dataListeners) {
 			listener.attributeSpecificationsSent(this, message);
 		}
+		if (metrics != NoOpMetrics.INSTANCE) {
+			metrics.listenersInvoked("attributeSpecificationsSent",
+					System.nanoTime() - listenerStart);
+		}
 	}
 
 	@Override
@@ -705,7 +857,7 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	@Override
 	public void attributeUpdateSent(IoSession session,
 			AttributeUpdateMessage message) {
-		log.debug("Sent Data Transfer to {}: {}", this, message);
+		// Too frequent to log; see ProtocolTrace
 	}
 
 	@Override
@@ -767,8 +919,6 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 
 		this.session.write(message);
 
-		log.debug("Sent {} to {}", message, this);
-
 		return true;
 	}
 
@@ -806,11 +956,62 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 		message.setAttributes(attrToSend.toArray(new Attribute[] {}));
 
 		this.session.write(message);
-		log.debug("Sent {} to {}", message, this);
 
 		return true;
 	}
 
+	/**
+	 * Writes an Attribute Update message that has already been encoded, such
+	 * as one produced by {@link AttributeUpdateWriter}.
+	 * 
+	 * @param encodedMessage
+	 *            the complete encoded message, including its length prefix.
+	 * @return {@code true} if the message was written, else {@code false}.
+	 */
+	boolean writeEncodedUpdate(final IoBuffer encodedMessage) {
+		return this.writeEncodedUpdate(encodedMessage, null);
+	}
+
+	/**
+	 * Writes an Attribute Update message that has already been encoded, and
+	 * notifies {@code listener} once the write completes or fails.
+	 * 
+	 * @param encodedMessage
+	 *            the complete encoded message, including its length prefix.
+	 * @param listener
+	 *            notified when the write finishes, or {@code null}.
+	 * @return {@code true} if the message was written, else {@code false}.
+	 */
+	boolean writeEncodedUpdate(final IoBuffer encodedMessage,
+			final IoFutureListener<WriteFuture> listener) {
+		IoSession currentSession = this.session;
+		if (!this.sentAttrSpecifications || currentSession == null) {
+			log.error("Haven't sent type specifications yet, can't send solutions.");
+			return false;
+		}
+		// Encoded ahead of time, so there is no encoding time to report
+		this.metrics.messageSent(AttributeUpdateMessage.class.getSimpleName(),
+				encodedMessage.remaining(), 0);
+		WriteFuture future = currentSession.write(encodedMessage);
+		if (listener != null) {
+			future.addListener(listener);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the alias assigned to an attribute name when it was announced to
+	 * the world model.
+	 * 
+	 * @param attributeName
+	 *            the attribute name.
+	 * @return the alias value, or -1 if the attribute has not been announced.
+	 */
+	public int getAttributeAlias(final String attributeName) {
+		Integer alias = this.attributeAliases.get(attributeName);
+		return alias == null ? -1 : alias.intValue();
+	}
+
 	/**
 	 * Adds an attribute specification to the world model session.
 	 * 
@@ -963,6 +1164,49 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 		return this.originString;
 	}
 
+	/**
+	 * Sets where this interface and its protocol codec report message counts,
+	 * coding times, reconnections, and listener latency. Must be called
+	 * before {@link #connect(long)} for the codec measurements to take effect.
+	 * 
+	 * @param metrics
+	 *            the metrics to report to, or {@code null} to stop reporting.
+	 */
+	public void setMetrics(final WorldModelMetrics metrics) {
+		this.metrics = metrics == null ? NoOpMetrics.INSTANCE : metrics;
+	}
+
+	/**
+	 * Attaches this interface to a transport shared with other connections,
+	 * so that it does not create its own I/O and event threads. Must be called
+	 * before {@link #connect(long)}.
+	 * 
+	 * @param transport
+	 *            the shared transport, or {@code null} to create threads for
+	 *            this interface.
+	 */
+	public void setTransport(final WorldModelTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Returns the transport this interface is attached to.
+	 * 
+	 * @return the shared transport, or {@code null} if none is set.
+	 */
+	public WorldModelTransport getTransport() {
+		return this.transport;
+	}
+
+	/**
+	 * Returns where this interface reports measurements.
+	 * 
+	 * @return the metrics for this interface.
+	 */
+	public WorldModelMetrics getMetrics() {
+		return this.metrics;
+	}
+
 	/**
 	 * Sets the origin value for this connection.
 	 * 
@@ -1173,4 +1417,18 @@ public class SolverWorldModelInterface implements SolverIoAdapter {
 	public int getCachedWrites() {
 		return this.session.getScheduledWriteMessages();
 	}
+
+	/**
+	 * The number of bytes that have been written to the session but not yet
+	 * sent to the network.
+	 * 
+	 * @return the number of cached bytes, or 0 if there is no session.
+	 */
+	public long getCachedWriteBytes() {
+		IoSession currentSession = this.session;
+		if (currentSession == null) {
+			return 0;
+		}
+		return currentSession.getScheduledWriteBytes();
+	}
 }
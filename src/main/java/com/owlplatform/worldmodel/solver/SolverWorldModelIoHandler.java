@@ -19,12 +19,14 @@
 
 package com.owlplatform.worldmodel.solver;
 
+import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.owlplatform.worldmodel.metrics.ProtocolTrace;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.CreateIdentifierMessage;
@@ -76,7 +78,7 @@ public class SolverWorldModelIoHandler implements IoHandler {
   @Override
   public void messageReceived(IoSession session, Object message)
       throws Exception {
-    log.debug("Received message from {}: {}", session, message);
+    ProtocolTrace.received(session, message);
     if (this.ioAdapter == null) {
       log.warn("No IoAdapter defined, ignoring message from {}.\n{}", session,
           message);
@@ -120,7 +122,7 @@ public class SolverWorldModelIoHandler implements IoHandler {
 
   @Override
   public void messageSent(IoSession session, Object message) throws Exception {
-    log.debug("Sent message to {}: {}", session, message);
+    ProtocolTrace.sent(session, message);
     if (this.ioAdapter == null) {
       log.warn("No IoAdapter defined, ignoring message to {}.\n{}", session,
           message);
@@ -152,6 +154,10 @@ public class SolverWorldModelIoHandler implements IoHandler {
       this.ioAdapter.keepAliveSent(session, (KeepAliveMessage) message);
     } else if (message instanceof HandshakeMessage) {
       this.ioAdapter.handshakeSent(session, (HandshakeMessage) message);
+    } else if (message instanceof IoBuffer) {
+      // Pre-encoded messages, such as from AttributeUpdateWriter
+      log.debug("Sent {} encoded bytes to {}.",
+          Integer.valueOf(((IoBuffer) message).limit()), session);
     } else {
       log.warn("Unknown message type Sent to {}: {}", session, message);
     }
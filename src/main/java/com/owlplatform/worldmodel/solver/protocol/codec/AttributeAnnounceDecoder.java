@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Attribute Announce messages.
@@ -81,7 +82,7 @@ public class AttributeAnnounceDecoder implements MessageDecoder {
 				byte[] idBytes = new byte[idLength];
 				buffer.get(idBytes);
 				messageLength -= idLength;
-				spec.setAttributeName(new String(idBytes,"UTF-16BE"));
+				spec.setAttributeName(Utf16Codec.decode(idBytes));
 				
 				spec.setIsOnDemand(buffer.get() == (byte)0 ?  false : true);
 				--messageLength;
@@ -94,7 +95,7 @@ public class AttributeAnnounceDecoder implements MessageDecoder {
 		
 		byte[] originBytes = new byte[messageLength];
 		buffer.get(originBytes);
-		message.setOrigin(new String(originBytes, "UTF-16BE"));
+		message.setOrigin(Utf16Codec.decode(originBytes));
 		
 		out.write(message);
 		
@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMessage.AttributeSpecification;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Attribute Announce messages.
@@ -55,9 +56,8 @@ public class AttributeAnnounceEncoder implements MessageEncoder<AttributeAnnounc
 				
 				// Solution attribute name
 				if(spec.getAttributeName() != null){
-					byte[] nameByte = spec.getAttributeName().getBytes("UTF-16BE");
-					buffer.putInt(nameByte.length);
-					buffer.put(nameByte);
+					buffer.putInt(Utf16Codec.length(spec.getAttributeName()));
+					Utf16Codec.put(spec.getAttributeName(), buffer);
 				}
 				// No attribute name
 				else{
@@ -73,7 +73,7 @@ public class AttributeAnnounceEncoder implements MessageEncoder<AttributeAnnounc
 		}
 		
 		if(message.getOrigin() != null){
-			buffer.put(message.getOrigin().getBytes("UTF-16BE"));
+			Utf16Codec.put(message.getOrigin(), buffer);
 		}
 		
 		buffer.flip();
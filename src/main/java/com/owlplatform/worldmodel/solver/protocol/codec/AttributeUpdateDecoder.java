@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.Attribute;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 
 /**
@@ -69,31 +70,44 @@ public class AttributeUpdateDecoder implements MessageDecoder {
 		int numSolutions = buffer.getInt();
 		Attribute[] attributes = new Attribute[numSolutions];
 		for(int i = 0; i < numSolutions; ++i){
-			Attribute attr = new Attribute();
-			int attributeAlias = buffer.getInt();
-			attr.setAttributeNameAlias(attributeAlias);
-			
-			long time = buffer.getLong();
-			attr.setCreationDate(time);
-			
-			int idLength = buffer.getInt();
-			byte[] idBytes = new byte[idLength];
-			buffer.get(idBytes);
-			attr.setId(new String(idBytes,"UTF-16BE"));
-			
-			int dataLength = buffer.getInt();
-			byte[] data = new byte[dataLength];
-			buffer.get(data);
-			attr.setData(data);
-			
-			attributes[i] = attr;
+			attributes[i] = getAttribute(buffer);
 		}
+		message.setAttributes(attributes);
 		
 		out.write(message);
 		
 		return MessageDecoderResult.OK;
 	}
 
+	/**
+	 * Reads a single Attribute in the layout used by Attribute Update
+	 * messages: attribute name alias, creation date, Identifier and data.
+	 * 
+	 * @param buffer
+	 *          the buffer to read from.
+	 * @return the decoded Attribute, with its name alias, creation date,
+	 *         Identifier and data set.
+	 * @see AttributeUpdateEncoder#putAttribute(Attribute, IoBuffer)
+	 */
+	public static Attribute getAttribute(final IoBuffer buffer) {
+		Attribute attr = new Attribute();
+		int attributeAlias = buffer.getInt();
+		attr.setAttributeNameAlias(attributeAlias);
+		
+		long time = buffer.getLong();
+		attr.setCreationDate(time);
+		
+		int idLength = buffer.getInt();
+		attr.setId(Utf16Codec.get(buffer, idLength));
+		
+		int dataLength = buffer.getInt();
+		byte[] data = new byte[dataLength];
+		buffer.get(data);
+		attr.setData(data);
+		
+		return attr;
+	}
+
 	@Override
 	public void finishDecode(IoSession arg0, ProtocolDecoderOutput arg1)
 			throws Exception {
@@ -39,6 +39,23 @@ public class AttributeUpdateEncoder implements
   @Override
   public void encode(IoSession session, AttributeUpdateMessage message,
       ProtocolEncoderOutput out) throws Exception {
+    IoBuffer buffer = encodeMessage(message);
+
+    out.write(buffer);
+
+    buffer.free();
+  }
+
+  /**
+   * Encodes an Attribute Update message into a new buffer, including the
+   * length prefix. The returned buffer is flipped and ready to be written,
+   * and may be shared between sessions by writing read-only duplicates of it.
+   * 
+   * @param message
+   *          the message to encode.
+   * @return a buffer containing the encoded message.
+   */
+  public static IoBuffer encodeMessage(final AttributeUpdateMessage message) {
     IoBuffer buffer = IoBuffer.allocate(message.getMessageLength() + 4);
 
     // Message length
@@ -53,31 +70,42 @@ public class AttributeUpdateEncoder implements
     if (message.getAttributes() != null) {
       buffer.putInt(message.getAttributes().length);
       for (Attribute attr : message.getAttributes()) {
-        buffer.putInt(attr.getAttributeNameAlias());
-        buffer.putLong(attr.getCreationDate());
-        if (attr.getId() != null) {
-          byte[] targetBytes = attr.getId().getBytes("UTF-16BE");
-          buffer.putInt(targetBytes.length);
-          buffer.put(targetBytes);
-        } else {
-          buffer.putInt(0);
-        }
-        if (attr.getData() != null) {
-          buffer.putInt(attr.getData().length);
-          buffer.put(attr.getData());
-        } else {
-          buffer.putInt(0);
-        }
+        putAttribute(attr, buffer);
       }
     } else {
       buffer.putInt(0);
     }
 
     buffer.flip();
+    return buffer;
+  }
 
-    out.write(buffer);
-
-    buffer.free();
+  /**
+   * Writes a single Attribute in the layout used by Attribute Update messages:
+   * attribute name alias, creation date, Identifier and data. The encoded
+   * length is {@link Attribute#getSolverLength()}.
+   * 
+   * @param attr
+   *          the Attribute to write.
+   * @param buffer
+   *          the buffer to write to.
+   * @see AttributeUpdateDecoder#getAttribute(IoBuffer)
+   */
+  public static void putAttribute(final Attribute attr, final IoBuffer buffer) {
+    buffer.putInt(attr.getAttributeNameAlias());
+    buffer.putLong(attr.getCreationDate());
+    if (attr.getId() != null) {
+      byte[] targetBytes = EncodedIdentifierCache.get().encode(attr.getId());
+      buffer.putInt(targetBytes.length);
+      buffer.put(targetBytes);
+    } else {
+      buffer.putInt(0);
+    }
+    int dataLength = attr.getDataLength();
+    buffer.putInt(dataLength);
+    if (dataLength > 0) {
+      buffer.put(attr.dataBuffer());
+    }
   }
 
 }
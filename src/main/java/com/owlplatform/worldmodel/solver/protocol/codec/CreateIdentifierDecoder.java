@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.CreateIdentifierMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Create Identifier messages.
@@ -70,13 +71,12 @@ public class CreateIdentifierDecoder implements MessageDecoder {
 		buffer.get(idBytes);
 		messageLength -= idBytes.length;
 		
-		message.setId(new String(idBytes,"UTF-16BE"));
+		message.setId(Utf16Codec.decode(idBytes));
 		
 		message.setCreationTime(buffer.getLong());
 		messageLength -= 8;
 		
-		byte[] originBytes = new byte[messageLength];
-		message.setOrigin(new String(originBytes,"UTF-16BE"));
+		message.setOrigin(Utf16Codec.get(buffer, messageLength));
 		
 		out.write(message);
 		
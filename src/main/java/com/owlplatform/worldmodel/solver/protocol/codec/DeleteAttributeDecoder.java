@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.DeleteAttributeMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Delete Attribute messages.
@@ -71,7 +72,7 @@ public class DeleteAttributeDecoder implements MessageDecoder {
 		byte[] nameBytes = new byte[nameLength];
 		buffer.get(nameBytes);
 		messageLength -= nameLength;
-		message.setId(new String(nameBytes,"UTF-16BE"));
+		message.setId(Utf16Codec.decode(nameBytes));
 		
 		int attributeNameLength = buffer.getInt();
 		messageLength -= 4;
@@ -79,11 +80,11 @@ public class DeleteAttributeDecoder implements MessageDecoder {
 		byte[] attributeNameBytes = new byte[attributeNameLength];
 		buffer.get(attributeNameBytes);
 		messageLength -= attributeNameLength;
-		message.setAttributeName(new String(attributeNameBytes, "UTF-16BE"));
+		message.setAttributeName(Utf16Codec.decode(attributeNameBytes));
 		
 		byte[] originBytes = new byte[messageLength];
 		buffer.get(originBytes);
-		message.setOrigin(new String(originBytes,"UTF-16E"));
+		message.setOrigin(Utf16Codec.decode(originBytes));
 		
 		out.write(message);
 		
@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.DeleteAttributeMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Delete Attribute messages.
@@ -46,16 +47,14 @@ public class DeleteAttributeEncoder implements
 		buffer.put(DeleteAttributeMessage.MESSAGE_TYPE);
 		
 		// Identifier
-		byte[] idBytes = message.getId().getBytes("UTF-16BE");
-		buffer.putInt(idBytes.length);
-		buffer.put(idBytes);
+		buffer.putInt(Utf16Codec.length(message.getId()));
+		Utf16Codec.put(message.getId(), buffer);
 		
 		// Attribute name
-		byte[] attributeNameByte = message.getAttributeName().getBytes("UTF-16BE");
-		buffer.putInt(attributeNameByte.length);
-		buffer.put(attributeNameByte);
+		buffer.putInt(Utf16Codec.length(message.getAttributeName()));
+		Utf16Codec.put(message.getAttributeName(), buffer);
 				
-		buffer.put(message.getOrigin().getBytes("UTF-16BE"));
+		Utf16Codec.put(message.getOrigin(), buffer);
 		
 		buffer.flip();
 		
@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.DeleteIdentifierMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 
 /**
@@ -71,10 +72,9 @@ public class DeleteIdentifierDecoder implements MessageDecoder {
 		buffer.get(idBytes);
 		messageLength -= idBytes.length;
 		
-		message.setId(new String(idBytes,"UTF-16BE"));
+		message.setId(Utf16Codec.decode(idBytes));
 				
-		byte[] originBytes = new byte[messageLength];
-		message.setOrigin(new String(originBytes,"UTF-16BE"));
+		message.setOrigin(Utf16Codec.get(buffer, messageLength));
 		
 		out.write(message);
 		
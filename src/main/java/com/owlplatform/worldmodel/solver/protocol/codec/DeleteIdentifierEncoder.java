@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.DeleteIdentifierMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Delete Identifier messages.
@@ -44,13 +45,11 @@ public class DeleteIdentifierEncoder implements MessageEncoder<DeleteIdentifierM
 		buffer.put(DeleteIdentifierMessage.MESSAGE_TYPE);
 		
 		// Identifier to delete
-		byte[] idBytes = message.getId().getBytes("UTF-16BE");
-		buffer.putInt(idBytes.length);
-		buffer.put(idBytes);
+		buffer.putInt(Utf16Codec.length(message.getId()));
+		Utf16Codec.put(message.getId(), buffer);
 		
 		// Origin
-		byte[] originBytes = message.getOrigin().getBytes("UTF-16BE");
-		buffer.put(originBytes);
+		Utf16Codec.put(message.getOrigin(), buffer);
 		
 		buffer.flip();
 		
@@ -0,0 +1,143 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.solver.protocol.codec;
+
+import com.owlplatform.worldmodel.types.Utf16Codec;
+
+/**
+ * A bounded cache of UTF-16BE encoded Identifiers. Solvers tend to update the
+ * same Identifiers repeatedly, so caching the encoded form means a repeated
+ * Identifier is written with a single array copy instead of a charset
+ * encoding.
+ * <p>
+ * The cache is direct-mapped: each Identifier hashes to a single slot and
+ * replaces whatever was there before. Lookups and updates are lock-free and
+ * safe to call from multiple threads.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class EncodedIdentifierCache {
+
+  /**
+   * An immutable cache entry, so that slots can be read and replaced without
+   * locking.
+   */
+  private static final class Entry {
+    /**
+     * The Identifier.
+     */
+    final String identifier;
+
+    /**
+     * The UTF-16BE encoded form of {@code identifier}.
+     */
+    final byte[] encoded;
+
+    /**
+     * Creates a new entry.
+     * 
+     * @param identifier
+     *          the Identifier.
+     * @param encoded
+     *          the encoded form of the Identifier.
+     */
+    Entry(final String identifier, final byte[] encoded) {
+      this.identifier = identifier;
+      this.encoded = encoded;
+    }
+  }
+
+  /**
+   * Default number of slots in the shared cache.
+   */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /**
+   * Identifiers longer than this many characters are encoded but not cached.
+   */
+  public static final int MAX_CACHED_LENGTH = 256;
+
+  /**
+   * Shared instance used by the solver encoders.
+   */
+  private static final EncodedIdentifierCache SHARED = new EncodedIdentifierCache(
+      DEFAULT_CAPACITY);
+
+  /**
+   * Returns a thread-safe cache shared by the solver protocol encoders.
+   * 
+   * @return the shared cache.
+   */
+  public static EncodedIdentifierCache get() {
+    return SHARED;
+  }
+
+  /**
+   * Cache slots. The length is always a power of 2.
+   */
+  private final Entry[] entries;
+
+  /**
+   * Mask applied to hash codes to select a slot.
+   */
+  private final int mask;
+
+  /**
+   * Creates a new cache with at least {@code capacity} slots.
+   * 
+   * @param capacity
+   *          the minimum number of Identifiers that can be cached.
+   */
+  public EncodedIdentifierCache(final int capacity) {
+    super();
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.entries = new Entry[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns the UTF-16BE encoded form of an Identifier, using the cached value
+   * if there is one. The returned array is shared and must not be modified.
+   * 
+   * @param identifier
+   *          the Identifier to encode.
+   * @return the encoded Identifier.
+   */
+  public byte[] encode(final String identifier) {
+    int h = identifier.hashCode();
+    // Spread the high bits, Identifiers often differ only at the end
+    h ^= (h >>> 16);
+    int slot = h & this.mask;
+    Entry entry = this.entries[slot];
+    if (entry != null && entry.identifier.equals(identifier)) {
+      return entry.encoded;
+    }
+
+    byte[] encoded = Utf16Codec.encode(identifier);
+    if (identifier.length() <= MAX_CACHED_LENGTH) {
+      this.entries[slot] = new Entry(identifier, encoded);
+    }
+    return encoded;
+  }
+}
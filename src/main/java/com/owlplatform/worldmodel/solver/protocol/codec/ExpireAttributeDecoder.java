@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.ExpireAttributeMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Expire Attribute messages.
@@ -72,7 +73,7 @@ public class ExpireAttributeDecoder implements MessageDecoder {
 		byte[] nameBytes = new byte[nameLength];
 		buffer.get(nameBytes);
 		messageLength -= nameLength;
-		message.setId(new String(nameBytes,"UTF-16BE"));
+		message.setId(Utf16Codec.decode(nameBytes));
 		
 		int attributeNameLength = buffer.getInt();
 		messageLength -= 4;
@@ -80,14 +81,14 @@ public class ExpireAttributeDecoder implements MessageDecoder {
 		byte[] attributeNameBytes = new byte[attributeNameLength];
 		buffer.get(attributeNameBytes);
 		messageLength -= attributeNameLength;
-		message.setAttributeName(new String(attributeNameBytes, "UTF-16BE"));
+		message.setAttributeName(Utf16Codec.decode(attributeNameBytes));
 		
 		message.setExpirationTime(buffer.getLong());
 		messageLength -= 8;
 		
 		byte[] originBytes = new byte[messageLength];
 		buffer.get(originBytes);
-		message.setOrigin(new String(originBytes,"UTF-16E"));
+		message.setOrigin(Utf16Codec.decode(originBytes));
 		
 		out.write(message);
 		
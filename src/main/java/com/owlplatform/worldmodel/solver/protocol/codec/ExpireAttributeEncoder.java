@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.ExpireAttributeMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Expire Attribute messages.
@@ -47,19 +48,17 @@ public class ExpireAttributeEncoder implements
     buffer.put(ExpireAttributeMessage.MESSAGE_TYPE);
 
     // Identifier
-    byte[] idBytes = message.getId().getBytes("UTF-16BE");
-    buffer.putInt(idBytes.length);
-    buffer.put(idBytes);
+    buffer.putInt(Utf16Codec.length(message.getId()));
+    Utf16Codec.put(message.getId(), buffer);
 
     // Attribute name
-    byte[] attributeNameByte = message.getAttributeName().getBytes("UTF-16BE");
-    buffer.putInt(attributeNameByte.length);
-    buffer.put(attributeNameByte);
+    buffer.putInt(Utf16Codec.length(message.getAttributeName()));
+    Utf16Codec.put(message.getAttributeName(), buffer);
 
     // Expiration time
     buffer.putLong(message.getExpirationTime());
 
-    buffer.put(message.getOrigin().getBytes("UTF-16BE"));
+    Utf16Codec.put(message.getOrigin(), buffer);
 
     buffer.flip();
 
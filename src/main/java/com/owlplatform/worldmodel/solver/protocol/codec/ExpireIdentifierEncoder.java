@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.ExpireIdentifierMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Expire Identifier messages.
@@ -44,16 +45,14 @@ public class ExpireIdentifierEncoder implements MessageEncoder<ExpireIdentifierM
 		buffer.put(ExpireIdentifierMessage.MESSAGE_TYPE);
 		
 		// Identifier to expire
-		byte[] idBytes = message.getId().getBytes("UTF-16BE");
-		buffer.putInt(idBytes.length);
-		buffer.put(idBytes);
+		buffer.putInt(Utf16Codec.length(message.getId()));
+		Utf16Codec.put(message.getId(), buffer);
 		
 		// Creation time
 		buffer.putLong(message.getExpirationTime());
 		
 		// Origin
-		byte[] originBytes = message.getOrigin().getBytes("UTF-16BE");
-		buffer.put(originBytes);
+		Utf16Codec.put(message.getOrigin(), buffer);
 		
 		buffer.flip();
 		
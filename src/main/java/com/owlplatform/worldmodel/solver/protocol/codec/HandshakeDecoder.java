@@ -53,6 +53,13 @@ public class HandshakeDecoder implements MessageDecoder {
 	@Override
 	public MessageDecoderResult decodable(IoSession arg0, IoBuffer arg1) {
 
+		// Other messages may be longer than a handshake, so check the length
+		// before asking for the whole message
+		if (arg1.remaining() >= 4
+				&& arg1.getInt(arg1.position()) != HandshakeMessage.PROTOCOL_STRING_LENGTH) {
+			return MessageDecoderResult.NOT_OK;
+		}
+
 		if (!arg1.prefixedDataAvailable(4,
 				HandshakeMessage.PROTOCOL_STRING_LENGTH)) {
 			log
@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
 import com.owlplatform.worldmodel.solver.protocol.messages.StartOnDemandMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Start On-Demand messages.
@@ -77,11 +78,12 @@ public class StartOnDemandDecoder implements MessageDecoder {
             int idLength = buffer.getInt();
             byte[] idBytes = new byte[idLength];
             buffer.get(idBytes);
-            idPatterns[j] = new String(idBytes, "UTF-16BE");
+            idPatterns[j] = Utf16Codec.decode(idBytes);
           }
 
           request.setIdPatterns(idPatterns);
         }
+        transients[i] = request;
 
       }
 
@@ -26,6 +26,7 @@ import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
 import com.owlplatform.worldmodel.solver.protocol.messages.StartOnDemandMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Start On-Demand messages.
@@ -56,9 +57,8 @@ public class StartOnDemandEncoder implements
 					// Number of Identifier patterns
 					buffer.putInt(request.getIdPatterns().length);
 					for(String idPattern : request.getIdPatterns()){
-						byte[] idPatternByte = idPattern.getBytes("UTF-16BE");
-						buffer.putInt(idPatternByte.length);
-						buffer.put(idPatternByte);
+						buffer.putInt(Utf16Codec.length(idPattern));
+						Utf16Codec.put(idPattern, buffer);
 					}
 				}
 				// No Identifier patterns
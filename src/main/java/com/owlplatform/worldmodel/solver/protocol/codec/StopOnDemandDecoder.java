@@ -27,6 +27,7 @@ import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
 import com.owlplatform.worldmodel.solver.protocol.messages.StopOnDemandMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Decoder for Stop On-Demand messages.
@@ -78,11 +79,12 @@ public class StopOnDemandDecoder implements MessageDecoder {
 						int idLength = buffer.getInt();
 						byte[] idBytes = new byte[idLength];
 						buffer.get(idBytes);
-						idPatterns[j] = new String(idBytes, "UTF-16BE");
+						idPatterns[j] = Utf16Codec.decode(idBytes);
 					}
 
 					request.setIdPatterns(idPatterns);
 				}
+				transients[i] = request;
 
 			}
 
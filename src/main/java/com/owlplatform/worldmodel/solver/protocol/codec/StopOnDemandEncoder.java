@@ -25,6 +25,7 @@ import org.apache.mina.filter.codec.demux.MessageEncoder;
 
 import com.owlplatform.worldmodel.solver.protocol.messages.OnDemandRequest;
 import com.owlplatform.worldmodel.solver.protocol.messages.StopOnDemandMessage;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Encoder for Stop On-Demand messages.
@@ -55,9 +56,8 @@ public class StopOnDemandEncoder implements
 					// Number of Idetifier patterns
 					buffer.putInt(request.getIdPatterns().length);
 					for(String idPattern : request.getIdPatterns()){
-						byte[] idPatternByte = idPattern.getBytes("UTF-16BE");
-						buffer.putInt(idPatternByte.length);
-						buffer.put(idPatternByte);
+						buffer.putInt(Utf16Codec.length(idPattern));
+						Utf16Codec.put(idPattern, buffer);
 					}
 				}
 				// No Identifier patterns
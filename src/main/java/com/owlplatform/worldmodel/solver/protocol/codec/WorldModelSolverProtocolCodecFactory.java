@@ -19,7 +19,13 @@
 package com.owlplatform.worldmodel.solver.protocol.codec;
 
 import org.apache.mina.filter.codec.demux.DemuxingProtocolCodecFactory;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageEncoder;
 
+import com.owlplatform.worldmodel.metrics.MeteredMessageDecoder;
+import com.owlplatform.worldmodel.metrics.MeteredMessageEncoder;
+import com.owlplatform.worldmodel.metrics.NoOpMetrics;
+import com.owlplatform.worldmodel.metrics.WorldModelMetrics;
 import com.owlplatform.worldmodel.solver.protocol.messages.CreateIdentifierMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.AttributeUpdateMessage;
 import com.owlplatform.worldmodel.solver.protocol.messages.DeleteAttributeMessage;
@@ -46,48 +52,97 @@ public class WorldModelSolverProtocolCodecFactory extends
    */
 	public static final String CODEC_NAME = "Owl Platform Solver-World Model codec";
 
+	/**
+	 * Where encoders and decoders report measurements.
+	 */
+	private final WorldModelMetrics metrics;
+
 	/**
 	 * Constructs a new codec factory for the Solver-World Model protocol.
 	 * @param isSolver {@code true} if the codec is for a solver, or {@code false} if it
 	 * is for the World Model.
 	 */
 	public WorldModelSolverProtocolCodecFactory(final boolean isSolver) {
+		this(isSolver, NoOpMetrics.INSTANCE);
+	}
+
+	/**
+	 * Constructs a new codec factory for the Solver-World Model protocol with
+	 * encoders and decoders that report to {@code metrics}.
+	 * @param isSolver {@code true} if the codec is for a solver, or {@code false} if it
+	 * is for the World Model.
+	 * @param metrics where encoders and decoders report the type, length and coding
+	 * time of each message.  {@link NoOpMetrics#INSTANCE} leaves the encoders and
+	 * decoders unwrapped.
+	 */
+	public WorldModelSolverProtocolCodecFactory(final boolean isSolver,
+			final WorldModelMetrics metrics) {
 		super();
+		this.metrics = metrics;
 
 		// Encoders for both sides
-		super.addMessageEncoder(HandshakeMessage.class, HandshakeEncoder.class);
-		super.addMessageEncoder(KeepAliveMessage.class, KeepAliveEncoder.class);
+		this.addEncoder(HandshakeMessage.class, HandshakeEncoder.class);
+		this.addEncoder(KeepAliveMessage.class, KeepAliveEncoder.class);
 
 		// Decoders for both
-		super.addMessageDecoder(HandshakeDecoder.class);
-		super.addMessageDecoder(KeepAliveDecoder.class);
+		this.addDecoder(HandshakeDecoder.class);
+		this.addDecoder(KeepAliveDecoder.class);
 
 		if (isSolver) {
 			// Encoders for solver
-			super.addMessageEncoder(AttributeUpdateMessage.class, AttributeUpdateEncoder.class);
-			super.addMessageEncoder(AttributeAnnounceMessage.class, AttributeAnnounceEncoder.class);
-			super.addMessageEncoder(CreateIdentifierMessage.class, CreateIdentifierEncoder.class);
-			super.addMessageEncoder(ExpireIdentifierMessage.class, ExpireIdentifierEncoder.class);
-			super.addMessageEncoder(DeleteIdentifierMessage.class, DeleteIdentifierEncoder.class);
-			super.addMessageEncoder(ExpireAttributeMessage.class, ExpireAttributeEncoder.class);
-			super.addMessageEncoder(DeleteAttributeMessage.class, DeleteAttributeEncoder.class);
+			this.addEncoder(AttributeUpdateMessage.class, AttributeUpdateEncoder.class);
+			this.addEncoder(AttributeAnnounceMessage.class, AttributeAnnounceEncoder.class);
+			this.addEncoder(CreateIdentifierMessage.class, CreateIdentifierEncoder.class);
+			this.addEncoder(ExpireIdentifierMessage.class, ExpireIdentifierEncoder.class);
+			this.addEncoder(DeleteIdentifierMessage.class, DeleteIdentifierEncoder.class);
+			this.addEncoder(ExpireAttributeMessage.class, ExpireAttributeEncoder.class);
+			this.addEncoder(DeleteAttributeMessage.class, DeleteAttributeEncoder.class);
 			
 			// Decoders for solver
-			super.addMessageDecoder(StartOnDemandDecoder.class);
-			super.addMessageDecoder(StopOnDemandDecoder.class);
+			this.addDecoder(StartOnDemandDecoder.class);
+			this.addDecoder(StopOnDemandDecoder.class);
 		} else {
 			// Encoders for World Model
-			super.addMessageEncoder(StartOnDemandMessage.class, StartOnDemandEncoder.class);
-			super.addMessageEncoder(StopOnDemandMessage.class, StopOnDemandEncoder.class);
+			this.addEncoder(StartOnDemandMessage.class, StartOnDemandEncoder.class);
+			this.addEncoder(StopOnDemandMessage.class, StopOnDemandEncoder.class);
 			
 			// Decoders for World Model
-			super.addMessageDecoder(AttributeUpdateDecoder.class);
-			super.addMessageDecoder(AttributeAnnounceDecoder.class);
-			super.addMessageDecoder(CreateIdentifierDecoder.class);
-			super.addMessageDecoder(ExpireIdentifierDecoder.class);
-			super.addMessageDecoder(DeleteIdentifierDecoder.class);
-			super.addMessageDecoder(ExpireAttributeDecoder.class);
-			super.addMessageDecoder(DeleteAttributeDecoder.class);
+			this.addDecoder(AttributeUpdateDecoder.class);
+			this.addDecoder(AttributeAnnounceDecoder.class);
+			this.addDecoder(CreateIdentifierDecoder.class);
+			this.addDecoder(ExpireIdentifierDecoder.class);
+			this.addDecoder(DeleteIdentifierDecoder.class);
+			this.addDecoder(ExpireAttributeDecoder.class);
+			this.addDecoder(DeleteAttributeDecoder.class);
+		}
+	}
+
+	/**
+	 * Registers an encoder, measured unless metrics are disabled.
+	 * @param messageType the message class.
+	 * @param encoderClass the encoder class.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void addEncoder(final Class<?> messageType,
+			final Class<? extends MessageEncoder> encoderClass) {
+		if (this.metrics == NoOpMetrics.INSTANCE) {
+			super.addMessageEncoder(messageType, encoderClass);
+		} else {
+			super.addMessageEncoder(messageType,
+					MeteredMessageEncoder.factory(encoderClass, this.metrics));
+		}
+	}
+
+	/**
+	 * Registers a decoder, measured unless metrics are disabled.
+	 * @param decoderClass the decoder class.
+	 */
+	private void addDecoder(final Class<? extends MessageDecoder> decoderClass) {
+		if (this.metrics == NoOpMetrics.INSTANCE) {
+			super.addMessageDecoder(decoderClass);
+		} else {
+			super.addMessageDecoder(MeteredMessageDecoder.factory(decoderClass,
+					this.metrics));
 		}
 	}
 
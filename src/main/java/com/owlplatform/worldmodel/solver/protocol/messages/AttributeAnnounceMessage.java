@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * The Attribute Announce message tells the world model what Attributes to
@@ -32,12 +29,6 @@ import org.slf4j.LoggerFactory;
  * 
  */
 public class AttributeAnnounceMessage {
-  /**
-   * Logging facility for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(AttributeAnnounceMessage.class);
-
   /**
    * Message type value.
    */
@@ -68,22 +59,13 @@ public class AttributeAnnounceMessage {
         // alias, Name length, transient byte
         length += (4 + 4 + 1);
         if (spec.getAttributeName() != null) {
-          try {
-            length += spec.getAttributeName().getBytes("UTF-16BE").length;
-          } catch (UnsupportedEncodingException e) {
-            log.error("Unable to encode UTF-16BE strings.");
-          }
+          length += Utf16Codec.length(spec.getAttributeName());
         }
       }
     }
 
     if (this.origin != null) {
-      try {
-        length += this.origin.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode UTF-16 strings.");
-        e.printStackTrace();
-      }
+      length += Utf16Codec.length(this.origin);
     }
 
     return length;
@@ -20,12 +20,13 @@
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
 import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.metrics.MessageSummary;
 
 /**
  * This message contains updated attribute values sent by the solver to the
  * World Model.
  */
-public class AttributeUpdateMessage {
+public class AttributeUpdateMessage implements MessageSummary {
 
   /**
    * Message type value.
@@ -99,6 +100,23 @@ public class AttributeUpdateMessage {
     this.attributes = attributes;
   }
 
+  @Override
+  public void appendSummary(final StringBuilder sb) {
+    sb.append("type=AttributeUpdateMessage createId=").append(this.createIdentifier);
+    int dataBytes = 0;
+    if (this.attributes != null) {
+      for (Attribute sol : this.attributes) {
+        dataBytes += sol.getDataLength();
+      }
+    }
+    sb.append(" attributes=")
+        .append(this.attributes == null ? 0 : this.attributes.length);
+    if (this.attributes != null && this.attributes.length > 0) {
+      sb.append(" id=").append(this.attributes[0].getId());
+    }
+    sb.append(" dataBytes=").append(dataBytes);
+  }
+
   @Override
   public String toString() {
     StringBuffer sb = new StringBuffer("Attribute Update");
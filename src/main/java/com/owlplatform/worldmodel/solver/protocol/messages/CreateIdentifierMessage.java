@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Message for creating new Identifiers in the World Model.
@@ -31,11 +28,6 @@ import org.slf4j.LoggerFactory;
  */
 public class CreateIdentifierMessage {
 	
-	/**
-	 * Logging facility for this class.
-	 */
-	private static final Logger log = LoggerFactory.getLogger(CreateIdentifierMessage.class);
-	
 	/**
 	 * Message type value.
 	 */
@@ -66,22 +58,14 @@ public class CreateIdentifierMessage {
 		int length = 1 + 4;
 		
 		if(this.identifier != null){
-			try {
-				length += this.identifier.getBytes("UTF-16BE").length;
-			} catch (UnsupportedEncodingException e) {
-				log.error("Unable to encode to UTF-16BE.");
-			}
+			length += Utf16Codec.length(this.identifier);
 		}
 		
 		// Creation time
 		length += 8;
 		
 		if(this.origin != null){
-			try {
-				length += this.origin.getBytes("UTF-16BE").length;
-			} catch (UnsupportedEncodingException e) {
-				log.error("Unable to encode to UTF-16BE.");
-			}
+			length += Utf16Codec.length(this.origin);
 		}
 		
 		return length;
@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Message for deleting Attribute values in the world model. Deleted attributes
@@ -34,12 +31,6 @@ import org.slf4j.LoggerFactory;
  */
 public class DeleteAttributeMessage {
 
-  /**
-   * Logging facility for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(DeleteAttributeMessage.class);
-
   /**
    * Message type value.
    */
@@ -71,30 +62,18 @@ public class DeleteAttributeMessage {
     int length = 1 + 4;
 
     if (this.identifier != null) {
-      try {
-        length += this.identifier.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.identifier);
     }
 
     // Attribute name length
     length += 4;
 
     if (this.attributeName != null) {
-      try {
-        length += this.attributeName.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.attributeName);
     }
 
     if (this.origin != null) {
-      try {
-        length += this.origin.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException uee) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.origin);
     }
 
     return length;
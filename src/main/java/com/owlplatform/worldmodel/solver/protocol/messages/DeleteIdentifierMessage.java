@@ -19,10 +19,7 @@
 
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Message to delete an entire Identifier from the World Model. Deleted
@@ -35,12 +32,6 @@ import org.slf4j.LoggerFactory;
  */
 public class DeleteIdentifierMessage {
 
-  /**
-   * Logging facility for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(DeleteIdentifierMessage.class);
-
   /**
    * Message type for this message.
    */
@@ -67,19 +58,11 @@ public class DeleteIdentifierMessage {
     int length = 1 + 4;
 
     if (this.identifier != null) {
-      try {
-        length += this.identifier.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.identifier);
     }
 
     if (this.origin != null) {
-      try {
-        length += this.origin.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.origin);
     }
 
     return length;
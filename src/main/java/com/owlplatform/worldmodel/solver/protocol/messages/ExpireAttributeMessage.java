@@ -19,12 +19,10 @@
 
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
 import java.text.DateFormat;
 import java.util.Date;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Expires the current value for an Attribute in the world model. To completely
@@ -36,12 +34,6 @@ import org.slf4j.LoggerFactory;
  */
 public class ExpireAttributeMessage {
 
-  /**
-   * Logging facility for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(ExpireAttributeMessage.class);
-
   /**
    * Message type value.
    */
@@ -78,33 +70,21 @@ public class ExpireAttributeMessage {
     int length = 1 + 4;
 
     if (this.identifier != null) {
-      try {
-        length += this.identifier.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.identifier);
     }
 
     // Attribute name length
     length += 4;
 
     if (this.attributeName != null) {
-      try {
-        length += this.attributeName.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.attributeName);
     }
 
     // Expiration time
     length += 8;
 
     if (this.origin != null) {
-      try {
-        length += this.origin.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException uee) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.origin);
     }
 
     return length;
@@ -19,12 +19,10 @@
 
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
 import java.text.DateFormat;
 import java.util.Date;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Expires all current Attribute values for an Identifier.
@@ -34,12 +32,6 @@ import org.slf4j.LoggerFactory;
  */
 public class ExpireIdentifierMessage {
 
-  /**
-   * Logging facility for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(ExpireIdentifierMessage.class);
-
   /**
    * Message type value.
    */
@@ -71,22 +63,14 @@ public class ExpireIdentifierMessage {
     int length = 1 + 4;
 
     if (this.identifier != null) {
-      try {
-        length += this.identifier.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.identifier);
     }
 
     // Creation time
     length += 8;
 
     if (this.origin != null) {
-      try {
-        length += this.origin.getBytes("UTF-16BE").length;
-      } catch (UnsupportedEncodingException e) {
-        log.error("Unable to encode to UTF-16BE.");
-      }
+      length += Utf16Codec.length(this.origin);
     }
 
     return length;
@@ -1,9 +1,6 @@
 package com.owlplatform.worldmodel.solver.protocol.messages;
 
-import java.io.UnsupportedEncodingException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.owlplatform.worldmodel.types.Utf16Codec;
 
 /**
  * Simple class to represent on-demand requests to solvers.
@@ -11,12 +8,6 @@ import org.slf4j.LoggerFactory;
  *
  */
 public class OnDemandRequest {
-  /**
-   * Logger for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(OnDemandRequest.class);
-
   /**
    * Alias value for this on-demand attribute.
    */
@@ -38,11 +29,7 @@ public class OnDemandRequest {
 
     if (this.identifierPatterns != null) {
       for (String identifier : this.identifierPatterns) {
-        try {
-          length += (4 + identifier.getBytes("UTF-16BE").length);
-        } catch (UnsupportedEncodingException e) {
-          log.error("Unable to encode to UTF-16BE.");
-        }
+        length += (4 + Utf16Codec.length(identifier));
       }
     }
     return length;
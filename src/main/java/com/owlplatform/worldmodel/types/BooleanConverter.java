@@ -18,12 +18,17 @@
  */
 package com.owlplatform.worldmodel.types;
 
+import java.nio.ByteBuffer;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
 /**
  * Converter for {@code Boolean} objects.
  * @author Robert Moore
  *
  */
-public class BooleanConverter implements TypeConverter<Boolean> {
+public class BooleanConverter implements TypeConverter<Boolean>,
+    BooleanTypeConverter {
 
   /**
    * Returns a thread-safe instance of this converter.
@@ -53,6 +58,32 @@ public class BooleanConverter implements TypeConverter<Boolean> {
 		return new byte[] { object.booleanValue() ? (byte) 0xFF : 0 };
 	}
 
+	@Override
+	public boolean decodeBoolean(final byte[] data, final int offset) {
+		return data[offset] != 0;
+	}
+
+	@Override
+	public boolean decodeBoolean(final IoBuffer buffer, final int index) {
+		return buffer.get(index) != 0;
+	}
+
+	@Override
+	public boolean decodeBoolean(final ByteBuffer buffer, final int index) {
+		return buffer.get(index) != 0;
+	}
+
+	@Override
+	public void encodeBoolean(final boolean value, final byte[] dest,
+			final int offset) {
+		dest[offset] = value ? (byte) 0xFF : 0;
+	}
+
+	@Override
+	public void encodeBoolean(final boolean value, final IoBuffer buffer) {
+		buffer.put(value ? (byte) 0xFF : 0);
+	}
+
 	@Override
 	public Boolean decode(String asString) {
 		return Boolean.valueOf(asString);
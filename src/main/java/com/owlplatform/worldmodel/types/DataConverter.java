@@ -31,6 +31,13 @@ import com.owlplatform.common.util.NumericUtils;
  * representation and Java objects. Attribute names must be mapped to their
  * types using {@link #putConverter(String, String)} before
  * {@link #decode(String, byte[])} can be called.
+ * <p>
+ * Besides the standard types, compact encodings are available for solvers and
+ * clients that agree to use them for an Attribute: "UTF8String"
+ * ({@link Utf8StringConverter}), "VarLong" ({@link VarLongConverter}) and
+ * "DeltaTimestamps" ({@link DeltaTimestampConverter}). No Attribute is mapped
+ * to them by default.
+ * </p>
  * 
  * @author Robert Moore
  * 
@@ -61,6 +68,14 @@ public class DataConverter {
         LongConverter.get());
     converterClasses.put(StringConverter.get().getTypeName(),
         StringConverter.get());
+
+    // Compact encodings, only used for explicitly-mapped Attributes
+    converterClasses.put(Utf8StringConverter.get().getTypeName(),
+        Utf8StringConverter.get());
+    converterClasses.put(VarLongConverter.get().getTypeName(),
+        VarLongConverter.get());
+    converterClasses.put(DeltaTimestampConverter.get().getTypeName(),
+        DeltaTimestampConverter.get());
   }
 
   /**
@@ -149,6 +164,97 @@ public class DataConverter {
     return converter.decode(encodedBytes);
   }
 
+  /**
+   * Decodes a Double-typed Attribute value without boxing.
+   * @param attributeName the name of the Attribute being decoded.
+   * @param encodedBytes the encoded form of the Attribute data.
+   * @return the decoded value.
+   * @throws IllegalArgumentException if the Attribute is not mapped to a
+   * {@link DoubleTypeConverter}.
+   */
+  public static double decodeDouble(final String attributeName,
+      final byte[] encodedBytes) {
+    return DataConverter.getPrimitiveConverter(attributeName,
+        DoubleTypeConverter.class).decodeDouble(encodedBytes, 0);
+  }
+
+  /**
+   * Decodes a Long-typed Attribute value without boxing.
+   * @param attributeName the name of the Attribute being decoded.
+   * @param encodedBytes the encoded form of the Attribute data.
+   * @return the decoded value.
+   * @throws IllegalArgumentException if the Attribute is not mapped to a
+   * {@link LongTypeConverter}.
+   */
+  public static long decodeLong(final String attributeName,
+      final byte[] encodedBytes) {
+    return DataConverter.getPrimitiveConverter(attributeName,
+        LongTypeConverter.class).decodeLong(encodedBytes, 0);
+  }
+
+  /**
+   * Decodes an Integer-typed Attribute value without boxing.
+   * @param attributeName the name of the Attribute being decoded.
+   * @param encodedBytes the encoded form of the Attribute data.
+   * @return the decoded value.
+   * @throws IllegalArgumentException if the Attribute is not mapped to an
+   * {@link IntegerTypeConverter}.
+   */
+  public static int decodeInt(final String attributeName,
+      final byte[] encodedBytes) {
+    return DataConverter.getPrimitiveConverter(attributeName,
+        IntegerTypeConverter.class).decodeInt(encodedBytes, 0);
+  }
+
+  /**
+   * Decodes a Boolean-typed Attribute value without boxing.
+   * @param attributeName the name of the Attribute being decoded.
+   * @param encodedBytes the encoded form of the Attribute data.
+   * @return the decoded value.
+   * @throws IllegalArgumentException if the Attribute is not mapped to a
+   * {@link BooleanTypeConverter}.
+   */
+  public static boolean decodeBoolean(final String attributeName,
+      final byte[] encodedBytes) {
+    return DataConverter.getPrimitiveConverter(attributeName,
+        BooleanTypeConverter.class).decodeBoolean(encodedBytes, 0);
+  }
+
+  /**
+   * Returns the converter mapped to the Attribute name as a primitive
+   * converter type.
+   * @param attributeName the name of the Attribute.
+   * @param type the primitive converter interface.
+   * @return the mapped converter.
+   * @throws IllegalArgumentException if there is no mapped converter or it
+   * does not implement {@code type}.
+   */
+  private static <C> C getPrimitiveConverter(final String attributeName,
+      final Class<C> type) {
+    TypeConverter<?> converter = DataConverter.attributeConverters
+        .get(attributeName);
+    if (!type.isInstance(converter)) {
+      log.warn(
+          "Unable to find a suitable {} for attribute {}.",
+          type.getSimpleName(), attributeName);
+      throw new IllegalArgumentException("Unable to find a suitable "
+          + type.getSimpleName() + " for attribute \"" + attributeName
+          + "\".");
+    }
+    return type.cast(converter);
+  }
+
+  /**
+   * Returns the converter mapped to an Attribute name. Callers that decode
+   * many values for the same Attribute name can keep the returned converter
+   * instead of looking it up for each value.
+   * @param attributeName the name of the Attribute.
+   * @return the mapped converter, or {@code null} if there is none.
+   */
+  public static TypeConverter<?> getConverter(final String attributeName) {
+    return DataConverter.attributeConverters.get(attributeName);
+  }
+
   /**
    * Returns true if a {@code TypeConverter} has been mapped for the Attribute name.
    * @param attributeName the name of the Attribute
@@ -168,6 +274,16 @@ public class DataConverter {
     return DataConverter.converterClasses.containsKey(type);
   }
 
+  /**
+   * Returns the converter for a Java type name.
+   * @param type the common name of the java type.
+   * @return the converter, or {@code null} if the type is not supported.
+   * @see #getSupportedTypes()
+   */
+  public static TypeConverter<?> getConverterForType(final String type) {
+    return DataConverter.converterClasses.get(type);
+  }
+
   /**
    * Returns an array of Java type names that are currently supported.
    * @return an array of Java type names that are currently supported
@@ -0,0 +1,161 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.types;
+
+/**
+ * Compact converter for series of timestamps, such as sample or event times.
+ * The first timestamp and each difference from the previous timestamp are
+ * written in the variable-length format of {@link VarLongConverter}, so
+ * regularly-spaced millisecond timestamps take 1-3 bytes each instead of 8.
+ * This is not a standard world model type, so it is only used for Attributes
+ * explicitly mapped to it with
+ * {@code DataConverter.putConverter(attributeName, "DeltaTimestamps")}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class DeltaTimestampConverter implements TypeConverter<long[]> {
+
+  /**
+   * Empty array returned for empty values.
+   */
+  private static final long[] EMPTY = new long[0];
+
+  /**
+   * Returns a thread-safe instance of this converter.
+   * 
+   * @return a thread-safe instance of the converter.
+   */
+  public static DeltaTimestampConverter get() {
+    return THE_ONE;
+  }
+
+  /**
+   * Singleton instance.
+   */
+  private static final DeltaTimestampConverter THE_ONE = new DeltaTimestampConverter();
+
+  /**
+   * Private constructor to prevent external instantiation.
+   */
+  private DeltaTimestampConverter() {
+    super();
+  }
+
+  @Override
+  public long[] decode(byte[] data) {
+    // The last byte of each value has its high bit clear
+    int count = 0;
+    for (int i = 0; i < data.length; ++i) {
+      if ((data[i] & 0x80) == 0) {
+        ++count;
+      }
+    }
+    if (count == 0) {
+      if (data.length != 0) {
+        throw new IllegalArgumentException("Malformed timestamp series.");
+      }
+      return EMPTY;
+    }
+
+    long[] timestamps = new long[count];
+    long previous = 0;
+    int index = 0;
+    for (int i = 0; i < count; ++i) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        if (shift >= 7 * VarLongConverter.MAX_ENCODED_LENGTH) {
+          throw new IllegalArgumentException("Malformed timestamp series.");
+        }
+        b = data[index++];
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      previous += VarLongConverter.unZigZag(value);
+      timestamps[i] = previous;
+    }
+    if (index != data.length) {
+      throw new IllegalArgumentException("Malformed timestamp series.");
+    }
+    return timestamps;
+  }
+
+  @Override
+  public byte[] encode(long[] object) {
+    int length = 0;
+    long previous = 0;
+    for (int i = 0; i < object.length; ++i) {
+      length += VarLongConverter.encodedLength(VarLongConverter
+          .zigZag(object[i] - previous));
+      previous = object[i];
+    }
+
+    byte[] encoded = new byte[length];
+    int offset = 0;
+    previous = 0;
+    for (int i = 0; i < object.length; ++i) {
+      offset = VarLongConverter.put(
+          VarLongConverter.zigZag(object[i] - previous), encoded, offset);
+      previous = object[i];
+    }
+    return encoded;
+  }
+
+  @Override
+  public String getTypeName() {
+    return "DeltaTimestamps";
+  }
+
+  /**
+   * Parses a comma-separated list of timestamps, as produced by
+   * {@link #asString(long[])}.
+   */
+  @Override
+  public long[] decode(String asString) {
+    String trimmed = asString.trim();
+    if (trimmed.length() == 0) {
+      return EMPTY;
+    }
+    String[] parts = trimmed.split(",");
+    long[] timestamps = new long[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      timestamps[i] = Long.parseLong(parts[i].trim());
+    }
+    return timestamps;
+  }
+
+  @Override
+  public byte[] encode(String asString) {
+    return this.encode(this.decode(asString));
+  }
+
+  @Override
+  public String asString(long[] object) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < object.length; ++i) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(object[i]);
+    }
+    return sb.toString();
+  }
+}
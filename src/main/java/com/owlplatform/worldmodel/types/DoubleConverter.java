@@ -20,12 +20,15 @@ package com.owlplatform.worldmodel.types;
 
 import java.nio.ByteBuffer;
 
+import org.apache.mina.core.buffer.IoBuffer;
+
 /**
  * Converter for {@code Double} objects.
  * @author Robert Moore
  *
  */
-public class DoubleConverter implements TypeConverter<Double> {
+public class DoubleConverter implements TypeConverter<Double>,
+    DoubleTypeConverter {
 
   /**
    * Returns a thread-safe instance of this converter.
@@ -47,17 +50,41 @@ public class DoubleConverter implements TypeConverter<Double> {
 	
 	@Override
 	public Double decode(byte[] data) {
-		ByteBuffer buff = ByteBuffer.wrap(data);
-		return Double.valueOf(buff.getDouble());
+		return Double.valueOf(this.decodeDouble(data, 0));
 	}
 
 	@Override
 	public byte[] encode(Double object) {
-		ByteBuffer buff = ByteBuffer.allocate(8);
-		buff.putDouble(object.doubleValue());
-		return buff.array();
+		byte[] encoded = new byte[ENCODED_LENGTH];
+		this.encodeDouble(object.doubleValue(), encoded, 0);
+		return encoded;
 	}
 	
+	@Override
+	public double decodeDouble(final byte[] data, final int offset) {
+		return Double.longBitsToDouble(LongConverter.get().decodeLong(data, offset));
+	}
+
+	@Override
+	public double decodeDouble(final IoBuffer buffer, final int index) {
+		return buffer.getDouble(index);
+	}
+
+	@Override
+	public double decodeDouble(final ByteBuffer buffer, final int index) {
+		return buffer.getDouble(index);
+	}
+
+	@Override
+	public void encodeDouble(final double value, final byte[] dest, final int offset) {
+		LongConverter.get().encodeLong(Double.doubleToRawLongBits(value), dest, offset);
+	}
+
+	@Override
+	public void encodeDouble(final double value, final IoBuffer buffer) {
+		buffer.putDouble(value);
+	}
+
 	@Override
 	public String getTypeName(){
 		return "Double";
@@ -20,12 +20,15 @@ package com.owlplatform.worldmodel.types;
 
 import java.nio.ByteBuffer;
 
+import org.apache.mina.core.buffer.IoBuffer;
+
 /**
  * Converter for {@code Integer} objects. 
  * @author Robert Moore
  *
  */
-public class IntegerConverter implements TypeConverter<Integer>{
+public class IntegerConverter implements TypeConverter<Integer>,
+    IntegerTypeConverter {
 
   /**
    * Returns a thread-safe instance of this converter.
@@ -47,15 +50,43 @@ public class IntegerConverter implements TypeConverter<Integer>{
 	
 	@Override
 	public Integer decode(byte[] data) {
-		ByteBuffer buff = ByteBuffer.wrap(data);
-		return Integer.valueOf(buff.getInt());
+		return Integer.valueOf(this.decodeInt(data, 0));
 	}
 
 	@Override
 	public byte[] encode(Integer object) {
-		ByteBuffer buff = ByteBuffer.allocate(4);
-		buff.putInt(object.intValue());
-		return buff.array();
+		byte[] encoded = new byte[ENCODED_LENGTH];
+		this.encodeInt(object.intValue(), encoded, 0);
+		return encoded;
+	}
+
+	@Override
+	public int decodeInt(final byte[] data, final int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+				| ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	@Override
+	public int decodeInt(final IoBuffer buffer, final int index) {
+		return buffer.getInt(index);
+	}
+
+	@Override
+	public int decodeInt(final ByteBuffer buffer, final int index) {
+		return buffer.getInt(index);
+	}
+
+	@Override
+	public void encodeInt(final int value, final byte[] dest, final int offset) {
+		dest[offset] = (byte) (value >>> 24);
+		dest[offset + 1] = (byte) (value >>> 16);
+		dest[offset + 2] = (byte) (value >>> 8);
+		dest[offset + 3] = (byte) value;
+	}
+
+	@Override
+	public void encodeInt(final int value, final IoBuffer buffer) {
+		buffer.putInt(value);
 	}
 
 	@Override
@@ -0,0 +1,77 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.types;
+
+import java.nio.ByteBuffer;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * A converter for {@code int} values that works on primitives, so values can
+ * be decoded and encoded without boxing or allocating intermediate buffers.
+ * @author Robert Moore
+ *
+ */
+public interface IntegerTypeConverter {
+
+  /**
+   * Length, in bytes, of an encoded {@code int}.
+   */
+  public static final int ENCODED_LENGTH = 4;
+
+  /**
+   * Decodes an {@code int} from a byte[].
+   * @param data the encoded value.
+   * @param offset the index of the first byte of the value.
+   * @return the decoded value.
+   */
+  int decodeInt(final byte[] data, final int offset);
+
+  /**
+   * Decodes an {@code int} from an {@code IoBuffer} without changing its position.
+   * @param buffer the buffer containing the encoded value.
+   * @param index the index of the first byte of the value.
+   * @return the decoded value.
+   */
+  int decodeInt(final IoBuffer buffer, final int index);
+
+  /**
+   * Decodes an {@code int} from a {@code ByteBuffer} without changing its position.
+   * @param buffer the buffer containing the encoded value.
+   * @param index the index of the first byte of the value.
+   * @return the decoded value.
+   */
+  int decodeInt(final ByteBuffer buffer, final int index);
+
+  /**
+   * Encodes an {@code int} into a byte[].
+   * @param value the value to encode.
+   * @param dest the array to encode into.
+   * @param offset the index of the first byte to write.
+   */
+  void encodeInt(final int value, final byte[] dest, final int offset);
+
+  /**
+   * Encodes an {@code int} at the current position of an {@code IoBuffer},
+   * advancing its position.
+   * @param value the value to encode.
+   * @param buffer the buffer to encode into.
+   */
+  void encodeInt(final int value, final IoBuffer buffer);
+}
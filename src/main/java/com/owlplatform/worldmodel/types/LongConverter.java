@@ -20,12 +20,15 @@ package com.owlplatform.worldmodel.types;
 
 import java.nio.ByteBuffer;
 
+import org.apache.mina.core.buffer.IoBuffer;
+
 /**
  * Converter for {@code Long} objects.
  * @author Robert Moore
  *
  */
-public class LongConverter implements TypeConverter<Long>{
+public class LongConverter implements TypeConverter<Long>,
+    LongTypeConverter {
 
   /**
    * Returns a thread-safe instance of this converter.
@@ -47,15 +50,47 @@ public class LongConverter implements TypeConverter<Long>{
 	
 	@Override
 	public Long decode(byte[] data) {
-		ByteBuffer buff = ByteBuffer.wrap(data);
-		return Long.valueOf(buff.getLong());
+		return Long.valueOf(this.decodeLong(data, 0));
 	}
 
 	@Override
 	public byte[] encode(Long object) {
-		ByteBuffer buff = ByteBuffer.allocate(8);
-		buff.putLong(object.longValue());
-		return buff.array();
+		byte[] encoded = new byte[ENCODED_LENGTH];
+		this.encodeLong(object.longValue(), encoded, 0);
+		return encoded;
+	}
+
+	@Override
+	public long decodeLong(final byte[] data, final int offset) {
+		return ((long) (data[offset] & 0xFF) << 56)
+				| ((long) (data[offset + 1] & 0xFF) << 48)
+				| ((long) (data[offset + 2] & 0xFF) << 40)
+				| ((long) (data[offset + 3] & 0xFF) << 32)
+				| ((long) (data[offset + 4] & 0xFF) << 24)
+				| ((data[offset + 5] & 0xFF) << 16)
+				| ((data[offset + 6] & 0xFF) << 8) | (data[offset + 7] & 0xFF);
+	}
+
+	@Override
+	public long decodeLong(final IoBuffer buffer, final int index) {
+		return buffer.getLong(index);
+	}
+
+	@Override
+	public long decodeLong(final ByteBuffer buffer, final int index) {
+		return buffer.getLong(index);
+	}
+
+	@Override
+	public void encodeLong(final long value, final byte[] dest, final int offset) {
+		for (int i = 7; i >= 0; --i) {
+			dest[offset + i] = (byte) (value >>> ((7 - i) * 8));
+		}
+	}
+
+	@Override
+	public void encodeLong(final long value, final IoBuffer buffer) {
+		buffer.putLong(value);
 	}
 
 	@Override
@@ -18,12 +18,6 @@
  */
 package com.owlplatform.worldmodel.types;
 
-import java.io.UnsupportedEncodingException;
-
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * Attribute converter for UTF16-BE strings.
  * @author Robert Moore
@@ -31,11 +25,6 @@ import org.slf4j.LoggerFactory;
  */
 public class StringConverter implements TypeConverter<String> {
 
-  /**
-   * Logger for this class.
-   */
-	private static final Logger log = LoggerFactory.getLogger(StringConverter.class);
-
 	/**
    * Returns a thread-safe instance of this converter.
    * @return a thread-safe instance of the converter.
@@ -56,22 +45,12 @@ public class StringConverter implements TypeConverter<String> {
 	
 	@Override
 	public String decode(byte[] data) {
-		try {
-			return new String(data,"UTF-16BE");
-		} catch (UnsupportedEncodingException e) {
-			log.error("Unable to decode UTF-16BE strings.",e);
-			return null;
-		}
+		return Utf16Codec.decode(data);
 	}
 
 	@Override
 	public byte[] encode(String object) {
-		try {
-			return object.getBytes("UTF-16BE");
-		} catch (UnsupportedEncodingException e) {
-			log.error("Unable to decode UTF-16BE strings.",e);
-			return null;
-		}
+		return Utf16Codec.encode(object);
 	}
 
 	@Override
@@ -0,0 +1,163 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.types;
+
+import java.nio.charset.Charset;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Encodes and decodes the UTF-16BE strings used for Identifiers, attribute
+ * names, origins and String attribute values throughout the world model
+ * protocol. Each Java {@code char} is written as-is as two big-endian bytes,
+ * so no {@code Charset} lookup, intermediate array or checked exception is
+ * involved, and the encoded length of a String is always twice its
+ * {@link String#length()}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public final class Utf16Codec {
+
+  /**
+   * The UTF-16BE character set, used only to decode byte sequences of odd
+   * length.
+   */
+  public static final Charset CHARSET = Charset.forName("UTF-16BE");
+
+  /**
+   * Empty byte array returned when encoding an empty String.
+   */
+  private static final byte[] EMPTY_BYTES = new byte[0];
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Utf16Codec() {
+    super();
+  }
+
+  /**
+   * Returns the number of bytes needed to encode a String.
+   * 
+   * @param string
+   *          the String to measure, may be {@code null}.
+   * @return the encoded length of {@code string}, or 0 if it is {@code null}.
+   */
+  public static int length(final String string) {
+    return string == null ? 0 : string.length() << 1;
+  }
+
+  /**
+   * Encodes a String into a new byte[].
+   * 
+   * @param string
+   *          the String to encode.
+   * @return the UTF-16BE encoded String.
+   */
+  public static byte[] encode(final String string) {
+    final int length = string.length();
+    if (length == 0) {
+      return EMPTY_BYTES;
+    }
+    final byte[] encoded = new byte[length << 1];
+    for (int i = 0, j = 0; i < length; ++i, j += 2) {
+      final char c = string.charAt(i);
+      // ASCII only needs the low byte, the array is already zeroed
+      if (c >= 0x80) {
+        encoded[j] = (byte) (c >>> 8);
+      }
+      encoded[j + 1] = (byte) c;
+    }
+    return encoded;
+  }
+
+  /**
+   * Writes a String at the current position of a buffer, advancing its
+   * position by {@link #length(String)} bytes.
+   * 
+   * @param string
+   *          the String to write.
+   * @param buffer
+   *          the buffer to write into.
+   */
+  public static void put(final String string, final IoBuffer buffer) {
+    final int length = string.length();
+    for (int i = 0; i < length; ++i) {
+      buffer.putChar(string.charAt(i));
+    }
+  }
+
+  /**
+   * Decodes an entire byte[] into a String.
+   * 
+   * @param data
+   *          the UTF-16BE encoded String.
+   * @return the decoded String.
+   */
+  public static String decode(final byte[] data) {
+    return decode(data, 0, data.length);
+  }
+
+  /**
+   * Decodes part of a byte[] into a String.
+   * 
+   * @param data
+   *          the array containing the encoded String.
+   * @param offset
+   *          the index of the first byte of the String.
+   * @param length
+   *          the number of bytes in the encoded String.
+   * @return the decoded String.
+   */
+  public static String decode(final byte[] data, final int offset,
+      final int length) {
+    if ((length & 1) != 0) {
+      return new String(data, offset, length, CHARSET);
+    }
+    final char[] chars = new char[length >> 1];
+    for (int i = 0, j = offset; i < chars.length; ++i, j += 2) {
+      chars[i] = (char) (((data[j] & 0xFF) << 8) | (data[j + 1] & 0xFF));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Reads a String from the current position of a buffer, advancing its
+   * position by {@code length} bytes.
+   * 
+   * @param buffer
+   *          the buffer to read from.
+   * @param length
+   *          the number of bytes in the encoded String.
+   * @return the decoded String.
+   */
+  public static String get(final IoBuffer buffer, final int length) {
+    if ((length & 1) != 0) {
+      final byte[] data = new byte[length];
+      buffer.get(data);
+      return new String(data, CHARSET);
+    }
+    final char[] chars = new char[length >> 1];
+    for (int i = 0; i < chars.length; ++i) {
+      chars[i] = buffer.getChar();
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.types;
+
+import java.nio.charset.Charset;
+
+/**
+ * Compact attribute converter for Strings encoded as UTF-8. Mostly-ASCII values
+ * such as Identifiers and URIs take half the space of the standard UTF-16BE
+ * encoding used by {@link StringConverter}. This is not a standard world model
+ * type, so it is only used for Attributes explicitly mapped to it with
+ * {@code DataConverter.putConverter(attributeName, "UTF8String")} by both the
+ * solver and its clients.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class Utf8StringConverter implements TypeConverter<String> {
+
+  /**
+   * The UTF-8 character set.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Returns a thread-safe instance of this converter.
+   * 
+   * @return a thread-safe instance of the converter.
+   */
+  public static Utf8StringConverter get() {
+    return THE_ONE;
+  }
+
+  /**
+   * Singleton instance of the converter.
+   */
+  private static final Utf8StringConverter THE_ONE = new Utf8StringConverter();
+
+  /**
+   * Private constructor to prevent external instantiation.
+   */
+  private Utf8StringConverter() {
+    super();
+  }
+
+  @Override
+  public String decode(byte[] data) {
+    return new String(data, UTF8);
+  }
+
+  @Override
+  public byte[] encode(String object) {
+    return object.getBytes(UTF8);
+  }
+
+  @Override
+  public String getTypeName() {
+    return "UTF8String";
+  }
+
+  @Override
+  public String decode(String asString) {
+    return asString;
+  }
+
+  @Override
+  public String asString(String object) {
+    return object;
+  }
+}
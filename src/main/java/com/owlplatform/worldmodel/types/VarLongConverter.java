@@ -0,0 +1,164 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.types;
+
+/**
+ * Compact converter for {@code Long} objects, encoded as a zig-zag variable
+ * length integer: 7 bits per byte, least significant group first, with the
+ * high bit set on every byte but the last. Values between -64 and 63 take a
+ * single byte, and counters or small offsets rarely need more than 3 bytes
+ * instead of the 8 used by {@link LongConverter}. This is not a standard world
+ * model type, so it is only used for Attributes explicitly mapped to it with
+ * {@code DataConverter.putConverter(attributeName, "VarLong")}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class VarLongConverter implements TypeConverter<Long> {
+
+  /**
+   * Maximum number of bytes in an encoded value.
+   */
+  static final int MAX_ENCODED_LENGTH = 10;
+
+  /**
+   * Returns a thread-safe instance of this converter.
+   * 
+   * @return a thread-safe instance of the converter.
+   */
+  public static VarLongConverter get() {
+    return THE_ONE;
+  }
+
+  /**
+   * Singleton instance.
+   */
+  private static final VarLongConverter THE_ONE = new VarLongConverter();
+
+  /**
+   * Private constructor to prevent external instantiation.
+   */
+  private VarLongConverter() {
+    super();
+  }
+
+  @Override
+  public Long decode(byte[] data) {
+    long value = 0;
+    int shift = 0;
+    for (int i = 0; i < data.length && i < MAX_ENCODED_LENGTH; ++i) {
+      value |= (long) (data[i] & 0x7F) << shift;
+      if ((data[i] & 0x80) == 0) {
+        return Long.valueOf(unZigZag(value));
+      }
+      shift += 7;
+    }
+    throw new IllegalArgumentException("Malformed variable-length value.");
+  }
+
+  @Override
+  public byte[] encode(Long object) {
+    long zigZagged = zigZag(object.longValue());
+    byte[] encoded = new byte[encodedLength(zigZagged)];
+    put(zigZagged, encoded, 0);
+    return encoded;
+  }
+
+  /**
+   * Maps signed values to unsigned values so that values of small magnitude
+   * have few significant bits.
+   * 
+   * @param value
+   *          a signed value.
+   * @return the zig-zag encoded value.
+   */
+  static long zigZag(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Reverses {@link #zigZag(long)}.
+   * 
+   * @param value
+   *          a zig-zag encoded value.
+   * @return the signed value.
+   */
+  static long unZigZag(final long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Returns the number of bytes needed to encode an unsigned value.
+   * 
+   * @param value
+   *          the (zig-zag encoded) value.
+   * @return the number of bytes needed.
+   */
+  static int encodedLength(final long value) {
+    int length = 1;
+    long remaining = value >>> 7;
+    while (remaining != 0) {
+      ++length;
+      remaining >>>= 7;
+    }
+    return length;
+  }
+
+  /**
+   * Writes an unsigned value as a variable-length integer.
+   * 
+   * @param value
+   *          the (zig-zag encoded) value.
+   * @param dest
+   *          the array to write into.
+   * @param offset
+   *          the index of the first byte to write.
+   * @return the index after the last byte written.
+   */
+  static int put(final long value, final byte[] dest, final int offset) {
+    int index = offset;
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      dest[index++] = (byte) ((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    dest[index++] = (byte) remaining;
+    return index;
+  }
+
+  @Override
+  public String getTypeName() {
+    return "VarLong";
+  }
+
+  @Override
+  public Long decode(String asString) {
+    return Long.valueOf(asString);
+  }
+
+  @Override
+  public byte[] encode(String asString) {
+    return this.encode(this.decode(asString));
+  }
+
+  @Override
+  public String asString(Long object) {
+    return object.toString();
+  }
+}
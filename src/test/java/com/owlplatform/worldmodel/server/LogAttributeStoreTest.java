@@ -0,0 +1,186 @@
+/*
+ * Owl Platform World Model Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.worldmodel.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.owlplatform.worldmodel.Attribute;
+
+/**
+ * Tests that compaction and replay of a {@link LogAttributeStore} keep the
+ * values that are still live.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LogAttributeStoreTest {
+
+  /**
+   * Segment size small enough that the test records span several segments.
+   */
+  private static final int SEGMENT_SIZE = 512;
+
+  /**
+   * The log directory.
+   */
+  private File directory;
+
+  /**
+   * The store under test.
+   */
+  private LogAttributeStore store;
+
+  /**
+   * Opens a store in a new temporary directory.
+   * 
+   * @throws IOException
+   *           if the directory or store cannot be created.
+   */
+  @Before
+  public void setUp() throws IOException {
+    this.directory = File.createTempFile("log-store", "");
+    if (!this.directory.delete() || !this.directory.mkdir()) {
+      throw new IOException("Unable to create " + this.directory + ".");
+    }
+    this.store = new LogAttributeStore(this.directory, SEGMENT_SIZE, 0);
+  }
+
+  /**
+   * Closes the store and removes its directory.
+   */
+  @After
+  public void tearDown() {
+    this.store.close();
+    File[] files = this.directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    this.directory.delete();
+  }
+
+  /**
+   * An Attribute that is deleted and then added again in the oldest segment
+   * must survive repeated compactions and a restart.
+   * 
+   * @throws IOException
+   *           if the log cannot be compacted or reopened.
+   */
+  @Test
+  public void testReaddedAttributeSurvivesCompaction() throws IOException {
+    this.store.updateAttribute(value("x", 1, 1), true);
+    this.store.deleteAttribute("x", "value", "test");
+    this.store.updateAttribute(value("x", 2, 2), true);
+    // Seal the segment holding the records above
+    for (int i = 0; i < 20; ++i) {
+      this.store.updateAttribute(value("filler", 10 + i, i), true);
+    }
+
+    this.assertReadded();
+    this.store.compact();
+    this.assertReadded();
+    this.store.compact();
+    this.assertReadded();
+
+    this.store.close();
+    this.store = new LogAttributeStore(this.directory, SEGMENT_SIZE, 0);
+    this.assertReadded();
+  }
+
+  /**
+   * A segment whose values have all been deleted must be removed by
+   * compaction, even though it defines attribute name and origin aliases.
+   * 
+   * @throws IOException
+   *           if the log cannot be compacted.
+   */
+  @Test
+  public void testDeletedSegmentIsRemoved() throws IOException {
+    for (int i = 0; i < 10; ++i) {
+      this.store.updateAttribute(value("x", 1 + i, i), true);
+    }
+    this.store.deleteAttribute("x", "value", "test");
+    // Seal the segment holding the deletion
+    for (int i = 0; i < 10; ++i) {
+      this.store.updateAttribute(value("filler", 20 + i, i), true);
+    }
+
+    File first = LogSegment.fileFor(this.directory, 0);
+    assertTrue(first.exists());
+    this.store.compact();
+    assertFalse(first.exists());
+    assertTrue(this.store.getRange("x", new String[] { ".*" }, 0, 0)
+        .isEmpty());
+  }
+
+  /**
+   * Checks that only the re-added value of "x" is returned by snapshots and
+   * range requests.
+   */
+  private void assertReadded() {
+    Map<String, Collection<Attribute>> snapshot = this.store.getSnapshot("x",
+        new String[] { ".*" }, 0, 0);
+    assertEquals(1, snapshot.get("x").size());
+    assertEquals(2, snapshot.get("x").iterator().next().getCreationDate());
+
+    List<Attribute> range = this.store.getRange("x", new String[] { ".*" }, 0,
+        0);
+    assertEquals(1, range.size());
+    assertEquals(2, range.get(0).getCreationDate());
+  }
+
+  /**
+   * Creates a Long-valued Attribute.
+   * 
+   * @param identifier
+   *          the Identifier.
+   * @param creationDate
+   *          the creation time.
+   * @param data
+   *          the value.
+   * @return the new Attribute.
+   */
+  private static Attribute value(final String identifier,
+      final long creationDate, final long data) {
+    Attribute value = new Attribute();
+    value.setId(identifier);
+    value.setAttributeName("value");
+    value.setOriginName("test");
+    value.setCreationDate(creationDate);
+    byte[] bytes = new byte[8];
+    for (int i = 0; i < 8; ++i) {
+      bytes[i] = (byte) (data >>> (56 - 8 * i));
+    }
+    value.setData(bytes);
+    return value;
+  }
+}